@@ -62,6 +62,11 @@ public class AccessStaticViaInstance extends BaseJavaLocalInspectionTool {
     return true;
   }
 
+  @Override
+  public boolean canInspectInChunks() {
+    return true;
+  }
+
   @NotNull
   public PsiElementVisitor buildVisitor(@NotNull final ProblemsHolder holder, final boolean isOnTheFly) {
     return new JavaElementVisitor() {
@@ -76,6 +76,11 @@ public class DeprecationInspection extends BaseJavaLocalInspectionTool {
     return true;
   }
 
+  @Override
+  public boolean canInspectInChunks() {
+    return true;
+  }
+
   @Override
   public JComponent createOptionsPanel() {
     final MultipleCheckboxOptionsPanel panel = new MultipleCheckboxOptionsPanel(this);
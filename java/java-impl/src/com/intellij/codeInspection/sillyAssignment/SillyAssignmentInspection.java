@@ -51,6 +51,11 @@ public class SillyAssignmentInspection extends BaseJavaLocalInspectionTool {
     return true;
   }
 
+  @Override
+  public boolean canInspectInChunks() {
+    return true;
+  }
+
   @NotNull
   public PsiElementVisitor buildVisitor(@NotNull final ProblemsHolder holder, boolean isOnTheFly) {
     return new JavaElementVisitor() {
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.daemon;
+
+import com.intellij.codeInsight.daemon.impl.HighlightInfo;
+import com.intellij.codeInsight.daemon.impl.LocalInspectionsPass;
+import com.intellij.codeInspection.LocalInspectionTool;
+import com.intellij.codeInspection.ProblemsHolder;
+import com.intellij.codeInspection.sillyAssignment.SillyAssignmentInspection;
+import com.intellij.lang.annotation.HighlightSeverity;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.registry.RegistryValue;
+import com.intellij.psi.JavaElementVisitor;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.PsiLiteralExpression;
+import org.jetbrains.annotations.Nls;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that an inspection which allows its elements to be split between several visitors reports the same problems either way.
+ */
+public class InspectionInChunksTest extends LightDaemonAnalyzerTestCase {
+  private static final int MIN_CHUNK_SIZE = 50;
+  private static final int CHUNKS_COUNT = 4;
+
+  private final AtomicInteger myVisitorsCount = new AtomicInteger();
+  private final AtomicInteger mySillyAssignmentVisitorsCount = new AtomicInteger();
+
+  @Override
+  protected LocalInspectionTool[] configureLocalInspectionTools() {
+    return new LocalInspectionTool[]{new LocalInspectionTool() {
+      @Override
+      @Nls
+      @NotNull
+      public String getGroupDisplayName() {
+        return "MyGroup";
+      }
+
+      @Override
+      @Nls
+      @NotNull
+      public String getDisplayName() {
+        return "StringContainsA";
+      }
+
+      @Override
+      @NonNls
+      @NotNull
+      public String getShortName() {
+        return getDisplayName();
+      }
+
+      @Override
+      public boolean canInspectInChunks() {
+        return true;
+      }
+
+      @Override
+      @NotNull
+      public PsiElementVisitor buildVisitor(@NotNull final ProblemsHolder holder, boolean isOnTheFly) {
+        myVisitorsCount.incrementAndGet();
+        return new JavaElementVisitor() {
+          @Override
+          public void visitLiteralExpression(PsiLiteralExpression expression) {
+            Object value = expression.getValue();
+            if (value instanceof String && ((String)value).contains("a")) {
+              holder.registerProblem(expression, "String contains 'a'");
+            }
+          }
+        };
+      }
+    }, new SillyAssignmentInspection() {
+      @NotNull
+      @Override
+      public PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
+        mySillyAssignmentVisitorsCount.incrementAndGet();
+        return super.buildVisitor(holder, isOnTheFly);
+      }
+    }};
+  }
+
+  public void testChunkedAndUnchunkedResultsAreEqual() throws Exception {
+    StringBuilder text = new StringBuilder("class Chunks {\n");
+    for (int i = 0; i < 1000; i++) {
+      text.append("  String a").append(i).append(" = \"a").append(i).append("\";\n");
+      text.append("  String b").append(i).append(" = \"b").append(i).append("\";\n");
+    }
+    text.append("}");
+
+    List<String> unchunked = highlight(text.toString(), 0);
+    int unchunkedVisitors = myVisitorsCount.getAndSet(0);
+
+    List<String> chunked = highlight(text.toString(), MIN_CHUNK_SIZE);
+    assertTrue(unchunkedVisitors + " " + myVisitorsCount.get(), myVisitorsCount.get() > unchunkedVisitors);
+
+    assertEquals(1000, unchunked.size());
+    assertEquals(unchunked, chunked);
+  }
+
+  public void testSillyAssignmentInspectsBigFileInChunks() throws Exception {
+    StringBuilder text = new StringBuilder("class Chunks {\n");
+    for (int i = 0; i < 300; i++) {
+      text.append("  void m").append(i).append("(int p) {\n");
+      text.append("    int v = p;\n");
+      text.append("    v = v;\n");
+      text.append("    p = v;\n");
+      text.append("  }\n");
+    }
+    text.append("}");
+
+    List<String> unchunked = highlight(text.toString(), 0);
+    int unchunkedVisitors = mySillyAssignmentVisitorsCount.getAndSet(0);
+
+    List<String> chunked = highlight(text.toString(), MIN_CHUNK_SIZE);
+    assertTrue(unchunkedVisitors + " " + mySillyAssignmentVisitorsCount.get(), mySillyAssignmentVisitorsCount.get() > unchunkedVisitors);
+
+    assertEquals(300, unchunked.size());
+    assertEquals(unchunked, chunked);
+  }
+
+  /**
+   * @param minChunkSize the minimal number of elements in a chunk, 0 to visit all elements of the file by one visitor.
+   */
+  private List<String> highlight(String text, int minChunkSize) throws Exception {
+    RegistryValue minChunkSizeValue = Registry.get("daemon.inspections.min.chunk.size");
+    int oldMinChunkSize = minChunkSizeValue.asInteger();
+    int oldChunksCount = LocalInspectionsPass.setChunksCount(CHUNKS_COUNT);
+    try {
+      minChunkSizeValue.setValue(minChunkSize);
+      configureFromFileText("Chunks.java", text);
+      List<String> result = new ArrayList<String>();
+      for (HighlightInfo info : doHighlighting(HighlightSeverity.WARNING)) {
+        result.add(info.startOffset + ":" + info.endOffset + ":" + info.description);
+      }
+      Collections.sort(result);
+      return result;
+    }
+    finally {
+      LocalInspectionsPass.setChunksCount(oldChunksCount);
+      minChunkSizeValue.setValue(oldMinChunkSize);
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.daemon.impl;
+
+import com.intellij.codeHighlighting.Pass;
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.codeInsight.daemon.LightDaemonAnalyzerTestCase;
+import com.intellij.codeInspection.LocalInspectionTool;
+import com.intellij.codeInspection.accessStaticViaInstance.AccessStaticViaInstance;
+import com.intellij.codeInspection.sillyAssignment.SillyAssignmentInspection;
+import com.intellij.lang.annotation.HighlightSeverity;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.impl.DocumentMarkupModel;
+import com.intellij.openapi.editor.markup.EffectType;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.registry.RegistryValue;
+import com.intellij.psi.PsiDocumentManager;
+
+import java.awt.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Saves the highlighting of a file with {@link HighlightingCache} and restores it into the same document.
+ */
+public class HighlightingCacheTest extends LightDaemonAnalyzerTestCase {
+  private static final String TEXT = "class Cached {\n" +
+                                     "  int i;\n" +
+                                     "  void f() {\n" +
+                                     "    i = i;\n" +
+                                     "    String s = 1;\n" +
+                                     "  }\n" +
+                                     "}";
+
+  private File myDir;
+  private HighlightingCache myCache;
+  private RegistryValue myEnabled;
+  private boolean myWasEnabled;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    // the cache of the daemon itself must not restore anything in the middle of a test
+    myEnabled = Registry.get("daemon.highlighting.cache");
+    myWasEnabled = myEnabled.asBoolean();
+    myEnabled.setValue(false);
+    myDir = FileUtil.createTempDirectory("highlighting", "");
+    myCache = new HighlightingCache(getProject(), (DaemonCodeAnalyzerImpl)DaemonCodeAnalyzer.getInstance(getProject()),
+                                    new File(myDir, "infos"));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      Disposer.dispose(myCache);
+      FileUtil.delete(myDir);
+      myEnabled.setValue(myWasEnabled);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  @Override
+  protected LocalInspectionTool[] configureLocalInspectionTools() {
+    return new LocalInspectionTool[]{new SillyAssignmentInspection()};
+  }
+
+  public void testSameTextRestoresTheSameHighlighting() throws Exception {
+    List<String> saved = highlightAndSave();
+    assertTrue(saved.toString(), saved.size() >= 2);
+
+    assertEquals(saved, restore());
+  }
+
+  public void testChangedTextRestoresNothing() throws Exception {
+    highlightAndSave();
+    type(' ');
+    PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+
+    assertEmpty(restore());
+  }
+
+  public void testAnotherProfileRestoresNothing() throws Exception {
+    highlightAndSave();
+    enableInspectionTool(new AccessStaticViaInstance());
+
+    assertEmpty(restore());
+  }
+
+  public void testForcedTextAttributesAreRestored() throws Exception {
+    configureFromFileText("Cached.java", "class Cached {}");
+    doHighlighting();
+    Document document = getEditor().getDocument();
+    TextAttributes attributes = new TextAttributes(Color.red, null, Color.blue, EffectType.WAVE_UNDERSCORE, Font.BOLD);
+    attributes.setErrorStripeColor(Color.green);
+    HighlightInfo info = new HighlightInfo(attributes, null, HighlightInfoType.INFORMATION, 0, 5, "forced", "forced",
+                                           HighlightSeverity.INFORMATION, false, null, false);
+    UpdateHighlightersUtil.setHighlightersToEditor(getProject(), document, 0, document.getTextLength(), Collections.singletonList(info),
+                                                   Pass.UPDATE_ALL);
+    myCache.save(getFile(), document);
+    myCache.waitForPendingTasks();
+
+    DocumentMarkupModel.forDocument(document, getProject(), true).removeAllHighlighters();
+    myCache.restore(getFile(), document);
+    myCache.waitForPendingTasks();
+
+    List<HighlightInfo> restored = DaemonCodeAnalyzerImpl.getHighlights(document, null, getProject());
+    assertEquals(1, restored.size());
+    assertEquals("forced", restored.get(0).description);
+    assertEquals(attributes, restored.get(0).forcedTextAttributes);
+    assertEquals(Color.green, restored.get(0).forcedTextAttributes.getErrorStripeColor());
+  }
+
+  private List<String> highlightAndSave() throws Exception {
+    configureFromFileText("Cached.java", TEXT);
+    doHighlighting();
+    Document document = getEditor().getDocument();
+    assertTrue(((DaemonCodeAnalyzerImpl)DaemonCodeAnalyzer.getInstance(getProject())).isAllAnalysisFinished(getFile()));
+    List<String> highlights = getCachedHighlights(document);
+
+    myCache.save(getFile(), document);
+    myCache.waitForPendingTasks();
+    DocumentMarkupModel.forDocument(document, getProject(), true).removeAllHighlighters();
+    assertEmpty(getCachedHighlights(document));
+    return highlights;
+  }
+
+  private List<String> restore() throws Exception {
+    Document document = getEditor().getDocument();
+    myCache.restore(getFile(), document);
+    myCache.waitForPendingTasks();
+    return getCachedHighlights(document);
+  }
+
+  private List<String> getCachedHighlights(Document document) {
+    List<String> result = new ArrayList<String>();
+    for (HighlightInfo info : DaemonCodeAnalyzerImpl.getHighlights(document, null, getProject())) {
+      if (info.group == Pass.UPDATE_ALL || info.group == Pass.LOCAL_INSPECTIONS) {
+        result.add(info.group + ":" + info.startOffset + ":" + info.endOffset + ":" + info.severity + ":" + info.description);
+      }
+    }
+    Collections.sort(result);
+    return result;
+  }
+}
@@ -4,7 +4,10 @@
 package com.intellij.psi;
 
 import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.psi.impl.DebugUtil;
+import com.intellij.psi.impl.source.text.ReparseStatistics;
 import com.intellij.testFramework.LightCodeInsightTestCase;
 
 public class TreeIsCorrectAfterDiffReparseTest extends LightCodeInsightTestCase {
@@ -1094,4 +1097,43 @@ public class TreeIsCorrectAfterDiffReparseTest extends LightCodeInsightTestCase
       DebugUtil.CHECK = old;
     }
   }
+
+  public void testRelexOnlyChangedPart() throws Exception {
+    final boolean relexing = Registry.is("psi.incremental.relexing");
+    Registry.get("psi.incremental.relexing").setValue(true);
+    try {
+      doTestRelexOnlyChangedPart();
+    }
+    finally {
+      Registry.get("psi.incremental.relexing").setValue(relexing);
+    }
+  }
+
+  private void doTestRelexOnlyChangedPart() throws Exception {
+    StringBuilder text = new StringBuilder("class Foo {\n");
+    for (int i = 0; i < 1000; i++) {
+      text.append("  int field").append(i).append(" = ").append(i).append(";\n");
+    }
+    text.append("}");
+    configureFromFileText("Foo.java", text.toString());
+
+    final PsiDocumentManager docManager = PsiDocumentManager.getInstance(ourProject);
+    final Document doc = docManager.getDocument(myFile);
+    ReparseStatistics.reset();
+    int offset = text.indexOf("  int field500");
+    for (String insertion : new String[]{"  String s = \"abc\";\n", "/*", "*/", "  void foo() {}\n", "int x;"}) {
+      doc.insertString(offset, insertion);
+      offset += insertion.length();
+      docManager.commitAllDocuments();
+
+      PsiFile expected = PsiFileFactory.getInstance(ourProject).createFileFromText("Foo.java", StdFileTypes.JAVA, doc.getText());
+      assertEquals(DebugUtil.psiToString(expected, false), DebugUtil.psiToString(myFile, false));
+    }
+
+    long reused = 0;
+    for (ReparseStatistics.Counters counters : ReparseStatistics.getCounters()) {
+      reused += counters.getReusedCount();
+    }
+    assertTrue(reused > 0);
+  }
 }
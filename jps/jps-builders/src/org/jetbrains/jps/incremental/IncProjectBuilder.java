@@ -6,7 +6,6 @@ import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.concurrency.BoundedTaskExecutor;
 import com.intellij.util.containers.ConcurrentHashSet;
-import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.MultiMap;
 import com.intellij.util.containers.MultiMapBasedOnSet;
 import com.intellij.util.io.MappingFailedException;
@@ -48,9 +47,9 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Eugene Zhuravlev
@@ -91,7 +90,8 @@ public class IncProjectBuilder {
   private volatile float myTargetsProcessed = 0.0f;
   private final float myTotalTargetsWork;
   private final int myTotalModuleLevelBuilderCount;
-  private final List<Future> myAsyncTasks = new ArrayList<Future>();
+  private final List<Future> myAsyncTasks = Collections.synchronizedList(new ArrayList<Future>());
+  private boolean myParallelBuild = BuildRunner.PARALLEL_BUILD_ENABLED;
 
   public IncProjectBuilder(ProjectDescriptor pd, BuilderRegistry builderRegistry, Map<String, String> builderParams, CanceledStatus cs,
                            @Nullable Callbacks.ConstantAffectionResolver constantSearch) {
@@ -108,6 +108,13 @@ public class IncProjectBuilder {
     myMessageHandlers.add(handler);
   }
 
+  /**
+   * @param parallelBuild whether independent chunks are built concurrently, by default the compile.parallel option is used
+   */
+  public void setParallelBuild(boolean parallelBuild) {
+    myParallelBuild = parallelBuild;
+  }
+
   public void checkUpToDate(CompileScope scope) {
     CompileContextImpl context = null;
     try {
@@ -245,7 +252,7 @@ public class IncProjectBuilder {
              "; isMake:" +
              context.isMake() +
              " parallel compilation:" +
-             BuildRunner.PARALLEL_BUILD_ENABLED);
+             myParallelBuild);
 
     for (TargetBuilder builder : myBuilderRegistry.getTargetBuilders()) {
       builder.buildStarted(context);
@@ -441,77 +448,9 @@ public class IncProjectBuilder {
     final ProjectDescriptor pd = context.getProjectDescriptor();
     BuildTargetIndex targetIndex = pd.getBuildTargetIndex();
     try {
-      if (BuildRunner.PARALLEL_BUILD_ENABLED) {
-        final List<ChunkGroup> chunkGroups = buildChunkGroups(targetIndex);
-        for (ChunkGroup group : chunkGroups) {
-          final List<BuildTargetChunk> groupChunks = group.getChunks();
-          final int chunkCount = groupChunks.size();
-          if (chunkCount == 0) {
-            continue;
-          }
-          try {
-            if (chunkCount == 1) {
-              buildChunkIfAffected(createContextWrapper(context), scope, groupChunks.iterator().next());
-            }
-            else {
-              final CountDownLatch latch = new CountDownLatch(chunkCount);
-              final Ref<Throwable> exRef = new Ref<Throwable>(null);
-
-              if (LOG.isDebugEnabled()) {
-                final StringBuilder logBuilder = new StringBuilder("Building chunks in parallel: ");
-                for (BuildTargetChunk chunk : groupChunks) {
-                  logBuilder.append(chunk.toString()).append("; ");
-                }
-                LOG.debug(logBuilder.toString());
-              }
-
-              for (final BuildTargetChunk chunk : groupChunks) {
-                final CompileContext chunkLocalContext = createContextWrapper(context);
-                myParallelBuildExecutor.execute(new Runnable() {
-                  @Override
-                  public void run() {
-                    try {
-                      buildChunkIfAffected(chunkLocalContext, scope, chunk);
-                    }
-                    catch (Throwable e) {
-                      synchronized (exRef) {
-                        if (exRef.isNull()) {
-                          exRef.set(e);
-                        }
-                      }
-                      LOG.info(e);
-                    }
-                    finally {
-                      latch.countDown();
-                    }
-                  }
-                });
-              }
-
-              try {
-                latch.await();
-              }
-              catch (InterruptedException e) {
-                LOG.info(e);
-              }
-
-              final Throwable exception = exRef.get();
-              if (exception != null) {
-                if (exception instanceof ProjectBuildException) {
-                  throw (ProjectBuildException)exception;
-                }
-                else {
-                  throw new ProjectBuildException(exception);
-                }
-              }
-            }
-          }
-          finally {
-            context.updateCompilationStartStamp();
-            pd.dataManager.closeSourceToOutputStorages(groupChunks);
-            pd.dataManager.flush(true);
-          }
-        }
+      if (myParallelBuild) {
+        new ParallelChunksBuilder(context, targetIndex).build();
+        context.updateCompilationStartStamp();
       }
       else {
         // non-parallel build
@@ -582,7 +521,7 @@ public class IncProjectBuilder {
     return true;
   }
 
-  private void updateDoneFraction(CompileContext context, final float delta) {
+  private synchronized void updateDoneFraction(CompileContext context, final float delta) {
     myTargetsProcessed += delta;
     float processed = myTargetsProcessed;
     context.setDone(processed / myTotalTargetsWork);
@@ -942,59 +881,155 @@ public class IncProjectBuilder {
     }
   }
 
-  private static List<ChunkGroup> buildChunkGroups(BuildTargetIndex index) {
-    final List<BuildTargetChunk> allChunks = index.getSortedTargetChunks();
+  private static void onChunkBuildComplete(CompileContext context, @NotNull BuildTargetChunk chunk) throws IOException {
+    final ProjectDescriptor pd = context.getProjectDescriptor();
+    final BuildFSState fsState = pd.fsState;
+    fsState.clearContextRoundData(context);
+    fsState.clearContextChunk(context);
 
-    // building aux dependencies map
-    final Map<BuildTarget<?>, Set<BuildTarget<?>>> depsMap = new HashMap<BuildTarget<?>, Set<BuildTarget<?>>>();
-    for (BuildTarget target : index.getAllTargets()) {
-      depsMap.put(target, index.getDependenciesRecursively(target));
-    }
+    BuildOperations.markTargetsUpToDate(context, chunk);
+  }
 
-    final List<ChunkGroup> groups = new ArrayList<ChunkGroup>();
-    ChunkGroup currentGroup = new ChunkGroup();
-    groups.add(currentGroup);
-    for (BuildTargetChunk chunk : allChunks) {
-      if (dependsOnGroup(chunk, currentGroup, depsMap)) {
-        currentGroup = new ChunkGroup();
-        groups.add(currentGroup);
+  /**
+   * Starts building a chunk as soon as all the chunks it depends on are built, so independent parts of the dependency graph are
+   * built concurrently; the number of threads is limited by the compile.parallel.max.threads option. Every chunk is built with its
+   * own context wrapper, so messages of a target come in the order they are reported. After a failure or cancellation no more chunks
+   * are started, the build waits for the running ones and rethrows the first exception.
+   * <p/>
+   * The compilation start stamp is kept per chunk by its context wrapper: a chunk finished earlier must not move the stamp of a chunk
+   * still being compiled, otherwise changes made during its compilation would be considered compiled. Memory caches are flushed only
+   * when no chunk is being built.
+   */
+  private class ParallelChunksBuilder {
+    private final CompileContextImpl myContext;
+    private final List<ChunkTask> myReadyTasks = new ArrayList<ChunkTask>();
+    private final Object myLock = new Object();
+    private int myTasksInProgress; // guarded by myLock
+    private Throwable myException; // guarded by myLock
+
+    private ParallelChunksBuilder(CompileContextImpl context, BuildTargetIndex targetIndex) {
+      myContext = context;
+
+      final Map<BuildTarget<?>, ChunkTask> targetToTask = new HashMap<BuildTarget<?>, ChunkTask>();
+      final List<ChunkTask> tasks = new ArrayList<ChunkTask>();
+      for (BuildTargetChunk chunk : targetIndex.getSortedTargetChunks()) {
+        final ChunkTask task = new ChunkTask(chunk);
+        tasks.add(task);
+        for (BuildTarget<?> target : chunk.getTargets()) {
+          targetToTask.put(target, task);
+        }
+      }
+      for (ChunkTask task : tasks) {
+        for (BuildTarget<?> target : task.myChunk.getTargets()) {
+          for (BuildTarget<?> dependency : targetIndex.getDependencies(target)) {
+            final ChunkTask dependencyTask = targetToTask.get(dependency);
+            if (dependencyTask != null && dependencyTask != task && dependencyTask.myDependentTasks.add(task)) {
+              task.myNotBuiltDependencies++;
+            }
+          }
+        }
+        if (task.myNotBuiltDependencies == 0) {
+          myReadyTasks.add(task);
+        }
       }
-      currentGroup.addChunk(chunk);
     }
-    return groups;
-  }
 
+    public void build() throws ProjectBuildException {
+      synchronized (myLock) {
+        for (ChunkTask task : myReadyTasks) {
+          submit(task);
+        }
+        myReadyTasks.clear();
 
-  private static boolean dependsOnGroup(BuildTargetChunk chunk, ChunkGroup group, Map<BuildTarget<?>, Set<BuildTarget<?>>> depsMap) {
-    for (BuildTargetChunk groupChunk : group.getChunks()) {
-      final Set<? extends BuildTarget<?>> groupChunkTargets = groupChunk.getTargets();
-      for (BuildTarget<?> target : chunk.getTargets()) {
-        if (ContainerUtil.intersects(depsMap.get(target), groupChunkTargets)) {
-          return true;
+        while (myTasksInProgress > 0) {
+          try {
+            myLock.wait();
+          }
+          catch (InterruptedException e) {
+            LOG.info(e);
+          }
+        }
+
+        if (myException instanceof ProjectBuildException) {
+          throw (ProjectBuildException)myException;
+        }
+        if (myException != null) {
+          throw new ProjectBuildException(myException);
         }
       }
     }
-    return false;
-  }
 
-  private static void onChunkBuildComplete(CompileContext context, @NotNull BuildTargetChunk chunk) throws IOException {
-    final ProjectDescriptor pd = context.getProjectDescriptor();
-    final BuildFSState fsState = pd.fsState;
-    fsState.clearContextRoundData(context);
-    fsState.clearContextChunk(context);
+    // should be called under myLock
+    private void submit(final ChunkTask task) {
+      myTasksInProgress++;
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Queued chunk " + task.myChunk);
+      }
+      myParallelBuildExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          Throwable exception = null;
+          try {
+            task.build();
+          }
+          catch (Throwable e) {
+            LOG.info(e);
+            exception = e;
+          }
+          finally {
+            onTaskFinished(task, exception);
+          }
+        }
+      });
+    }
 
-    BuildOperations.markTargetsUpToDate(context, chunk);
-  }
+    private void onTaskFinished(ChunkTask task, @Nullable Throwable exception) {
+      synchronized (myLock) {
+        if (exception != null && myException == null) {
+          myException = exception;
+        }
+        if (myTasksInProgress == 1) {
+          // no other chunk is in progress and dependent ones are not submitted yet
+          try {
+            myContext.getProjectDescriptor().dataManager.flush(true);
+          }
+          catch (Throwable e) {
+            LOG.info(e);
+            if (myException == null) {
+              myException = e;
+            }
+          }
+        }
+        if (myException == null) {
+          for (ChunkTask dependent : task.myDependentTasks) {
+            if (--dependent.myNotBuiltDependencies == 0) {
+              submit(dependent);
+            }
+          }
+        }
+        myTasksInProgress--;
+        myLock.notifyAll();
+      }
+    }
 
-  private static class ChunkGroup {
-    private final List<BuildTargetChunk> myChunks = new ArrayList<BuildTargetChunk>();
+    private class ChunkTask {
+      private final BuildTargetChunk myChunk;
+      private final Set<ChunkTask> myDependentTasks = new LinkedHashSet<ChunkTask>();
+      private int myNotBuiltDependencies; // guarded by myLock after construction
 
-    public void addChunk(BuildTargetChunk chunk) {
-      myChunks.add(chunk);
-    }
+      private ChunkTask(BuildTargetChunk chunk) {
+        myChunk = chunk;
+      }
 
-    public List<BuildTargetChunk> getChunks() {
-      return myChunks;
+      private void build() throws ProjectBuildException, IOException {
+        myContext.checkCanceled();
+        try {
+          buildChunkIfAffected(createContextWrapper(myContext, System.currentTimeMillis()), myContext.getScope(), myChunk);
+        }
+        finally {
+          myContext.getProjectDescriptor().dataManager.closeSourceToOutputStorages(Collections.singleton(myChunk));
+        }
+      }
     }
   }
 
@@ -1004,7 +1039,12 @@ public class IncProjectBuilder {
     GLOBAL_CONTEXT_KEYS.add(ExternalJavacDescriptor.KEY);
   }
 
-  private static CompileContext createContextWrapper(final CompileContext delegate) {
+  /**
+   * @param compilationStartStamp initial value of {@link CompileContext#getCompilationStartStamp()} for the wrapper, the stamp of the
+   * delegate is neither used nor updated
+   */
+  private static CompileContext createContextWrapper(final CompileContext delegate, long compilationStartStamp) {
+    final AtomicLong startStamp = new AtomicLong(compilationStartStamp);
     final ClassLoader loader = delegate.getClass().getClassLoader();
     final UserDataHolderBase localDataHolder = new UserDataHolderBase();
     final Set deletedKeysSet = new ConcurrentHashSet();
@@ -1014,6 +1054,15 @@ public class IncProjectBuilder {
       @Override
       public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
         final Class<?> declaringClass = method.getDeclaringClass();
+        if (CompileContext.class.equals(declaringClass)) {
+          if ("getCompilationStartStamp".equals(method.getName())) {
+            return startStamp.get();
+          }
+          if ("updateCompilationStartStamp".equals(method.getName())) {
+            startStamp.set(System.currentTimeMillis());
+            return null;
+          }
+        }
         if (dataHolderinterface.equals(declaringClass)) {
           final Object firstArgument = args[0];
           final boolean isGlobalContextKey = firstArgument instanceof Key && GLOBAL_CONTEXT_KEYS.contains((Key)firstArgument);
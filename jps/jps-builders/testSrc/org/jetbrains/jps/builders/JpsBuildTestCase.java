@@ -15,6 +15,7 @@ import org.jetbrains.jps.builders.impl.BuildRootIndexImpl;
 import org.jetbrains.jps.builders.impl.BuildTargetIndexImpl;
 import org.jetbrains.jps.builders.logging.BuildLoggingManager;
 import org.jetbrains.jps.builders.storage.BuildDataPaths;
+import org.jetbrains.jps.cmdline.BuildRunner;
 import org.jetbrains.jps.cmdline.ClasspathBootstrap;
 import org.jetbrains.jps.cmdline.ProjectDescriptor;
 import org.jetbrains.jps.incremental.BuilderRegistry;
@@ -229,6 +230,7 @@ public abstract class JpsBuildTestCase extends UsefulTestCase {
 
   protected BuildResult doBuild(final ProjectDescriptor descriptor, CompileScopeTestBuilder scopeBuilder) {
     IncProjectBuilder builder = new IncProjectBuilder(descriptor, BuilderRegistry.getInstance(), Collections.<String, String>emptyMap(), CanceledStatus.NULL, null);
+    builder.setParallelBuild(isParallelBuild());
     BuildResult result = new BuildResult();
     builder.addMessageHandler(result);
     try {
@@ -240,6 +242,10 @@ public abstract class JpsBuildTestCase extends UsefulTestCase {
     return result;
   }
 
+  protected boolean isParallelBuild() {
+    return BuildRunner.PARALLEL_BUILD_ENABLED;
+  }
+
   protected String createFile(String relativePath) {
     return createFile(relativePath, "");
   }
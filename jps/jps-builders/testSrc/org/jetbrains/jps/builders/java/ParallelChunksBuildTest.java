@@ -0,0 +1,51 @@
+package org.jetbrains.jps.builders.java;
+
+import com.intellij.util.PathUtil;
+import org.jetbrains.jps.builders.JpsBuildTestCase;
+import org.jetbrains.jps.incremental.java.JavaBuilder;
+import org.jetbrains.jps.model.module.JpsModule;
+
+import static com.intellij.util.io.TestFileSystemItem.fs;
+
+/**
+ * Builds several independent modules and a module depending on all of them with independent chunks built concurrently.
+ */
+public class ParallelChunksBuildTest extends JpsBuildTestCase {
+  private static final int MODULES_COUNT = 8;
+
+  @Override
+  protected boolean isParallelBuild() {
+    return true;
+  }
+
+  public void testIndependentChunks() {
+    final JpsModule[] modules = new JpsModule[MODULES_COUNT];
+    final StringBuilder mainText = new StringBuilder("public class Main {");
+    for (int i = 0; i < MODULES_COUNT; i++) {
+      final String file = createFile("m" + i + "/src/A" + i + ".java", "public class A" + i + " { void f() {} }");
+      modules[i] = addModule("m" + i, PathUtil.getParentPath(file));
+      mainText.append(" A").append(i).append(" a").append(i).append(";");
+    }
+    final JpsModule main = addModule("main", PathUtil.getParentPath(createFile("main/src/Main.java", mainText.append(" }").toString())));
+    for (JpsModule module : modules) {
+      main.getDependenciesList().addModuleDependency(module);
+    }
+
+    rebuildAll();
+    for (int i = 0; i < MODULES_COUNT; i++) {
+      assertOutput(modules[i], fs().file("A" + i + ".class"));
+    }
+    assertOutput(main, fs().file("Main.class"));
+
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME);
+
+    change(getAbsolutePath("m3/src/A3.java"), "public class A3 { void f() { int x = 0; } }");
+    change(getAbsolutePath("m5/src/A5.java"), "public class A5 { void f() { int y = 0; } }");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME, "m3/src/A3.java", "m5/src/A5.java");
+
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME);
+  }
+}
@@ -23,12 +23,14 @@ import com.intellij.util.containers.SLRUCache;
 import com.intellij.util.io.AbstractStringEnumerator;
 import com.intellij.util.io.DataInputOutputUtil;
 import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.UnsyncByteArrayInputStream;
 import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TObjectIntHashMap;
 import jsr166e.SequenceLock;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -89,11 +91,18 @@ public class StubSerializationHelper {
 
     doSerialize(rootStub, stubOutputStream);
     DataOutputStream resultStream = new DataOutputStream(stream);
+
+    // string table: count, encoded length of every string, then the strings themselves, so that they can be decoded on demand
+    BufferExposingByteArrayOutputStream strings = new BufferExposingByteArrayOutputStream();
+    DataOutputStream stringsStream = new DataOutputStream(strings);
     DataInputOutputUtil.writeINT(resultStream, storage.myStrings.size());
     byte[] buffer = IOUtil.allocReadWriteUTFBuffer();
     for(String s:storage.myStrings) {
-      IOUtil.writeUTFFast(buffer, resultStream, s);
+      int start = strings.size();
+      IOUtil.writeUTFFast(buffer, stringsStream, s);
+      DataInputOutputUtil.writeINT(resultStream, strings.size() - start);
     }
+    resultStream.write(strings.getInternalBuffer(), 0, strings.size());
     resultStream.write(out.getInternalBuffer(), 0, out.size());
   }
 
@@ -156,18 +165,9 @@ public class StubSerializationHelper {
   private final RecentStringInterner myStringInterner = new RecentStringInterner(8192);
 
   public Stub deserialize(InputStream stream) throws IOException, SerializerNotFoundException {
-    FileLocalStringEnumerator storage = new FileLocalStringEnumerator();
+    FileLocalStringTable storage = new FileLocalStringTable(myStringInterner);
     StubInputStream inputStream = new StubInputStream(stream, storage);
-    final int size = DataInputOutputUtil.readINT(inputStream);
-    byte[] buffer = IOUtil.allocReadWriteUTFBuffer();
-
-    int i = 1;
-    while(i <= size) {
-      String s = myStringInterner.get(IOUtil.readUTFFast(buffer, inputStream));
-      storage.myStrings.add(s);
-      storage.myEnumerates.put(s, i);
-      ++i;
-    }
+    storage.read(inputStream);
     return deserialize(inputStream, null);
   }
 
@@ -229,4 +229,86 @@ public class StubSerializationHelper {
     public void force() {
     }
   }
+
+  /**
+   * Counterpart of {@link FileLocalStringEnumerator} for reading. Strings are kept encoded and decoded on first {@link #valueOf(int)},
+   * most of the names referenced by stubs (via {@link com.intellij.util.io.StringRef}) are never asked for.
+   * {@link #enumerate(String)} is rare, it decodes the whole table and appends unknown strings after the ones read from the stream.
+   */
+  private static class FileLocalStringTable implements AbstractStringEnumerator {
+    private final RecentStringInterner myInterner;
+    private int[] myOffsets;
+    private byte[] myBytes;
+    private String[] myStrings;
+    private TObjectIntHashMap<String> myEnumerates; // guarded by this
+    private final ArrayList<String> myAddedStrings = new ArrayList<String>(); // guarded by this
+
+    private FileLocalStringTable(RecentStringInterner interner) {
+      myInterner = interner;
+    }
+
+    private void read(DataInputStream stream) throws IOException {
+      final int size = DataInputOutputUtil.readINT(stream);
+      myOffsets = new int[size + 1];
+      for (int i = 0; i < size; ++i) {
+        myOffsets[i + 1] = myOffsets[i] + DataInputOutputUtil.readINT(stream);
+      }
+      myBytes = new byte[myOffsets[size]];
+      stream.readFully(myBytes);
+      myStrings = new String[size];
+    }
+
+    @Override
+    public synchronized int enumerate(@Nullable String value) throws IOException {
+      if (value == null) return 0;
+      if (myEnumerates == null) {
+        myEnumerates = new TObjectIntHashMap<String>();
+        for (int i = 1; i <= myStrings.length; ++i) {
+          myEnumerates.put(valueOf(i), i);
+        }
+      }
+      int i = myEnumerates.get(value);
+      if (i == 0) {
+        myAddedStrings.add(value);
+        myEnumerates.put(value, i = myStrings.length + myAddedStrings.size());
+      }
+      return i;
+    }
+
+    @Override
+    public String valueOf(int idx) throws IOException {
+      if (idx == 0) return null;
+      if (idx > myStrings.length) {
+        synchronized (this) {
+          return myAddedStrings.get(idx - myStrings.length - 1);
+        }
+      }
+      String s = myStrings[idx - 1];
+      if (s == null) {
+        final int start = myOffsets[idx - 1];
+        final int end = myOffsets[idx];
+        DataInputStream stream = new DataInputStream(new UnsyncByteArrayInputStream(myBytes, start, end));
+        s = myInterner.get(IOUtil.readUTFFast(new byte[end - start], stream));
+        myStrings[idx - 1] = s; // racy publication is fine, the same string is decoded by every thread
+      }
+      return s;
+    }
+
+    @Override
+    public void markCorrupted() {
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public boolean isDirty() {
+      return false;
+    }
+
+    @Override
+    public void force() {
+    }
+  }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.lang.impl;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.psi.impl.source.tree.FileElement;
+import com.intellij.psi.tree.IElementType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.SoftReference;
+
+/**
+ * Lexemes of a file produced by {@link PsiBuilderImpl} during a full reparse. They are kept on the {@link FileElement} after the
+ * reparse result is applied, so the next full reparse of the file lexes only the changed part of the text, the way
+ * the editor highlighter does: lexing is restarted at a lexeme with the initial lexer state before the change and stops at the first
+ * lexeme after the change which has the same start, type and state as before.
+ * <p/>
+ * The lexemes are valid only while the tree is not modified in any other way, so partial reparses and PSI modifications drop them.
+ */
+public class CachedLexemes {
+  private static final Key<SoftReference<CachedLexemes>> CACHED_LEXEMES = Key.create("CACHED_LEXEMES");
+  /**
+   * Range of the original file text which was replaced in the text being reparsed, set on the original {@link FileElement}
+   * for the time of a full reparse.
+   */
+  public static final Key<TextRange> CHANGED_RANGE = Key.create("CHANGED_RANGE");
+  // lexing smaller files from scratch is cheap
+  private static final int MIN_TEXT_LENGTH = 10000;
+
+  final Class<? extends Lexer> myLexerClass;
+  final int myTextLength;
+  final int myCount;
+  final int[] myStarts;
+  final IElementType[] myTypes;
+  final int[] myStates;
+  private int myModificationCount;
+
+  CachedLexemes(@NotNull Lexer lexer, int textLength, int count, @NotNull int[] starts, @NotNull IElementType[] types, @NotNull int[] states) {
+    myLexerClass = lexer.getClass();
+    myTextLength = textLength;
+    myCount = count;
+    myStarts = starts;
+    myTypes = types;
+    myStates = states;
+  }
+
+  static boolean isApplicable(@Nullable ASTNode originalTree, @NotNull CharSequence text) {
+    return originalTree instanceof FileElement && text.length() >= MIN_TEXT_LENGTH && Registry.is("psi.incremental.relexing", false);
+  }
+
+  /**
+   * @return lexemes of the current text of the original tree produced by the same kind of lexer, or null if there are none
+   */
+  @Nullable
+  static CachedLexemes find(@NotNull ASTNode originalTree, @NotNull Lexer lexer) {
+    final SoftReference<CachedLexemes> ref = originalTree.getUserData(CACHED_LEXEMES);
+    final CachedLexemes lexemes = ref == null ? null : ref.get();
+    if (lexemes == null ||
+        lexemes.myLexerClass != lexer.getClass() ||
+        lexemes.myTextLength != originalTree.getTextLength() ||
+        lexemes.myModificationCount != ((FileElement)originalTree).getModificationCount()) {
+      return null;
+    }
+    return lexemes;
+  }
+
+  /**
+   * Should be called after the reparse result is applied to the tree, which then has the text these lexemes were produced from.
+   */
+  public void attachTo(@NotNull FileElement fileElement) {
+    myModificationCount = fileElement.getModificationCount();
+    fileElement.putUserData(CACHED_LEXEMES, new SoftReference<CachedLexemes>(this));
+  }
+
+  /**
+   * @return index of the lexeme starting at the offset, or -1 if there is no such lexeme
+   */
+  int findLexemeStartingAt(int offset) {
+    int low = 0;
+    int high = myCount - 1;
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      final int start = myStarts[middle];
+      if (start < offset) {
+        low = middle + 1;
+      }
+      else if (start > offset) {
+        high = middle - 1;
+      }
+      else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return index of the last lexeme starting at or before the offset
+   */
+  int findLexemeAt(int offset) {
+    int low = 0;
+    int high = myCount - 1;
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      if (myStarts[middle] <= offset) {
+        low = middle + 1;
+      }
+      else {
+        high = middle - 1;
+      }
+    }
+    return Math.max(0, high);
+  }
+}
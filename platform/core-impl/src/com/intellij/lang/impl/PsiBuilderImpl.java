@@ -30,10 +30,12 @@ import com.intellij.psi.impl.source.CharTableImpl;
 import com.intellij.psi.impl.source.resolve.FileContextUtil;
 import com.intellij.psi.impl.source.text.BlockSupportImpl;
 import com.intellij.psi.impl.source.text.DiffLog;
+import com.intellij.psi.impl.source.text.ReparseStatistics;
 import com.intellij.psi.impl.source.tree.*;
 import com.intellij.psi.impl.source.tree.Factory;
 import com.intellij.psi.text.BlockSupport;
 import com.intellij.psi.tree.*;
+import com.intellij.util.ArrayUtil;
 import com.intellij.util.CharTable;
 import com.intellij.util.ExceptionUtil;
 import com.intellij.util.ThreeState;
@@ -50,6 +52,7 @@ import org.jetbrains.annotations.Nullable;
 import java.lang.reflect.Field;
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -68,6 +71,9 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder, AS
 
   private int[] myLexStarts;
   private IElementType[] myLexTypes;
+  // lexer states at the lexeme starts, recorded only for full reparses of big files
+  private int[] myLexStates;
+  private CachedLexemes myCachedLexemes;
   private int myCurrentLexeme;
 
   private final MyList myProduction = new MyList();
@@ -194,10 +200,31 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder, AS
 
     myLexStarts = new int[approxLexCount];
     myLexTypes = new IElementType[approxLexCount];
+    if (CachedLexemes.isApplicable(myOriginalTree, myText)) {
+      myLexStates = new int[approxLexCount];
+    }
 
-    myLexer.start(myText);
+    final CachedLexemes previous = myLexStates == null ? null : CachedLexemes.find(myOriginalTree, myLexer);
+    final TextRange changedRange = previous == null ? null : myOriginalTree.getUserData(CachedLexemes.CHANGED_RANGE);
+    final int lengthShift = previous == null ? 0 : myText.length() - previous.myTextLength;
+    final int changeEnd = changedRange == null ? 0 : changedRange.getEndOffset() + lengthShift;
     int i = 0;
     int offset = 0;
+    int reusedCount = 0;
+    if (changedRange != null) {
+      // restart before the change at a lexeme with the initial state, the same way LexerEditorHighlighter does
+      i = Math.max(0, previous.findLexemeAt(changedRange.getStartOffset()) - 1);
+      while (i > 0 && previous.myStates[i] != previous.myStates[0]) {
+        i--;
+      }
+      reuseLexemes(previous, 0, i, 0, 0);
+      reusedCount = i;
+      offset = i > 0 ? previous.myStarts[i] : 0;
+      myLexer.start(myText, offset, myText.length(), previous.myStates[0]);
+    }
+    else {
+      myLexer.start(myText);
+    }
     while (true) {
       ProgressIndicatorProvider.checkCanceled();
       IElementType type = myLexer.getTokenType();
@@ -224,6 +251,21 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder, AS
           .append("] '").append(myText.subSequence(quoteStart, quoteEnd)).append('\'');
         LOG.error(sb);
       }
+      if (myLexStates != null) {
+        final int state = myLexer.getState();
+        if (changedRange != null && tokenStart >= changeEnd && state == previous.myStates[0]) {
+          final int index = previous.findLexemeStartingAt(tokenStart - lengthShift);
+          if (index >= 0 && previous.myTypes[index] == type && previous.myStates[index] == state) {
+            // the rest of the text is lexed the same way as before the change
+            final int count = previous.myCount - index;
+            reuseLexemes(previous, index, count, i, lengthShift);
+            reusedCount += count;
+            i += count;
+            break;
+          }
+        }
+        myLexStates[i] = state;
+      }
       myLexStarts[i] = offset = tokenStart;
       myLexTypes[i] = type;
       i++;
@@ -233,6 +275,26 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder, AS
     myLexStarts[i] = myText.length();
 
     myLexemeCount = i;
+
+    if (myLexStates != null) {
+      // copy before the parser remaps any token types
+      myCachedLexemes = new CachedLexemes(myLexer, myText.length(), i, ArrayUtil.realloc(myLexStarts, i + 1),
+                                          Arrays.copyOf(myLexTypes, i), ArrayUtil.realloc(myLexStates, i));
+      if (changedRange != null) {
+        ReparseStatistics.relexed(myOriginalTree.getElementType().getLanguage(), i - reusedCount, reusedCount);
+      }
+    }
+  }
+
+  private void reuseLexemes(@NotNull CachedLexemes lexemes, int from, int count, int to, int shift) {
+    if (to + count >= myLexTypes.length - 1) {
+      resizeLexemes(to + count + 1);
+    }
+    for (int i = 0; i < count; i++) {
+      myLexStarts[to + i] = lexemes.myStarts[from + i] + shift;
+    }
+    System.arraycopy(lexemes.myTypes, from, myLexTypes, to, count);
+    System.arraycopy(lexemes.myStates, from, myLexStates, to, count);
   }
 
   @Override
@@ -777,6 +839,10 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder, AS
     IElementType[] newTypes = new IElementType[newSize];
     System.arraycopy(myLexTypes, 0, newTypes, 0, count);
     myLexTypes = newTypes;
+
+    if (myLexStates != null) {
+      myLexStates = ArrayUtil.realloc(myLexStates, newSize);
+    }
   }
 
   private boolean whitespaceOrComment(IElementType token) {
@@ -984,6 +1050,9 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder, AS
 
     if (myOriginalTree != null && !isTooDeep) {
       DiffLog diffLog = merge(myOriginalTree, rootMarker);
+      if (myCachedLexemes != null) {
+        diffLog.setCachedLexemes(myCachedLexemes);
+      }
       throw new BlockSupport.ReparsedSuccessfullyException(diffLog);
     }
 
@@ -24,6 +24,7 @@ import com.intellij.util.LocalTimeCounter;
 import com.intellij.util.text.CharArrayCharSequence;
 import com.intellij.util.text.CharArrayUtil;
 import com.intellij.util.text.CharSequenceBackedByArray;
+import com.intellij.util.text.ImmutableText;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -55,6 +56,14 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
    */
   private static final int MAX_DEFERRED_CHANGES_NUMBER = 10000;
 
+  /**
+   * Text of at least this length is kept in an {@link ImmutableText} rope instead of the array, so that changes don't copy the whole
+   * text and {@link #getCharArray()} returns an immutable snapshot which background threads may read while the text is changed.
+   * The text returns to the array when it becomes twice shorter.
+   */
+  @SuppressWarnings("UseOfArchaicSystemPropertyAccessors")
+  private static final int IMMUTABLE_TEXT_THRESHOLD = Integer.getInteger("idea.document.immutable.text.threshold", 8 * 1024 * 1024);
+
   private final TextChangesStorage myDeferredChangesStorage;
 
   private volatile int myStart; // start offset in myArray (used as an optimization when call substring())
@@ -62,6 +71,8 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
 
   private volatile CharSequence myOriginalSequence;
   private volatile char[] myArray;
+  private volatile ImmutableText myImmutableText; // the text if it is large, myArray and myOriginalSequence are null then
+  private volatile Reference<char[]> myImmutableTextCharsRef; // buffers getChars() value of the immutable text
   private volatile Reference<String> myStringRef; // buffers String value - for not to generate it every time
   private volatile int myBufferSize;
   private volatile int myDeferredShift;
@@ -102,7 +113,12 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   CharArray(final int bufferSize, @NotNull char[] data, int length) {
     myBufferSize = bufferSize;
     myDeferredChangesStorage = new TextChangesStorage();
-    myArray = Arrays.copyOf(data, length);
+    if (shouldUseImmutableText(length)) {
+      myImmutableText = ImmutableText.valueOf(new CharArrayCharSequence(data, 0, length));
+    }
+    else {
+      myArray = Arrays.copyOf(data, length);
+    }
     myCount = length;
 
     if (myDebug) {
@@ -141,6 +157,7 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   public void setBufferSize(int bufferSize) {
     assert bufferSize >= 0 : bufferSize;
     myBufferSize = bufferSize;
+    updateStorage();
     assertConsistency();
   }
 
@@ -167,7 +184,15 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
 
   private void setText(@NotNull CharSequence chars) {
     assertConsistency();
-    myOriginalSequence = chars.toString();
+    if (shouldUseImmutableText(chars.length())) {
+      myImmutableText = ImmutableText.valueOf(chars);
+      myOriginalSequence = null;
+    }
+    else {
+      myImmutableText = null;
+      myOriginalSequence = chars.toString();
+    }
+    myImmutableTextCharsRef = null;
     myArray = null;
     myStringRef = null;
     myCount = chars.length();
@@ -187,6 +212,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     if (isDeferredChangeMode()) {
       assert myOriginalSequence == null;
     }
+    if (myImmutableText != null) {
+      assert myArray == null && myOriginalSequence == null && !myHasDeferredChanges;
+      assert myImmutableText.length() == myCount;
+    }
     CharSequence originalSequence = myOriginalSequence;
     int origLen = originalSequence == null ? -1 : originalSequence.length();
     String string = myStringRef == null ? null : myStringRef.get();
@@ -224,6 +253,9 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
       if (myHasDeferredChanges) {
         str = doSubString(0, myCount + myDeferredShift).toString();
       }
+      else if (myImmutableText != null) {
+        str = myImmutableText;
+      }
       else if (myOriginalSequence != null) {
         str = myOriginalSequence.toString();
       }
@@ -249,11 +281,16 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     startOffset += myStart;
     endOffset += myStart;
     doReplace(startOffset, endOffset, newString);
+    updateStorage();
     afterChangedUpdate(event, newModificationStamp);
     assertConsistency();
   }
 
   private void doReplace(int startOffset, int endOffset, @NotNull CharSequence newString) {
+    if (myImmutableText != null) {
+      setImmutableText(myImmutableText.replace(startOffset, endOffset, newString));
+      return;
+    }
     prepareForModification();
 
     if (isDeferredChangeMode()) {
@@ -283,6 +320,7 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     startIndex += myStart;
     endIndex += myStart;
     doRemove(startIndex, endIndex);
+    updateStorage();
     afterChangedUpdate(event, LocalTimeCounter.currentTime());
     assertConsistency();
   }
@@ -291,6 +329,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     if (startIndex == endIndex) {
       return;
     }
+    if (myImmutableText != null) {
+      setImmutableText(myImmutableText.delete(startIndex, endIndex));
+      return;
+    }
     prepareForModification();
 
     if (isDeferredChangeMode()) {
@@ -312,6 +354,7 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     DocumentEvent event = startChange(startIndex, null, s, false);
     startIndex += myStart;
     doInsert(s, startIndex);
+    updateStorage();
 
     afterChangedUpdate(event, LocalTimeCounter.currentTime());
     trimToSize();
@@ -319,6 +362,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   }
 
   private void doInsert(@NotNull CharSequence s, final int startIndex) {
+    if (myImmutableText != null) {
+      setImmutableText(myImmutableText.insert(startIndex, s));
+      return;
+    }
     prepareForModification();
 
     if (isDeferredChangeMode()) {
@@ -340,6 +387,43 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     }
   }
 
+  private void setImmutableText(@NotNull ImmutableText text) {
+    myImmutableText = text;
+    myImmutableTextCharsRef = null;
+    myCount = text.length();
+    myStringRef = null;
+  }
+
+  private boolean shouldUseImmutableText(int length) {
+    return myBufferSize == 0 && length >= IMMUTABLE_TEXT_THRESHOLD;
+  }
+
+  /**
+   * Moves the text to the {@link ImmutableText} when it becomes large and back to the array when it becomes small.
+   */
+  private void updateStorage() {
+    if (isDeferredChangeMode()) {
+      return;
+    }
+    ImmutableText immutableText = myImmutableText;
+    if (immutableText == null) {
+      if (shouldUseImmutableText(length())) {
+        CharSequence originalSequence = myOriginalSequence;
+        setImmutableText(ImmutableText.valueOf(originalSequence == null ? new CharArrayCharSequence(myArray, myStart, myStart + myCount)
+                                                                        : originalSequence));
+        myArray = null;
+        myOriginalSequence = null;
+      }
+    }
+    else if (myBufferSize != 0 || myCount < IMMUTABLE_TEXT_THRESHOLD / 2) {
+      char[] array = new char[myCount];
+      immutableText.getChars(0, myCount, array, 0);
+      myArray = array;
+      myImmutableText = null;
+      myImmutableTextCharsRef = null;
+    }
+  }
+
   /**
    * Stores given change at collection of deferred changes (merging it with others if necessary) and updates current object
    * state ({@link #length() length} etc).
@@ -381,6 +465,8 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   @NotNull
   public CharSequence getCharArray() {
     assertConsistency();
+    ImmutableText immutableText = myImmutableText;
+    if (immutableText != null) return immutableText;
     CharSequence originalSequence = myOriginalSequence;
     return originalSequence == null ? this : originalSequence;
   }
@@ -390,7 +476,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     String str = myStringRef == null ? null : myStringRef.get();
     if (str == null) {
       if (!myHasDeferredChanges) {
-        if (myOriginalSequence != null) {
+        if (myImmutableText != null) {
+          str = myImmutableText.toString();
+        }
+        else if (myOriginalSequence != null) {
           str = myOriginalSequence.toString();
         }
         else {
@@ -425,7 +514,11 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     i += myStart;
     final char result;
     if (!myHasDeferredChanges) {
-      if (myOriginalSequence != null) {
+      ImmutableText immutableText = myImmutableText;
+      if (immutableText != null) {
+        result = immutableText.charAt(i);
+      }
+      else if (myOriginalSequence != null) {
         result = myOriginalSequence.charAt(i);
       }
       else {
@@ -450,6 +543,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   public CharSequence subSequence(final int start, final int end) {
     assertReadAccess();
     assertConsistency();
+    ImmutableText immutableText = myImmutableText;
+    if (immutableText != null) {
+      return immutableText.subSequence(start, end);
+    }
     if (start == 0 && end == length()) return this;
     if (myOriginalSequence != null) {
       return myOriginalSequence.subSequence(start, end);
@@ -463,6 +560,17 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   public char[] getChars() {
     assertReadAccess();
     assertConsistency();
+    ImmutableText immutableText = myImmutableText;
+    if (immutableText != null) {
+      // callers which need the whole text in an array are rare, keep it until the next change
+      Reference<char[]> ref = myImmutableTextCharsRef;
+      char[] chars = ref == null ? null : ref.get();
+      if (chars == null) {
+        chars = CharArrayUtil.fromSequence(immutableText);
+        myImmutableTextCharsRef = new SoftReference<char[]>(chars);
+      }
+      return chars;
+    }
     char[] array = myArray;
     CharSequence originalSequence = myOriginalSequence;
     if (myHasDeferredChanges || originalSequence != null && array == null) {
@@ -488,7 +596,11 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     assertReadAccess();
     assertConsistency();
     flushDeferredChanged();
-    if (myOriginalSequence == null) {
+    ImmutableText immutableText = myImmutableText;
+    if (immutableText != null) {
+      immutableText.getChars(0, immutableText.length(), dst, dstOffset);
+    }
+    else if (myOriginalSequence == null) {
       System.arraycopy(myArray, myStart, dst, dstOffset, length());
     }
     else {
@@ -520,7 +632,11 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   private CharSequence doSubString(int start, int end) {
     if (start == end) return "";
     final CharSequence result;
-    if (myOriginalSequence == null) {
+    ImmutableText immutableText = myImmutableText;
+    if (immutableText != null) {
+      result = immutableText.subSequence(start, end);
+    }
+    else if (myOriginalSequence == null) {
       result = myDeferredChangesStorage.substring(myArray, start + myStart, end + myStart);
     }
     else {
@@ -606,12 +722,15 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   public void setDeferredChangeMode(boolean deferredChangeMode) {
     if (!DISABLE_DEFERRED_PROCESSING) {
       if (deferredChangeMode) {
-        if (myDebug) {
-          myDebugArray.setText(myDebugTextOnBatchUpdateStart = toString());
-          myDebugDeferredChanges.clear();
+        // changes of the immutable text don't shift the tail, there is nothing to defer
+        if (myImmutableText == null) {
+          if (myDebug) {
+            myDebugArray.setText(myDebugTextOnBatchUpdateStart = toString());
+            myDebugDeferredChanges.clear();
+          }
+          prepareForModification();
+          myDeferredChangeMode = deferredChangeMode;
         }
-        prepareForModification();
-        myDeferredChangeMode = deferredChangeMode;
       }
       else {
         myDeferredChangeMode = deferredChangeMode;
@@ -672,7 +791,7 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   @NonNls
   @NotNull
   public String dumpState() {
-    return "deferred changes mode: " + isDeferredChangeMode()+", length: " + length()+" (data array length: " + myCount+
+    return "deferred changes mode: " + isDeferredChangeMode()+", immutable text: " + (myImmutableText != null)+", length: " + length()+" (data array length: " + myCount+
            ", deferred shift: " + myDeferredShift+"); view offsets: [" + myStart+"; "+myCount+"]; deferred changes: "+myDeferredChangesStorage;
   }
   
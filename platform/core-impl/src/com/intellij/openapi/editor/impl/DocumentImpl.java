@@ -75,6 +75,7 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
   private volatile boolean myDoingBulkUpdate = false;
   private volatile boolean myAcceptSlashR = false;
   private boolean myChangeInProgress;
+  private TextChange[] myBatchChanges;
 
   public DocumentImpl(@NotNull String text) {
     this(text, false);
@@ -446,6 +447,84 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
     myText.replace(startOffset, endOffset, sToDelete, s, newModificationStamp, wholeTextReplaced);
   }
 
+  /**
+   * Replaces several ranges of the text at once, e.g. all occurrences in Replace All. The ranges are given in the offsets of
+   * the current text, sorted by offset, and must not overlap.
+   * <p/>
+   * Listeners get a single event replacing the range covering all the changes, so the text, the line set and the range marker trees
+   * are updated once instead of once per change. Range markers between the changes are updated by each change separately
+   * (see {@link DocumentEventImpl#getChanges()}) and keep their text as if the strings were replaced one by one.
+   */
+  public void replaceStrings(@NotNull List<TextRange> ranges, @NotNull List<? extends CharSequence> replacements) {
+    if (ranges.size() != replacements.size()) {
+      throw new IllegalArgumentException("Ranges count " + ranges.size() + " differs from replacements count " + replacements.size());
+    }
+    assertWriteAccess();
+    if (!isWritable()) {
+      throw new ReadOnlyModificationException(this);
+    }
+    assertNotNestedModification();
+
+    final CharSequence chars = getCharsSequence();
+    final List<TextChange> changes = new ArrayList<TextChange>(ranges.size());
+    int previousEnd = 0;
+    for (int i = 0; i < ranges.size(); i++) {
+      int startOffset = ranges.get(i).getStartOffset();
+      int endOffset = ranges.get(i).getEndOffset();
+      assertBounds(startOffset, endOffset);
+      if (startOffset < previousEnd) {
+        throw new IllegalArgumentException("Ranges are not sorted or overlap: " + ranges.get(i - 1) + ", " + ranges.get(i));
+      }
+      previousEnd = endOffset;
+      CharSequence s = replacements.get(i);
+      assertValidSeparators(s);
+
+      int newStartInString = 0;
+      int newEndInString = s.length();
+      while (newStartInString < newEndInString && startOffset < endOffset && s.charAt(newStartInString) == chars.charAt(startOffset)) {
+        startOffset++;
+        newStartInString++;
+      }
+      while (endOffset > startOffset && newEndInString > newStartInString && s.charAt(newEndInString - 1) == chars.charAt(endOffset - 1)) {
+        newEndInString--;
+        endOffset--;
+      }
+      if (startOffset == endOffset && newStartInString == newEndInString) continue;
+
+      s = s.subSequence(newStartInString, newEndInString);
+      RangeMarker guard = getRangeGuard(startOffset, endOffset);
+      if (guard != null) {
+        throwGuardedFragment(guard, startOffset, myText.substring(startOffset, endOffset).toString(), s.toString());
+      }
+      changes.add(new TextChangeImpl(s, startOffset, endOffset));
+    }
+
+    if (changes.isEmpty()) return;
+    if (changes.size() == 1) {
+      TextChange change = changes.get(0);
+      replaceString(change.getStart(), change.getEnd(), change.getText());
+      return;
+    }
+
+    final int startOffset = changes.get(0).getStart();
+    final int endOffset = changes.get(changes.size() - 1).getEnd();
+    final StringBuilder newText = new StringBuilder();
+    int offset = startOffset;
+    for (TextChange change : changes) {
+      newText.append(chars, offset, change.getStart()).append(change.getText());
+      offset = change.getEnd();
+    }
+    CharSequence sToDelete = myText.substring(startOffset, endOffset);
+    myBatchChanges = changes.toArray(new TextChange[changes.size()]);
+    try {
+      myText.replace(startOffset, endOffset, sToDelete, newText, LocalTimeCounter.currentTime(),
+                     startOffset == 0 && endOffset == getTextLength());
+    }
+    finally {
+      myBatchChanges = null;
+    }
+  }
+
   private void assertBounds(final int startOffset, final int endOffset) {
     if (startOffset < 0 || startOffset > getTextLength()) {
       throw new IndexOutOfBoundsException("Wrong startOffset: " + startOffset + "; documentLength: " + getTextLength());
@@ -560,7 +639,7 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
       }
     }
 
-    DocumentEvent event = new DocumentEventImpl(this, offset, oldString, newString, myModificationStamp, wholeTextReplaced);
+    DocumentEvent event = new DocumentEventImpl(this, offset, oldString, newString, myModificationStamp, wholeTextReplaced, myBatchChanges);
 
     if (!ShutDownTracker.isShutdownHookRunning()) {
       DocumentListener[] listeners = getCachedListeners();
@@ -16,14 +16,19 @@
 package com.intellij.openapi.editor.impl;
 
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.TextChange;
 import com.intellij.openapi.editor.event.DocumentEvent;
 import com.intellij.openapi.editor.ex.DocumentEx;
 import com.intellij.openapi.editor.ex.RangeMarkerEx;
+import com.intellij.openapi.editor.impl.event.DocumentEventImpl;
 import com.intellij.openapi.util.UserDataHolderBase;
 import com.intellij.util.Processor;
+import com.intellij.util.containers.ConcurrentHashMap;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.concurrent.ConcurrentMap;
+
 public class RangeMarkerImpl extends UserDataHolderBase implements RangeMarkerEx, MutableInterval {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.editor.impl.RangeMarkerImpl");
 
@@ -32,6 +37,7 @@ public class RangeMarkerImpl extends UserDataHolderBase implements RangeMarkerEx
 
   private final long myId;
   private static final StripedIDGenerator counter = new StripedIDGenerator();
+  private static final ConcurrentMap<Class, Boolean> ourUpdatedByChanges = new ConcurrentHashMap<Class, Boolean>();
 
   protected RangeMarkerImpl(@NotNull DocumentEx document, int start, int end, boolean register) {
     this(document, start, end, register, false, false);
@@ -156,7 +162,13 @@ public class RangeMarkerImpl extends UserDataHolderBase implements RangeMarkerEx
       invalidate(e);
       return;
     }
-    changedUpdateImpl(e);
+    TextChange[] changes = e instanceof DocumentEventImpl ? ((DocumentEventImpl)e).getChanges() : null;
+    if (changes != null && isUpdatedByChanges()) {
+      changedUpdateByChanges((DocumentEventImpl)e, changes);
+    }
+    else {
+      changedUpdateImpl(e);
+    }
     if (isValid() && (intervalStart() > intervalEnd() || intervalStart() < 0 || intervalEnd() > docLength)) {
       LOG.error("Update failed. Event = " + e + ". " +
                 "old doc length=" + docLength + "; real doc length = "+myDocument.getTextLength()+
@@ -214,6 +226,57 @@ public class RangeMarkerImpl extends UserDataHolderBase implements RangeMarkerEx
     invalidate(e);
   }
 
+  /**
+   * Markers which do not override {@link #changedUpdateImpl} are updated by each change combined in the event, from the last one,
+   * so that the offsets of the preceding changes stay valid. This way a marker between the changes keeps its text as if
+   * the changes were made one by one. Other markers get the event replacing the range covering all changes.
+   */
+  private boolean isUpdatedByChanges() {
+    final Class<? extends RangeMarkerImpl> markerClass = getClass();
+    Boolean result = ourUpdatedByChanges.get(markerClass);
+    if (result == null) {
+      result = Boolean.TRUE;
+      for (Class aClass = markerClass; aClass != RangeMarkerImpl.class; aClass = aClass.getSuperclass()) {
+        try {
+          aClass.getDeclaredMethod("changedUpdateImpl", DocumentEvent.class);
+          result = Boolean.FALSE;
+          break;
+        }
+        catch (NoSuchMethodException ignored) {
+        }
+      }
+      ourUpdatedByChanges.put(markerClass, result);
+    }
+    return result;
+  }
+
+  private void changedUpdateByChanges(@NotNull DocumentEventImpl e, @NotNull TextChange[] changes) {
+    // the last change which can affect the marker
+    int low = 0;
+    int high = changes.length - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (changes[middle].getStart() <= intervalEnd()) {
+        low = middle + 1;
+      }
+      else {
+        high = middle - 1;
+      }
+    }
+    for (int i = high; i >= 0 && isValid(); i--) {
+      TextChange change = changes[i];
+      if (change.getEnd() < intervalStart()) {
+        // this and all preceding changes just shift the marker
+        int shift = e.getChangesShift(i);
+        setIntervalStart(intervalStart() + shift);
+        setIntervalEnd(intervalEnd() + shift);
+        return;
+      }
+      CharSequence oldString = e.getOldFragment().subSequence(change.getStart() - e.getOffset(), change.getEnd() - e.getOffset());
+      changedUpdateImpl(new DocumentEventImpl(myDocument, change.getStart(), oldString, change.getText(), e.getOldTimeStamp(), false));
+    }
+  }
+
   private void processIfOnePoint(DocumentEvent e) {
     int offset = e.getOffset();
     int oldLength = e.getOldLength();
@@ -16,11 +16,13 @@
 package com.intellij.openapi.editor.impl.event;
 
 import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.TextChange;
 import com.intellij.openapi.editor.event.DocumentEvent;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.diff.Diff;
 import com.intellij.util.diff.FilesTooBigForDiffException;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class DocumentEventImpl extends DocumentEvent {
   private final int myOffset;
@@ -47,13 +49,42 @@ public class DocumentEventImpl extends DocumentEvent {
   private int myOptimizedOldLineShift = -1;
   private boolean myOptimizedOldLineShiftCalculated;
 
+  private final TextChange[] myChanges;
+  private final int[] myChangesShifts;
+
   public DocumentEventImpl(@NotNull Document document,
                            int offset,
                            CharSequence oldString,
                            CharSequence newString,
                            long oldTimeStamp,
                            boolean wholeTextReplaced) {
+    this(document, offset, oldString, newString, oldTimeStamp, wholeTextReplaced, null);
+  }
+
+  /**
+   * @param changes non-overlapping changes in the offsets of the old text sorted by offset, if the event combines several changes
+   *                of the document, see {@link #getChanges()}
+   */
+  public DocumentEventImpl(@NotNull Document document,
+                           int offset,
+                           CharSequence oldString,
+                           CharSequence newString,
+                           long oldTimeStamp,
+                           boolean wholeTextReplaced,
+                           @Nullable TextChange[] changes) {
     super(document);
+    myChanges = changes;
+    if (changes != null) {
+      myChangesShifts = new int[changes.length];
+      int shift = 0;
+      for (int i = 0; i < changes.length; i++) {
+        shift += changes[i].getText().length() - changes[i].getEnd() + changes[i].getStart();
+        myChangesShifts[i] = shift;
+      }
+    }
+    else {
+      myChangesShifts = null;
+    }
     myOffset = offset;
 
     myOldString = oldString == null ? "" : oldString;
@@ -139,6 +170,23 @@ public class DocumentEventImpl extends DocumentEvent {
     return isOnlyOneLineChanged;
   }
 
+  /**
+   * @return the changes combined by this event if it was produced by {@link com.intellij.openapi.editor.impl.DocumentImpl#replaceStrings},
+   *         null for an ordinary event. The changes are sorted by offset and given in the offsets of the old text, the event itself
+   *         replaces the range covering all of them.
+   */
+  @Nullable
+  public TextChange[] getChanges() {
+    return myChanges;
+  }
+
+  /**
+   * @return difference between the new and the old length of the text for the changes up to the given one inclusive
+   */
+  public int getChangesShift(int changeIndex) {
+    return myChangesShifts[changeIndex];
+  }
+
   @Override
   public long getOldTimeStamp() {
     return myOldTimeStamp;
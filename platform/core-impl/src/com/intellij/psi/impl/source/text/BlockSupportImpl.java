@@ -18,6 +18,7 @@ package com.intellij.psi.impl.source.text;
 
 import com.intellij.lang.ASTNode;
 import com.intellij.lang.Language;
+import com.intellij.lang.impl.CachedLexemes;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
@@ -95,16 +96,19 @@ public class BlockSupportImpl extends BlockSupport {
     final CharTable charTable = treeFileElement.getCharTable();
 
     final int textLength = treeFileElement.getTextLength() + lengthShift;
+    final Language baseLanguage = file.getViewProvider().getBaseLanguage();
+    final long started = System.nanoTime();
 
     if (treeFileElement.getElementType() instanceof ITemplateDataElementType || isTooDeep(file)) {
       // unable to perform incremental reparse for template data in JSP, or in exceptionally deep trees
-      return makeFullParse(treeFileElement, newFileText, textLength, fileImpl, indicator);
+      final DiffLog diffLog = makeFullParse(treeFileElement, newFileText, textLength, fileImpl, indicator, null);
+      ReparseStatistics.reparsed(baseLanguage, false, System.nanoTime() - started);
+      return diffLog;
     }
 
     final ASTNode leafAtStart = treeFileElement.findLeafElementAt(startOffset);
     final ASTNode leafAtEnd = treeFileElement.findLeafElementAt(endOffset);
     ASTNode node = leafAtStart != null && leafAtEnd != null ? TreeUtil.findCommonParent(leafAtStart, leafAtEnd) : treeFileElement;
-    Language baseLanguage = file.getViewProvider().getBaseLanguage();
 
     while (node != null && !(node instanceof FileElement)) {
       IElementType elementType = node.getElementType();
@@ -132,7 +136,9 @@ public class BlockSupportImpl extends BlockSupport {
                 LOG.error("Inconsistent reparse: " + details + " type=" + elementType);
               }
 
-              return mergeTrees(fileImpl, node, chameleon, indicator);
+              final DiffLog diffLog = mergeTrees(fileImpl, node, chameleon, indicator);
+              ReparseStatistics.reparsed(baseLanguage, true, System.nanoTime() - started);
+              return diffLog;
             }
           }
         }
@@ -140,7 +146,9 @@ public class BlockSupportImpl extends BlockSupport {
       node = node.getTreeParent();
     }
 
-    return makeFullParse(node, newFileText, textLength, fileImpl, indicator);
+    final DiffLog diffLog = makeFullParse(node, newFileText, textLength, fileImpl, indicator, new TextRange(startOffset, endOffset));
+    ReparseStatistics.reparsed(baseLanguage, false, System.nanoTime() - started);
+    return diffLog;
   }
 
   private static void assertFileLength(PsiFile file, CharSequence newFileText, ASTNode node, IElementType elementType, int start, int end) {
@@ -166,7 +174,8 @@ public class BlockSupportImpl extends BlockSupport {
                                        @NotNull CharSequence newFileText,
                                        int textLength,
                                        @NotNull PsiFileImpl fileImpl,
-                                       @NotNull ProgressIndicator indicator) {
+                                       @NotNull ProgressIndicator indicator,
+                                       @Nullable TextRange changedRange) {
     if (fileImpl instanceof PsiCodeFragment) {
       final FileElement holderElement = new DummyHolder(fileImpl.getManager(), null).getTreeElement();
       holderElement.rawAddChildren(fileImpl.createContentLeafElement(holderElement.getCharTable().intern(newFileText, 0, textLength)));
@@ -200,7 +209,15 @@ public class BlockSupportImpl extends BlockSupport {
       final FileElement oldFileElement = (FileElement)fileImpl.getNode();
                                                             
       assert oldFileElement != null && newFileElement != null;
-      DiffLog diffLog = mergeTrees(fileImpl, oldFileElement, newFileElement, indicator);
+      DiffLog diffLog;
+      // lets the parser relex only the changed part of the text
+      oldFileElement.putUserData(CachedLexemes.CHANGED_RANGE, changedRange);
+      try {
+        diffLog = mergeTrees(fileImpl, oldFileElement, newFileElement, indicator);
+      }
+      finally {
+        oldFileElement.putUserData(CachedLexemes.CHANGED_RANGE, null);
+      }
 
       ((PsiManagerEx)fileImpl.getManager()).getFileManager().setViewProvider(lightFile, null);
       return diffLog;
@@ -16,6 +16,7 @@
 package com.intellij.psi.impl.source.text;
 
 import com.intellij.lang.ASTNode;
+import com.intellij.lang.impl.CachedLexemes;
 import com.intellij.openapi.progress.ProgressIndicatorProvider;
 import com.intellij.pom.tree.events.impl.TreeChangeEventImpl;
 import com.intellij.psi.PsiElement;
@@ -50,6 +51,11 @@ public class DiffLog implements DiffTreeChangeBuilder<ASTNode,ASTNode> {
   }
 
   private final List<LogEntry> myEntries = new ArrayList<LogEntry>();
+  private CachedLexemes myCachedLexemes;
+
+  public void setCachedLexemes(@NotNull CachedLexemes cachedLexemes) {
+    myCachedLexemes = cachedLexemes;
+  }
 
   public TreeChangeEventImpl performActualPsiChange(PsiFile file) {
     final ASTDiffBuilder astDiffBuilder = new ASTDiffBuilder((PsiFileImpl) file);
@@ -58,6 +64,11 @@ public class DiffLog implements DiffTreeChangeBuilder<ASTNode,ASTNode> {
     }
     file.subtreeChanged();
 
+    final FileElement fileElement = ((PsiFileImpl)file).getTreeElement();
+    if (myCachedLexemes != null && fileElement != null) {
+      myCachedLexemes.attachTo(fileElement);
+    }
+
     return astDiffBuilder.getEvent();
   }
 
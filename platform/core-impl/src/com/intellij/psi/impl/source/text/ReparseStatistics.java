@@ -0,0 +1,152 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.impl.source.text;
+
+import com.intellij.lang.Language;
+import gnu.trove.THashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Internal diagnostics of {@link BlockSupportImpl}: how often a document change is reparsed within a single lazy-parseable block
+ * and how often the whole file has to be reparsed and merged, per base language of the file, with the time spent.
+ * For full reparses the number of lexemes lexed again and reused from the previous reparse is counted as well.
+ */
+public class ReparseStatistics {
+  private static final Map<Language, Counters> ourCounters = new THashMap<Language, Counters>();
+
+  private ReparseStatistics() {
+  }
+
+  public static class Counters {
+    private final Language myLanguage;
+    private int myPartialCount;
+    private long myPartialTime;
+    private int myFullCount;
+    private long myFullTime;
+    private long myLexedCount;
+    private long myReusedCount;
+
+    private Counters(@NotNull Language language) {
+      myLanguage = language;
+    }
+
+    private Counters(@NotNull Counters counters) {
+      myLanguage = counters.myLanguage;
+      myPartialCount = counters.myPartialCount;
+      myPartialTime = counters.myPartialTime;
+      myFullCount = counters.myFullCount;
+      myFullTime = counters.myFullTime;
+      myLexedCount = counters.myLexedCount;
+      myReusedCount = counters.myReusedCount;
+    }
+
+    @NotNull
+    public Language getLanguage() {
+      return myLanguage;
+    }
+
+    public int getPartialCount() {
+      return myPartialCount;
+    }
+
+    /**
+     * @return total time of partial reparses in nanoseconds
+     */
+    public long getPartialTime() {
+      return myPartialTime;
+    }
+
+    public int getFullCount() {
+      return myFullCount;
+    }
+
+    /**
+     * @return total time of full reparses in nanoseconds, including the tree merge
+     */
+    public long getFullTime() {
+      return myFullTime;
+    }
+
+    public long getLexedCount() {
+      return myLexedCount;
+    }
+
+    public long getReusedCount() {
+      return myReusedCount;
+    }
+
+    @Override
+    public String toString() {
+      return myLanguage.getID() +
+             ": partial " + myPartialCount + " (" + myPartialTime / 1000000 + "ms)" +
+             ", full " + myFullCount + " (" + myFullTime / 1000000 + "ms)" +
+             ", lexemes lexed " + myLexedCount + ", reused " + myReusedCount;
+    }
+  }
+
+  static void reparsed(@NotNull Language language, boolean partial, long nanos) {
+    synchronized (ourCounters) {
+      final Counters counters = getOrCreate(language);
+      if (partial) {
+        counters.myPartialCount++;
+        counters.myPartialTime += nanos;
+      }
+      else {
+        counters.myFullCount++;
+        counters.myFullTime += nanos;
+      }
+    }
+  }
+
+  public static void relexed(@NotNull Language language, int lexedCount, int reusedCount) {
+    synchronized (ourCounters) {
+      final Counters counters = getOrCreate(language);
+      counters.myLexedCount += lexedCount;
+      counters.myReusedCount += reusedCount;
+    }
+  }
+
+  @NotNull
+  private static Counters getOrCreate(@NotNull Language language) {
+    Counters counters = ourCounters.get(language);
+    if (counters == null) {
+      counters = new Counters(language);
+      ourCounters.put(language, counters);
+    }
+    return counters;
+  }
+
+  @NotNull
+  public static List<Counters> getCounters() {
+    synchronized (ourCounters) {
+      final List<Counters> result = new ArrayList<Counters>(ourCounters.size());
+      for (Counters counters : ourCounters.values()) {
+        result.add(new Counters(counters));
+      }
+      return result;
+    }
+  }
+
+  public static void reset() {
+    synchronized (ourCounters) {
+      ourCounters.clear();
+    }
+  }
+}
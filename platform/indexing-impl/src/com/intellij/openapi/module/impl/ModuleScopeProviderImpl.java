@@ -19,7 +19,8 @@ import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.impl.scopes.ModuleWithDependenciesScope;
 import com.intellij.openapi.module.impl.scopes.ModuleWithDependentsScope;
 import com.intellij.psi.search.GlobalSearchScope;
-import com.intellij.util.containers.StripedLockIntObjectConcurrentHashMap;
+import com.intellij.util.containers.ConcurrentIntObjectHashMap;
+import com.intellij.util.containers.ConcurrentIntObjectMap;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -27,7 +28,7 @@ import org.jetbrains.annotations.NotNull;
  */
 public class ModuleScopeProviderImpl implements ModuleScopeProvider {
   private final Module myModule;
-  private final StripedLockIntObjectConcurrentHashMap<GlobalSearchScope> myScopeCache = new StripedLockIntObjectConcurrentHashMap<GlobalSearchScope>();
+  private final ConcurrentIntObjectMap<GlobalSearchScope> myScopeCache = new ConcurrentIntObjectHashMap<GlobalSearchScope>();
   private GlobalSearchScope myModuleWithDependentsScope;
   private GlobalSearchScope myModuleTestsWithDependentsScope;
 
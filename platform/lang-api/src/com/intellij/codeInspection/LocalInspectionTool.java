@@ -95,6 +95,20 @@ public abstract class LocalInspectionTool extends InspectionProfileEntry {
     return false;
   }
 
+  /**
+   * Override this method and return true if the visitor of your inspection keeps no state between the elements it visits,
+   * so that the elements of a big file can be split between several visitors built for the same file and visited concurrently.
+   * <p/>
+   * {@link #inspectionStarted(LocalInspectionToolSession, boolean)} and
+   * {@link #inspectionFinished(LocalInspectionToolSession, ProblemsHolder)} are still called once per file, but the problems
+   * registered by the visitors are not visible to {@link #inspectionFinished(LocalInspectionToolSession, ProblemsHolder)}.
+   *
+   * @return true if elements of a file may be inspected by several visitors.
+   */
+  public boolean canInspectInChunks() {
+    return false;
+  }
+
   /**
    * Override this to report problems at file level.
    *
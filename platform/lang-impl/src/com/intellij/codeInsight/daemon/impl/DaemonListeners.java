@@ -101,6 +101,7 @@ public class DaemonListeners implements Disposable {
   private final FileStatusManager myFileStatusManager;
   private final ActionManager myActionManager;
   private final TooltipController myTooltipController;
+  private final HighlightingCache myHighlightingCache;
 
   private boolean myEscPressed;
 
@@ -146,6 +147,8 @@ public class DaemonListeners implements Disposable {
     myFileStatusManager = fileStatusManager;
     myActionManager = actionManagerEx;
     myTooltipController = tooltipController;
+    myHighlightingCache = new HighlightingCache(project, daemonCodeAnalyzer);
+    Disposer.register(this, myHighlightingCache);
 
     boolean replaced = ((UserDataHolderEx)myProject).replace(DAEMON_INITIALIZED, null, Boolean.TRUE);
     LOG.assertTrue(replaced, "Daemon listeners already initialized for the project "+myProject);
@@ -218,6 +221,10 @@ public class DaemonListeners implements Disposable {
         Project editorProject = editor.getProject();
         // worthBothering() checks for getCachedPsiFile, so call getPsiFile here
         PsiFile file = editorProject == null ? null : PsiDocumentManager.getInstance(editorProject).getPsiFile(document);
+        if (file != null && editorProject == myProject && HighlightingCache.isEnabled() && worthBothering(document, editorProject)) {
+          // show the highlighting saved in the previous session until the passes are finished
+          myHighlightingCache.restore(file, document);
+        }
         if (!editor.getComponent().isShowing() || !worthBothering(document, editorProject)) {
           LOG.debug("Not worth: " + file);
           return;
@@ -227,6 +234,14 @@ public class DaemonListeners implements Disposable {
 
       @Override
       public void editorReleased(@NotNull EditorFactoryEvent event) {
+        Editor editor = event.getEditor();
+        Document document = editor.getDocument();
+        if (editor.getProject() == myProject && HighlightingCache.isEnabled() && worthBothering(document, myProject)) {
+          PsiFile file = myPsiDocumentManager.getCachedPsiFile(document);
+          if (file != null) {
+            myHighlightingCache.save(file, document);
+          }
+        }
         // mem leak after closing last editor otherwise
         UIUtil.invokeLaterIfNeeded(new Runnable() {
           @Override
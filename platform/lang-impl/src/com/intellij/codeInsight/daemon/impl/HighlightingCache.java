@@ -0,0 +1,407 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.daemon.impl;
+
+import com.intellij.codeHighlighting.Pass;
+import com.intellij.codeInspection.InspectionProfile;
+import com.intellij.codeInspection.ex.InspectionProfileImpl;
+import com.intellij.codeInspection.ex.ToolsImpl;
+import com.intellij.lang.annotation.HighlightSeverity;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.editor.markup.EffectType;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.EmptyRunnable;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import com.intellij.profile.codeInspection.InspectionProjectProfileManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.util.CommonProcessors;
+import com.intellij.util.Processor;
+import com.intellij.util.concurrency.SequentialTaskExecutor;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorIntegerDescriptor;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.PersistentHashMap;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+import java.awt.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Highlighting of files produced by {@link GeneralHighlightingPass} and {@link LocalInspectionsPass}, saved when the last analysis
+ * of a file is complete and its editor is closed, so that the next time the file is opened, in this or the next session, the
+ * highlighting is shown immediately while the passes run again.
+ * <p/>
+ * The highlighting is stored per file with the hash of the file text and of the inspection profile, and is shown only if both
+ * match the current ones. Quick fixes, gutter icons and file level annotations are not stored.
+ * <p/>
+ * The storage is read and written in a pooled thread, one task at a time, so that a file closed and opened again gets the
+ * highlighting just saved. The restored highlighting is applied in the dispatch thread if the document is still the same.
+ */
+class HighlightingCache implements Disposable {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.codeInsight.daemon.impl.HighlightingCache");
+  private static final int VERSION = 2;
+  private static final int[] CACHED_GROUPS = {Pass.UPDATE_ALL, Pass.LOCAL_INSPECTIONS};
+
+  private final Project myProject;
+  private final DaemonCodeAnalyzerImpl myDaemonCodeAnalyzer;
+  private final File myFile;
+  private final SequentialTaskExecutor myExecutor = new SequentialTaskExecutor(new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      ApplicationManager.getApplication().executeOnPooledThread(command);
+    }
+  });
+  private PersistentHashMap<Integer, CachedHighlights> myMap; // guarded by this
+  private boolean myDisposed; // guarded by this
+
+  HighlightingCache(@NotNull Project project, @NotNull DaemonCodeAnalyzerImpl daemonCodeAnalyzer) {
+    this(project, daemonCodeAnalyzer, new File(PathManager.getSystemPath() + File.separator + "highlighting" + File.separator +
+                                               project.getName() + "." + project.getLocationHash() + File.separator + "infos"));
+  }
+
+  HighlightingCache(@NotNull Project project, @NotNull DaemonCodeAnalyzerImpl daemonCodeAnalyzer, @NotNull File file) {
+    myProject = project;
+    myDaemonCodeAnalyzer = daemonCodeAnalyzer;
+    myFile = file;
+  }
+
+  private static class CachedHighlights {
+    private final long myContentHash;
+    private final int myProfileHash;
+    private final int[] myGroups;
+    private final List<HighlightInfo> myInfos;
+
+    private CachedHighlights(long contentHash, int profileHash, @NotNull int[] groups, @NotNull List<HighlightInfo> infos) {
+      myContentHash = contentHash;
+      myProfileHash = profileHash;
+      myGroups = groups;
+      myInfos = infos;
+    }
+  }
+
+  static boolean isEnabled() {
+    return Registry.is("daemon.highlighting.cache", true);
+  }
+
+  /**
+   * Saves the highlighting of the document in background if the daemon has finished all passes for the file.
+   */
+  void save(@NotNull PsiFile psiFile, @NotNull Document document) {
+    ApplicationManager.getApplication().assertReadAccessAllowed();
+    final VirtualFile virtualFile = psiFile.getVirtualFile();
+    if (!(virtualFile instanceof VirtualFileWithId)) return;
+    if (!myDaemonCodeAnalyzer.isAllAnalysisFinished(psiFile)) return;
+
+    final List<HighlightInfo> infos = new ArrayList<HighlightInfo>();
+    final List<Integer> groups = new ArrayList<Integer>();
+    DaemonCodeAnalyzerImpl.processHighlights(document, myProject, null, 0, document.getTextLength(), new Processor<HighlightInfo>() {
+      @Override
+      public boolean process(HighlightInfo info) {
+        if (isCached(info.group) && !info.isFileLevelAnnotation && info.getGutterIconRenderer() == null) {
+          infos.add(info);
+          groups.add(info.group);
+        }
+        return true;
+      }
+    });
+    final int[] groupArray = new int[groups.size()];
+    for (int i = 0; i < groupArray.length; i++) {
+      groupArray[i] = groups.get(i);
+    }
+    final CachedHighlights highlights = new CachedHighlights(getContentHash(document), getProfileHash(), groupArray, infos);
+    final int fileId = ((VirtualFileWithId)virtualFile).getId();
+    myExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          final PersistentHashMap<Integer, CachedHighlights> map = getMap();
+          if (map != null) {
+            map.put(fileId, highlights);
+          }
+        }
+        catch (IOException e) {
+          LOG.info(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Reads the saved highlighting of the file in background and shows it if the document has no highlighting yet
+   * and its text has not changed since the highlighting was saved.
+   */
+  void restore(@NotNull PsiFile psiFile, @NotNull final Document document) {
+    ApplicationManager.getApplication().assertIsDispatchThread();
+    final VirtualFile virtualFile = psiFile.getVirtualFile();
+    if (!(virtualFile instanceof VirtualFileWithId)) return;
+    if (hasHighlights(document)) return;
+
+    final int fileId = ((VirtualFileWithId)virtualFile).getId();
+    final long contentHash = getContentHash(document);
+    final int profileHash = getProfileHash();
+    final long modificationStamp = document.getModificationStamp();
+    myExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        CachedHighlights highlights = null;
+        try {
+          final PersistentHashMap<Integer, CachedHighlights> map = getMap();
+          if (map != null) {
+            highlights = map.get(fileId);
+          }
+        }
+        catch (IOException e) {
+          LOG.info(e);
+        }
+        if (highlights == null || highlights.myContentHash != contentHash || highlights.myProfileHash != profileHash) {
+          return;
+        }
+        final CachedHighlights finalHighlights = highlights;
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            // the passes may have finished or the document may have changed meanwhile
+            if (document.getModificationStamp() == modificationStamp && !hasHighlights(document)) {
+              setHighlightersToEditor(document, finalHighlights);
+            }
+          }
+        }, myProject.getDisposed());
+      }
+    });
+  }
+
+  private void setHighlightersToEditor(@NotNull Document document, @NotNull CachedHighlights highlights) {
+    for (int group : CACHED_GROUPS) {
+      final List<HighlightInfo> infos = new ArrayList<HighlightInfo>();
+      for (int i = 0; i < highlights.myInfos.size(); i++) {
+        if (highlights.myGroups[i] == group) {
+          infos.add(highlights.myInfos.get(i));
+        }
+      }
+      if (!infos.isEmpty()) {
+        UpdateHighlightersUtil.setHighlightersToEditor(myProject, document, 0, document.getTextLength(), infos, group);
+      }
+    }
+  }
+
+  private boolean hasHighlights(@NotNull Document document) {
+    return !DaemonCodeAnalyzerImpl.processHighlights(document, myProject, null, 0, document.getTextLength(),
+                                                     CommonProcessors.<HighlightInfo>alwaysFalse());
+  }
+
+  private static boolean isCached(int group) {
+    for (int cachedGroup : CACHED_GROUPS) {
+      if (cachedGroup == group) return true;
+    }
+    return false;
+  }
+
+  private static long getContentHash(@NotNull Document document) {
+    final CharSequence text = document.getCharsSequence();
+    return ((long)StringUtil.stringHashCode(text) << 32) | text.length();
+  }
+
+  /**
+   * @return hash of the enabled tools and their levels in the current profile, the highlighting of another profile is not shown
+   */
+  private int getProfileHash() {
+    final InspectionProfile profile = InspectionProjectProfileManager.getInstance(myProject).getInspectionProfile();
+    int hash = profile.getName().hashCode();
+    if (profile instanceof InspectionProfileImpl) {
+      for (ToolsImpl tools : ((InspectionProfileImpl)profile).getAllEnabledInspectionTools(myProject)) {
+        hash = 31 * hash + tools.getShortName().hashCode();
+        hash = 31 * hash + tools.getLevel().toString().hashCode();
+      }
+    }
+    return hash;
+  }
+
+  @Nullable
+  private synchronized PersistentHashMap<Integer, CachedHighlights> getMap() throws IOException {
+    if (myMap == null && !myDisposed) {
+      final HighlightsExternalizer externalizer = new HighlightsExternalizer();
+      try {
+        myMap = new PersistentHashMap<Integer, CachedHighlights>(myFile, EnumeratorIntegerDescriptor.INSTANCE, externalizer);
+      }
+      catch (IOException e) {
+        LOG.info(e);
+        PersistentHashMap.deleteFilesStartingWith(myFile);
+        myMap = new PersistentHashMap<Integer, CachedHighlights>(myFile, EnumeratorIntegerDescriptor.INSTANCE, externalizer);
+      }
+    }
+    return myMap;
+  }
+
+  /**
+   * Waits for the highlighting being saved or restored, and shows the restored highlighting.
+   */
+  @TestOnly
+  void waitForPendingTasks() throws Exception {
+    myExecutor.submit(EmptyRunnable.getInstance()).get();
+    UIUtil.dispatchAllInvocationEvents();
+  }
+
+  /**
+   * Closes the storage after the highlighting of the editors being released is saved.
+   */
+  @Override
+  public void dispose() {
+    try {
+      myExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          close();
+        }
+      }).get();
+    }
+    catch (Exception e) {
+      LOG.info(e);
+      close();
+    }
+  }
+
+  private synchronized void close() {
+    myDisposed = true;
+    if (myMap != null) {
+      try {
+        myMap.close();
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+      myMap = null;
+    }
+  }
+
+  private class HighlightsExternalizer implements DataExternalizer<CachedHighlights> {
+    @Override
+    public void save(DataOutput out, CachedHighlights highlights) throws IOException {
+      out.writeInt(VERSION);
+      out.writeLong(highlights.myContentHash);
+      out.writeInt(highlights.myProfileHash);
+      out.writeInt(highlights.myInfos.size());
+      for (int i = 0; i < highlights.myInfos.size(); i++) {
+        final HighlightInfo info = highlights.myInfos.get(i);
+        out.writeInt(highlights.myGroups[i]);
+        out.writeInt(info.startOffset);
+        out.writeInt(info.endOffset);
+        IOUtil.writeString(info.severity.myName, out);
+        out.writeInt(info.severity.myVal);
+        final TextAttributesKey attributesKey = info.type.getAttributesKey();
+        IOUtil.writeString(attributesKey == null ? null : attributesKey.getExternalName(), out);
+        IOUtil.writeString(info.forcedTextAttributesKey == null ? null : info.forcedTextAttributesKey.getExternalName(), out);
+        writeAttributes(out, info.forcedTextAttributes);
+        IOUtil.writeString(info.description, out);
+        IOUtil.writeString(info.toolTip, out);
+        out.writeBoolean(info.isAfterEndOfLine);
+        out.writeBoolean(info.needUpdateOnTyping());
+      }
+    }
+
+    @Override
+    public CachedHighlights read(DataInput in) throws IOException {
+      // records of another format are ignored and overwritten on the next save
+      if (in.readInt() != VERSION) return null;
+      final long contentHash = in.readLong();
+      final int profileHash = in.readInt();
+      final int size = in.readInt();
+      final int[] groups = new int[size];
+      final List<HighlightInfo> infos = new ArrayList<HighlightInfo>(size);
+      final SeverityRegistrar severityRegistrar = SeverityRegistrar.getInstance(myProject);
+      for (int i = 0; i < size; i++) {
+        groups[i] = in.readInt();
+        final int start = in.readInt();
+        final int end = in.readInt();
+        final String severityName = IOUtil.readString(in);
+        final int severityValue = in.readInt();
+        final String attributesKey = IOUtil.readString(in);
+        final String forcedAttributesKey = IOUtil.readString(in);
+        final TextAttributes forcedAttributes = readAttributes(in);
+        final String description = IOUtil.readString(in);
+        final String toolTip = IOUtil.readString(in);
+        final boolean afterEndOfLine = in.readBoolean();
+        final boolean needsUpdateOnTyping = in.readBoolean();
+
+        HighlightSeverity severity = severityRegistrar.getSeverity(severityName);
+        if (severity == null) {
+          severity = new HighlightSeverity(severityName, severityValue);
+        }
+        final HighlightInfoType type =
+          new HighlightInfoType.HighlightInfoTypeImpl(severity, attributesKey == null ? null : TextAttributesKey.find(attributesKey));
+        infos.add(new HighlightInfo(forcedAttributes, forcedAttributesKey == null ? null : TextAttributesKey.find(forcedAttributesKey), type,
+                                    start, end, description, toolTip, severity, afterEndOfLine, needsUpdateOnTyping, false));
+      }
+      return new CachedHighlights(contentHash, profileHash, groups, infos);
+    }
+
+    private void writeAttributes(@NotNull DataOutput out, @Nullable TextAttributes attributes) throws IOException {
+      out.writeBoolean(attributes != null);
+      if (attributes == null) return;
+      writeColor(out, attributes.getForegroundColor());
+      writeColor(out, attributes.getBackgroundColor());
+      writeColor(out, attributes.getEffectColor());
+      writeColor(out, attributes.getErrorStripeColor());
+      final EffectType effectType = attributes.getEffectType();
+      IOUtil.writeString(effectType == null ? null : effectType.name(), out);
+      out.writeInt(attributes.getFontType());
+    }
+
+    @Nullable
+    private TextAttributes readAttributes(@NotNull DataInput in) throws IOException {
+      if (!in.readBoolean()) return null;
+      final Color foreground = readColor(in);
+      final Color background = readColor(in);
+      final Color effectColor = readColor(in);
+      final Color errorStripeColor = readColor(in);
+      final String effectType = IOUtil.readString(in);
+      final int fontType = in.readInt();
+      final TextAttributes attributes =
+        new TextAttributes(foreground, background, effectColor, effectType == null ? null : EffectType.valueOf(effectType), fontType);
+      attributes.setErrorStripeColor(errorStripeColor);
+      return attributes;
+    }
+
+    private void writeColor(@NotNull DataOutput out, @Nullable Color color) throws IOException {
+      out.writeBoolean(color != null);
+      if (color != null) {
+        out.writeInt(color.getRGB());
+      }
+    }
+
+    @Nullable
+    private Color readColor(@NotNull DataInput in) throws IOException {
+      return in.readBoolean() ? new Color(in.readInt(), true) : null;
+    }
+  }
+}
@@ -26,6 +26,7 @@ import com.intellij.codeInspection.*;
 import com.intellij.codeInspection.ex.*;
 import com.intellij.codeInspection.ui.ProblemDescriptionNode;
 import com.intellij.concurrency.JobLauncher;
+import com.intellij.concurrency.JobSchedulerImpl;
 import com.intellij.injected.editor.DocumentWindow;
 import com.intellij.lang.Language;
 import com.intellij.lang.annotation.HighlightSeverity;
@@ -50,6 +51,7 @@ import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.util.Trinity;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.profile.codeInspection.InspectionProjectProfileManager;
 import com.intellij.profile.codeInspection.SeverityProvider;
@@ -67,6 +69,7 @@ import gnu.trove.THashSet;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentMap;
@@ -83,6 +86,8 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
   private final boolean myIgnoreSuppressed;
   private final ConcurrentMap<PsiFile, List<InspectionResult>> result = new ConcurrentHashMap<PsiFile, List<InspectionResult>>();
   private static final String PRESENTABLE_NAME = DaemonBundle.message("pass.inspection");
+  // the number of chunks the elements of a big file are split into for a tool inspecting in chunks
+  private static volatile int ourChunksCount = JobSchedulerImpl.CORES_COUNT;
   private volatile List<HighlightInfo> myInfos = Collections.emptyList();
   private final String myShortcutText;
   private final SeverityRegistrar mySeverityRegistrar;
@@ -214,10 +219,12 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
 
     setProgressLimit(1L * tools.size() * 2);
     final LocalInspectionToolSession session = new LocalInspectionToolSession(myFile, myStartOffset, myEndOffset);
+    Set<LocalInspectionToolWrapper> chunked = getToolsToInspectInChunks(tools.keySet(), inside.size() + outside.size());
 
     List<InspectionContext> init =
-      visitPriorityElementsAndInit(tools, iManager, isOnTheFly, indicator, inside, session, toolWrappers, checkDumbAwareness);
-    visitRestElementsAndCleanup(iManager, isOnTheFly, indicator, outside, session, init, toolWrappers, checkDumbAwareness);
+      visitPriorityElementsAndInit(tools, iManager, isOnTheFly, indicator, inside, session, chunked, toolWrappers, checkDumbAwareness);
+    visitRestElementsAndCleanup(tools, iManager, isOnTheFly, indicator, outside, session, init, chunked, toolWrappers,
+                                checkDumbAwareness);
 
     indicator.checkCanceled();
 
@@ -297,19 +304,35 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
                                             @NotNull final ProgressIndicator indicator,
                                             @NotNull final List<PsiElement> elements,
                                             @NotNull final LocalInspectionToolSession session,
+                                            @NotNull Set<LocalInspectionToolWrapper> chunked,
                                             List<LocalInspectionToolWrapper> wrappers, boolean checkDumbAwareness) {
 
     final ArrayList<InspectionContext> init = new ArrayList<InspectionContext>();
-    List<Map.Entry<LocalInspectionToolWrapper, Collection<String>>> entries = new ArrayList<Map.Entry<LocalInspectionToolWrapper, Collection<String>>>(tools.entrySet());
-    boolean result = JobLauncher.getInstance().invokeConcurrentlyUnderProgress(entries, indicator, myFailFastOnAcquireReadAction,
-                                                                               new Processor<Map.Entry<LocalInspectionToolWrapper, Collection<String>>>() {
+    List<ElementsChunk> jobs = new ArrayList<ElementsChunk>();
+    for (Map.Entry<LocalInspectionToolWrapper, Collection<String>> entry : tools.entrySet()) {
+      LocalInspectionToolWrapper wrapper = entry.getKey();
+      Set<String> languages = (Set<String>)entry.getValue();
+      if (chunked.contains(wrapper)) {
+        wrapper.getTool().inspectionStarted(session, isOnTheFly);
+        boolean first = true;
+        for (List<PsiElement> chunk : splitIntoChunks(elements)) {
+          jobs.add(new ElementsChunk(wrapper, languages, chunk, first));
+          first = false;
+        }
+      }
+      else {
+        jobs.add(new ElementsChunk(wrapper, languages, null, true));
+      }
+    }
+    boolean result = JobLauncher.getInstance().invokeConcurrentlyUnderProgress(jobs, indicator, myFailFastOnAcquireReadAction,
+                                                                               new Processor<ElementsChunk>() {
                                                                                  @Override
-                                                                                 public boolean process(final Map.Entry<LocalInspectionToolWrapper, Collection<String>> pair) {
+                                                                                 public boolean process(final ElementsChunk chunk) {
                                                                                    indicator.checkCanceled();
 
                                                                                    ApplicationManager.getApplication()
                                                                                      .assertReadAccessAllowed();
-                                                                                   final LocalInspectionToolWrapper wrapper = pair.getKey();
+                                                                                   final LocalInspectionToolWrapper wrapper = chunk.tool;
                                                                                    LocalInspectionTool tool = wrapper.getTool();
                                                                                    final boolean[] applyIncrementally = {isOnTheFly};
                                                                                    ProblemsHolder holder =
@@ -323,18 +346,27 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
                                                                                          }
                                                                                        }
                                                                                      };
-                                                                                   Set<String> languages = (Set<String>)pair.getValue();
-                                                                                   PsiElementVisitor visitor =
-                                                                                     createVisitorAndAcceptElements(tool, holder,
-                                                                                                                    isOnTheFly, session,
-                                                                                                                    elements, languages);
-
-                                                                                   synchronized (init) {
-                                                                                     init.add(
-                                                                                       new InspectionContext(wrapper, holder, visitor,
-                                                                                                             languages));
+                                                                                   Set<String> languages = chunk.languageIds;
+                                                                                   if (chunk.elements == null) {
+                                                                                     PsiElementVisitor visitor =
+                                                                                       createVisitorAndAcceptElements(tool, holder,
+                                                                                                                      isOnTheFly, session,
+                                                                                                                      elements, languages);
+
+                                                                                     synchronized (init) {
+                                                                                       init.add(
+                                                                                         new InspectionContext(wrapper, holder, visitor,
+                                                                                                               languages));
+                                                                                     }
+                                                                                   }
+                                                                                   else {
+                                                                                     acceptElements(chunk.elements,
+                                                                                                    createVisitor(tool, holder, isOnTheFly,
+                                                                                                                  session), languages);
+                                                                                   }
+                                                                                   if (chunk.first) {
+                                                                                     advanceProgress(1);
                                                                                    }
-                                                                                   advanceProgress(1);
 
                                                                                    if (holder.hasResults()) {
                                                                                      appendDescriptors(myFile, holder.getResults(),
@@ -356,6 +388,17 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
                                                                   @NotNull LocalInspectionToolSession session,
                                                                   @NotNull List<PsiElement> elements,
                                                                   @Nullable Set<String> languages) {
+    PsiElementVisitor visitor = createVisitor(tool, holder, isOnTheFly, session);
+    tool.inspectionStarted(session, isOnTheFly);
+    acceptElements(elements, visitor, languages);
+    return visitor;
+  }
+
+  @NotNull
+  private static PsiElementVisitor createVisitor(@NotNull LocalInspectionTool tool,
+                                                 @NotNull ProblemsHolder holder,
+                                                 boolean isOnTheFly,
+                                                 @NotNull LocalInspectionToolSession session) {
     PsiElementVisitor visitor = tool.buildVisitor(holder, isOnTheFly, session);
     //noinspection ConstantConditions
     if(visitor == null) {
@@ -363,19 +406,30 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
     }
     assert !(visitor instanceof PsiRecursiveElementVisitor || visitor instanceof PsiRecursiveElementWalkingVisitor)
       : "The visitor returned from LocalInspectionTool.buildVisitor() must not be recursive. "+tool;
-
-    tool.inspectionStarted(session, isOnTheFly);
-    acceptElements(elements, visitor, languages);
     return visitor;
   }
 
-  private void visitRestElementsAndCleanup(@NotNull final InspectionManagerEx iManager,
+  private void visitRestElementsAndCleanup(@NotNull MultiMap<LocalInspectionToolWrapper, String> tools,
+                                           @NotNull final InspectionManagerEx iManager,
                                            final boolean isOnTheFly,
                                            @NotNull final ProgressIndicator indicator,
                                            @NotNull final List<PsiElement> elements,
                                            @NotNull final LocalInspectionToolSession session,
                                            @NotNull List<InspectionContext> init,
+                                           @NotNull Set<LocalInspectionToolWrapper> chunked,
                                            List<LocalInspectionToolWrapper> wrappers, boolean checkDumbAwareness) {
+    List<InspectionContext> jobs = new ArrayList<InspectionContext>(init);
+    for (Map.Entry<LocalInspectionToolWrapper, Collection<String>> entry : tools.entrySet()) {
+      LocalInspectionToolWrapper wrapper = entry.getKey();
+      if (!chunked.contains(wrapper)) continue;
+      boolean first = true;
+      for (List<PsiElement> chunk : splitIntoChunks(elements)) {
+        ProblemsHolder holder = new ProblemsHolder(iManager, myFile, isOnTheFly);
+        PsiElementVisitor visitor = createVisitor(wrapper.getTool(), holder, isOnTheFly, session);
+        jobs.add(new InspectionContext(wrapper, holder, visitor, (Set<String>)entry.getValue(), chunk, first));
+        first = false;
+      }
+    }
     Processor<InspectionContext> processor =
       new Processor<InspectionContext>() {
         @Override
@@ -383,9 +437,13 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
           
           indicator.checkCanceled();
           ApplicationManager.getApplication().assertReadAccessAllowed();
-          acceptElements(elements, context.visitor, context.languageIds);
-          advanceProgress(1);
-          context.tool.getTool().inspectionFinished(session, context.holder);
+          acceptElements(context.elements == null ? elements : context.elements, context.visitor, context.languageIds);
+          if (context.first) {
+            advanceProgress(1);
+          }
+          if (context.elements == null) {
+            context.tool.getTool().inspectionFinished(session, context.holder);
+          }
 
           if (context.holder.hasResults()) {
             appendDescriptors(myFile, context.holder.getResults(), context.tool);
@@ -393,13 +451,64 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
           return true;
         }
       };
-    boolean result = JobLauncher.getInstance().invokeConcurrentlyUnderProgress(init, indicator, myFailFastOnAcquireReadAction, processor);
+    boolean result = JobLauncher.getInstance().invokeConcurrentlyUnderProgress(jobs, indicator, myFailFastOnAcquireReadAction, processor);
     if (!result) {
       throw new ProcessCanceledException();
     }
+    for (LocalInspectionToolWrapper wrapper : chunked) {
+      ProblemsHolder holder = new ProblemsHolder(iManager, myFile, isOnTheFly);
+      wrapper.getTool().inspectionFinished(session, holder);
+      if (holder.hasResults()) {
+        appendDescriptors(myFile, holder.getResults(), wrapper);
+      }
+    }
     inspectInjectedPsi(elements, isOnTheFly, indicator, iManager, false, checkDumbAwareness, wrappers);
   }
 
+  /**
+   * @return tools which visit the elements of a big file in several jobs, each job with a visitor of its own
+   */
+  @NotNull
+  private static Set<LocalInspectionToolWrapper> getToolsToInspectInChunks(@NotNull Collection<LocalInspectionToolWrapper> tools,
+                                                                           int elementsCount) {
+    int minChunkSize = Registry.intValue("daemon.inspections.min.chunk.size", 1000);
+    if (minChunkSize <= 0 || elementsCount < 2 * minChunkSize || ourChunksCount < 2) {
+      return Collections.emptySet();
+    }
+    Set<LocalInspectionToolWrapper> result = new THashSet<LocalInspectionToolWrapper>();
+    for (LocalInspectionToolWrapper wrapper : tools) {
+      if (wrapper.getTool().canInspectInChunks()) {
+        result.add(wrapper);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Allows to check the splitting into chunks on a machine with any number of cores.
+   * @return the previous number of chunks
+   */
+  @TestOnly
+  public static int setChunksCount(int chunksCount) {
+    int old = ourChunksCount;
+    ourChunksCount = chunksCount;
+    return old;
+  }
+
+  @NotNull
+  private static List<List<PsiElement>> splitIntoChunks(@NotNull List<PsiElement> elements) {
+    int minChunkSize = Math.max(1, Registry.intValue("daemon.inspections.min.chunk.size", 1000));
+    int chunkSize = Math.max(minChunkSize, (elements.size() + ourChunksCount - 1) / ourChunksCount);
+    if (elements.size() <= chunkSize) {
+      return Collections.singletonList(elements);
+    }
+    List<List<PsiElement>> chunks = new ArrayList<List<PsiElement>>();
+    for (int start = 0; start < elements.size(); start += chunkSize) {
+      chunks.add(elements.subList(start, Math.min(start + chunkSize, elements.size())));
+    }
+    return chunks;
+  }
+
   private static void acceptElements(@NotNull List<PsiElement> elements,
                                      @NotNull PsiElementVisitor elementVisitor,
                                      @Nullable Set<String> languages) {
@@ -794,15 +903,45 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
   
   private static class InspectionContext {
     private InspectionContext(LocalInspectionToolWrapper tool, ProblemsHolder holder, PsiElementVisitor visitor, Set<String> languageIds) {
+      this(tool, holder, visitor, languageIds, null, true);
+    }
+
+    private InspectionContext(LocalInspectionToolWrapper tool,
+                              ProblemsHolder holder,
+                              PsiElementVisitor visitor,
+                              Set<String> languageIds,
+                              List<PsiElement> elements,
+                              boolean first) {
       this.tool = tool;
       this.holder = holder;
       this.visitor = visitor;
       this.languageIds = languageIds;
+      this.elements = elements;
+      this.first = first;
     }
 
     final LocalInspectionToolWrapper tool;
     final ProblemsHolder holder;
     final PsiElementVisitor visitor;
     final Set<String> languageIds;
+    // the part of elements to visit for a tool inspecting in chunks, null to visit all of them
+    final List<PsiElement> elements;
+    // only the first chunk of a tool advances the progress
+    final boolean first;
+  }
+
+  private static class ElementsChunk {
+    private ElementsChunk(LocalInspectionToolWrapper tool, Set<String> languageIds, List<PsiElement> elements, boolean first) {
+      this.tool = tool;
+      this.languageIds = languageIds;
+      this.elements = elements;
+      this.first = first;
+    }
+
+    final LocalInspectionToolWrapper tool;
+    final Set<String> languageIds;
+    // null for a tool visiting all elements in one job
+    final List<PsiElement> elements;
+    final boolean first;
   }
 }
@@ -64,6 +64,7 @@ import com.intellij.openapi.project.DumbAwareAction;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.*;
 import com.intellij.openapi.util.text.LineTokenizer;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiFile;
@@ -92,6 +93,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
   private static final Logger LOG = Logger.getInstance("#com.intellij.execution.impl.ConsoleViewImpl");
 
   private static final int DEFAULT_FLUSH_DELAY = SystemProperties.getIntProperty("console.flush.delay.ms", 200);
+  private static final int FILTER_BATCH_LINE_COUNT = 500;
 
   public static final Key<ConsoleViewImpl> CONSOLE_VIEW_IN_EDITOR_VIEW = Key.create("CONSOLE_VIEW_IN_EDITOR_VIEW");
 
@@ -233,6 +235,13 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
 
   private final Alarm myFlushUserInputAlarm = new Alarm(Alarm.ThreadToUse.OWN_THREAD, this);
   private final Alarm myFlushAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, this);
+  private final Alarm myFilterAlarm = new Alarm(Alarm.ThreadToUse.OWN_THREAD, this);
+  /**
+   * Filters aren't required to be thread-safe, so a console applies them either on the EDT or on the thread of {@link #myFilterAlarm},
+   * never on both.
+   */
+  private final boolean myFiltersInBackground = Registry.is("console.filters.in.background");
+  private volatile int myFilterTicket;
 
   private final Set<MyFlushRunnable> myCurrentRequests = new HashSet<MyFlushRunnable>();
 
@@ -326,6 +335,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     cancelAllFlushRequests();
     addFlushRequest(new MyClearRunnable());
     cancelHeavyAlarm();
+    myFilterTicket++;
   }
 
   @Override
@@ -473,6 +483,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     if (myEditor != null) {
       cancelAllFlushRequests();
       mySpareTimeAlarm.cancelAllRequests();
+      myFilterTicket++;
       disposeEditor();
       synchronized (LOCK) {
         myBuffer.clear();
@@ -888,9 +899,14 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     ApplicationManager.getApplication().assertIsDispatchThread();
     PsiDocumentManager.getInstance(myProject).commitAllDocuments();
     if (canHighlightHyperlinks) {
-      myHyperlinks.highlightHyperlinks(myCustomFilter, myPredefinedMessageFilter, line1, endLine);
+      if (myFiltersInBackground) {
+        runFiltersInBackground(line1, endLine);
+      }
+      else {
+        myHyperlinks.highlightHyperlinks(myCustomFilter, myPredefinedMessageFilter, line1, endLine);
+      }
     }
-    
+
     if (myAllowHeavyFilters && myPredefinedMessageFilter.isAnyHeavy() && myPredefinedMessageFilter.shouldRunHeavy()) {
       runHeavyFilters(line1, endLine);
     }
@@ -899,6 +915,102 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     }
   }
 
+  /**
+   * Applies the filters to a copy of the lines on a background thread and adds the hyperlinks to the editor after every
+   * {@value #FILTER_BATCH_LINE_COUNT} lines, so that a lot of output doesn't block the UI while it's being filtered.
+   * The results are dropped if the lines are removed from the document in the meantime, e.g. by the cyclic buffer.
+   */
+  private void runFiltersInBackground(int line1, int endLine) {
+    final Document document = myEditor.getDocument();
+    final int startLine = Math.max(0, line1);
+    if (startLine > endLine) return;
+
+    final int startOffset = document.getLineStartOffset(startLine);
+    int endOffset = document.getLineEndOffset(endLine);
+    if (endOffset < document.getTextLength()) {
+      endOffset++; // add '\n'
+    }
+    if (startOffset >= endOffset) return;
+
+    final String text = document.getCharsSequence().subSequence(startOffset, endOffset).toString();
+    final RangeMarker marker = document.createRangeMarker(startOffset, endOffset);
+    final int ticket = myFilterTicket;
+    myFilterAlarm.addRequest(new Runnable() {
+      @Override
+      public void run() {
+        int batchStart = 0;
+        while (true) {
+          final int start = batchStart;
+          final int end = getFilterBatchEnd(text, start);
+          final List<Filter.Result> results = ApplicationManager.getApplication().runReadAction(new Computable<List<Filter.Result>>() {
+            @Override
+            public List<Filter.Result> compute() {
+              return applyFilters(text, start, end, startOffset, ticket);
+            }
+          });
+          final boolean last = end >= text.length() || ticket != myFilterTicket;
+          addFilterResults(results, marker, startOffset, text.length(), ticket, last);
+          if (last) break;
+          batchStart = end;
+        }
+      }
+    }, 0);
+  }
+
+  private static int getFilterBatchEnd(@NotNull String text, int start) {
+    int end = start;
+    for (int i = 0; i < FILTER_BATCH_LINE_COUNT && end < text.length(); i++) {
+      final int lineEnd = text.indexOf('\n', end);
+      end = lineEnd < 0 ? text.length() : lineEnd + 1;
+    }
+    return end;
+  }
+
+  @NotNull
+  private List<Filter.Result> applyFilters(@NotNull String text, int start, int end, int textOffset, int ticket) {
+    final List<Filter.Result> results = new ArrayList<Filter.Result>();
+    int lineStart = start;
+    while (lineStart < end && ticket == myFilterTicket) {
+      final int lineEnd = text.indexOf('\n', lineStart);
+      final int nextLineStart = lineEnd < 0 || lineEnd >= end ? end : lineEnd + 1;
+      final Filter.Result result = EditorHyperlinkSupport.applyFilters(myCustomFilter, myPredefinedMessageFilter,
+                                                                        text.substring(lineStart, nextLineStart), textOffset + nextLineStart);
+      if (result != null) {
+        results.add(result);
+      }
+      lineStart = nextLineStart;
+    }
+    return results;
+  }
+
+  private void addFilterResults(@NotNull final List<Filter.Result> results,
+                                @NotNull final RangeMarker marker,
+                                final int startOffset,
+                                final int length,
+                                final int ticket,
+                                final boolean last) {
+    if (myFlushAlarm.isDisposed()) return;
+    addFlushRequest(new MyFlushRunnable() {
+      @Override
+      public void doRun() {
+        final EditorHyperlinkSupport hyperlinks = myHyperlinks;
+        if (hyperlinks != null && ticket == myFilterTicket && marker.isValid() && marker.getEndOffset() - marker.getStartOffset() == length) {
+          for (Filter.Result result : results) {
+            hyperlinks.addResult(result, marker.getStartOffset() - startOffset);
+          }
+        }
+        if (last) {
+          marker.dispose();
+        }
+      }
+
+      @Override
+      public boolean equals(Object o) {
+        return this == o && super.equals(o);
+      }
+    });
+  }
+
   private void runHeavyFilters(int line1, int endLine) {
     final int startLine = Math.max(0, line1);
 
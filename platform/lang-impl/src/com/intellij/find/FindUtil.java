@@ -36,6 +36,7 @@ import com.intellij.openapi.editor.event.CaretEvent;
 import com.intellij.openapi.editor.event.CaretListener;
 import com.intellij.openapi.editor.ex.DocumentEx;
 import com.intellij.openapi.editor.ex.RangeHighlighterEx;
+import com.intellij.openapi.editor.impl.DocumentImpl;
 import com.intellij.openapi.editor.markup.HighlighterLayer;
 import com.intellij.openapi.editor.markup.HighlighterTargetArea;
 import com.intellij.openapi.editor.markup.RangeHighlighter;
@@ -591,6 +592,8 @@ public class FindUtil {
             return o1.getFirst().getStartOffset() - o2.getFirst().getStartOffset();
           }
         });
+        final List<TextRange> replacedRanges = new ArrayList<TextRange>(rangesToChange.size());
+        final List<String> replacements = new ArrayList<String>(rangesToChange.size());
         int offsetBefore = 0;
         for (Pair<TextRange, String> pair : rangesToChange) {
           TextRange range = pair.getFirst();
@@ -598,6 +601,8 @@ public class FindUtil {
           newText.append(text, offsetBefore, range.getStartOffset()); //before change
           if (delegate == null || delegate.shouldReplace(range, replace)) {
             newText.append(replace);
+            replacedRanges.add(range);
+            replacements.add(replace);
           }
           else {
             newText.append(text.subSequence(range.getStartOffset(), range.getEndOffset()));
@@ -618,7 +623,13 @@ public class FindUtil {
             ApplicationManager.getApplication().runWriteAction(new Runnable() {
               @Override
               public void run() {
-                document.setText(newText);
+                if (document instanceof DocumentImpl) {
+                  // keeps range markers between the occurrences, unlike setText()
+                  ((DocumentImpl)document).replaceStrings(replacedRanges, replacements);
+                }
+                else {
+                  document.setText(newText);
+                }
                 editor.getCaretModel().moveToOffset(finalCaretOffset);
                 if (model.isGlobal()) {
                   editor.getSelectionModel().removeSelection();
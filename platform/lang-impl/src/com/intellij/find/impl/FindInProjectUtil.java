@@ -18,6 +18,7 @@ package com.intellij.find.impl;
 
 import com.intellij.BundleBase;
 import com.intellij.find.*;
+import com.intellij.find.ngrams.RegExpTrigramPlanner;
 import com.intellij.find.ngrams.TrigramIndex;
 import com.intellij.navigation.ItemPresentation;
 import com.intellij.openapi.actionSystem.DataContext;
@@ -35,6 +36,8 @@ import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.impl.ProgressManagerImpl;
+import com.intellij.openapi.progress.util.ProgressWrapper;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.IndexNotReadyException;
 import com.intellij.openapi.project.Project;
@@ -75,6 +78,11 @@ import org.jetbrains.annotations.Nullable;
 import javax.swing.*;
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
 public class FindInProjectUtil {
@@ -199,53 +207,18 @@ public class FindInProjectUtil {
                                 @NotNull final Processor<UsageInfo> consumer) {
     final ProgressIndicator progress = ProgressManager.getInstance().getProgressIndicator();
 
-    final Collection<PsiFile> psiFiles = getFilesToSearchIn(findModel, project, psiDirectory);
+    final ConcurrentFileSearch search = new ConcurrentFileSearch(findModel, project, progress, consumer);
     try {
-      final Set<PsiFile> largeFiles = new THashSet<PsiFile>();
-
-      int i = 0;
-      long totalFilesSize = 0;
-      int count = 0;
-      final boolean[] warningShown = {false};
-
-      for (final PsiFile psiFile : psiFiles) {
-        final VirtualFile virtualFile = psiFile.getVirtualFile();
-        final int index = i++;
-        if (virtualFile == null) continue;
-
-        long fileLength = getFileLength(virtualFile);
-        if (fileLength == -1) continue; // Binary or invalid
-
-        if (ProjectCoreUtil.isProjectOrWorkspaceFile(virtualFile) && !Registry.is("find.search.in.project.files")) continue;
-
-        if (fileLength > SINGLE_FILE_SIZE_LIMIT) {
-          largeFiles.add(psiFile);
-          continue;
-        }
-
-        if (progress != null) {
-          progress.checkCanceled();
-          progress.setFraction((double)index / psiFiles.size());
-          String text = FindBundle.message("find.searching.for.string.in.file.progress",
-                                           findModel.getStringToFind(), virtualFile.getPresentableUrl());
-          progress.setText(text);
-          progress.setText2(FindBundle.message("find.searching.for.string.in.file.occurrences.progress", count));
-        }
-
-        int countInFile = processUsagesInFile(psiFile, findModel, consumer);
-
-        count += countInFile;
-        if (countInFile > 0) {
-          totalFilesSize += fileLength;
-          if (totalFilesSize > FILES_SIZE_LIMIT && !warningShown[0]) {
-            warningShown[0] = true;
-            String message = FindBundle.message("find.excessive.total.size.prompt", presentableSize(totalFilesSize),
-                                                ApplicationNamesInfo.getInstance().getProductName());
-            UsageLimitUtil.showAndCancelIfAborted(project, message);
-          }
+      search.start();
+      processFilesToSearchIn(findModel, project, psiDirectory, new Processor<PsiFile>() {
+        @Override
+        public boolean process(PsiFile psiFile) {
+          return search.add(psiFile);
         }
-      }
+      });
+      search.finish();
 
+      final Set<PsiFile> largeFiles = search.getLargeFiles();
       if (showWarnings && !largeFiles.isEmpty()) {
         @Language("HTML")
         String message = "<html><body>";
@@ -280,6 +253,9 @@ public class FindInProjectUtil {
     catch (ProcessCanceledException e) {
       // fine
     }
+    finally {
+      search.stop();
+    }
 
     if (progress != null && !progress.isCanceled()) {
       progress.setText(FindBundle.message("find.progress.search.completed"));
@@ -359,22 +335,26 @@ public class FindInProjectUtil {
     return length[0];
   }
 
-  @NotNull
-  private static Collection<PsiFile> getFilesToSearchIn(@NotNull final FindModel findModel,
-                                                        @NotNull final Project project,
-                                                        final PsiDirectory psiDirectory) {
-    return ApplicationManager.getApplication().runReadAction(new Computable<Collection<PsiFile>>() {
+  /**
+   * Feeds files to search in to the processor as soon as they are found: candidates from the index first, then the rest of the scope
+   * unless the index is known to give the exact set of candidates.
+   */
+  private static void processFilesToSearchIn(@NotNull final FindModel findModel,
+                                             @NotNull final Project project,
+                                             final PsiDirectory psiDirectory,
+                                             @NotNull final Processor<PsiFile> processor) {
+    ApplicationManager.getApplication().runReadAction(new Runnable() {
       @Override
-      public Collection<PsiFile> compute() {
-        return getFilesToSearchInReadAction(findModel, project, psiDirectory);
+      public void run() {
+        processFilesToSearchInReadAction(findModel, project, psiDirectory, processor);
       }
     });
   }
 
-  @NotNull
-  private static Collection<PsiFile> getFilesToSearchInReadAction(@NotNull final FindModel findModel,
-                                                                  @NotNull final Project project,
-                                                                  @Nullable final PsiDirectory psiDirectory) {
+  private static void processFilesToSearchInReadAction(@NotNull final FindModel findModel,
+                                                       @NotNull final Project project,
+                                                       @Nullable final PsiDirectory psiDirectory,
+                                                       @NotNull final Processor<PsiFile> processor) {
     String moduleName = findModel.getModuleName();
     Module module = moduleName == null ? null : ModuleManager.getInstance(project).findModuleByName(moduleName);
     final FileIndex fileIndex = module == null ?
@@ -387,12 +367,13 @@ public class FindInProjectUtil {
       Pair<Boolean, Collection<PsiFile>> fastWords = getFilesForFastWordSearch(findModel, project, psiDirectory, fileMaskRegExp, module, fileIndex);
       final Collection<PsiFile> filesForFastWordSearch = fastWords.getSecond();
 
-      if (fastWords.getFirst() && canOptimizeForFastWordSearch(findModel)) return filesForFastWordSearch;
+      if (!ContainerUtil.process(filesForFastWordSearch, processor)) return;
+      final boolean fast = fastWords.getFirst() && canOptimizeForFastWordSearch(findModel);
+      if (fast && !findModel.isRegularExpressions()) return;
 
       final GlobalSearchScope customScope = toGlobal(project, findModel.getCustomScope());
 
       class EnumContentIterator implements ContentIterator {
-        final List<PsiFile> myFiles = new ArrayList<PsiFile>(filesForFastWordSearch);
         final PsiManager psiManager = PsiManager.getInstance(project);
 
         @Override
@@ -401,18 +382,15 @@ public class FindInProjectUtil {
           if (!virtualFile.isDirectory() &&
               (fileMaskRegExp == null || fileMaskRegExp.matcher(virtualFile.getName()).matches()) &&
               (customScope == null || customScope.contains(virtualFile))) {
+            // a regexp trigram query has found all candidates among indexed files, the rest (binary, too large) are searched anyway
+            if (fast && TrigramIndex.isIndexed(virtualFile)) return true;
             final PsiFile psiFile = psiManager.findFile(virtualFile);
             if (psiFile != null && !filesForFastWordSearch.contains(psiFile)) {
-              myFiles.add(psiFile);
+              return processor.process(psiFile);
             }
           }
           return true;
         }
-
-        @NotNull
-        private Collection<PsiFile> getFiles() {
-          return myFiles;
-        }
       }
       EnumContentIterator iterator = new EnumContentIterator();
 
@@ -427,14 +405,13 @@ public class FindInProjectUtil {
       else {
         fileIndex.iterateContentUnderDirectory(psiDirectory.getVirtualFile(), iterator);
       }
-      return iterator.getFiles();
+      return;
     }
     if (psiDirectory.isValid()) {
       Collection<PsiFile> fileList = new THashSet<PsiFile>();
       addFilesUnderDirectory(psiDirectory, fileList, findModel.isWithSubdirectories(), createFileMaskRegExp(findModel));
-      return fileList;
+      ContainerUtil.process(fileList, processor);
     }
-    return Collections.emptyList();
   }
 
   private static boolean iterateAll(@NotNull VirtualFile[] files, @NotNull final GlobalSearchScope searchScope, @NotNull final ContentIterator iterator) {
@@ -496,6 +473,21 @@ public class FindInProjectUtil {
     boolean fast = false;
 
     String stringToFind = findModel.getStringToFind();
+    if (findModel.isRegularExpressions()) {
+      if (!TrigramIndex.ENABLED) {
+        return new Pair<Boolean, Collection<PsiFile>>(false, Collections.<PsiFile>emptyList());
+      }
+      Set<VirtualFile> hits = RegExpTrigramPlanner.buildQuery(stringToFind).findFiles(scope);
+      if (hits == null) {
+        return new Pair<Boolean, Collection<PsiFile>>(false, Collections.<PsiFile>emptyList());
+      }
+      for (VirtualFile hit : hits) {
+        ContainerUtil.addIfNotNull(pm.findFile(hit), resultFiles);
+      }
+      filterMaskedFiles(resultFiles, fileMaskRegExp);
+      return new Pair<Boolean, Collection<PsiFile>>(true, resultFiles);
+    }
+
     if (TrigramIndex.ENABLED) {
       TIntHashSet trigrams = TrigramBuilder.buildTrigram(stringToFind);
       TIntIterator it = trigrams.iterator();
@@ -585,7 +577,7 @@ public class FindInProjectUtil {
   }
 
   private static boolean canOptimizeForFastWordSearch(@NotNull final FindModel findModel) {
-    return !findModel.isRegularExpressions()
+    return (!findModel.isRegularExpressions() || TrigramIndex.ENABLED)
            && (findModel.getCustomScope() == null || findModel.getCustomScope() instanceof GlobalSearchScope);
   }
 
@@ -694,6 +686,177 @@ public class FindInProjectUtil {
     return processPresentation;
   }
 
+  private static int getSearchThreadsCount() {
+    // usage limit prompts are shown synchronously in the dispatch thread, which must not block waiting for the workers
+    if (ApplicationManager.getApplication().isDispatchThread()) return 1;
+    return Math.max(1, Math.min(Registry.intValue("find.in.path.threads"), Runtime.getRuntime().availableProcessors()));
+  }
+
+  /**
+   * Searches for usages in files while they are still being collected: pooled threads take files from the queue as soon as they are
+   * added, and the calling thread joins them in {@link #finish()}. Every file is searched in short read actions of its own,
+   * usages are passed to the consumer one at a time.
+   */
+  private static class ConcurrentFileSearch {
+    private final FindModel myFindModel;
+    private final Project myProject;
+    private final ProgressIndicator myProgress;
+    private final Processor<UsageInfo> myConsumer;
+    private final BlockingQueue<PsiFile> myQueue = new LinkedBlockingQueue<PsiFile>();
+    private final List<Future<?>> myWorkers = new ArrayList<Future<?>>();
+    private final Set<PsiFile> myLargeFiles = Collections.synchronizedSet(new THashSet<PsiFile>());
+    private final AtomicInteger myAddedCount = new AtomicInteger();
+    private final AtomicInteger mySearchedCount = new AtomicInteger();
+    private final AtomicInteger myUsagesCount = new AtomicInteger();
+    private final AtomicLong myTotalFilesSize = new AtomicLong();
+    private final AtomicBoolean myWarningShown = new AtomicBoolean();
+    private final AtomicReference<Throwable> myError = new AtomicReference<Throwable>();
+    private volatile boolean myAllAdded;
+    private volatile boolean myStopped;
+
+    private ConcurrentFileSearch(@NotNull FindModel findModel,
+                                 @NotNull Project project,
+                                 @Nullable ProgressIndicator progress,
+                                 @NotNull final Processor<UsageInfo> consumer) {
+      myFindModel = findModel;
+      myProject = project;
+      myProgress = progress;
+      myConsumer = new Processor<UsageInfo>() {
+        @Override
+        public synchronized boolean process(UsageInfo info) {
+          return consumer.process(info);
+        }
+      };
+    }
+
+    private void start() {
+      final ProgressWrapper progress = ProgressWrapper.wrap(myProgress);
+      for (int i = 1; i < getSearchThreadsCount(); i++) {
+        myWorkers.add(ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              ((ProgressManagerImpl)ProgressManager.getInstance()).executeProcessUnderProgress(new Runnable() {
+                @Override
+                public void run() {
+                  searchQueuedFiles();
+                }
+              }, progress);
+            }
+            catch (Throwable e) {
+              myError.compareAndSet(null, e);
+              myStopped = true;
+            }
+          }
+        }));
+      }
+    }
+
+    private boolean add(@NotNull PsiFile psiFile) {
+      if (myStopped) return false;
+      myAddedCount.incrementAndGet();
+      myQueue.add(psiFile);
+      return true;
+    }
+
+    /**
+     * Searches the rest of the queue in the calling thread and waits for the workers.
+     */
+    private void finish() {
+      myAllAdded = true;
+      searchQueuedFiles();
+      waitForWorkers();
+
+      final Throwable error = myError.get();
+      if (error instanceof RuntimeException) throw (RuntimeException)error;
+      if (error instanceof Error) throw (Error)error;
+      if (error != null) throw new RuntimeException(error);
+    }
+
+    private void stop() {
+      myStopped = true;
+      myQueue.clear();
+      waitForWorkers();
+    }
+
+    private void waitForWorkers() {
+      for (Future<?> worker : myWorkers) {
+        try {
+          worker.get();
+        }
+        catch (InterruptedException e) {
+          throw new ProcessCanceledException(e);
+        }
+        catch (ExecutionException e) {
+          myError.compareAndSet(null, e.getCause());
+        }
+      }
+    }
+
+    @NotNull
+    private Set<PsiFile> getLargeFiles() {
+      return myLargeFiles;
+    }
+
+    private void searchQueuedFiles() {
+      // comments and literals search keeps its lexer in the model
+      final FindModel findModel = (FindModel)myFindModel.clone();
+      while (!myStopped) {
+        final boolean allAdded = myAllAdded;
+        final PsiFile psiFile;
+        try {
+          psiFile = allAdded ? myQueue.poll() : myQueue.poll(10, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+          throw new ProcessCanceledException(e);
+        }
+        if (psiFile == null) {
+          if (allAdded) break;
+          ProgressManager.checkCanceled();
+          continue;
+        }
+        searchInFile(psiFile, findModel);
+      }
+    }
+
+    private void searchInFile(@NotNull PsiFile psiFile, @NotNull FindModel findModel) {
+      final VirtualFile virtualFile = psiFile.getVirtualFile();
+      final int index = mySearchedCount.getAndIncrement();
+      if (virtualFile == null) return;
+
+      long fileLength = getFileLength(virtualFile);
+      if (fileLength == -1) return; // Binary or invalid
+
+      if (ProjectCoreUtil.isProjectOrWorkspaceFile(virtualFile) && !Registry.is("find.search.in.project.files")) return;
+
+      if (fileLength > SINGLE_FILE_SIZE_LIMIT) {
+        myLargeFiles.add(psiFile);
+        return;
+      }
+
+      if (myProgress != null) {
+        myProgress.checkCanceled();
+        myProgress.setFraction((double)index / myAddedCount.get());
+        String text = FindBundle.message("find.searching.for.string.in.file.progress",
+                                         findModel.getStringToFind(), virtualFile.getPresentableUrl());
+        myProgress.setText(text);
+        myProgress.setText2(FindBundle.message("find.searching.for.string.in.file.occurrences.progress", myUsagesCount.get()));
+      }
+
+      int countInFile = processUsagesInFile(psiFile, findModel, myConsumer);
+
+      myUsagesCount.addAndGet(countInFile);
+      if (countInFile > 0) {
+        long totalFilesSize = myTotalFilesSize.addAndGet(fileLength);
+        if (totalFilesSize > FILES_SIZE_LIMIT && myWarningShown.compareAndSet(false, true)) {
+          String message = FindBundle.message("find.excessive.total.size.prompt", presentableSize(totalFilesSize),
+                                              ApplicationNamesInfo.getInstance().getProductName());
+          UsageLimitUtil.showAndCancelIfAborted(myProject, message);
+        }
+      }
+    }
+  }
+
   public static class StringUsageTarget implements UsageTarget {
     private final String myStringToFind;
 
@@ -0,0 +1,681 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.text.StringUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Turns a {@link java.util.regex.Pattern} regular expression into a {@link TrigramQuery} every text matching the expression satisfies.
+ * <p/>
+ * For every sub-expression the planner computes either the exact set of strings it matches or the sets of their possible prefixes
+ * and suffixes, plus a trigram query which is known to hold (see Russ Cox, "Regular Expression Matching with a Trigram Index").
+ * Sets are kept small by moving the information into the query. Constructs which cannot be analyzed (back references,
+ * lookarounds, large character classes, ...) are treated as matching any string, so the resulting query is never too strict.
+ */
+public class RegExpTrigramPlanner {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.find.ngrams.RegExpTrigramPlanner");
+
+  private static final int MAX_EXACT = 7;
+  private static final int MAX_SET = 20;
+  private static final int MAX_CLASS_SIZE = 20;
+
+  private RegExpTrigramPlanner() {
+  }
+
+  /**
+   * @return trigram query for files which may contain a match of the pattern, {@link TrigramQuery#ALL} if nothing can be deduced
+   */
+  @NotNull
+  public static TrigramQuery buildQuery(@NotNull String regexp) {
+    try {
+      final Parser parser = new Parser(regexp);
+      final Info info = parser.parseAlternation();
+      if (!parser.atEnd()) return TrigramQuery.ALL;
+      info.simplify(true);
+      info.addExact();
+      return info.match;
+    }
+    catch (UnsupportedRegExpException e) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Cannot build trigram query for " + regexp + ": " + e.getMessage());
+      }
+      return TrigramQuery.ALL;
+    }
+  }
+
+  private static class UnsupportedRegExpException extends Exception {
+    private UnsupportedRegExpException(String message) {
+      super(message);
+    }
+  }
+
+  private static class Info {
+    private boolean canBeEmpty;
+    private Set<String> exact; // null if unknown
+    private Set<String> prefix = new TreeSet<String>();
+    private Set<String> suffix = new TreeSet<String>();
+    private TrigramQuery match = TrigramQuery.ALL;
+
+    private static Info anyMatch() {
+      final Info info = new Info();
+      info.canBeEmpty = true;
+      info.prefix.add("");
+      info.suffix.add("");
+      return info;
+    }
+
+    private static Info anyChar() {
+      final Info info = anyMatch();
+      info.canBeEmpty = false;
+      return info;
+    }
+
+    private static Info emptyString() {
+      final Info info = new Info();
+      info.canBeEmpty = true;
+      info.exact = new TreeSet<String>();
+      info.exact.add("");
+      return info;
+    }
+
+    private static Info chars(@NotNull Set<Character> chars) {
+      final Info info = new Info();
+      info.exact = new TreeSet<String>();
+      for (Character c : chars) {
+        info.exact.add(String.valueOf(StringUtil.toLowerCase(c.charValue())));
+      }
+      return info;
+    }
+
+    private static Info literal(char c) {
+      return chars(Collections.singleton(c));
+    }
+
+    private static Info concat(@NotNull Info x, @NotNull Info y) {
+      final Info xy = new Info();
+      xy.match = TrigramQuery.and(x.match, y.match);
+      if (x.exact != null && y.exact != null) {
+        xy.exact = cross(x.exact, y.exact);
+      }
+      else {
+        if (x.exact != null) {
+          xy.prefix = cross(x.exact, y.prefix);
+        }
+        else {
+          xy.prefix = x.prefix;
+          if (x.canBeEmpty) {
+            xy.prefix = union(xy.prefix, y.prefix);
+          }
+        }
+        if (y.exact != null) {
+          xy.suffix = cross(x.suffix, y.exact);
+        }
+        else {
+          xy.suffix = y.suffix;
+          if (y.canBeEmpty) {
+            xy.suffix = union(xy.suffix, x.suffix);
+          }
+        }
+      }
+
+      // a trigram spanning the boundary of x and y must be present as well
+      if (x.exact == null && y.exact == null && x.suffix.size() <= MAX_SET && y.prefix.size() <= MAX_SET &&
+          minLength(x.suffix) + minLength(y.prefix) >= 3) {
+        xy.match = TrigramQuery.and(xy.match, anyOf(cross(x.suffix, y.prefix)));
+      }
+      xy.canBeEmpty = x.canBeEmpty && y.canBeEmpty;
+      xy.simplify(false);
+      return xy;
+    }
+
+    private static Info alternate(@NotNull Info x, @NotNull Info y) {
+      final Info xy = new Info();
+      if (x.exact != null && y.exact != null) {
+        xy.exact = union(x.exact, y.exact);
+      }
+      else if (x.exact != null) {
+        xy.prefix = union(x.exact, y.prefix);
+        xy.suffix = union(x.exact, y.suffix);
+        x.addExact();
+      }
+      else if (y.exact != null) {
+        xy.prefix = union(x.prefix, y.exact);
+        xy.suffix = union(x.suffix, y.exact);
+        y.addExact();
+      }
+      else {
+        xy.prefix = union(x.prefix, y.prefix);
+        xy.suffix = union(x.suffix, y.suffix);
+      }
+      xy.canBeEmpty = x.canBeEmpty || y.canBeEmpty;
+      xy.match = TrigramQuery.or(x.match, y.match);
+      xy.simplify(false);
+      return xy;
+    }
+
+    private static Info plus(@NotNull Info x) {
+      // there is at least one x, so prefixes and suffixes stay the same
+      if (x.exact != null) {
+        x.prefix = x.exact;
+        x.suffix = new TreeSet<String>(x.exact);
+        x.exact = null;
+      }
+      return x;
+    }
+
+    private void addExact() {
+      if (exact != null) {
+        match = TrigramQuery.and(match, anyOf(exact));
+      }
+    }
+
+    private void simplify(boolean force) {
+      if (exact != null) {
+        final int minLength = minLength(exact);
+        if (exact.size() > MAX_EXACT || minLength >= 3 && force || minLength >= 4) {
+          // too many or too long exact strings: keep their trigrams and ends only
+          addExact();
+          for (String s : exact) {
+            final int n = s.length();
+            prefix.add(n < 3 ? s : s.substring(0, 2));
+            suffix.add(n < 3 ? s : s.substring(n - 2));
+          }
+          exact = null;
+        }
+      }
+      if (exact == null) {
+        prefix = simplifySet(prefix, false);
+        suffix = simplifySet(suffix, true);
+      }
+    }
+
+    @NotNull
+    private Set<String> simplifySet(@NotNull Set<String> set, boolean isSuffix) {
+      match = TrigramQuery.and(match, anyOf(set));
+      Set<String> result = clean(set, isSuffix);
+      for (int n = 3; n == 3 || result.size() > MAX_SET; n--) {
+        final Set<String> trimmed = new TreeSet<String>();
+        for (String s : result) {
+          if (s.length() >= n) {
+            s = isSuffix ? s.substring(s.length() - n + 1) : s.substring(0, n - 1);
+          }
+          trimmed.add(s);
+        }
+        result = clean(trimmed, isSuffix);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * @return query for text containing any of the strings, {@link TrigramQuery#ALL} if some of them are too short to have trigrams
+   */
+  @NotNull
+  private static TrigramQuery anyOf(@NotNull Set<String> strings) {
+    if (strings.isEmpty() || minLength(strings) < 3) return TrigramQuery.ALL;
+    TrigramQuery result = null;
+    for (String s : strings) {
+      final TrigramQuery query = TrigramQuery.forString(s);
+      result = result == null ? query : TrigramQuery.or(result, query);
+    }
+    return result;
+  }
+
+  @NotNull
+  private static Set<String> cross(@NotNull Set<String> s1, @NotNull Set<String> s2) {
+    final Set<String> result = new TreeSet<String>();
+    for (String a : s1) {
+      for (String b : s2) {
+        result.add(a + b);
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  private static Set<String> union(@NotNull Set<String> s1, @NotNull Set<String> s2) {
+    final Set<String> result = new TreeSet<String>(s1);
+    result.addAll(s2);
+    return result;
+  }
+
+  private static int minLength(@NotNull Set<String> strings) {
+    if (strings.isEmpty()) return 0;
+    int result = Integer.MAX_VALUE;
+    for (String s : strings) {
+      result = Math.min(result, s.length());
+    }
+    return result;
+  }
+
+  /**
+   * Removes strings which are redundant as prefixes (suffixes): if "ab" is a possible prefix, "abc" adds nothing.
+   */
+  @NotNull
+  private static Set<String> clean(@NotNull Set<String> strings, boolean isSuffix) {
+    final List<String> sorted = new ArrayList<String>(strings);
+    Collections.sort(sorted, new Comparator<String>() {
+      @Override
+      public int compare(String o1, String o2) {
+        return o1.length() - o2.length();
+      }
+    });
+    final Set<String> result = new TreeSet<String>();
+    for (String s : sorted) {
+      boolean redundant = false;
+      for (String shorter : result) {
+        if (isSuffix ? s.endsWith(shorter) : s.startsWith(shorter)) {
+          redundant = true;
+          break;
+        }
+      }
+      if (!redundant) {
+        result.add(s);
+      }
+    }
+    return result;
+  }
+
+  private static class Parser {
+    private final String myText;
+    private int myPos;
+
+    private Parser(@NotNull String text) {
+      myText = text;
+    }
+
+    private boolean atEnd() {
+      return myPos >= myText.length();
+    }
+
+    private char peek() {
+      return myText.charAt(myPos);
+    }
+
+    private boolean lookingAt(@NotNull String s) {
+      return myText.startsWith(s, myPos);
+    }
+
+    private char next() throws UnsupportedRegExpException {
+      if (atEnd()) throw new UnsupportedRegExpException("unexpected end");
+      return myText.charAt(myPos++);
+    }
+
+    private Info parseAlternation() throws UnsupportedRegExpException {
+      Info result = parseConcatenation();
+      while (!atEnd() && peek() == '|') {
+        myPos++;
+        result = Info.alternate(result, parseConcatenation());
+      }
+      return result;
+    }
+
+    private Info parseConcatenation() throws UnsupportedRegExpException {
+      Info result = Info.emptyString();
+      while (!atEnd() && peek() != '|' && peek() != ')') {
+        result = Info.concat(result, parseRepetition());
+      }
+      return result;
+    }
+
+    private Info parseRepetition() throws UnsupportedRegExpException {
+      Info info = parseAtom();
+      while (!atEnd()) {
+        final char c = peek();
+        if (c == '*') {
+          myPos++;
+          info = Info.anyMatch();
+        }
+        else if (c == '+') {
+          myPos++;
+          info = Info.plus(info);
+        }
+        else if (c == '?') {
+          myPos++;
+          info = Info.alternate(info, Info.emptyString());
+        }
+        else if (c == '{' && myPos + 1 < myText.length() && Character.isDigit(myText.charAt(myPos + 1))) {
+          final int end = myText.indexOf('}', myPos);
+          if (end < 0) throw new UnsupportedRegExpException("unclosed counted closure");
+          final String bounds = myText.substring(myPos + 1, end);
+          myPos = end + 1;
+          final int comma = bounds.indexOf(',');
+          final int min = parseCount(comma < 0 ? bounds : bounds.substring(0, comma));
+          final int max = comma < 0 ? min : comma == bounds.length() - 1 ? -1 : parseCount(bounds.substring(comma + 1));
+          if (min > 0) {
+            info = Info.plus(info);
+          }
+          else if (max == 1) {
+            info = Info.alternate(info, Info.emptyString());
+          }
+          else {
+            info = Info.anyMatch();
+          }
+        }
+        else {
+          break;
+        }
+        // lazy and possessive quantifiers match the same strings
+        if (!atEnd() && (peek() == '?' || peek() == '+')) {
+          myPos++;
+        }
+      }
+      return info;
+    }
+
+    private static int parseCount(@NotNull String s) throws UnsupportedRegExpException {
+      try {
+        return Integer.parseInt(s.trim());
+      }
+      catch (NumberFormatException e) {
+        throw new UnsupportedRegExpException("bad count " + s);
+      }
+    }
+
+    private Info parseAtom() throws UnsupportedRegExpException {
+      final char c = next();
+      switch (c) {
+        case '(':
+          return parseGroup();
+        case '[':
+          return parseClass();
+        case '.':
+          return Info.anyChar();
+        case '^':
+        case '$':
+          return Info.emptyString();
+        case '\\':
+          return parseEscape();
+        case '*':
+        case '+':
+        case '?':
+        case '{':
+          throw new UnsupportedRegExpException("dangling quantifier at " + (myPos - 1));
+        default:
+          return Info.literal(c);
+      }
+    }
+
+    private Info parseGroup() throws UnsupportedRegExpException {
+      boolean lookaround = false;
+      if (lookingAt("?")) {
+        myPos++;
+        if (lookingAt("=") || lookingAt("!") || lookingAt("<=") || lookingAt("<!")) {
+          myPos += peek() == '<' ? 2 : 1;
+          lookaround = true;
+        }
+        else if (lookingAt("<")) {
+          final int end = myText.indexOf('>', myPos);
+          if (end < 0) throw new UnsupportedRegExpException("unclosed group name");
+          myPos = end + 1;
+        }
+        else if (lookingAt(">") || lookingAt(":")) {
+          myPos++;
+        }
+        else {
+          // inline flags: (?idmsux-idmsux) or (?idmsux-idmsux:X)
+          final int start = myPos;
+          while (!atEnd() && (Character.isLetter(peek()) || peek() == '-')) {
+            myPos++;
+          }
+          final String flags = myText.substring(start, myPos);
+          if (flags.indexOf('x') >= 0) throw new UnsupportedRegExpException("comments mode");
+          if (next() == ')') return Info.emptyString();
+          if (myText.charAt(myPos - 1) != ':') throw new UnsupportedRegExpException("bad group");
+        }
+      }
+
+      final Info info = parseAlternation();
+      if (next() != ')') throw new UnsupportedRegExpException("unclosed group");
+      return lookaround ? Info.emptyString() : info;
+    }
+
+    private Info parseEscape() throws UnsupportedRegExpException {
+      final char c = next();
+      switch (c) {
+        case 't': return Info.literal('\t');
+        case 'n': return Info.literal('\n');
+        case 'r': return Info.literal('\r');
+        case 'f': return Info.literal('\f');
+        case 'a': return Info.literal('\u0007');
+        case 'e': return Info.literal('\u001B');
+        case 'b':
+        case 'B':
+        case 'A':
+        case 'z':
+        case 'Z':
+        case 'G':
+          return Info.emptyString();
+        case 'Q': {
+          final int end = myText.indexOf("\\E", myPos);
+          final String quoted = myText.substring(myPos, end < 0 ? myText.length() : end);
+          myPos = end < 0 ? myText.length() : end + 2;
+          Info info = Info.emptyString();
+          for (int i = 0; i < quoted.length(); i++) {
+            info = Info.concat(info, Info.literal(quoted.charAt(i)));
+          }
+          return info;
+        }
+        case 'k':
+          // named back reference
+          if (lookingAt("<")) {
+            final int end = myText.indexOf('>', myPos);
+            if (end < 0) throw new UnsupportedRegExpException("unclosed group name");
+            myPos = end + 1;
+          }
+          return Info.anyMatch();
+        case 'p':
+        case 'P':
+          if (lookingAt("{")) {
+            final int end = myText.indexOf('}', myPos);
+            if (end < 0) throw new UnsupportedRegExpException("unclosed property");
+            myPos = end + 1;
+          }
+          else {
+            next();
+          }
+          return Info.anyChar();
+        case 'd':
+        case 'D':
+        case 'w':
+        case 'W':
+        case 's':
+        case 'S':
+        case 'h':
+        case 'H':
+        case 'v':
+        case 'V':
+          return Info.anyChar();
+        case 'R':
+        case 'X':
+          return Info.anyMatch();
+        default:
+          if (c >= '1' && c <= '9') {
+            // back reference
+            while (!atEnd() && Character.isDigit(peek())) {
+              myPos++;
+            }
+            return Info.anyMatch();
+          }
+          return Info.literal(parseCharEscape(c));
+      }
+    }
+
+    /**
+     * @return character denoted by an escape sequence which is not a character class, c is the character after the backslash
+     */
+    private char parseCharEscape(char c) throws UnsupportedRegExpException {
+      switch (c) {
+        case 't': return '\t';
+        case 'n': return '\n';
+        case 'r': return '\r';
+        case 'f': return '\f';
+        case 'a': return '\u0007';
+        case 'e': return '\u001B';
+        case '0': {
+          int value = 0;
+          for (int i = 0; i < 3 && !atEnd() && peek() >= '0' && peek() <= '7' && value * 8 + peek() - '0' <= 0377; i++) {
+            value = value * 8 + next() - '0';
+          }
+          return (char)value;
+        }
+        case 'x': {
+          if (lookingAt("{")) {
+            final int end = myText.indexOf('}', myPos);
+            if (end < 0) throw new UnsupportedRegExpException("unclosed hex escape");
+            final int value = parseHex(myText.substring(myPos + 1, end));
+            myPos = end + 1;
+            if (value > Character.MAX_VALUE) throw new UnsupportedRegExpException("supplementary character");
+            return (char)value;
+          }
+          return (char)parseHex(nextChars(2));
+        }
+        case 'u':
+          return (char)parseHex(nextChars(4));
+        case 'c':
+          return (char)(next() ^ 64);
+        default:
+          if (Character.isLetterOrDigit(c)) throw new UnsupportedRegExpException("unknown escape \\" + c);
+          return c;
+      }
+    }
+
+    @NotNull
+    private String nextChars(int count) throws UnsupportedRegExpException {
+      if (myPos + count > myText.length()) throw new UnsupportedRegExpException("unexpected end");
+      final String result = myText.substring(myPos, myPos + count);
+      myPos += count;
+      return result;
+    }
+
+    private static int parseHex(@NotNull String s) throws UnsupportedRegExpException {
+      try {
+        return Integer.parseInt(s, 16);
+      }
+      catch (NumberFormatException e) {
+        throw new UnsupportedRegExpException("bad hex escape " + s);
+      }
+    }
+
+    private Info parseClass() throws UnsupportedRegExpException {
+      final Set<Character> chars = parseClassChars();
+      return chars == null ? Info.anyChar() : Info.chars(chars);
+    }
+
+    /**
+     * @return lower case characters of a class after the opening bracket, or null if the class is negated or too large
+     */
+    private Set<Character> parseClassChars() throws UnsupportedRegExpException {
+      boolean negated = false;
+      if (lookingAt("^")) {
+        myPos++;
+        negated = true;
+      }
+      Set<Character> chars = new HashSet<Character>();
+      boolean first = true;
+      while (true) {
+        char c = next();
+        if (c == ']' && !first) break;
+        first = false;
+
+        if (c == '[') {
+          chars = unionClass(chars, parseClassChars());
+          continue;
+        }
+        if (c == '&' && lookingAt("&")) {
+          // intersection: the result is a subset of either operand, keep the left one
+          myPos++;
+          if (lookingAt("[")) {
+            myPos++;
+            parseClassChars();
+          }
+          else {
+            final Set<Character> ignored = new HashSet<Character>();
+            while (!lookingAt("]")) {
+              addClassChar(ignored, next());
+            }
+          }
+          continue;
+        }
+        if (c == '\\') {
+          final char escaped = next();
+          if ("dDwWsShHvV".indexOf(escaped) >= 0) {
+            chars = null;
+            continue;
+          }
+          if (escaped == 'p' || escaped == 'P') {
+            if (lookingAt("{")) {
+              final int end = myText.indexOf('}', myPos);
+              if (end < 0) throw new UnsupportedRegExpException("unclosed property");
+              myPos = end + 1;
+            }
+            else {
+              next();
+            }
+            chars = null;
+            continue;
+          }
+          if (escaped == 'Q') {
+            final int end = myText.indexOf("\\E", myPos);
+            if (end < 0) throw new UnsupportedRegExpException("unclosed quote");
+            for (int i = myPos; i < end; i++) {
+              chars = addClassChar(chars, myText.charAt(i));
+            }
+            myPos = end + 2;
+            continue;
+          }
+          c = parseCharEscape(escaped);
+        }
+
+        if (lookingAt("-") && myPos + 1 < myText.length() && myText.charAt(myPos + 1) != ']') {
+          myPos++;
+          char to = next();
+          if (to == '\\') {
+            to = parseCharEscape(next());
+          }
+          if (to < c) throw new UnsupportedRegExpException("bad range");
+          if (to - c >= MAX_CLASS_SIZE) {
+            chars = null;
+          }
+          else {
+            for (char ch = c; ch <= to; ch++) {
+              chars = addClassChar(chars, ch);
+            }
+          }
+          continue;
+        }
+        chars = addClassChar(chars, c);
+      }
+      return negated ? null : chars;
+    }
+
+    private static Set<Character> addClassChar(Set<Character> chars, char c) {
+      if (chars == null) return null;
+      chars.add(StringUtil.toLowerCase(c));
+      return chars.size() > MAX_CLASS_SIZE ? null : chars;
+    }
+
+    private static Set<Character> unionClass(Set<Character> chars, Set<Character> other) {
+      if (chars == null || other == null) return null;
+      chars.addAll(other);
+      return chars.size() > MAX_CLASS_SIZE ? null : chars;
+    }
+  }
+}
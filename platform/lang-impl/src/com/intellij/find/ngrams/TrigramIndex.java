@@ -21,6 +21,8 @@ package com.intellij.find.ngrams;
 
 import com.intellij.openapi.util.text.TrigramBuilder;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.SingleRootFileViewProvider;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.indexing.*;
 import com.intellij.util.io.EnumeratorIntegerDescriptor;
 import com.intellij.util.io.KeyDescriptor;
@@ -32,7 +34,7 @@ import org.jetbrains.annotations.NotNull;
 import java.util.Map;
 
 public class TrigramIndex extends ScalarIndexExtension<Integer> {
-  public static final boolean ENABLED = "true".equals(System.getProperty("idea.internal.trigramindex.enabled"));
+  public static final boolean ENABLED = SystemProperties.getBooleanProperty("idea.internal.trigramindex.enabled", false);
 
   public static final ID<Integer,Void> INDEX_ID = ID.create("Trigram.Index");
 
@@ -49,6 +51,13 @@ public class TrigramIndex extends ScalarIndexExtension<Integer> {
     }
   };
 
+  /**
+   * @return false if the index has no data for the file, such a file is never found by trigram queries and should be searched anyway
+   */
+  public static boolean isIndexed(@NotNull VirtualFile file) {
+    return ENABLED && INPUT_FILTER.acceptInput(file) && !SingleRootFileViewProvider.isTooLargeForIntelligence(file);
+  }
+
   @NotNull
   @Override
   public ID<Integer, Void> getName() {
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import com.intellij.openapi.util.text.TrigramBuilder;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.CommonProcessors;
+import com.intellij.util.indexing.FileBasedIndex;
+import gnu.trove.THashSet;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIterator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Boolean query over {@link TrigramIndex}: either all of the trigrams and sub-queries (AND) or any of them (OR) must be present
+ * in a file. The query is a necessary condition only, matching files still have to be searched.
+ */
+public class TrigramQuery {
+  public static final TrigramQuery ALL = new TrigramQuery(true, new TIntHashSet(), Collections.<TrigramQuery>emptyList());
+
+  private final boolean myAnd;
+  private final TIntHashSet myTrigrams;
+  private final List<TrigramQuery> mySubQueries;
+
+  private TrigramQuery(boolean and, @NotNull TIntHashSet trigrams, @NotNull List<TrigramQuery> subQueries) {
+    myAnd = and;
+    myTrigrams = trigrams;
+    mySubQueries = subQueries;
+  }
+
+  /**
+   * @return query for files containing all trigrams of the string
+   */
+  @NotNull
+  public static TrigramQuery forString(@NotNull CharSequence text) {
+    final TIntHashSet trigrams = TrigramBuilder.buildTrigram(text);
+    return trigrams.isEmpty() ? ALL : new TrigramQuery(true, trigrams, Collections.<TrigramQuery>emptyList());
+  }
+
+  @NotNull
+  public static TrigramQuery and(@NotNull TrigramQuery q1, @NotNull TrigramQuery q2) {
+    return combine(true, q1, q2);
+  }
+
+  @NotNull
+  public static TrigramQuery or(@NotNull TrigramQuery q1, @NotNull TrigramQuery q2) {
+    return combine(false, q1, q2);
+  }
+
+  @NotNull
+  private static TrigramQuery combine(boolean and, @NotNull TrigramQuery q1, @NotNull TrigramQuery q2) {
+    if (q1.isAll()) return and ? q2 : ALL;
+    if (q2.isAll()) return and ? q1 : ALL;
+    if (q1.equals(q2)) return q1;
+
+    final TIntHashSet trigrams = new TIntHashSet();
+    final List<TrigramQuery> subQueries = new ArrayList<TrigramQuery>();
+    for (TrigramQuery q : new TrigramQuery[]{q1, q2}) {
+      if (q.myAnd == and || q.isSingleTrigram()) {
+        trigrams.addAll(q.myTrigrams.toArray());
+        subQueries.addAll(q.mySubQueries);
+      }
+      else {
+        subQueries.add(q);
+      }
+    }
+    return new TrigramQuery(and, trigrams, subQueries);
+  }
+
+  public boolean isAll() {
+    return myAnd && myTrigrams.isEmpty() && mySubQueries.isEmpty();
+  }
+
+  private boolean isSingleTrigram() {
+    return myTrigrams.size() == 1 && mySubQueries.isEmpty();
+  }
+
+  /**
+   * @return whether a file with the given trigrams may match the query
+   */
+  public boolean matches(@NotNull TIntHashSet fileTrigrams) {
+    if (myAnd) {
+      if (!fileTrigrams.containsAll(myTrigrams.toArray())) return false;
+      for (TrigramQuery query : mySubQueries) {
+        if (!query.matches(fileTrigrams)) return false;
+      }
+      return true;
+    }
+
+    for (TIntIterator it = myTrigrams.iterator(); it.hasNext(); ) {
+      if (fileTrigrams.contains(it.next())) return true;
+    }
+    for (TrigramQuery query : mySubQueries) {
+      if (query.matches(fileTrigrams)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return indexed files of the scope which may match the query, or null if the query doesn't restrict files
+   */
+  @Nullable
+  public Set<VirtualFile> findFiles(@NotNull GlobalSearchScope scope) {
+    if (isAll()) return null;
+
+    if (myAnd) {
+      Set<VirtualFile> result = myTrigrams.isEmpty() ? null : getFilesWithTrigrams(myTrigrams, scope);
+      for (TrigramQuery query : mySubQueries) {
+        if (result != null && result.isEmpty()) break;
+        final Set<VirtualFile> files = query.findFiles(scope);
+        if (files != null) {
+          if (result == null) {
+            result = files;
+          }
+          else {
+            result.retainAll(files);
+          }
+        }
+      }
+      return result;
+    }
+
+    final Set<VirtualFile> result = new THashSet<VirtualFile>();
+    for (TIntIterator it = myTrigrams.iterator(); it.hasNext(); ) {
+      final TIntHashSet trigram = new TIntHashSet();
+      trigram.add(it.next());
+      result.addAll(getFilesWithTrigrams(trigram, scope));
+    }
+    for (TrigramQuery query : mySubQueries) {
+      final Set<VirtualFile> files = query.findFiles(scope);
+      if (files == null) return null;
+      result.addAll(files);
+    }
+    return result;
+  }
+
+  @NotNull
+  private static Set<VirtualFile> getFilesWithTrigrams(@NotNull TIntHashSet trigrams, @NotNull GlobalSearchScope scope) {
+    final Set<Integer> keys = new THashSet<Integer>(trigrams.size());
+    for (TIntIterator it = trigrams.iterator(); it.hasNext(); ) {
+      keys.add(it.next());
+    }
+    final Set<VirtualFile> files = new THashSet<VirtualFile>();
+    FileBasedIndex.getInstance().getFilesWithKey(TrigramIndex.INDEX_ID, keys, new CommonProcessors.CollectProcessor<VirtualFile>(files), scope);
+    return files;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof TrigramQuery)) return false;
+    final TrigramQuery query = (TrigramQuery)o;
+    return myAnd == query.myAnd && myTrigrams.equals(query.myTrigrams) && mySubQueries.equals(query.mySubQueries);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (31 * (myAnd ? 1 : 0) + myTrigrams.hashCode()) + mySubQueries.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    if (isAll()) return "ALL";
+    final StringBuilder builder = new StringBuilder("(");
+    final int[] trigrams = myTrigrams.toArray();
+    Arrays.sort(trigrams);
+    final List<String> parts = new ArrayList<String>();
+    for (int trigram : trigrams) {
+      parts.add(new String(new char[]{(char)((trigram >> 16) & 0xFF), (char)((trigram >> 8) & 0xFF), (char)(trigram & 0xFF)}));
+    }
+    for (TrigramQuery query : mySubQueries) {
+      parts.add(query.toString());
+    }
+    for (int i = 0; i < parts.size(); i++) {
+      if (i > 0) builder.append(myAnd ? " AND " : " OR ");
+      builder.append(parts.get(i));
+    }
+    return builder.append(")").toString();
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.internal;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.impl.source.text.ReparseStatistics;
+
+/**
+ * Dumps the numbers of partial and full reparses per language collected since the previous dump and resets them.
+ */
+public class DumpReparseStatistics extends AnAction implements DumbAware {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.internal.DumpReparseStatistics");
+
+  @Override
+  public void actionPerformed(final AnActionEvent e) {
+    String statistics = StringUtil.join(ReparseStatistics.getCounters(), "\n");
+    ReparseStatistics.reset();
+    System.out.println(statistics);
+    LOG.info("Reparse statistics:\n" + statistics);
+  }
+}
@@ -1632,6 +1632,9 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     try {
       PsiFile psiFile = null;
       FileContentImpl fc = null;
+      // first run all the indexers, so that the storages are locked only for the time needed to write the results
+      final List<ID<?, ?>> indicesToUpdate = new ArrayList<ID<?, ?>>();
+      final List<ThrowableRunnable<StorageException>> updates = new ArrayList<ThrowableRunnable<StorageException>>();
       for (final ID<?, ?> indexId : myIndices.keySet()) {
         if (shouldIndexFile(file, indexId)) {
           if (fc == null) {
@@ -1655,18 +1658,30 @@ public class FileBasedIndexImpl extends FileBasedIndex {
             fc.putUserData(IndexingDataKeys.PROJECT, project);
           }
 
+          if (ourRebuildStatus.get(indexId).get() == REQUIRES_REBUILD) {
+            continue; // the index is scheduled for rebuild, no need to update
+          }
+
           try {
             ProgressManager.checkCanceled();
-            updateSingleIndex(indexId, file, fc);
+            updates.add(prepareIndexUpdate(indexId, file, fc));
+            indicesToUpdate.add(indexId);
           }
           catch (ProcessCanceledException e) {
             myChangedFilesCollector.scheduleForUpdate(file);
             throw e;
           }
-          catch (StorageException e) {
-            requestRebuild(indexId);
-            LOG.info(e);
-          }
+        }
+      }
+
+      for (int i = 0; i < updates.size(); i++) {
+        final ID<?, ?> indexId = indicesToUpdate.get(i);
+        try {
+          commitIndexUpdate(indexId, file, true, updates.get(i));
+        }
+        catch (StorageException e) {
+          requestRebuild(indexId);
+          LOG.info(e);
         }
       }
 
@@ -1682,11 +1697,31 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     if (ourRebuildStatus.get(indexId).get() == REQUIRES_REBUILD) {
       return; // the index is scheduled for rebuild, no need to update
     }
-    myLocalModCount++;
+    commitIndexUpdate(indexId, file, currentFC != null, prepareIndexUpdate(indexId, file, currentFC));
+  }
 
+  @NotNull
+  private ThrowableRunnable<StorageException> prepareIndexUpdate(final ID<?, ?> indexId, @NotNull final VirtualFile file, @Nullable final FileContent currentFC) {
     final int inputId = Math.abs(getFileId(file));
     final UpdatableIndex<?, ?, FileContent> index = getIndex(indexId);
     assert index != null;
+    final Ref<ThrowableRunnable<StorageException>> updateRef = new Ref<ThrowableRunnable<StorageException>>(null);
+
+    ProgressManager.getInstance().executeNonCancelableSection(new Runnable() {
+      @Override
+      public void run() {
+        updateRef.set(index.prepareUpdate(inputId, currentFC));
+      }
+    });
+    return updateRef.get();
+  }
+
+  private void commitIndexUpdate(final ID<?, ?> indexId,
+                                 @NotNull final VirtualFile file,
+                                 final boolean hasContent,
+                                 @NotNull final ThrowableRunnable<StorageException> update) throws StorageException {
+    myLocalModCount++;
+
     final Ref<StorageException> exRef = new Ref<StorageException>(null);
 
     final StorageGuard.Holder lock = setDataBufferingEnabled(false);
@@ -1695,7 +1730,7 @@ public class FileBasedIndexImpl extends FileBasedIndex {
         @Override
         public void run() {
           try {
-            index.update(inputId, currentFC);
+            update.run();
           }
           catch (StorageException e) {
             exRef.set(e);
@@ -1716,7 +1751,7 @@ public class FileBasedIndexImpl extends FileBasedIndex {
       @Override
       public void run() {
         if (file.isValid()) {
-          if (currentFC != null) {
+          if (hasContent) {
             IndexingStamp.update(file, indexId, IndexInfrastructure.getIndexCreationStamp(indexId));
           }
           else {
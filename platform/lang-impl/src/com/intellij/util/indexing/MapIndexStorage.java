@@ -23,7 +23,6 @@ import com.intellij.util.Processor;
 import com.intellij.util.containers.SLRUCache;
 import com.intellij.util.io.DataExternalizer;
 import com.intellij.util.io.KeyDescriptor;
-import com.intellij.util.io.PersistentMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -41,7 +40,8 @@ import java.util.concurrent.locks.ReentrantLock;
 */
 public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Value>{
   private static final Logger LOG = Logger.getInstance("#com.intellij.util.indexing.MapIndexStorage");
-  private PersistentMap<Key, ValueContainer<Value>> myMap;
+  private static final int COMPACTION_STEP_KEYS = 8 * 1024;
+  private ValueContainerMap<Key, Value> myMap;
   private SLRUCache<Key, ChangeTrackingValueContainer<Value>> myCache;
   private final File myStorageFile;
   private final KeyDescriptor<Key> myKeyDescriptor;
@@ -121,12 +121,13 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
   }
 
   @Override
-  public void flush() {
+  public void flush() throws IOException {
     l.lock();
     try {
-      if (!myMap.isClosed() && myMap.isDirty()) {
-        myCache.clear();
-        myMap.force();
+      if (!myMap.isClosed()) {
+        doFlush();
+        // flush is requested when indices are idle, so use the chance to reclaim space occupied by garbage values
+        myMap.performCompactionStep(COMPACTION_STEP_KEYS);
       }
     }
     finally {
@@ -134,10 +135,25 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
     }
   }
 
+  private void doFlush() {
+    if (myMap.isDirty()) {
+      myCache.clear();
+      myMap.force();
+    }
+  }
+
   @Override
   public void close() throws StorageException {
     try {
-      flush();
+      l.lock();
+      try {
+        if (!myMap.isClosed()) {
+          doFlush();
+        }
+      }
+      finally {
+        l.unlock();
+      }
       myMap.close();
     }
     catch (IOException e) {
@@ -16,6 +16,8 @@
 
 package com.intellij.util.indexing;
 
+import com.intellij.util.ThrowableRunnable;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.concurrent.locks.Lock;
@@ -31,6 +33,13 @@ public interface UpdatableIndex<Key, Value, Input> extends AbstractIndex<Key,Val
   void flush() throws StorageException;
 
   void update(int inputId, @Nullable Input content) throws StorageException;
+
+  /**
+   * Runs the indexer over the given content without touching the storage.
+   * The returned task stores the computed data when run and may be executed later on any thread.
+   */
+  @NotNull
+  ThrowableRunnable<StorageException> prepareUpdate(int inputId, @Nullable Input content);
   
   Lock getReadLock();
   
@@ -20,8 +20,6 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.util.SmartList;
 import com.intellij.util.containers.EmptyIterator;
 import gnu.trove.THashMap;
-import gnu.trove.TIntHashSet;
-import gnu.trove.TIntIterator;
 import gnu.trove.TObjectObjectProcedure;
 
 import java.util.*;
@@ -58,15 +56,15 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
       }
     }
     else {
-      final TIntHashSet idSet;
+      final IdSet idSet;
       if (input instanceof Integer) {
-        idSet = new IdSet(3, 0.98f);
+        idSet = new IdSet(3);
         idSet.add(((Integer)input).intValue());
         if (!(myInputIdMapping instanceof THashMap)) myInputIdMappingValue = idSet;
         else ((THashMap<Value, Object>)myInputIdMapping).put(value, idSet);
       }
       else {
-        idSet = (TIntHashSet)input;
+        idSet = (IdSet)input;
       }
       idSet.add(inputId);
     }
@@ -103,8 +101,8 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
       return false;
     }
 
-    if (input instanceof TIntHashSet) {
-      final TIntHashSet idSet = (TIntHashSet)input;
+    if (input instanceof IdSet) {
+      final IdSet idSet = (IdSet)input;
       final boolean reallyRemoved = idSet.remove(inputId);
       if (reallyRemoved) {
         idSet.compact();
@@ -199,8 +197,8 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
   @Override
   public boolean isAssociated(Value value, final int inputId) {
     final Object input = getInput(value);
-    if (input instanceof TIntHashSet) {
-      return ((TIntHashSet)input).contains(inputId);
+    if (input instanceof IdSet) {
+      return ((IdSet)input).contains(inputId);
     }
     if (input instanceof Integer ){
       return inputId == ((Integer)input).intValue();
@@ -222,7 +220,7 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
       };
     }
     return new IntPredicate() {
-      final TIntHashSet mySet = (TIntHashSet)input;
+      final IdSet mySet = (IdSet)input;
       @Override
       boolean contains(int id) {
         return mySet.contains(id);
@@ -234,8 +232,8 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
   public IntIterator getInputIdsIterator(Value value) {
     final Object input = getInput(value);
     final IntIterator it;
-    if (input instanceof TIntHashSet) {
-      it = new IntSetIterator((TIntHashSet)input);
+    if (input instanceof IdSet) {
+      it = new IntSetIterator((IdSet)input);
     }
     else if (input instanceof Integer ){
       it = new SingleValueIterator(((Integer)input).intValue());
@@ -267,8 +265,8 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
       final ValueContainerImpl clone = (ValueContainerImpl)super.clone();
       if (myInputIdMapping instanceof THashMap) {
         clone.myInputIdMapping = mapCopy((THashMap<Value, Object>)myInputIdMapping);
-      } else if (myInputIdMappingValue instanceof TIntHashSet) {
-        clone.myInputIdMappingValue = ((TIntHashSet)myInputIdMappingValue).clone();
+      } else if (myInputIdMappingValue instanceof IdSet) {
+        clone.myInputIdMappingValue = ((IdSet)myInputIdMappingValue).clone();
       }
       return clone;
     }
@@ -305,8 +303,8 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
       mapping.forEachEntry(new TObjectObjectProcedure<Value, Object>() {
         @Override
         public boolean execute(Value key, Object val) {
-          if (val instanceof TIntHashSet) {
-            newMapping.put(key, ((TIntHashSet)val).clone());
+          if (val instanceof IdSet) {
+            newMapping.put(key, ((IdSet)val).clone());
           }
           else {
             newMapping.put(key, val);
@@ -316,8 +314,8 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
       });
     } else {
       container.myInputIdMapping = myInputIdMapping;
-      container.myInputIdMappingValue = myInputIdMappingValue instanceof TIntHashSet ?
-                                        ((TIntHashSet)myInputIdMappingValue).clone():myInputIdMappingValue;
+      container.myInputIdMappingValue = myInputIdMappingValue instanceof IdSet ?
+                                        ((IdSet)myInputIdMappingValue).clone():myInputIdMappingValue;
     }
     return container;
   }
@@ -349,22 +347,43 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
   }
 
   private static class IntSetIterator implements IntIterator {
-    private final TIntIterator mySetIterator;
+    private final int[] myIds;
+    private final int myIdsSize;
+    private final int[] myAdded;
+    private final int myAddedSize;
     private final int mySize;
-
-    public IntSetIterator(final TIntHashSet set) {
-      mySetIterator = set.iterator();
+    private int myPosition;
+    private int myAddedPosition;
+
+    public IntSetIterator(final IdSet set) {
+      myIds = set.myIds;
+      myIdsSize = set.mySize;
+      myAdded = set.myAdded;
+      myAddedSize = set.myAddedSize;
       mySize = set.size();
+      skipRemoved();
     }
 
     @Override
     public boolean hasNext() {
-      return mySetIterator.hasNext();
+      return myPosition < myIdsSize || myAddedPosition < myAddedSize;
     }
 
     @Override
     public int next() {
-      return mySetIterator.next();
+      final int next;
+      if (myAddedPosition >= myAddedSize || myPosition < myIdsSize && myIds[myPosition] < myAdded[myAddedPosition]) {
+        next = myIds[myPosition++];
+        skipRemoved();
+      }
+      else {
+        next = myAdded[myAddedPosition++];
+      }
+      return next;
+    }
+
+    private void skipRemoved() {
+      while (myPosition < myIdsSize && myIds[myPosition] < 0) myPosition++;
     }
 
     @Override
@@ -381,8 +400,8 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
     cloned.forEachEntry(new TObjectObjectProcedure<Value, Object>() {
       @Override
       public boolean execute(Value key, Object val) {
-        if (val instanceof TIntHashSet) {
-          cloned.put(key, ((TIntHashSet)val).clone());
+        if (val instanceof IdSet) {
+          cloned.put(key, ((IdSet)val).clone());
         }
         return true;
       }
@@ -398,16 +417,168 @@ class ValueContainerImpl<Value> extends UpdatableValueContainer<Value> implement
     }
   };
 
-  private static class IdSet extends TIntHashSet {
+  /**
+   * Input ids kept in a sorted int array: 4 bytes per id and no per-entry objects, so large containers
+   * (e.g. very common words in IdIndex) are cheap to read and merge. Ids are iterated in ascending order.
+   * <p/>
+   * To keep updates cheap for big sets, removed ids are only marked in place (stored as {@code ~id}, which keeps the
+   * array ordered by {@link #idAt(int)}) and ids that are smaller than the last one go to a short sorted side array.
+   * Both are merged into the main array once they grow, so every update costs amortized O(sqrt(n)) at most.
+   * Readers never trigger merging: it is done only by updates, which happen under the index write lock.
+   */
+  private static class IdSet implements Cloneable {
+    private static final int MIN_MERGE_THRESHOLD = 16;
+    private static final int[] EMPTY = new int[0];
+
+    private int[] myIds;
+    private int mySize;
+    private int myRemovedCount;
+    private int[] myAdded = EMPTY;
+    private int myAddedSize;
+
+    private IdSet(final int initialCapacity) {
+      myIds = new int[initialCapacity];
+    }
 
-    private IdSet(final int initialCapacity, final float loadFactor) {
-      super(initialCapacity, loadFactor);
+    public int size() {
+      return mySize - myRemovedCount + myAddedSize;
+    }
+
+    public boolean isEmpty() {
+      return size() == 0;
+    }
+
+    public boolean contains(int id) {
+      final int index = indexOf(id);
+      if (index >= 0) return myIds[index] >= 0;
+      return myAddedSize > 0 && Arrays.binarySearch(myAdded, 0, myAddedSize, id) >= 0;
+    }
+
+    public boolean add(int id) {
+      if (myAddedSize == 0 && (mySize == 0 || idAt(mySize - 1) < id)) {
+        // ids usually come in ascending order, e.g. when read from disk
+        if (mySize == myIds.length) {
+          myIds = grow(myIds, mySize);
+        }
+        myIds[mySize++] = id;
+        return true;
+      }
+
+      final int index = indexOf(id);
+      if (index >= 0) {
+        if (myIds[index] >= 0) return false;
+        myIds[index] = id;
+        myRemovedCount--;
+        return true;
+      }
+
+      int addedIndex = Arrays.binarySearch(myAdded, 0, myAddedSize, id);
+      if (addedIndex >= 0) return false;
+      addedIndex = -addedIndex - 1;
+      if (myAddedSize == myAdded.length) {
+        myAdded = grow(myAdded, myAddedSize);
+      }
+      System.arraycopy(myAdded, addedIndex, myAdded, addedIndex + 1, myAddedSize - addedIndex);
+      myAdded[addedIndex] = id;
+      myAddedSize++;
+
+      if (myAddedSize > mergeThreshold()) {
+        merge();
+      }
+      return true;
+    }
+
+    public boolean remove(int id) {
+      final int index = indexOf(id);
+      if (index >= 0) {
+        if (myIds[index] < 0) return false;
+        myIds[index] = ~id;
+        myRemovedCount++;
+        if (myRemovedCount > Math.max(MIN_MERGE_THRESHOLD, mySize >> 2)) {
+          merge();
+        }
+        return true;
+      }
+
+      final int addedIndex = Arrays.binarySearch(myAdded, 0, myAddedSize, id);
+      if (addedIndex < 0) return false;
+      System.arraycopy(myAdded, addedIndex + 1, myAdded, addedIndex, myAddedSize - addedIndex - 1);
+      myAddedSize--;
+      return true;
     }
 
-    @Override
     public void compact() {
-      if (((int)(capacity() * _loadFactor)/ Math.max(1, size())) >= 3) {
-        super.compact();
+      if (myIds.length / Math.max(1, size()) >= 3) {
+        merge();
+      }
+    }
+
+    private int mergeThreshold() {
+      return Math.max(MIN_MERGE_THRESHOLD, (int)Math.sqrt(mySize));
+    }
+
+    private void merge() {
+      final int[] merged = new int[size()];
+      int size = 0;
+      int added = 0;
+      for (int i = 0; i < mySize; i++) {
+        final int id = myIds[i];
+        if (id < 0) continue;
+        while (added < myAddedSize && myAdded[added] < id) merged[size++] = myAdded[added++];
+        merged[size++] = id;
+      }
+      while (added < myAddedSize) merged[size++] = myAdded[added++];
+
+      myIds = merged;
+      mySize = size;
+      myRemovedCount = 0;
+      myAdded = EMPTY;
+      myAddedSize = 0;
+    }
+
+    private int idAt(int index) {
+      final int id = myIds[index];
+      return id < 0 ? ~id : id;
+    }
+
+    /**
+     * Binary search over the main array that sees through removal marks.
+     */
+    private int indexOf(int id) {
+      int low = 0;
+      int high = mySize - 1;
+      while (low <= high) {
+        final int mid = (low + high) >>> 1;
+        final int midId = idAt(mid);
+        if (midId < id) {
+          low = mid + 1;
+        }
+        else if (midId > id) {
+          high = mid - 1;
+        }
+        else {
+          return mid;
+        }
+      }
+      return -(low + 1);
+    }
+
+    private static int[] grow(int[] ids, int size) {
+      final int[] newIds = new int[size < 16 ? size * 2 + 1 : size + (size >> 1)];
+      System.arraycopy(ids, 0, newIds, 0, size);
+      return newIds;
+    }
+
+    @Override
+    public IdSet clone() {
+      try {
+        final IdSet clone = (IdSet)super.clone();
+        clone.myIds = myIds.clone();
+        if (myAddedSize > 0) clone.myAdded = myAdded.clone();
+        return clone;
+      }
+      catch (CloneNotSupportedException e) {
+        throw new RuntimeException(e);
       }
     }
   }
@@ -20,7 +20,7 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
                     @NotNull KeyDescriptor<Key> keyKeyDescriptor,
                     @NotNull DataExternalizer<Value> valueExternalizer) throws IOException {
 
-    super(file, keyKeyDescriptor, new ValueContainerExternalizer<Value>(valueExternalizer));
+    super(file, keyKeyDescriptor, new ValueContainerExternalizer<Value>(valueExternalizer), true);
     myValueContainerExternalizer = (ValueContainerExternalizer<Value>)myValueExternalizer;
   }
 
@@ -88,9 +88,12 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
         final ValueContainer.IntIterator ids = container.getInputIdsIterator(value);
         if (ids != null) {
           DataInputOutputUtil.writeSINT(out, ids.size());
+          // ids are iterated in ascending order, so the deltas are small and mostly fit in a single byte
+          int prevId = 0;
           while (ids.hasNext()) {
             final int id = ids.next();
-            DataInputOutputUtil.writeSINT(out, id);
+            DataInputOutputUtil.writeINT(out, id - prevId);
+            prevId = id;
           }
         }
         else {
@@ -115,8 +118,9 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
           for (int valueIdx = 0; valueIdx < valueCount; valueIdx++) {
             final T value = myExternalizer.read(in);
             final int idCount = DataInputOutputUtil.readSINT(in);
+            int id = 0;
             for (int i = 0; i < idCount; i++) {
-              final int id = DataInputOutputUtil.readSINT(in);
+              id += DataInputOutputUtil.readINT(in);
               valueContainer.addValue(id, value);
             }
           }
@@ -276,16 +276,40 @@ public class EditorHyperlinkSupport {
         endOffset++; // add '\n'
       }
       final String text = getLineText(document, line, true);
-      Filter.Result result = customFilter.applyFilter(text, endOffset);
-      if (result == null) {
-        result = predefinedMessageFilter.applyFilter(text, endOffset);
-      }
-      if (result != null) {
-        if (result.hyperlinkInfo != null) {
-          addHyperlink(result.highlightStartOffset, result.highlightEndOffset, result.highlightAttributes, result.hyperlinkInfo);
-        } else if (result.highlightAttributes != null) {
-          addHighlighter(result.highlightStartOffset, result.highlightEndOffset, result.highlightAttributes);
-        }
+      addResult(applyFilters(customFilter, predefinedMessageFilter, text, endOffset), 0);
+    }
+  }
+
+  /**
+   * Applies the filters to the given line the way {@link #highlightHyperlinks(Filter, Filter, int, int)} does, but doesn't touch
+   * the editor, so it may be called from a background thread in a read action on a copy of the console text.
+   *
+   * @param line      the line including its line separator
+   * @param endOffset offset of the line end in the whole text
+   */
+  @Nullable
+  public static Filter.Result applyFilters(@NotNull Filter customFilter,
+                                           @NotNull Filter predefinedMessageFilter,
+                                           @NotNull String line,
+                                           int endOffset) {
+    Filter.Result result = customFilter.applyFilter(line, endOffset);
+    if (result == null) {
+      result = predefinedMessageFilter.applyFilter(line, endOffset);
+    }
+    return result;
+  }
+
+  /**
+   * Adds a hyperlink or a highlighter for the result of {@link #applyFilters}.
+   *
+   * @param shift the number of chars the text was moved by since the filters were applied
+   */
+  public void addResult(@Nullable Filter.Result result, int shift) {
+    if (result != null) {
+      if (result.hyperlinkInfo != null) {
+        addHyperlink(result.highlightStartOffset + shift, result.highlightEndOffset + shift, result.highlightAttributes, result.hyperlinkInfo);
+      } else if (result.highlightAttributes != null) {
+        addHighlighter(result.highlightStartOffset + shift, result.highlightEndOffset + shift, result.highlightAttributes);
       }
     }
   }
@@ -2554,7 +2554,7 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
 
     Point position = new Point(0, visibleLine * lineHeight);
     if (startLine == 0 && myPrefixText != null) {
-      position.x = drawStringWithSoftWraps(g, myPrefixText, 0, myPrefixText.length, position, clip,
+      position.x = drawStringWithSoftWraps(g, myPrefixText, 0, 0, myPrefixText.length, position, clip,
                                            myPrefixAttributes.getEffectColor(), myPrefixAttributes.getEffectType(),
                                            myPrefixAttributes.getFontType(), myPrefixAttributes.getForegroundColor(), logicalPosition);
     }
@@ -2581,7 +2581,11 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
       int fontType = attributes.getFontType();
       g.setColor(currentColor);
 
-      final char[] chars = myDocument.getRawChars();
+      // Only the painted lines are copied, a large document doesn't keep its whole text in an array.
+      int textEnd = myDocument.getLineEndOffset(myDocument.getLineNumber(Math.max(start, clipEndOffset)));
+      final char[] chars = new char[textEnd - start];
+      CharArrayUtil.getChars(myDocument.getCharsSequence(), chars, start, 0, chars.length);
+      final int textStart = start;
 
       while (!iterationState.atEnd() && !lIterator.atEnd()) {
         int hEnd = iterationState.getEndOffset();
@@ -2589,7 +2593,7 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
         if (hEnd >= lEnd) {
           FoldRegion collapsedFolderAt = myFoldingModel.getCollapsedRegionAtOffset(start);
           if (collapsedFolderAt == null) {
-            drawStringWithSoftWraps(g, chars, start, lEnd - lIterator.getSeparatorLength(), position, clip, effectColor,
+            drawStringWithSoftWraps(g, chars, textStart, start, lEnd - lIterator.getSeparatorLength(), position, clip, effectColor,
                                     effectType, fontType, currentColor, logicalPosition);
             position.x = 0;
             if (position.y > clip.y + clip.height) {
@@ -2608,8 +2612,8 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
             SoftWrap softWrap = mySoftWrapModel.getSoftWrap(collapsedFolderAt.getStartOffset());
             if (softWrap != null) {
               position.x = drawStringWithSoftWraps(
-                g, chars, collapsedFolderAt.getStartOffset(), collapsedFolderAt.getStartOffset(), position, clip, effectColor, effectType,
-                fontType, currentColor, logicalPosition
+                g, chars, textStart, collapsedFolderAt.getStartOffset(), collapsedFolderAt.getStartOffset(), position, clip, effectColor,
+                effectType, fontType, currentColor, logicalPosition
               );
             }
             int foldingXStart = position.x;
@@ -2622,8 +2626,8 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
 
           }
           else {
-            position.x = drawStringWithSoftWraps(g, chars, start, Math.min(hEnd, lEnd - lIterator.getSeparatorLength()) , position, clip,
-                                                 effectColor, effectType, fontType, currentColor, logicalPosition);
+            position.x = drawStringWithSoftWraps(g, chars, textStart, start, Math.min(hEnd, lEnd - lIterator.getSeparatorLength()),
+                                                 position, clip, effectColor, effectType, fontType, currentColor, logicalPosition);
           }
 
           iterationState.advance();
@@ -2863,12 +2867,16 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
                                       Color fontColor,
                                       @NotNull Ref<LogicalPosition> startDrawingLogicalPosition)
   {
-    return drawStringWithSoftWraps(g, text.toCharArray(), 0, text.length(), position, clip, effectColor, effectType,
+    return drawStringWithSoftWraps(g, text.toCharArray(), 0, 0, text.length(), position, clip, effectColor, effectType,
                                    fontType, fontColor, startDrawingLogicalPosition);
   }
 
+  /**
+   * @param textStart offset of the first char of the given text, the start and end offsets are offsets in the document
+   */
   private int drawStringWithSoftWraps(@NotNull Graphics g,
                                       final char[] text,
+                                      final int textStart,
                                       final int start,
                                       final int end,
                                       @NotNull Point position,
@@ -2936,7 +2944,7 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
       // Draw token text before the wrap.
       if (softWrap.getStart() > startToUse) {
         position.x = drawString(
-          g, text, startToUse, softWrap.getStart(), position, clip, null, null, fontType, fontColor
+          g, text, startToUse - textStart, softWrap.getStart() - textStart, position, clip, null, null, fontType, fontColor
         );
       }
 
@@ -2980,7 +2988,8 @@ public final class EditorImpl extends UserDataHolderBase implements EditorEx, Hi
       position.x += mySoftWrapModel.paint(g, SoftWrapDrawingType.AFTER_SOFT_WRAP, position.x, position.y, getLineHeight());
       myForceRefreshFont = true;
     }
-    return position.x = drawString(g, text, startToUse, end, position, clip, effectColor, effectType, fontType, fontColor);
+    return position.x = drawString(g, text, startToUse - textStart, end - textStart, position, clip, effectColor, effectType, fontType,
+                                   fontColor);
   }
 
   private int drawString(@NotNull Graphics g,
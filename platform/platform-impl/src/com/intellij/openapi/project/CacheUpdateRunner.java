@@ -39,6 +39,7 @@ import java.util.concurrent.Future;
 class CacheUpdateRunner {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.project.CacheUpdateRunner");
   private static final int PROC_COUNT = Runtime.getRuntime().availableProcessors();
+  private static final int MAX_DEFAULT_THREADS_COUNT = 8;
   private final Project myProject;
   private final Collection<CacheUpdater> myUpdaters;
   private CacheUpdateSession mySession;
@@ -142,7 +143,8 @@ class CacheUpdateRunner {
     try {
       int threadsCount = Registry.intValue("caches.indexerThreadsCount");
       if (threadsCount <= 0) {
-        threadsCount = Math.min(PROC_COUNT, 4);
+        // one core is left to the content loading thread of FileContentQueue
+        threadsCount = Math.max(1, Math.min(PROC_COUNT - 1, MAX_DEFAULT_THREADS_COUNT));
       }
       if (threadsCount == 1) {
         Runnable process = new MyRunnable(innerIndicator, queue, isFinished, progressUpdater, processInReadAction, application);
@@ -34,14 +34,19 @@ import com.intellij.util.containers.IntArrayList;
 import com.intellij.util.io.*;
 import com.intellij.util.io.DataOutputStream;
 import com.intellij.util.io.storage.*;
+import gnu.trove.THashMap;
 import gnu.trove.TIntArrayList;
+import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TObjectIntHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
 import javax.swing.*;
 import java.awt.*;
 import java.io.*;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -85,6 +90,10 @@ public class FSRecords implements Forceable {
 
   private static final String CHILDREN_ATT = "FsRecords.DIRECTORY_CHILDREN";
 
+  // limits of changes kept in memory by write-behind buffers before they are written to the storages
+  private static final int MAX_PENDING_RECORDS = 16 * 1024;
+  private static final int MAX_PENDING_ATTRIBUTES_SIZE = 1024 * 1024;
+
   private static final ReentrantReadWriteLock.ReadLock r;
   private static final ReentrantReadWriteLock.WriteLock w;
 
@@ -110,9 +119,17 @@ public class FSRecords implements Forceable {
     private static PersistentStringEnumerator myNames;
     private static Storage myAttributes;
     private static RefCountingStorage myContents;
+    // content hash -> id of a content record stored with storeUnlinkedContent(), a hint which is verified on every use
+    private static PersistentHashMap<Integer, Integer> myContentHashes;
     private static ResizeableMappedFile myRecords;
+    private static FSRecordsJournal myJournal;
     private static final TIntArrayList myFreeRecords = new TIntArrayList();
 
+    // attribute values written since the last flush: file id -> (attribute id -> value)
+    private static final TIntObjectHashMap<THashMap<String, PendingAttribute>> myPendingAttributes =
+      new TIntObjectHashMap<THashMap<String, PendingAttribute>>();
+    private static int myPendingAttributesSize;
+
     private static boolean myDirty = false;
     private static ScheduledFuture<?> myFlushingFuture;
     private static boolean myCorrupted = false;
@@ -193,6 +210,7 @@ public class FSRecords implements Forceable {
       final File namesFile = new File(basePath, "names.dat");
       final File attributesFile = new File(basePath, "attrib.dat");
       final File contentsFile = new File(basePath, "content.dat");
+      final File contentHashesFile = new File(basePath, "content.hashes");
       final File recordsFile = new File(basePath, "records.dat");
 
       if (!namesFile.exists()) {
@@ -209,10 +227,19 @@ public class FSRecords implements Forceable {
         myNames = new PersistentStringEnumerator(namesFile, storageLockContext);
         myAttributes = new Storage(attributesFile.getCanonicalPath(), REASONABLY_SMALL);
         myContents = new RefCountingStorage(contentsFile.getCanonicalPath(), CapacityAllocationPolicy.FIVE_PERCENT_FOR_GROWTH); // sources usually zipped with 4x ratio
+        myContentHashes = openContentHashes(contentHashesFile);
         boolean aligned = PagedFileStorage.BUFFER_SIZE % RECORD_SIZE == 0;
         assert aligned; // for performance
         myRecords = new ResizeableMappedFile(recordsFile, 20 * 1024, storageLockContext,
                                              PagedFileStorage.BUFFER_SIZE, aligned);
+        myJournal = new FSRecordsJournal(new File(basePath, recordsFile.getName() + ".journal"), RECORD_SIZE);
+
+        if (myJournal.replay(myRecords)) {
+          // the journal holds all record changes since the last forced state and ends with a batch written when other storages were
+          // flushed, with the journal applied records are consistent with them
+          myRecords.putInt(HEADER_CONNECTION_STATUS_OFFSET, SAFELY_CLOSED_MAGIC);
+          myRecords.force();
+        }
 
         if (myRecords.length() == 0) {
           cleanRecord(0); // Clean header
@@ -239,6 +266,7 @@ public class FSRecords implements Forceable {
           deleted &= deleteWithSubordinates(namesFile);
           deleted &= AbstractStorage.deleteFiles(attributesFile.getCanonicalPath());
           deleted &= AbstractStorage.deleteFiles(contentsFile.getCanonicalPath());
+          deleted &= deleteWithSubordinates(contentHashesFile);
           deleted &= deleteWithSubordinates(recordsFile);
 
           if (!deleted) {
@@ -283,6 +311,18 @@ public class FSRecords implements Forceable {
       }
     }
 
+    private static PersistentHashMap<Integer, Integer> openContentHashes(File file) throws IOException {
+      try {
+        return new PersistentHashMap<Integer, Integer>(file, EnumeratorIntegerDescriptor.INSTANCE, EnumeratorIntegerDescriptor.INSTANCE);
+      }
+      catch (IOException e) {
+        // the hashes are only a hint, there is no need to rebuild the whole VFS
+        LOG.info("Content hashes are corrupted, recreating: " + e.getMessage());
+        PersistentHashMap.deleteFilesStartingWith(file);
+        return new PersistentHashMap<Integer, Integer>(file, EnumeratorIntegerDescriptor.INSTANCE, EnumeratorIntegerDescriptor.INSTANCE);
+      }
+    }
+
     private static void invalidateIndex() {
       LOG.info("Marking VFS as corrupted");
       final File indexRoot = PathManager.getIndexRoot();
@@ -349,13 +389,16 @@ public class FSRecords implements Forceable {
       try {
         w.lock();
         if (myRecords != null) {
+          flushPendingChanges();
           markClean();
         }
         if (myNames != null) {
           myNames.force();
           myAttributes.force();
           myContents.force();
+          myContentHashes.force();
           myRecords.force();
+          myJournal.checkpointCompleted();
         }
       }
       finally {
@@ -371,14 +414,27 @@ public class FSRecords implements Forceable {
         if (myFlushingFuture == null) {
           return; // avoid NPE when close has already taken place
         }
+        flushPendingAttributes();
         myNames.force();
+        if (myContentHashes.isDirty()) {
+          myContentHashes.force();
+        }
 
         final boolean attribsFlushed = myAttributes.flushSome();
         final boolean contentsFlushed = myContents.flushSome();
         if (attribsFlushed && contentsFlushed) {
+          // all other storages are flushed, so the journalled records batch describes consistent state of VFS
+          myJournal.flush(myRecords, true);
           markClean();
           myRecords.force();
+          myJournal.checkpointCompleted();
         }
+        else {
+          myJournal.flush(myRecords, false);
+        }
+      }
+      catch (Throwable e) {
+        throw handleError(e);
       }
       finally {
         w.unlock();
@@ -386,7 +442,104 @@ public class FSRecords implements Forceable {
     }
 
     public static boolean isDirty() {
-      return myDirty || myNames.isDirty() || myAttributes.isDirty() || myContents.isDirty() || myRecords.isDirty();
+      return myDirty || myNames.isDirty() || myAttributes.isDirty() || myContents.isDirty() || myRecords.isDirty() ||
+             myJournal.getPendingRecordsCount() > 0 || !myPendingAttributes.isEmpty();
+    }
+
+    private static void flushPendingChanges() {
+      try {
+        flushPendingAttributes();
+        myJournal.flush(myRecords, false);
+      }
+      catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @TestOnly
+    static void flushPendingRecords(boolean checkpoint) throws IOException {
+      try {
+        w.lock();
+        myJournal.flush(myRecords, checkpoint);
+      }
+      finally {
+        w.unlock();
+      }
+    }
+
+    @TestOnly
+    static boolean isConnected() {
+      return ourInitialized;
+    }
+
+    /**
+     * Closes the storages like {@link FSRecords#dispose()} does, but allows to connect again
+     */
+    @TestOnly
+    static void disconnect() throws IOException {
+      try {
+        w.lock();
+        force();
+        closeFiles();
+      }
+      finally {
+        w.unlock();
+      }
+    }
+
+    private static void flushPendingRecordsIfNeeded() throws IOException {
+      if (myJournal.getPendingRecordsCount() > MAX_PENDING_RECORDS) {
+        myJournal.flush(myRecords, false);
+      }
+    }
+
+    @Nullable
+    private static PendingAttribute getPendingAttribute(int fileId, String attId) {
+      if (myPendingAttributes.isEmpty()) return null;
+      final THashMap<String, PendingAttribute> attributes = myPendingAttributes.get(fileId);
+      return attributes != null ? attributes.get(attId) : null;
+    }
+
+    private static void addPendingAttribute(int fileId, String attId, @NotNull PendingAttribute attribute) throws IOException {
+      THashMap<String, PendingAttribute> attributes = myPendingAttributes.get(fileId);
+      if (attributes == null) {
+        attributes = new THashMap<String, PendingAttribute>();
+        myPendingAttributes.put(fileId, attributes);
+      }
+      final PendingAttribute previous = attributes.put(attId, attribute);
+      if (previous != null) {
+        myPendingAttributesSize -= previous.myBytes.getLength();
+      }
+      myPendingAttributesSize += attribute.myBytes.getLength();
+
+      if (myPendingAttributesSize > MAX_PENDING_ATTRIBUTES_SIZE) {
+        flushPendingAttributes();
+      }
+    }
+
+    private static void removePendingAttributes(int fileId) {
+      final THashMap<String, PendingAttribute> attributes = myPendingAttributes.remove(fileId);
+      if (attributes != null) {
+        for (PendingAttribute attribute : attributes.values()) {
+          myPendingAttributesSize -= attribute.myBytes.getLength();
+        }
+      }
+    }
+
+    private static void flushPendingAttributes() throws IOException {
+      if (myPendingAttributes.isEmpty()) return;
+
+      final int[] fileIds = myPendingAttributes.keys();
+      Arrays.sort(fileIds);
+      for (int fileId : fileIds) {
+        for (Map.Entry<String, PendingAttribute> entry : myPendingAttributes.get(fileId).entrySet()) {
+          final PendingAttribute attribute = entry.getValue();
+          final int page = findAttributePage(fileId, entry.getKey(), true);
+          myAttributes.writeBytes(page, attribute.myBytes, attribute.myFixedSize);
+        }
+      }
+      myPendingAttributes.clear();
+      myPendingAttributesSize = 0;
     }
 
 
@@ -410,7 +563,13 @@ public class FSRecords implements Forceable {
     }
 
     static void cleanRecord(int id) {
-      myRecords.put(id * RECORD_SIZE, ZEROES, 0, RECORD_SIZE);
+      if (id > 0 && (long)id * RECORD_SIZE < myRecords.length()) {
+        myJournal.clear(id);
+      }
+      else {
+        // the header and new records at the end of the file are written directly, new records extend the file
+        myRecords.put(id * RECORD_SIZE, ZEROES, 0, RECORD_SIZE);
+      }
     }
 
     public static PersistentStringEnumerator getNames() {
@@ -442,11 +601,19 @@ public class FSRecords implements Forceable {
         myContents = null;
       }
 
+      if (myContentHashes != null) {
+        myContentHashes.close();
+        myContentHashes = null;
+      }
+
       if (myRecords != null) {
         markClean();
         myRecords.close();
         myRecords = null;
       }
+      myJournal = null;
+      myPendingAttributes.clear();
+      myPendingAttributesSize = 0;
       ourInitialized = false;
     }
 
@@ -485,6 +652,16 @@ public class FSRecords implements Forceable {
       myFreeRecords.add(id);
     }
 
+    private static class PendingAttribute {
+      private final ByteSequence myBytes;
+      private final boolean myFixedSize;
+
+      private PendingAttribute(@NotNull ByteSequence bytes, boolean fixedSize) {
+        myBytes = bytes;
+        myFixedSize = fixedSize;
+      }
+    }
+
     private static class AttrPageAwareCapacityAllocationPolicy extends CapacityAllocationPolicy {
       boolean myAttrPageRequested;
 
@@ -516,6 +693,10 @@ public class FSRecords implements Forceable {
     return DbConnection.getRecords();
   }
 
+  private static PersistentHashMap<Integer, Integer> getContentHashes() {
+    return DbConnection.myContentHashes;
+  }
+
   private static RefCountingStorage getContentStorage() {
     return DbConnection.myContents;
   }
@@ -595,6 +776,8 @@ public class FSRecords implements Forceable {
   }
 
   private static void deleteContentAndAttributes(int id) throws IOException {
+    DbConnection.removePendingAttributes(id);
+
     int content_page = getContentRecordId(id);
     if (content_page != 0) {
       getContentStorage().releaseRecord(content_page);
@@ -825,7 +1008,7 @@ public class FSRecords implements Forceable {
     try {
       r.lock();
       try {
-        return findAttributePage(id, CHILDREN_ATT, false) != 0;
+        return DbConnection.getPendingAttribute(id, CHILDREN_ATT) != null || findAttributePage(id, CHILDREN_ATT, false) != 0;
       } finally {
         r.unlock();
       }
@@ -991,7 +1174,7 @@ public class FSRecords implements Forceable {
   public static long getLength(int id) {
     try {
       r.lock();
-      return getRecords().getLong(getOffset(id, LENGTH_OFFSET));
+      return getRecordLong(id, LENGTH_OFFSET);
     }
     finally {
       r.unlock();
@@ -1002,7 +1185,7 @@ public class FSRecords implements Forceable {
     try {
       w.lock();
       incModCount(id);
-      getRecords().putLong(getOffset(id, LENGTH_OFFSET), len);
+      putRecordLong(id, LENGTH_OFFSET, len);
     }
     catch (Throwable e) {
       throw DbConnection.handleError(e);
@@ -1015,7 +1198,7 @@ public class FSRecords implements Forceable {
   public static long getTimestamp(int id) {
     try {
       r.lock();
-      return getRecords().getLong(getOffset(id, TIMESTAMP_OFFSET));
+      return getRecordLong(id, TIMESTAMP_OFFSET);
     }
     finally {
       r.unlock();
@@ -1026,7 +1209,7 @@ public class FSRecords implements Forceable {
     try {
       w.lock();
       incModCount(id);
-      getRecords().putLong(getOffset(id, TIMESTAMP_OFFSET), value);
+      putRecordLong(id, TIMESTAMP_OFFSET, value);
     }
     catch (Throwable e) {
       throw DbConnection.handleError(e);
@@ -1067,15 +1250,30 @@ public class FSRecords implements Forceable {
   }
 
   private static int getRecordInt(int id, int offset) {
-    return getRecords().getInt(getOffset(id, offset));
+    return DbConnection.myJournal.getInt(getRecords(), id, offset);
   }
 
   private static void putRecordInt(int id, int offset, int value) {
-    getRecords().putInt(getOffset(id, offset), value);
+    DbConnection.myJournal.putInt(getRecords(), id, offset, value);
+    flushPendingRecordsIfNeeded();
+  }
+
+  private static long getRecordLong(int id, int offset) {
+    return DbConnection.myJournal.getLong(getRecords(), id, offset);
   }
 
-  private static int getOffset(int id, int offset) {
-    return id * RECORD_SIZE + offset;
+  private static void putRecordLong(int id, int offset, long value) {
+    DbConnection.myJournal.putLong(getRecords(), id, offset, value);
+    flushPendingRecordsIfNeeded();
+  }
+
+  private static void flushPendingRecordsIfNeeded() {
+    try {
+      DbConnection.flushPendingRecordsIfNeeded();
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   @Nullable
@@ -1128,6 +1326,12 @@ public class FSRecords implements Forceable {
   // should be called under r or w lock
   @Nullable
   private static DataInputStream readAttribute(int fileId, String attId) throws IOException {
+    final DbConnection.PendingAttribute pending = DbConnection.getPendingAttribute(fileId, attId);
+    if (pending != null) {
+      final ByteSequence bytes = pending.myBytes;
+      return new DataInputStream(new UnsyncByteArrayInputStream(bytes.getBytes(), bytes.getOffset(), bytes.getLength()));
+    }
+
     int page = findAttributePage(fileId, attId, false);
     if (page == 0) return null;
     return getAttributesStorage().readStream(page);
@@ -1247,12 +1451,27 @@ public class FSRecords implements Forceable {
     new ContentOutputStream(fileId, readOnly).writeBytes(bytes, fileId);
   }
 
+  /**
+   * Stores the content which doesn't belong to any file, e.g. a Local History revision.
+   * If the same bytes have already been stored and the record is still referenced, the record is shared instead of storing a copy.
+   *
+   * @return id of the acquired content record, it should be released with {@link #releaseContent(int)}
+   */
   public static int storeUnlinkedContent(byte[] bytes) {
     try {
+      int hash = Arrays.hashCode(bytes);
+      Integer storedId = getContentHashes().get(hash);
+      if (storedId != null && getContentStorage().acquireRecordIfReferenced(storedId)) {
+        // the record may have been rewritten with other content or deleted and reused since the hash was put
+        if (Arrays.equals(bytes, readContentBytes(storedId))) return storedId;
+        getContentStorage().releaseRecord(storedId);
+      }
+
       int recordId = getContentStorage().acquireNewRecord();
       AbstractStorage.StorageDataOutput output = getContentStorage().writeStream(recordId, true);
       output.write(bytes);
       output.close();
+      getContentHashes().put(hash, recordId);
       return recordId;
     }
     catch (IOException e) {
@@ -1260,6 +1479,16 @@ public class FSRecords implements Forceable {
     }
   }
 
+  private static byte[] readContentBytes(int contentId) throws IOException {
+    DataInputStream stream = getContentStorage().readStream(contentId);
+    try {
+      return FileUtil.loadBytes(stream);
+    }
+    finally {
+      stream.close();
+    }
+  }
+
   @NotNull
   public static DataOutputStream writeAttribute(final int fileId, final String attId, boolean fixedSize) {
     return new AttributeOutputStream(fileId, attId, fixedSize);
@@ -1271,13 +1500,18 @@ public class FSRecords implements Forceable {
     }
 
     @Override
-    protected int findOrCreatePage() throws IOException {
-      return findContentPage(myFileId, true);
-    }
+    public void writeBytes(ByteSequence bytes, int fileId) throws IOException {
+      final int page;
+      try {
+        w.lock();
+        incModCount(fileId);
+        page = findContentPage(myFileId, true);
+      }
+      finally {
+        w.unlock();
+      }
 
-    @Override
-    protected AbstractStorage getStorage() {
-      return getContentStorage();
+      getContentStorage().writeBytes(page, bytes, myFixedSize);
     }
   }
 
@@ -1297,13 +1531,17 @@ public class FSRecords implements Forceable {
     }
 
     @Override
-    protected int findOrCreatePage() throws IOException {
-      return findAttributePage(myFileId, myAttributeId, true);
-    }
-
-    @Override
-    protected AbstractStorage getStorage() {
-      return getAttributesStorage();
+    public void writeBytes(ByteSequence bytes, int fileId) throws IOException {
+      try {
+        w.lock();
+        incModCount(fileId);
+        checkFileIsValid(fileId);
+        // the value is written to the attributes storage later, together with other pending attributes
+        DbConnection.addPendingAttribute(fileId, myAttributeId, new DbConnection.PendingAttribute(bytes, myFixedSize));
+      }
+      finally {
+        w.unlock();
+      }
     }
   }
 
@@ -1334,23 +1572,7 @@ public class FSRecords implements Forceable {
       writeBytes(new ByteSequence(_out.getInternalBuffer(), 0, _out.size()), myFileId);
     }
 
-    public void writeBytes(ByteSequence bytes, int fileId) throws IOException {
-      final int page;
-      try {
-        w.lock();
-        incModCount(fileId);
-        page = findOrCreatePage();
-      }
-      finally {
-        w.unlock();
-      }
-
-      getStorage().writeBytes(page, bytes, myFixedSize);
-    }
-
-    protected abstract int findOrCreatePage() throws IOException;
-
-    protected abstract AbstractStorage getStorage();
+    public abstract void writeBytes(ByteSequence bytes, int fileId) throws IOException;
   }
 
   public static void dispose() {
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.persistent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.Bits;
+import com.intellij.util.io.ResizeableMappedFile;
+import gnu.trove.TIntObjectHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Write-behind buffer for fixed size records of {@link FSRecords}. Changed records are kept in memory and written to the records file
+ * in batches ordered by record id, so that pages of the file are touched sequentially.
+ * <p/>
+ * Every batch is appended to the journal file and synced before it is applied, together with the image of the header record. The journal
+ * is removed by {@link #checkpointCompleted()} once the records file is forced, so it holds all changes made since the last forced state.
+ * A batch written at a checkpoint (i.e. when all other VFS storages are flushed) is marked as such: if the process is terminated after it,
+ * {@link #replay(ResizeableMappedFile)} applies the journal again on the next start, so the records end up in the same state as the rest
+ * of the storages.
+ *
+ * Should be accessed under FSRecords write lock, reads are allowed under read lock.
+ */
+class FSRecordsJournal {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.vfs.persistent.FSRecordsJournal");
+
+  private static final int MAGIC = 0x4a4f524e;
+
+  private final File myJournalFile;
+  private final int myRecordSize;
+  private final TIntObjectHashMap<byte[]> myPendingRecords = new TIntObjectHashMap<byte[]>();
+
+  FSRecordsJournal(@NotNull File journalFile, int recordSize) {
+    myJournalFile = journalFile;
+    myRecordSize = recordSize;
+  }
+
+  @Nullable
+  byte[] getPendingRecord(int id) {
+    return myPendingRecords.isEmpty() ? null : myPendingRecords.get(id);
+  }
+
+  int getInt(@NotNull ResizeableMappedFile records, int id, int offset) {
+    final byte[] record = getPendingRecord(id);
+    return record != null ? Bits.getInt(record, offset) : records.getInt(id * myRecordSize + offset);
+  }
+
+  long getLong(@NotNull ResizeableMappedFile records, int id, int offset) {
+    final byte[] record = getPendingRecord(id);
+    return record != null ? Bits.getLong(record, offset) : records.getLong(id * myRecordSize + offset);
+  }
+
+  void putInt(@NotNull ResizeableMappedFile records, int id, int offset, int value) {
+    Bits.putInt(getRecordForUpdate(records, id), offset, value);
+  }
+
+  void putLong(@NotNull ResizeableMappedFile records, int id, int offset, long value) {
+    Bits.putLong(getRecordForUpdate(records, id), offset, value);
+  }
+
+  /**
+   * Replaces pending changes of the record with zeroes, so that clearing the record is journalled with the next batch
+   */
+  void clear(int id) {
+    myPendingRecords.put(id, new byte[myRecordSize]);
+  }
+
+  int getPendingRecordsCount() {
+    return myPendingRecords.size();
+  }
+
+  @NotNull
+  private byte[] getRecordForUpdate(@NotNull ResizeableMappedFile records, int id) {
+    byte[] record = myPendingRecords.get(id);
+    if (record == null) {
+      record = new byte[myRecordSize];
+      records.get(id * myRecordSize, record, 0, myRecordSize);
+      myPendingRecords.put(id, record);
+    }
+    return record;
+  }
+
+  /**
+   * Writes pending records to the records file in ascending order, the batch is saved to the journal first.
+   *
+   * @param checkpoint if true, the batch completes a consistent state of VFS and may be replayed after the process termination.
+   * The journal is removed by {@link #checkpointCompleted()} after the records file is forced.
+   */
+  void flush(@NotNull ResizeableMappedFile records, boolean checkpoint) throws IOException {
+    if (myPendingRecords.isEmpty() && !(checkpoint && myJournalFile.exists())) return;
+
+    final int[] ids = myPendingRecords.keys();
+    Arrays.sort(ids);
+
+    writeJournal(records, ids, checkpoint);
+
+    for (int id : ids) {
+      records.put(id * myRecordSize, myPendingRecords.get(id), 0, myRecordSize);
+    }
+    myPendingRecords.clear();
+  }
+
+  void checkpointCompleted() {
+    if (myJournalFile.exists()) {
+      FileUtil.delete(myJournalFile);
+    }
+  }
+
+  private void writeJournal(@NotNull ResizeableMappedFile records, @NotNull int[] ids, boolean checkpoint) throws IOException {
+    final byte[] header = new byte[myRecordSize];
+    records.get(0, header, 0, myRecordSize);
+
+    final BufferExposingByteArrayOutputStream batch = new BufferExposingByteArrayOutputStream();
+    final DataOutputStream batchOut = new DataOutputStream(batch);
+    batchOut.writeBoolean(checkpoint);
+    batchOut.writeInt(ids.length);
+    batchOut.write(header);
+    for (int id : ids) {
+      batchOut.writeInt(id);
+      batchOut.write(myPendingRecords.get(id));
+    }
+
+    final CRC32 crc = new CRC32();
+    crc.update(batch.getInternalBuffer(), 0, batch.size());
+
+    final FileOutputStream stream = new FileOutputStream(myJournalFile, true);
+    try {
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+      out.writeInt(MAGIC);
+      out.writeInt(myRecordSize);
+      out.writeInt(batch.size());
+      out.write(batch.getInternalBuffer(), 0, batch.size());
+      out.writeLong(crc.getValue());
+      out.flush();
+      stream.getFD().sync();
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Applies the batches from the journal left by the previous session, if any. An incomplete batch at the end of the journal was not
+   * applied to the records file and is ignored.
+   *
+   * @return true if the last complete batch was written at a checkpoint, i.e. records were restored to the state of the last checkpoint
+   */
+  boolean replay(@NotNull ResizeableMappedFile records) {
+    if (!myJournalFile.exists()) return false;
+
+    try {
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myJournalFile)));
+      try {
+        boolean checkpoint = false;
+        int batches = 0;
+        while (true) {
+          final Boolean batchCheckpoint = replayBatch(in, records);
+          if (batchCheckpoint == null) break;
+          checkpoint = batchCheckpoint;
+          batches++;
+        }
+        LOG.info("Replayed " + batches + " VFS records batches from " + myJournalFile.getPath() + ", checkpoint: " + checkpoint);
+        return checkpoint;
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot replay VFS journal: " + e.getMessage());
+      return false;
+    }
+    finally {
+      FileUtil.delete(myJournalFile);
+    }
+  }
+
+  /**
+   * @return null if there is no complete batch at the current position of the journal, otherwise the checkpoint flag of the applied batch
+   */
+  @Nullable
+  private Boolean replayBatch(@NotNull DataInputStream in, @NotNull ResizeableMappedFile records) throws IOException {
+    final byte[] batch;
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != myRecordSize) return null;
+
+      final int length = in.readInt();
+      if (length < 0) return null;
+      batch = new byte[length];
+      in.readFully(batch);
+
+      final CRC32 crc = new CRC32();
+      crc.update(batch);
+      if (in.readLong() != crc.getValue()) return null;
+    }
+    catch (EOFException e) {
+      return null;
+    }
+
+    final DataInputStream batchIn = new DataInputStream(new ByteArrayInputStream(batch));
+    final boolean checkpoint = batchIn.readBoolean();
+    final int count = batchIn.readInt();
+    final byte[] header = new byte[myRecordSize];
+    batchIn.readFully(header);
+    final byte[] record = new byte[myRecordSize];
+    for (int i = 0; i < count; i++) {
+      final int id = batchIn.readInt();
+      batchIn.readFully(record);
+      records.put(id * myRecordSize, record, 0, myRecordSize);
+    }
+    records.put(0, header, 0, myRecordSize);
+    return checkpoint;
+  }
+}
@@ -19,6 +19,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.io.FileAttributes;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.newvfs.NewVirtualFile;
@@ -27,14 +28,13 @@ import com.intellij.openapi.vfs.newvfs.events.*;
 import com.intellij.openapi.vfs.newvfs.impl.FakeVirtualFile;
 import com.intellij.openapi.vfs.newvfs.impl.VirtualDirectoryImpl;
 import com.intellij.openapi.vfs.newvfs.impl.VirtualFileSystemEntry;
-import com.intellij.util.containers.Queue;
+import com.intellij.util.SystemProperties;
+import gnu.trove.THashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.*;
 
 import static com.intellij.openapi.diagnostic.LogUtil.debug;
 import static com.intellij.util.containers.ContainerUtil.newHashSet;
@@ -45,17 +45,38 @@ import static com.intellij.util.containers.ContainerUtil.newHashSet;
 public class RefreshWorker {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vfs.newvfs.persistent.RefreshWorker");
 
+  // directories are listed and their children attributes are read by pooled threads ahead of the scanning thread;
+  // VFS state is compared and events are created by the scanning thread only, in the order of the queue
+  private static final int IO_THREADS =
+    SystemProperties.getIntProperty("idea.refresh.io.threads", Math.min(4, Runtime.getRuntime().availableProcessors()));
+  private static final int MAX_PREFETCHED_DIRECTORIES = 64;
+  private static final ExecutorService ourIOExecutor = IO_THREADS > 1 ? createIOExecutor() : null;
+
   private final boolean myIsRecursive;
-  private final Queue<VirtualFile> myRefreshQueue = new Queue<VirtualFile>(100);
+  private final List<RefreshEntry> myRefreshQueue = new ArrayList<RefreshEntry>();
+  private int myQueueHead;
+  private int myPrefetchCursor;
   private final List<VFileEvent> myEvents = new ArrayList<VFileEvent>();
 
   public RefreshWorker(final VirtualFile refreshRoot, final boolean isRecursive) {
     myIsRecursive = isRecursive;
-    myRefreshQueue.addLast(refreshRoot);
+    myRefreshQueue.add(new RefreshEntry((VirtualFileSystemEntry)refreshRoot, null));
   }
 
   public void scan() {
-    final NewVirtualFile root = (NewVirtualFile)myRefreshQueue.peekFirst();
+    try {
+      doScan();
+    }
+    finally {
+      for (int i = myQueueHead; i < myRefreshQueue.size(); i++) {
+        final Future<DirectorySnapshot> snapshot = myRefreshQueue.get(i).mySnapshot;
+        if (snapshot != null) snapshot.cancel(false);
+      }
+    }
+  }
+
+  private void doScan() {
+    final NewVirtualFile root = myRefreshQueue.get(0).myFile;
     final boolean rootDirty = root.isDirty();
     debug(LOG, "root=%s dirty=%b", root, rootDirty);
     if (!rootDirty) return;
@@ -76,14 +97,20 @@ public class RefreshWorker {
     }
 
     final PersistentFS persistence = PersistentFS.getInstance();
+    final boolean prefetch = ourIOExecutor != null && fs instanceof LocalFileSystem;
 
-    while (!myRefreshQueue.isEmpty()) {
-      final VirtualFileSystemEntry file = (VirtualFileSystemEntry)myRefreshQueue.pullFirst();
+    while (myQueueHead < myRefreshQueue.size()) {
+      if (prefetch) {
+        prefetchDirectories(fs);
+      }
+      final RefreshEntry entry = myRefreshQueue.set(myQueueHead++, null);
+      final VirtualFileSystemEntry file = entry.myFile;
       final boolean fileDirty = file.isDirty();
       debug(LOG, "file=%s dirty=%b", file, fileDirty);
       if (!fileDirty) continue;
 
-      final FileAttributes attributes = Comparing.equal(file, root) ? rootAttributes : fs.getAttributes(file);
+      final FileAttributes attributes = Comparing.equal(file, root) ? rootAttributes :
+                                        entry.myAttributes != null ? entry.myAttributes : fs.getAttributes(file);
       if (attributes == null) {
         scheduleDeletion(file);
         continue;
@@ -100,9 +127,10 @@ public class RefreshWorker {
       else if (file.isDirectory()) {
         final VirtualDirectoryImpl dir = (VirtualDirectoryImpl)file;
         final boolean fullSync = dir.allChildrenLoaded();
+        final DirectorySnapshot snapshot = getSnapshot(entry, fs);
         if (fullSync) {
           final Set<String> currentNames = newHashSet(persistence.list(file));
-          final Set<String> upToDateNames = newHashSet(VfsUtil.filterNames(fs.list(file)));
+          final Set<String> upToDateNames = newHashSet(snapshot.myNames);
           final Set<String> newNames = newHashSet(upToDateNames);
           newNames.removeAll(currentNames);
           final Set<String> deletedNames = newHashSet(currentNames);
@@ -114,7 +142,7 @@ public class RefreshWorker {
           }
 
           for (String name : newNames) {
-            final FileAttributes childAttributes = fs.getAttributes(new FakeVirtualFile(file, name));
+            final FileAttributes childAttributes = snapshot.getAttributes(fs, file, name);
             if (childAttributes != null) {
               scheduleCreation(file, name, childAttributes.isDirectory());
             }
@@ -125,7 +153,7 @@ public class RefreshWorker {
 
           for (VirtualFile child : file.getChildren()) {
             if (!deletedNames.contains(child.getName())) {
-              final FileAttributes childAttributes = fs.getAttributes(child);
+              final FileAttributes childAttributes = snapshot.getAttributes(fs, file, child.getName());
               if (childAttributes != null) {
                 checkAndScheduleChildRefresh(file, child, childAttributes);
               }
@@ -140,7 +168,7 @@ public class RefreshWorker {
           final Collection<VirtualFile> cachedChildren = file.getCachedChildren();
           debug(LOG, "cached=%s", cachedChildren);
           for (VirtualFile child : cachedChildren) {
-            final FileAttributes childAttributes = fs.getAttributes(child);
+            final FileAttributes childAttributes = snapshot.getAttributes(fs, file, child.getName());
             if (childAttributes != null) {
               checkAndScheduleChildRefresh(file, child, childAttributes);
             }
@@ -154,8 +182,7 @@ public class RefreshWorker {
           for (String name : names) {
             if (name.isEmpty()) continue;
 
-            final VirtualFile fake = new FakeVirtualFile(file, name);
-            final FileAttributes childAttributes = fs.getAttributes(fake);
+            final FileAttributes childAttributes = snapshot.getAttributes(fs, file, name);
             if (childAttributes != null) {
               scheduleCreation(file, name, childAttributes.isDirectory());
             }
@@ -194,7 +221,7 @@ public class RefreshWorker {
     if (!checkAndScheduleAttributesChange(parent, child, childAttributes)) {
       final boolean upToDateIsDirectory = childAttributes.isDirectory();
       if (myIsRecursive || !upToDateIsDirectory) {
-        myRefreshQueue.addLast(child);
+        myRefreshQueue.add(new RefreshEntry((VirtualFileSystemEntry)child, childAttributes));
       }
     }
   }
@@ -268,4 +295,116 @@ public class RefreshWorker {
   public List<VFileEvent> getEvents() {
     return myEvents;
   }
+
+  private void prefetchDirectories(@NotNull final NewVirtualFileSystem fs) {
+    myPrefetchCursor = Math.max(myPrefetchCursor, myQueueHead);
+    final int limit = Math.min(myRefreshQueue.size(), myQueueHead + MAX_PREFETCHED_DIRECTORIES);
+    for (; myPrefetchCursor < limit; myPrefetchCursor++) {
+      final RefreshEntry entry = myRefreshQueue.get(myPrefetchCursor);
+      final VirtualFileSystemEntry file = entry.myFile;
+      if (!file.isDirectory() || !file.isDirty() || entry.myAttributes == null || !entry.myAttributes.isDirectory()) continue;
+
+      final Collection<String> names = getNamesToCheck((VirtualDirectoryImpl)file);
+      entry.mySnapshot = ourIOExecutor.submit(new Callable<DirectorySnapshot>() {
+        @Override
+        public DirectorySnapshot call() {
+          return DirectorySnapshot.read(fs, file, names);
+        }
+      });
+    }
+  }
+
+  @NotNull
+  private static DirectorySnapshot getSnapshot(@NotNull RefreshEntry entry, @NotNull NewVirtualFileSystem fs) {
+    final VirtualDirectoryImpl dir = (VirtualDirectoryImpl)entry.myFile;
+    final Future<DirectorySnapshot> future = entry.mySnapshot;
+    if (future != null) {
+      try {
+        final DirectorySnapshot snapshot = future.get();
+        if ((snapshot.myNames != null) == dir.allChildrenLoaded()) {
+          return snapshot;
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      catch (ExecutionException e) {
+        LOG.info(e.getCause());
+      }
+    }
+    return DirectorySnapshot.read(fs, dir, getNamesToCheck(dir));
+  }
+
+  /**
+   * @return null if all children of the directory are loaded and its whole listing should be compared,
+   * names of cached children and suspicious names otherwise
+   */
+  @Nullable
+  private static Collection<String> getNamesToCheck(@NotNull VirtualDirectoryImpl dir) {
+    if (dir.allChildrenLoaded()) return null;
+
+    final Set<String> names = new LinkedHashSet<String>();
+    for (VirtualFile child : dir.getCachedChildren()) {
+      names.add(child.getName());
+    }
+    for (String name : dir.getSuspiciousNames()) {
+      if (!name.isEmpty()) names.add(name);
+    }
+    return names;
+  }
+
+  @NotNull
+  private static ExecutorService createIOExecutor() {
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 1, TimeUnit.MINUTES,
+                                                               new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      @Override
+      public Thread newThread(@NotNull Runnable r) {
+        final Thread thread = new Thread(r, "FS Refresh IO");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static class RefreshEntry {
+    private final VirtualFileSystemEntry myFile;
+    @Nullable private final FileAttributes myAttributes; // attributes read while scanning the parent
+    @Nullable private Future<DirectorySnapshot> mySnapshot;
+
+    private RefreshEntry(@NotNull VirtualFileSystemEntry file, @Nullable FileAttributes attributes) {
+      myFile = file;
+      myAttributes = attributes;
+    }
+  }
+
+  private static class DirectorySnapshot {
+    @Nullable private final String[] myNames; // up-to-date listing, when requested
+    private final Map<String, FileAttributes> myAttributes;
+
+    private DirectorySnapshot(@Nullable String[] names, @NotNull Map<String, FileAttributes> attributes) {
+      myNames = names;
+      myAttributes = attributes;
+    }
+
+    @NotNull
+    private static DirectorySnapshot read(@NotNull NewVirtualFileSystem fs, @NotNull VirtualFile dir, @Nullable Collection<String> names) {
+      final String[] upToDateNames = names == null ? VfsUtil.filterNames(fs.list(dir)) : null;
+      final Collection<String> toRead = upToDateNames != null ? Arrays.asList(upToDateNames) : names;
+      final Map<String, FileAttributes> attributes = new THashMap<String, FileAttributes>(toRead.size());
+      for (String name : toRead) {
+        attributes.put(name, fs.getAttributes(new FakeVirtualFile(dir, name)));
+      }
+      return new DirectorySnapshot(upToDateNames, attributes);
+    }
+
+    @Nullable
+    private FileAttributes getAttributes(@NotNull NewVirtualFileSystem fs, @NotNull VirtualFile dir, @NotNull String name) {
+      if (myAttributes.containsKey(name)) {
+        return myAttributes.get(name);
+      }
+      return fs.getAttributes(new FakeVirtualFile(dir, name));
+    }
+  }
 }
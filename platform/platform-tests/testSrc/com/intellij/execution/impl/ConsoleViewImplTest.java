@@ -0,0 +1,106 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.execution.impl;
+
+import com.intellij.execution.filters.Filter;
+import com.intellij.execution.filters.HyperlinkInfo;
+import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.markup.RangeHighlighter;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.registry.RegistryValue;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.util.ui.UIUtil;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConsoleViewImplTest extends LightPlatformTestCase {
+  private static final int LINES_COUNT = 2000;
+  private static final String LINK = "link";
+
+  private static final HyperlinkInfo HYPERLINK = new HyperlinkInfo() {
+    @Override
+    public void navigate(Project project) {
+    }
+  };
+
+  public void testFiltersInBackground() throws Exception {
+    ConsoleViewImpl console = createConsoleWithFiltersInBackground();
+    try {
+      final AtomicInteger running = new AtomicInteger();
+      final AtomicBoolean concurrent = new AtomicBoolean();
+      final AtomicBoolean onEdt = new AtomicBoolean();
+      console.addMessageFilter(new Filter() {
+        @Override
+        public Result applyFilter(String line, int entireLength) {
+          if (running.incrementAndGet() > 1) {
+            concurrent.set(true);
+          }
+          try {
+            if (ApplicationManager.getApplication().isDispatchThread()) {
+              onEdt.set(true);
+            }
+            int index = line.indexOf(LINK);
+            if (index < 0) return null;
+            int start = entireLength - line.length() + index;
+            return new Result(start, start + LINK.length(), HYPERLINK);
+          }
+          finally {
+            running.decrementAndGet();
+          }
+        }
+      });
+      console.getComponent();
+
+      for (int i = 0; i < LINES_COUNT; i++) {
+        console.print("line " + i + (i % 2 == 0 ? " " + LINK : "") + "\n", ConsoleViewContentType.NORMAL_OUTPUT);
+      }
+      console.flushDeferredText();
+
+      long deadline = System.currentTimeMillis() + 30000;
+      while (console.getHyperlinks().getHyperlinks().size() < LINES_COUNT / 2 && System.currentTimeMillis() < deadline) {
+        UIUtil.dispatchAllInvocationEvents();
+        Thread.sleep(10);
+      }
+
+      assertEquals(LINES_COUNT / 2, console.getHyperlinks().getHyperlinks().size());
+      CharSequence text = console.getEditor().getDocument().getCharsSequence();
+      for (RangeHighlighter highlighter : console.getHyperlinks().getHyperlinks().keySet()) {
+        assertEquals(LINK, text.subSequence(highlighter.getStartOffset(), highlighter.getEndOffset()).toString());
+      }
+      assertFalse(onEdt.get());
+      assertFalse(concurrent.get());
+    }
+    finally {
+      Disposer.dispose(console);
+    }
+  }
+
+  private static ConsoleViewImpl createConsoleWithFiltersInBackground() {
+    RegistryValue value = Registry.get("console.filters.in.background");
+    boolean oldValue = value.asBoolean();
+    value.setValue(true);
+    try {
+      return new ConsoleViewImpl(getProject(), false);
+    }
+    finally {
+      value.setValue(oldValue);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import com.intellij.openapi.util.text.TrigramBuilder;
+import junit.framework.TestCase;
+
+import java.util.regex.Pattern;
+
+public class RegExpTrigramPlannerTest extends TestCase {
+  private static final String[] TEXTS = {
+    "",
+    "abc",
+    "hello world",
+    "public static void main(String[] args)",
+    "class FooBar extends Baz {}",
+    "getFilesWithKey(TrigramIndex.INDEX_ID, keys)",
+    "int count = 42; // TODO fix",
+    "ABCDEF abcdef",
+    "foo\nbar\nbaz",
+    "x = y + z",
+    "Google Goooogle Gogle",
+    "C:\\Program Files\\idea",
+    "error: cannot find symbol",
+    "colour color",
+  };
+
+  public void testLiteral() {
+    assertQuery("hello", "hello world");
+    assertQuery("FooBar", "class FooBar extends Baz {}");
+    assertFalse(RegExpTrigramPlanner.buildQuery("hello").isAll());
+  }
+
+  public void testAlternation() {
+    assertQuery("hello|FooBar", "hello world", "class FooBar extends Baz {}");
+    assertQuery("(main|Baz)\\(", "public static void main(String[] args)");
+    assertQuery("colou?r", "colour color");
+  }
+
+  public void testCharacterClasses() {
+    assertQuery("[Hh]ello", "hello world");
+    assertQuery("Trigram[A-Z]ndex", "getFilesWithKey(TrigramIndex.INDEX_ID, keys)");
+    assertQuery("FooB[^x]r extends", "class FooBar extends Baz {}");
+    assertQuery("\\bint\\s+count", "int count = 42; // TODO fix");
+    assertQuery("\\d\\d; // TODO", "int count = 42; // TODO fix");
+  }
+
+  public void testRepetitions() {
+    assertQuery("Go+gle", "Google Goooogle Gogle");
+    assertQuery("Go{2,5}gle", "Google Goooogle Gogle");
+    assertQuery("er+or: .*symbol", "error: cannot find symbol");
+    assertQuery("foo.*baz", "foo\nbar\nbaz", "class FooBar extends Baz {}");
+  }
+
+  public void testEscapes() {
+    assertQuery("C:\\\\Program", "C:\\Program Files\\idea");
+    assertQuery("\\QString[]\\E", "public static void main(String[] args)");
+    assertQuery("=\\s*y \\+ z", "x = y + z");
+    assertQuery("(?i)abcdef", "ABCDEF abcdef");
+  }
+
+  public void testUnrestrictedQueries() {
+    assertTrue(RegExpTrigramPlanner.buildQuery("a.*b").isAll());
+    assertTrue(RegExpTrigramPlanner.buildQuery(".*").isAll());
+    assertTrue(RegExpTrigramPlanner.buildQuery("ab").isAll());
+    assertTrue(RegExpTrigramPlanner.buildQuery("x\\s*=\\s*y").isAll());
+    assertTrue(RegExpTrigramPlanner.buildQuery("(abc|x)").isAll());
+    assertTrue(RegExpTrigramPlanner.buildQuery("(?x) a b c").isAll());
+    assertTrue(RegExpTrigramPlanner.buildQuery("(abc").isAll());
+  }
+
+  public void testBackReference() {
+    assertQuery("(foo)\\n\\1", "foo\nbar\nbaz");
+    assertQuery("(o)\\1gle", "Google Goooogle Gogle");
+  }
+
+  /**
+   * Checks that the query accepts every text containing a match of the regexp (the query must never lose results) and rejects all
+   * other texts except the expected ones.
+   */
+  private static void assertQuery(String regexp, String... expected) {
+    TrigramQuery query = RegExpTrigramPlanner.buildQuery(regexp);
+    Pattern pattern = Pattern.compile(regexp);
+    for (String text : TEXTS) {
+      boolean found = pattern.matcher(text).find();
+      boolean matches = query.matches(TrigramBuilder.buildTrigram(text));
+      if (found) {
+        assertTrue(regexp + " -> " + query + " must match '" + text + "'", matches);
+      }
+      else if (matches) {
+        boolean expectedText = false;
+        for (String s : expected) {
+          expectedText |= s.equals(text);
+        }
+        assertTrue(regexp + " -> " + query + " must not match '" + text + "'", expectedText);
+      }
+    }
+  }
+}
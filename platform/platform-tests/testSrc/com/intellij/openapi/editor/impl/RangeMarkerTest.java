@@ -27,6 +27,7 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -1043,4 +1044,99 @@ public class RangeMarkerTest extends LightPlatformTestCase {
     assertValidMarker(marker1, 2, 2);
     assertValidMarker(marker2, 2, 4);
   }
+
+  public void testReplaceStringsKeepsMarkersBetweenChanges() throws Exception {
+    RangeMarkerEx marker1 = createMarker("0123456789", 2, 4);
+    DocumentImpl document = (DocumentImpl)marker1.getDocument();
+    RangeMarker marker2 = document.createRangeMarker(5, 6);
+    RangeMarker marker3 = document.createRangeMarker(8, 9);
+
+    document.replaceStrings(Arrays.asList(new TextRange(0, 1), new TextRange(4, 5), new TextRange(7, 8)),
+                            Arrays.asList("xx", "", "yyy"));
+    assertEquals("xx12356yyy89", document.getText());
+
+    assertValidMarker(marker1, 3, 5);
+    assertValidMarker(marker2, 5, 6);
+    assertValidMarker(marker3, 10, 11);
+  }
+
+  public void testReplaceStringsInvalidatesMarkerInsideChange() throws Exception {
+    RangeMarkerEx marker1 = createMarker("0123456789", 5, 6);
+    DocumentImpl document = (DocumentImpl)marker1.getDocument();
+    RangeMarker marker2 = document.createRangeMarker(8, 10);
+
+    document.replaceStrings(Arrays.asList(new TextRange(1, 2), new TextRange(4, 7)), Arrays.asList("a", "b"));
+    assertEquals("0a23b789", document.getText());
+
+    assertFalse(marker1.isValid());
+    assertValidMarker(marker2, 6, 8);
+  }
+
+  public void testRandomReplaceStringsIsTheSameAsReplaceStringFromTheEnd() throws Exception {
+    final long seed = new Random().nextLong();
+    final Random gen = new Random(seed);
+    for (int tryn = 0; tryn < 500; tryn++) {
+      String text = randomString(gen, 30 + gen.nextInt(30));
+      DocumentImpl batchDocument = (DocumentImpl)EditorFactory.getInstance().createDocument(text);
+      DocumentImpl document = (DocumentImpl)EditorFactory.getInstance().createDocument(text);
+      List<RangeMarker> batchMarkers = new ArrayList<RangeMarker>();
+      List<RangeMarker> markers = new ArrayList<RangeMarker>();
+      for (int i = 0; i < 20; i++) {
+        int start = gen.nextInt(text.length() + 1);
+        int end = start + gen.nextInt(Math.min(10, text.length() - start) + 1);
+        boolean greedyToLeft = gen.nextBoolean();
+        boolean greedyToRight = gen.nextBoolean();
+        batchMarkers.add(createMarker(batchDocument, start, end, greedyToLeft, greedyToRight));
+        markers.add(createMarker(document, start, end, greedyToLeft, greedyToRight));
+      }
+
+      for (int batch = 0; batch < 5; batch++) {
+        List<TextRange> ranges = new ArrayList<TextRange>();
+        List<String> replacements = new ArrayList<String>();
+        int length = document.getTextLength();
+        int offset = gen.nextInt(5);
+        while (offset <= length) {
+          int end = offset + gen.nextInt(Math.min(5, length - offset) + 1);
+          ranges.add(new TextRange(offset, end));
+          replacements.add(randomString(gen, gen.nextInt(5)));
+          offset = end + gen.nextInt(8); // adjacent changes too
+        }
+        String message = "seed = " + seed + "; try " + tryn + "; text '" + document.getText() + "'; changes " + ranges + " " + replacements;
+
+        batchDocument.replaceStrings(ranges, replacements);
+        for (int i = ranges.size() - 1; i >= 0; i--) {
+          document.replaceString(ranges.get(i).getStartOffset(), ranges.get(i).getEndOffset(), replacements.get(i));
+        }
+
+        assertEquals(message, document.getText(), batchDocument.getText());
+        for (int i = 0; i < markers.size(); i++) {
+          RangeMarker marker = markers.get(i);
+          RangeMarker batchMarker = batchMarkers.get(i);
+          assertEquals(message + "; " + marker, marker.isValid(), batchMarker.isValid());
+          if (marker.isValid()) {
+            assertEquals(message + "; " + marker, marker.getStartOffset(), batchMarker.getStartOffset());
+            assertEquals(message + "; " + marker, marker.getEndOffset(), batchMarker.getEndOffset());
+            assertEquals(message + "; " + marker, marker.isGreedyToLeft(), batchMarker.isGreedyToLeft());
+            assertEquals(message + "; " + marker, marker.isGreedyToRight(), batchMarker.isGreedyToRight());
+          }
+        }
+      }
+    }
+  }
+
+  private static RangeMarker createMarker(Document document, int start, int end, boolean greedyToLeft, boolean greedyToRight) {
+    RangeMarker marker = document.createRangeMarker(start, end);
+    marker.setGreedyToLeft(greedyToLeft);
+    marker.setGreedyToRight(greedyToRight);
+    return marker;
+  }
+
+  // a small alphabet, so that replacements often share a prefix or a suffix with the replaced text
+  private static String randomString(Random gen, int length) {
+    StringBuilder result = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      result.append("ab \n".charAt(gen.nextInt(4)));
+    }
+    return result.toString();
+  }
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.persistent;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.PagedFileStorage;
+import com.intellij.util.io.ResizeableMappedFile;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class FSRecordsJournalTest extends TestCase {
+  private static final int RECORD_SIZE = 16;
+  private static final int RECORDS_COUNT = 100;
+
+  private final PagedFileStorage.StorageLock myLock = new PagedFileStorage.StorageLock();
+  private File myRecordsFile;
+  private File myJournalFile;
+  private ResizeableMappedFile myRecords;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myRecordsFile = FileUtil.createTempFile("records", ".dat");
+    myJournalFile = new File(myRecordsFile.getPath() + ".journal");
+    myLock.lock();
+    try {
+      myRecords = new ResizeableMappedFile(myRecordsFile, RECORD_SIZE * RECORDS_COUNT, myLock);
+      myRecords.put(0, new byte[RECORD_SIZE * RECORDS_COUNT], 0, RECORD_SIZE * RECORDS_COUNT);
+    }
+    finally {
+      myLock.unlock();
+    }
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myLock.lock();
+    try {
+      myRecords.close();
+    }
+    finally {
+      myLock.unlock();
+    }
+    FileUtil.delete(myJournalFile);
+    FileUtil.delete(new File(myRecordsFile.getPath() + ".len"));
+    FileUtil.delete(myRecordsFile);
+    super.tearDown();
+  }
+
+  public void testWriteBehind() throws IOException {
+    myLock.lock();
+    try {
+      final FSRecordsJournal journal = new FSRecordsJournal(myJournalFile, RECORD_SIZE);
+      journal.putInt(myRecords, 5, 4, 42);
+      journal.putLong(myRecords, 3, 8, Long.MAX_VALUE);
+
+      assertEquals(42, journal.getInt(myRecords, 5, 4));
+      assertEquals(Long.MAX_VALUE, journal.getLong(myRecords, 3, 8));
+      assertEquals(0, myRecords.getInt(5 * RECORD_SIZE + 4));
+      assertEquals(2, journal.getPendingRecordsCount());
+
+      journal.flush(myRecords, false);
+
+      assertEquals(0, journal.getPendingRecordsCount());
+      assertEquals(42, myRecords.getInt(5 * RECORD_SIZE + 4));
+      assertEquals(Long.MAX_VALUE, myRecords.getLong(3 * RECORD_SIZE + 8));
+      assertTrue(myJournalFile.exists());
+
+      journal.checkpointCompleted();
+      assertFalse(myJournalFile.exists());
+    }
+    finally {
+      myLock.unlock();
+    }
+  }
+
+  public void testReplayCheckpoint() throws IOException {
+    myLock.lock();
+    try {
+      final FSRecordsJournal journal = new FSRecordsJournal(myJournalFile, RECORD_SIZE);
+      for (int id = 1; id < RECORDS_COUNT; id++) {
+        journal.putInt(myRecords, id, 0, id);
+      }
+      journal.flush(myRecords, true);
+      assertTrue(myJournalFile.exists());
+
+      // emulate process termination before the batch reached the records file
+      myRecords.put(0, new byte[RECORD_SIZE * RECORDS_COUNT], 0, RECORD_SIZE * RECORDS_COUNT);
+
+      assertTrue(new FSRecordsJournal(myJournalFile, RECORD_SIZE).replay(myRecords));
+      assertFalse(myJournalFile.exists());
+      for (int id = 1; id < RECORDS_COUNT; id++) {
+        assertEquals(id, myRecords.getInt(id * RECORD_SIZE));
+      }
+    }
+    finally {
+      myLock.unlock();
+    }
+  }
+
+  public void testReplayBatchesSinceCheckpoint() throws IOException {
+    myLock.lock();
+    try {
+      final FSRecordsJournal journal = new FSRecordsJournal(myJournalFile, RECORD_SIZE);
+      for (int id = 1; id < RECORDS_COUNT; id++) {
+        journal.putInt(myRecords, id, 0, id);
+      }
+      journal.flush(myRecords, false);
+      journal.putInt(myRecords, 1, 4, 42);
+      journal.clear(2);
+      journal.flush(myRecords, true);
+
+      myRecords.put(0, new byte[RECORD_SIZE * RECORDS_COUNT], 0, RECORD_SIZE * RECORDS_COUNT);
+
+      assertTrue(new FSRecordsJournal(myJournalFile, RECORD_SIZE).replay(myRecords));
+      assertEquals(1, myRecords.getInt(RECORD_SIZE));
+      assertEquals(42, myRecords.getInt(RECORD_SIZE + 4));
+      assertEquals(0, myRecords.getInt(2 * RECORD_SIZE));
+      for (int id = 3; id < RECORDS_COUNT; id++) {
+        assertEquals(id, myRecords.getInt(id * RECORD_SIZE));
+      }
+    }
+    finally {
+      myLock.unlock();
+    }
+  }
+
+  public void testBatchesAfterCheckpointAreNotTrusted() throws IOException {
+    myLock.lock();
+    try {
+      final FSRecordsJournal journal = new FSRecordsJournal(myJournalFile, RECORD_SIZE);
+      journal.putInt(myRecords, 1, 0, 1);
+      journal.flush(myRecords, true);
+      journal.putInt(myRecords, 2, 0, 2);
+      journal.flush(myRecords, false);
+
+      assertFalse(new FSRecordsJournal(myJournalFile, RECORD_SIZE).replay(myRecords));
+      assertFalse(myJournalFile.exists());
+    }
+    finally {
+      myLock.unlock();
+    }
+  }
+
+  public void testIncompleteJournalIsNotReplayed() throws IOException {
+    myLock.lock();
+    try {
+      final FSRecordsJournal journal = new FSRecordsJournal(myJournalFile, RECORD_SIZE);
+      for (int id = 1; id < RECORDS_COUNT; id++) {
+        journal.putInt(myRecords, id, 0, id);
+      }
+      journal.flush(myRecords, true);
+      myRecords.put(0, new byte[RECORD_SIZE * RECORDS_COUNT], 0, RECORD_SIZE * RECORDS_COUNT);
+
+      final RandomAccessFile file = new RandomAccessFile(myJournalFile, "rw");
+      try {
+        file.setLength(file.length() - 4);
+      }
+      finally {
+        file.close();
+      }
+
+      assertFalse(new FSRecordsJournal(myJournalFile, RECORD_SIZE).replay(myRecords));
+      assertFalse(myJournalFile.exists());
+      assertEquals(0, myRecords.getInt(RECORD_SIZE));
+    }
+    finally {
+      myLock.unlock();
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.persistent;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+public class FSRecordsTest extends TestCase {
+  private static final String[] RECORDS_FILES = {"records.dat", "records.dat.len"};
+
+  private boolean myWasConnected;
+  private String myOldCachesDir;
+  private String myOldIndexRoot;
+  private File myTempDir;
+  private File myCachesDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myWasConnected = FSRecords.DbConnection.isConnected();
+    if (myWasConnected) {
+      FSRecords.DbConnection.disconnect();
+    }
+
+    myTempDir = FileUtil.createTempDirectory("vfs", null);
+    myCachesDir = new File(myTempDir, "caches");
+    myOldCachesDir = System.setProperty("caches_dir", myCachesDir.getPath());
+    myOldIndexRoot = System.setProperty("index_root_path", new File(myTempDir, "index").getPath());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      if (FSRecords.DbConnection.isConnected()) {
+        FSRecords.DbConnection.disconnect();
+      }
+      restoreProperty("caches_dir", myOldCachesDir);
+      restoreProperty("index_root_path", myOldIndexRoot);
+      FileUtil.delete(myTempDir);
+      if (myWasConnected) {
+        FSRecords.connect();
+      }
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testCheckpointIsReplayedOnConnect() throws Exception {
+    final long created = createStorage();
+    final int[] ids = createRecords();
+
+    final File crashed = new File(myTempDir, "crashed");
+    simulateCrash(ids, true, crashed);
+
+    FSRecords.connect();
+    assertEquals(created, FSRecords.getCreationTimestamp());
+    assertEquals(2, FSRecords.getLength(ids[0]));
+    assertEquals(3, FSRecords.getTimestamp(ids[1]));
+  }
+
+  public void testStorageIsRebuiltWithoutCheckpoint() throws Exception {
+    final long created = createStorage();
+    final int[] ids = createRecords();
+
+    final File crashed = new File(myTempDir, "crashed");
+    simulateCrash(ids, false, crashed);
+
+    Thread.sleep(10);
+    FSRecords.connect();
+    assertFalse(created == FSRecords.getCreationTimestamp());
+  }
+
+  private static long createStorage() throws IOException {
+    FSRecords.connect();
+    final long created = FSRecords.getCreationTimestamp();
+    FSRecords.DbConnection.disconnect();
+    return created;
+  }
+
+  private static int[] createRecords() throws IOException {
+    FSRecords.connect();
+    final int[] ids = {FSRecords.createRecord(), FSRecords.createRecord()};
+    for (int id : ids) {
+      FSRecords.setLength(id, 1);
+    }
+    FSRecords.DbConnection.disconnect();
+    return ids;
+  }
+
+  /**
+   * Leaves the records file in the state it had when the storage was connected, with the journal of the changes made after that, as if
+   * the process was terminated before the records file was forced.
+   */
+  private void simulateCrash(int[] ids, boolean checkpoint, File crashed) throws IOException {
+    FSRecords.connect();
+    copyRecords(myCachesDir, crashed);
+
+    FSRecords.setLength(ids[0], 2);
+    FSRecords.DbConnection.flushPendingRecords(false);
+    FSRecords.setTimestamp(ids[1], 3);
+    FSRecords.DbConnection.flushPendingRecords(checkpoint);
+
+    final File journal = new File(myCachesDir, "records.dat.journal");
+    assertTrue(journal.exists());
+    final File journalCopy = new File(crashed, journal.getName());
+    FileUtil.copy(journal, journalCopy);
+
+    FSRecords.DbConnection.disconnect();
+    assertFalse(journal.exists());
+
+    copyRecords(crashed, myCachesDir);
+    FileUtil.copy(journalCopy, journal);
+  }
+
+  private static void copyRecords(File from, File to) throws IOException {
+    for (String name : RECORDS_FILES) {
+      FileUtil.copy(new File(from, name), new File(to, name));
+    }
+  }
+
+  private static void restoreProperty(String key, String value) {
+    if (value != null) {
+      System.setProperty(key, value);
+    }
+    else {
+      System.clearProperty(key);
+    }
+  }
+}
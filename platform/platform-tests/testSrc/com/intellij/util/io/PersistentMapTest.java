@@ -7,9 +7,7 @@ import com.intellij.util.containers.IntObjectCache;
 import com.intellij.util.io.storage.Storage;
 import junit.framework.TestCase;
 
-import java.io.File;
-import java.io.FileFilter;
-import java.io.IOException;
+import java.io.*;
 import java.util.*;
 
 /**
@@ -248,6 +246,231 @@ public class PersistentMapTest extends TestCase {
     }
   }
 
+  public void testIncrementalCompaction() throws IOException {
+    final int stringsCount = 200;
+    Map<String, String> expected = new HashMap<String, String>();
+    List<String> keys = fillWithGarbage(stringsCount, expected);
+
+    final long sizeBeforeCompaction = myDataFile.length();
+    assertTrue(myMap.performCompactionStep(16));
+    assertTrue(myMap.isCompactionInProgress());
+
+    int step = 0;
+    do {
+      // modifications made during compaction should survive the switch to compacted storage
+      final String key = keys.get(step * 7 % stringsCount);
+      if (step % 3 == 0) {
+        myMap.remove(key);
+        expected.remove(key);
+      }
+      else {
+        final String value = key + "_value" + step;
+        myMap.put(key, value);
+        expected.put(key, value);
+      }
+      final String newKey = "new" + step;
+      myMap.put(newKey, newKey);
+      expected.put(newKey, newKey);
+
+      assertEquals(expected.get(keys.get(step % stringsCount)), myMap.get(keys.get(step % stringsCount)));
+      ++step;
+    }
+    while (myMap.performCompactionStep(16));
+
+    assertFalse(myMap.isCompactionInProgress());
+    assertEquals(0, myMap.getGarbageSize());
+    assertTrue(myDataFile.length() < sizeBeforeCompaction);
+
+    myMap.close();
+    myMap = new PersistentHashMap<String, String>(myFile, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+
+    assertEquals(expected.keySet(), new HashSet<String>(myMap.getAllKeysWithExistingMapping()));
+    for (Map.Entry<String, String> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), myMap.get(entry.getKey()));
+    }
+  }
+
+  public void testCloseAndResumeDuringCompaction() throws IOException {
+    final int stringsCount = 200;
+    Map<String, String> expected = new HashMap<String, String>();
+    List<String> keys = fillWithGarbage(stringsCount, expected);
+
+    assertTrue(myMap.performCompactionStep(16));
+    for (int step = 0; step < 4; step++) {
+      final String key = keys.get(step * 7 % stringsCount);
+      final String value = key + "_value" + step;
+      myMap.put(key, value);
+      expected.put(key, value);
+      assertTrue(myMap.performCompactionStep(16));
+    }
+    myMap.force();
+    assertTrue(myMap.isDirty());
+
+    // compaction is not finished by close, it continues after the map is reopened
+    myMap.close();
+    myMap = new PersistentHashMap<String, String>(myFile, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor(), true);
+    assertTrue(myMap.isCompactionInProgress());
+    assertMapContents(myMap, expected);
+
+    int step = 0;
+    while (myMap.performCompactionStep(16)) {
+      final String key = keys.get(step * 11 % stringsCount);
+      myMap.remove(key);
+      expected.remove(key);
+      ++step;
+    }
+    assertFalse(myMap.isCompactionInProgress());
+    assertMapContents(myMap, expected);
+
+    myMap.close();
+    myMap = new PersistentHashMap<String, String>(myFile, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+    assertMapContents(myMap, expected);
+  }
+
+  public void testCompactionIsFinishedOnOpenWithoutBackgroundCompaction() throws IOException {
+    Map<String, String> expected = new HashMap<String, String>();
+    fillWithGarbage(200, expected);
+
+    assertTrue(myMap.performCompactionStep(16));
+    assertTrue(myMap.performCompactionStep(16));
+    myMap.close();
+
+    myMap = new PersistentHashMap<String, String>(myFile, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+    assertFalse(myMap.isCompactionInProgress());
+    assertEquals(0, myMap.getGarbageSize());
+    assertMapContents(myMap, expected);
+  }
+
+  public void testAppendDataDuringCompaction() throws IOException {
+    final File file = FileUtil.createTempFile("persistent", "map");
+    final int keysCount = 200;
+    PersistentHashMap<String, List<Integer>> map = createIntListMap(file);
+    try {
+      final Map<String, List<Integer>> expected = new HashMap<String, List<Integer>>();
+      final List<Integer> garbage = new ArrayList<Integer>();
+      for (int i = 0; i < 10 * 1024; i++) {
+        garbage.add(i);
+      }
+      for (int i = 0; i < keysCount; i++) {
+        final String key = "key" + i;
+        map.put(key, garbage);
+        map.put(key, garbage);
+        map.put(key, Collections.singletonList(i));
+        expected.put(key, new ArrayList<Integer>(Collections.singletonList(i)));
+      }
+
+      assertTrue(map.performCompactionStep(16));
+      int step = 0;
+      for (; step < 6; step++) {
+        appendDuringCompaction(map, expected, keysCount, step);
+        assertTrue(map.performCompactionStep(16));
+      }
+
+      // pending appends are written by close, and compaction continues after the map is reopened
+      appendInt(map, expected, "key0", -1);
+      map.close();
+      map = createIntListMap(file);
+      assertTrue(map.isCompactionInProgress());
+      assertMapContents(map, expected);
+
+      do {
+        appendDuringCompaction(map, expected, keysCount, step);
+        ++step;
+      }
+      while (map.performCompactionStep(16));
+
+      map.force();
+      assertFalse(map.isCompactionInProgress());
+      assertMapContents(map, expected);
+
+      map.close();
+      map = createIntListMap(file);
+      assertMapContents(map, expected);
+    }
+    finally {
+      clearMap(file, map);
+    }
+  }
+
+  private static void appendDuringCompaction(PersistentHashMap<String, List<Integer>> map,
+                                             Map<String, List<Integer>> expected,
+                                             int keysCount,
+                                             int step) throws IOException {
+    // appended chunks of values both copied and not yet copied by compaction
+    appendInt(map, expected, "key" + (step * 7 % keysCount), step);
+    appendInt(map, expected, "key" + (keysCount - 1 - step % keysCount), -step);
+    appendInt(map, expected, "new" + (step % 5), step);
+    if (step % 3 == 0) {
+      map.force();
+    }
+    assertEquals(expected.get("key" + step % keysCount), map.get("key" + step % keysCount));
+  }
+
+  private List<String> fillWithGarbage(int stringsCount, Map<String, String> expected) throws IOException {
+    final StringBuilder padding = new StringBuilder();
+    for (int i = 0; i < 50 * 1024; ++i) {
+      padding.append('x');
+    }
+
+    List<String> keys = new ArrayList<String>();
+    for (int i = 0; i < stringsCount; ++i) {
+      final String key = "key" + i;
+      keys.add(key);
+      myMap.put(key, key + padding);
+      myMap.put(key, padding + key);
+    }
+
+    // create some garbage
+    for (String key : keys) {
+      final String value = key + "_value";
+      expected.put(key, value);
+      myMap.put(key, value);
+    }
+    return keys;
+  }
+
+  private static <V> void assertMapContents(PersistentHashMap<String, V> map, Map<String, V> expected) throws IOException {
+    assertEquals(expected.keySet(), new HashSet<String>(map.getAllKeysWithExistingMapping()));
+    for (Map.Entry<String, V> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), map.get(entry.getKey()));
+    }
+  }
+
+  private static void appendInt(PersistentHashMap<String, List<Integer>> map, Map<String, List<Integer>> expected, String key, final int value)
+    throws IOException {
+    map.appendData(key, new PersistentHashMap.ValueDataAppender() {
+      @Override
+      public void append(DataOutput out) throws IOException {
+        out.writeInt(value);
+      }
+    });
+    List<Integer> list = expected.get(key);
+    if (list == null) {
+      expected.put(key, list = new ArrayList<Integer>());
+    }
+    list.add(value);
+  }
+
+  private static PersistentHashMap<String, List<Integer>> createIntListMap(File file) throws IOException {
+    return new PersistentHashMap<String, List<Integer>>(file, new EnumeratorStringDescriptor(), new DataExternalizer<List<Integer>>() {
+      @Override
+      public void save(DataOutput out, List<Integer> value) throws IOException {
+        for (int i : value) {
+          out.writeInt(i);
+        }
+      }
+
+      @Override
+      public List<Integer> read(DataInput in) throws IOException {
+        List<Integer> result = new ArrayList<Integer>();
+        while (((DataInputStream)in).available() > 0) {
+          result.add(in.readInt());
+        }
+        return result;
+      }
+    }, true);
+  }
+
   public void testPerformance() throws IOException {
     final IntObjectCache<String> stringCache = new IntObjectCache<String>(2000);
     final IntObjectCache.DeletedPairsListener listener = new IntObjectCache.DeletedPairsListener() {
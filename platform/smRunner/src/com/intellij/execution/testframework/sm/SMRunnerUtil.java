@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2009 JetBrains s.r.o.
+ * Copyright 2000-2012 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -19,10 +19,12 @@ import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.util.ui.UIUtil;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Roman Chernyatchik
@@ -30,20 +32,68 @@ import java.awt.event.ActionEvent;
 public class SMRunnerUtil {
   private static final Logger LOG = Logger.getInstance(SMRunnerUtil.class.getName());
 
+  /**
+   * Max time the event dispatch thread spends on queued runnables before it lets other events, e.g. repaint, in
+   */
+  private static final long EVENTS_BATCH_TIME_MS = 30;
+
+  private static final Queue<Runnable> ourEventsQueue = new ConcurrentLinkedQueue<Runnable>();
+  private static final AtomicBoolean ourEventsFlushScheduled = new AtomicBoolean();
+  private static final Runnable ourEventsFlusher = new Runnable() {
+    public void run() {
+      flushEvents();
+    }
+  };
+
   private SMRunnerUtil() {
   }
 
   /**
    * Adds runnable to Event Dispatch Queue
-   * if we aren't in UnitTest of Headless environment mode
+   * if we aren't in UnitTest of Headless environment mode.
+   * Runnables added from other threads are executed in the order they were added, but in batches: a test process may report
+   * thousands of events per second and posting each of them as a separate event would flood the event queue.
    * @param runnable Runnable
    */
   public static void addToInvokeLater(final Runnable runnable) {
     final Application application = ApplicationManager.getApplication();
     if (application.isHeadlessEnvironment() && !application.isUnitTestMode()) {
       runnable.run();
-    } else {
-      UIUtil.invokeLaterIfNeeded(runnable);
+    }
+    else if (SwingUtilities.isEventDispatchThread()) {
+      runnable.run();
+    }
+    else {
+      ourEventsQueue.offer(runnable);
+      scheduleEventsFlush();
+    }
+  }
+
+  private static void scheduleEventsFlush() {
+    if (ourEventsFlushScheduled.compareAndSet(false, true)) {
+      SwingUtilities.invokeLater(ourEventsFlusher);
+    }
+  }
+
+  private static void flushEvents() {
+    // reset the flag before polling, otherwise a runnable added right after the last poll could wait for the next one
+    ourEventsFlushScheduled.set(false);
+
+    final long deadline = System.currentTimeMillis() + EVENTS_BATCH_TIME_MS;
+    Runnable runnable;
+    while ((runnable = ourEventsQueue.poll()) != null) {
+      try {
+        runnable.run();
+      }
+      catch (Throwable e) {
+        LOG.error(e);
+      }
+      if (System.currentTimeMillis() > deadline) {
+        if (!ourEventsQueue.isEmpty()) {
+          scheduleEventsFlush();
+        }
+        return;
+      }
     }
   }
 
@@ -30,6 +30,8 @@ import com.intellij.execution.testframework.ui.TestResultsPanel;
 import com.intellij.execution.testframework.ui.TestsProgressAnimator;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.progress.util.ColorProgressBar;
 import com.intellij.openapi.project.Project;
@@ -89,6 +91,11 @@ public class SMTestRunnerResultsForm extends TestResultsPanel
   private String myCurrentCustomProgressCategory;
   private final Set<String> myMentionedCategories = new LinkedHashSet<String>();
 
+  // status line and app icon are updated once per batch of events, see scheduleStatusUpdate()
+  private boolean myStatusLabelOutdated;
+  private boolean myIconProgressOutdated;
+  private boolean myStatusUpdateScheduled;
+
   public SMTestRunnerResultsForm(final RunConfigurationBase runConfiguration,
                                  @NotNull final JComponent console,
                                  final TestConsoleProperties consoleProperties,
@@ -237,6 +244,8 @@ public class SMTestRunnerResultsForm extends TestResultsPanel
       myStatusLine.setFraction(1);
     }
 
+    myStatusLabelOutdated = false;
+    myIconProgressOutdated = false;
     updateStatusLabel(true);
     updateIconProgress();
 
@@ -273,7 +282,8 @@ public class SMTestRunnerResultsForm extends TestResultsPanel
 
   public void onTestFailed(@NotNull final SMTestProxy test) {
     updateCountersAndProgressOnTestFailed(false);
-    updateIconProgress();
+    myIconProgressOutdated = true;
+    scheduleStatusUpdate();
   }
 
   public void onTestIgnored(@NotNull final SMTestProxy test) {
@@ -305,8 +315,8 @@ public class SMTestRunnerResultsForm extends TestResultsPanel
   }
 
   public void onTestFinished(@NotNull final SMTestProxy test) {
-    //Do nothing
-    updateIconProgress();
+    myIconProgressOutdated = true;
+    scheduleStatusUpdate();
   }
 
   public void onSuiteFinished(@NotNull final SMTestProxy suite) {
@@ -506,6 +516,39 @@ public class SMTestRunnerResultsForm extends TestResultsPanel
                                                                       launchedAndFinished));
   }
 
+  /**
+   * Tests events are delivered to the event dispatch thread in batches (see {@link SMRunnerUtil#addToInvokeLater(Runnable)}),
+   * so the status text and the app icon progress, which are relatively expensive to update, are updated once after the current batch
+   * instead of after every event.
+   */
+  private void scheduleStatusUpdate() {
+    final Application application = ApplicationManager.getApplication();
+    if (application.isUnitTestMode() || application.isHeadlessEnvironment()) {
+      performStatusUpdate();
+      return;
+    }
+    if (myStatusUpdateScheduled) return;
+    myStatusUpdateScheduled = true;
+    SwingUtilities.invokeLater(new Runnable() {
+      public void run() {
+        myStatusUpdateScheduled = false;
+        if (myTreeBuilder.isDisposed()) return;
+        performStatusUpdate();
+      }
+    });
+  }
+
+  private void performStatusUpdate() {
+    if (myStatusLabelOutdated) {
+      myStatusLabelOutdated = false;
+      updateStatusLabel(false);
+    }
+    if (myIconProgressOutdated) {
+      myIconProgressOutdated = false;
+      updateIconProgress();
+    }
+  }
+
   /**
    * for java unit tests
    */
@@ -559,7 +602,8 @@ public class SMTestRunnerResultsForm extends TestResultsPanel
     //This is for better support groups of TestSuites
     //Each group notifies about it's size
     myTestsTotal += count;
-    updateStatusLabel(false);
+    myStatusLabelOutdated = true;
+    scheduleStatusUpdate();
   }
 
   private void updateCountersAndProgressOnTestStarted(final boolean isCustomMessage) {
@@ -587,14 +631,16 @@ public class SMTestRunnerResultsForm extends TestResultsPanel
       // if at least one test was launcher than just set progress in the middle to show user that tests are running
       myStatusLine.setFraction(myTestsCurrentCount > 1 ? 0.5 : 0); // > 1 because count already ++
     }
-    updateStatusLabel(false);
+    myStatusLabelOutdated = true;
+    scheduleStatusUpdate();
   }
 
   private void updateCountersAndProgressOnTestFailed(final boolean isCustomMessage) {
     if (!isModeConsistent(isCustomMessage)) return;
 
     myTestsFailuresCount++;
-    updateStatusLabel(false);
+    myStatusLabelOutdated = true;
+    scheduleStatusUpdate();
   }
 
   private void updateOnTestIgnored() {
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.benchmark;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Micro-benchmark run by {@link BenchmarkRunner}. {@link #setUp(File, Settings)} is called once for every combination of settings,
+ * then each operation is run for a number of warm-up and measured iterations in the order returned by {@link #getOperations()}.
+ */
+public abstract class Benchmark {
+  public interface Operation {
+    /**
+     * @return number of elementary operations performed, used to compute the time per operation
+     */
+    int run() throws IOException;
+  }
+
+  public static class Settings {
+    public final int keySize;
+    public final int entriesCount;
+    /**
+     * Benchmarked storages get 1/cacheShare of the default buffer cache limits.
+     */
+    public final int cacheShare;
+
+    public Settings(int keySize, int entriesCount, int cacheShare) {
+      this.keySize = keySize;
+      this.entriesCount = entriesCount;
+      this.cacheShare = cacheShare;
+    }
+
+    @NotNull
+    public String[] createKeys() {
+      final Random random = new Random(entriesCount * 31 + keySize);
+      final String[] keys = new String[entriesCount];
+      final char[] chars = new char[keySize];
+      for (int i = 0; i < entriesCount; i++) {
+        final String prefix = Integer.toString(i);
+        for (int j = 0; j < keySize; j++) {
+          chars[j] = j < prefix.length() ? prefix.charAt(j) : (char)('a' + random.nextInt(26));
+        }
+        keys[i] = new String(chars);
+      }
+      return keys;
+    }
+
+    @NotNull
+    public int[] createIntKeys() {
+      final Random random = new Random(entriesCount);
+      final int[] keys = new int[entriesCount];
+      for (int i = 0; i < entriesCount; i++) {
+        keys[i] = random.nextInt(Integer.MAX_VALUE - 1) + 1;
+      }
+      return keys;
+    }
+  }
+
+  @NotNull
+  public abstract String getName();
+
+  public boolean dependsOnKeySize() {
+    return true;
+  }
+
+  public boolean dependsOnCacheShare() {
+    return true;
+  }
+
+  public abstract void setUp(@NotNull File dir, @NotNull Settings settings) throws IOException;
+
+  @NotNull
+  public abstract Map<String, Operation> getOperations();
+
+  public abstract void tearDown() throws IOException;
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.benchmark;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.SystemProperties;
+import com.intellij.util.concurrency.ReadWriteLockBenchmark;
+import com.intellij.util.containers.ConcurrentIntObjectMapBenchmark;
+import com.intellij.util.diff.DiffBenchmark;
+import com.intellij.util.io.*;
+import com.intellij.util.text.ImmutableTextBenchmark;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Runs benchmarks and writes results as tab separated values, one line per benchmark, operation and settings.
+ * <p/>
+ * Usage: BenchmarkRunner [output file] [benchmark or group name...]
+ * <p/>
+ * A group is the last segment of the package of a benchmark, e.g. "io" selects all storage benchmarks. With no names given
+ * all benchmarks are run.
+ * <p/>
+ * Iteration counts and data size are controlled by the benchmark.warmup.iterations, benchmark.iterations and benchmark.entries
+ * system properties.
+ */
+public class BenchmarkRunner {
+  private static final int WARMUP_ITERATIONS = SystemProperties.getIntProperty("benchmark.warmup.iterations", 3);
+  private static final int MEASURED_ITERATIONS = SystemProperties.getIntProperty("benchmark.iterations", 5);
+  private static final int ENTRIES_COUNT = SystemProperties.getIntProperty("benchmark.entries", 100000);
+  private static final int[] KEY_SIZES = {16, 64, 256};
+  private static final int[] CACHE_SHARES = {1, 32};
+  private static final String HEADER = "benchmark\toperation\tkeySize\tcacheShare\tentries\titerations\tavgNsPerOp\tminNsPerOp\tmaxNsPerOp";
+
+  public static void main(String[] args) throws IOException {
+    final File output = args.length > 0 ? new File(args[0]) : null;
+    final Set<String> names = new HashSet<String>(Arrays.asList(args).subList(Math.min(1, args.length), args.length));
+
+    final Writer writer = output != null ? new FileWriter(output) : null;
+    try {
+      report(writer, HEADER);
+      for (Benchmark benchmark : createBenchmarks()) {
+        if (names.isEmpty() || names.contains(benchmark.getName()) || names.contains(getGroup(benchmark))) {
+          run(benchmark, writer);
+        }
+      }
+    }
+    finally {
+      if (writer != null) {
+        writer.close();
+      }
+    }
+  }
+
+  @NotNull
+  private static List<Benchmark> createBenchmarks() {
+    return Arrays.<Benchmark>asList(new PersistentHashMapBenchmark(),
+                         new PersistentBTreeEnumeratorBenchmark(),
+                         new IntToIntBtreeBenchmark(),
+                         new ResizeableMappedFileBenchmark(),
+                         new PagePoolBenchmark(),
+                         new ConcurrentIntObjectMapBenchmark(),
+                         new DiffBenchmark(),
+                         new ReadWriteLockBenchmark(),
+                         new ImmutableTextBenchmark());
+  }
+
+  @NotNull
+  private static String getGroup(@NotNull Benchmark benchmark) {
+    final String className = benchmark.getClass().getName();
+    final String packageName = className.substring(0, Math.max(0, className.lastIndexOf('.')));
+    return packageName.substring(packageName.lastIndexOf('.') + 1);
+  }
+
+  private static void run(@NotNull Benchmark benchmark, @Nullable Writer writer) throws IOException {
+    final int[] keySizes = benchmark.dependsOnKeySize() ? KEY_SIZES : new int[]{0};
+    final int[] cacheShares = benchmark.dependsOnCacheShare() ? CACHE_SHARES : new int[]{1};
+    for (int keySize : keySizes) {
+      for (int cacheShare : cacheShares) {
+        final Benchmark.Settings settings = new Benchmark.Settings(keySize, ENTRIES_COUNT, cacheShare);
+        final File dir = FileUtil.createTempDirectory("benchmark", null);
+        try {
+          benchmark.setUp(dir, settings);
+          try {
+            for (Map.Entry<String, Benchmark.Operation> entry : benchmark.getOperations().entrySet()) {
+              final long[] nsPerOp = measure(entry.getValue());
+              report(writer, benchmark.getName() + "\t" + entry.getKey() + "\t" + keySize + "\t" + cacheShare + "\t" + ENTRIES_COUNT + "\t" +
+                             nsPerOp.length + "\t" + average(nsPerOp) + "\t" + min(nsPerOp) + "\t" + max(nsPerOp));
+            }
+          }
+          finally {
+            benchmark.tearDown();
+          }
+        }
+        finally {
+          FileUtil.delete(dir);
+        }
+      }
+    }
+  }
+
+  @NotNull
+  private static long[] measure(@NotNull Benchmark.Operation operation) throws IOException {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      operation.run();
+    }
+    final long[] nsPerOp = new long[MEASURED_ITERATIONS];
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      final long started = System.nanoTime();
+      final int count = operation.run();
+      nsPerOp[i] = (System.nanoTime() - started) / Math.max(1, count);
+    }
+    return nsPerOp;
+  }
+
+  private static void report(@Nullable Writer writer, @NotNull String line) throws IOException {
+    System.out.println(line);
+    if (writer != null) {
+      writer.write(line);
+      writer.write('\n');
+      writer.flush();
+    }
+  }
+
+  private static long average(@NotNull long[] values) {
+    long sum = 0;
+    for (long value : values) {
+      sum += value;
+    }
+    return values.length == 0 ? 0 : sum / values.length;
+  }
+
+  private static long min(@NotNull long[] values) {
+    long result = Long.MAX_VALUE;
+    for (long value : values) {
+      result = Math.min(result, value);
+    }
+    return result;
+  }
+
+  private static long max(@NotNull long[] values) {
+    long result = 0;
+    for (long value : values) {
+      result = Math.max(result, value);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.concurrency;
+
+import com.intellij.util.benchmark.Benchmark;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Compares {@link ReentrantReadWriteLock} with {@link ReadMostlyRWLock} on the workload of highlighting passes: one thread per core
+ * runs {@link Settings#entriesCount} short read actions, optionally while another thread performs a short write action every
+ * millisecond, like typing in the editor does.
+ */
+public class ReadWriteLockBenchmark extends Benchmark {
+  private static final int THREADS_COUNT = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+  private int myReadsCount;
+  // the data "PSI" read under the read lock and modified under the write lock
+  private final int[] myData = new int[64];
+  private volatile int mySink;
+
+  private interface RWLock {
+    void readLock() throws InterruptedException;
+
+    void readUnlock();
+
+    void writeLock() throws InterruptedException;
+
+    void writeUnlock();
+  }
+
+  @NotNull
+  @Override
+  public String getName() {
+    return "ReadWriteLock";
+  }
+
+  @Override
+  public boolean dependsOnKeySize() {
+    return false;
+  }
+
+  @Override
+  public boolean dependsOnCacheShare() {
+    return false;
+  }
+
+  @Override
+  public void setUp(@NotNull File dir, @NotNull Settings settings) {
+    myReadsCount = settings.entriesCount;
+  }
+
+  @NotNull
+  @Override
+  public Map<String, Operation> getOperations() {
+    final Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+    final ReentrantReadWriteLock reentrantLock = new ReentrantReadWriteLock(false);
+    addOperations(operations, "reentrant", new RWLock() {
+      @Override
+      public void readLock() throws InterruptedException {
+        reentrantLock.readLock().lockInterruptibly();
+      }
+
+      @Override
+      public void readUnlock() {
+        reentrantLock.readLock().unlock();
+      }
+
+      @Override
+      public void writeLock() throws InterruptedException {
+        reentrantLock.writeLock().lockInterruptibly();
+      }
+
+      @Override
+      public void writeUnlock() {
+        reentrantLock.writeLock().unlock();
+      }
+    });
+    final ReadMostlyRWLock readMostlyLock = new ReadMostlyRWLock();
+    addOperations(operations, "readMostly", new RWLock() {
+      @Override
+      public void readLock() throws InterruptedException {
+        readMostlyLock.readLockInterruptibly();
+      }
+
+      @Override
+      public void readUnlock() {
+        readMostlyLock.readUnlock();
+      }
+
+      @Override
+      public void writeLock() throws InterruptedException {
+        readMostlyLock.writeLockInterruptibly();
+      }
+
+      @Override
+      public void writeUnlock() {
+        readMostlyLock.writeUnlock();
+      }
+    });
+    return operations;
+  }
+
+  private void addOperations(@NotNull Map<String, Operation> operations, @NotNull String prefix, @NotNull final RWLock lock) {
+    operations.put(prefix + ".reads", new Operation() {
+      @Override
+      public int run() {
+        return runReadActions(lock, false);
+      }
+    });
+    operations.put(prefix + ".readsWithWrites", new Operation() {
+      @Override
+      public int run() {
+        return runReadActions(lock, true);
+      }
+    });
+  }
+
+  /**
+   * @return number of performed read actions
+   */
+  private int runReadActions(@NotNull final RWLock lock, boolean withWrites) {
+    final AtomicBoolean finished = new AtomicBoolean();
+    final Thread writer = new Thread("ReadWriteLockBenchmark writer") {
+      @Override
+      public void run() {
+        try {
+          while (!finished.get()) {
+            lock.writeLock();
+            try {
+              for (int i = 0; i < myData.length; i++) {
+                myData[i]++;
+              }
+            }
+            finally {
+              lock.writeUnlock();
+            }
+            Thread.sleep(1);
+          }
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    if (withWrites) {
+      writer.start();
+    }
+
+    final Thread[] readers = new Thread[THREADS_COUNT];
+    for (int t = 0; t < readers.length; t++) {
+      readers[t] = new Thread("ReadWriteLockBenchmark reader " + t) {
+        @Override
+        public void run() {
+          int sum = 0;
+          try {
+            for (int i = 0; i < myReadsCount; i++) {
+              lock.readLock();
+              try {
+                sum += myData[i & (myData.length - 1)];
+              }
+              finally {
+                lock.readUnlock();
+              }
+            }
+          }
+          catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          mySink = sum;
+        }
+      };
+      readers[t].start();
+    }
+    try {
+      for (Thread reader : readers) {
+        reader.join();
+      }
+      finished.set(true);
+      if (withWrites) {
+        writer.join();
+      }
+    }
+    catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    return myReadsCount * readers.length;
+  }
+
+  @Override
+  public void tearDown() {
+  }
+}
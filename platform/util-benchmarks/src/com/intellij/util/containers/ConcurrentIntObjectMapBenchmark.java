@@ -0,0 +1,179 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.containers;
+
+import com.intellij.openapi.util.Ref;
+import com.intellij.util.benchmark.Benchmark;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares {@link StripedLockIntObjectConcurrentHashMap} with {@link ConcurrentIntObjectHashMap} and the weak value map built on it
+ * under concurrent access: every operation is run by {@link #THREADS_COUNT} threads at once.
+ */
+public class ConcurrentIntObjectMapBenchmark extends Benchmark {
+  private static final int THREADS_COUNT = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+  private int[] myKeys;
+  private Object[] myValues;
+
+  private interface MapFactory {
+    @NotNull
+    ConcurrentIntObjectMap<Object> create();
+  }
+
+  private interface KeyProcessor {
+    void process(@NotNull ConcurrentIntObjectMap<Object> map, int index);
+  }
+
+  @NotNull
+  @Override
+  public String getName() {
+    return "ConcurrentIntObjectMap";
+  }
+
+  @Override
+  public boolean dependsOnKeySize() {
+    return false;
+  }
+
+  @Override
+  public boolean dependsOnCacheShare() {
+    return false;
+  }
+
+  @Override
+  public void setUp(@NotNull File dir, @NotNull Settings settings) {
+    myKeys = settings.createIntKeys();
+    myValues = new Object[myKeys.length];
+    for (int i = 0; i < myValues.length; i++) {
+      myValues[i] = new Object();
+    }
+  }
+
+  @NotNull
+  @Override
+  public Map<String, Operation> getOperations() {
+    final Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+    addOperations(operations, "striped", new MapFactory() {
+      @NotNull
+      @Override
+      public ConcurrentIntObjectMap<Object> create() {
+        return new StripedLockIntObjectConcurrentHashMap<Object>();
+      }
+    });
+    addOperations(operations, "lockFree", new MapFactory() {
+      @NotNull
+      @Override
+      public ConcurrentIntObjectMap<Object> create() {
+        return new ConcurrentIntObjectHashMap<Object>();
+      }
+    });
+    addOperations(operations, "weakValue", new MapFactory() {
+      @NotNull
+      @Override
+      public ConcurrentIntObjectMap<Object> create() {
+        return new ConcurrentWeakValueIntObjectHashMap<Object>();
+      }
+    });
+    return operations;
+  }
+
+  private void addOperations(@NotNull Map<String, Operation> operations, @NotNull String prefix, @NotNull final MapFactory factory) {
+    final Ref<ConcurrentIntObjectMap<Object>> filled = Ref.create();
+    operations.put(prefix + ".cacheOrGet", new Operation() {
+      @Override
+      public int run() {
+        final ConcurrentIntObjectMap<Object> map = factory.create();
+        final int count = runConcurrently(map, new KeyProcessor() {
+          @Override
+          public void process(@NotNull ConcurrentIntObjectMap<Object> map, int index) {
+            map.cacheOrGet(myKeys[index], myValues[index]);
+          }
+        });
+        filled.set(map);
+        return count;
+      }
+    });
+    operations.put(prefix + ".get", new Operation() {
+      @Override
+      public int run() {
+        return runConcurrently(filled.get(), new KeyProcessor() {
+          @Override
+          public void process(@NotNull ConcurrentIntObjectMap<Object> map, int index) {
+            map.get(myKeys[index]);
+          }
+        });
+      }
+    });
+    operations.put(prefix + ".putRemove", new Operation() {
+      @Override
+      public int run() {
+        return runConcurrently(filled.get(), new KeyProcessor() {
+          @Override
+          public void process(@NotNull ConcurrentIntObjectMap<Object> map, int index) {
+            if ((index & 1) == 0) {
+              map.remove(myKeys[index]);
+            }
+            else {
+              map.put(myKeys[index - 1], myValues[index - 1]);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Every thread processes all the keys starting from its own offset.
+   *
+   * @return number of processed keys
+   */
+  private int runConcurrently(@NotNull final ConcurrentIntObjectMap<Object> map, @NotNull final KeyProcessor processor) {
+    final int count = myKeys.length;
+    final Thread[] threads = new Thread[THREADS_COUNT];
+    for (int t = 0; t < threads.length; t++) {
+      final int offset = count / threads.length * t;
+      threads[t] = new Thread("ConcurrentIntObjectMapBenchmark " + t) {
+        @Override
+        public void run() {
+          for (int i = 0; i < count; i++) {
+            processor.process(map, (offset + i) % count);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return count * threads.length;
+  }
+
+  @Override
+  public void tearDown() {
+    myKeys = null;
+    myValues = null;
+  }
+}
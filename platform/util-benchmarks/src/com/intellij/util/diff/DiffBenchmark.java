@@ -0,0 +1,150 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.benchmark.Benchmark;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares {@link Diff.Algorithm diff algorithms} on the before/after file pairs found in test data (beforeX/afterX, X/X_after
+ * and X/X.after) and on a generated pair of {@link Settings#entriesCount} lines too big for {@link IntLCS}.
+ * The test data directory is set by the "benchmark.diff.testData" property.
+ */
+public class DiffBenchmark extends Benchmark {
+  private static final String TEST_DATA_PATH = System.getProperty("benchmark.diff.testData", "java/java-tests/testData");
+
+  private final List<String[]> myPairs = new ArrayList<String[]>();
+  private String[] myLarge1;
+  private String[] myLarge2;
+
+  @NotNull
+  @Override
+  public String getName() {
+    return "Diff";
+  }
+
+  @Override
+  public boolean dependsOnKeySize() {
+    return false;
+  }
+
+  @Override
+  public boolean dependsOnCacheShare() {
+    return false;
+  }
+
+  @Override
+  public void setUp(@NotNull File dir, @NotNull Settings settings) throws IOException {
+    collectPairs(new File(TEST_DATA_PATH));
+
+    final Random random = new Random(settings.entriesCount);
+    myLarge1 = new String[settings.entriesCount];
+    myLarge2 = new String[settings.entriesCount];
+    for (int i = 0; i < settings.entriesCount; i++) {
+      myLarge1[i] = Integer.toString(random.nextInt(settings.entriesCount));
+      myLarge2[i] = random.nextInt(10) == 0 ? Integer.toString(random.nextInt(settings.entriesCount)) : myLarge1[i];
+    }
+  }
+
+  private void collectPairs(@NotNull File dir) throws IOException {
+    final File[] files = dir.listFiles();
+    if (files == null) return;
+    for (File file : files) {
+      if (file.isDirectory()) {
+        collectPairs(file);
+        continue;
+      }
+      final File after = findAfterFile(file);
+      if (after != null && after.isFile()) {
+        myPairs.add(StringUtil.splitByLines(FileUtil.loadFile(file, true)));
+        myPairs.add(StringUtil.splitByLines(FileUtil.loadFile(after, true)));
+      }
+    }
+  }
+
+  @Nullable
+  private static File findAfterFile(@NotNull File file) {
+    final String name = file.getName();
+    if (name.startsWith("before")) {
+      return new File(file.getParentFile(), "after" + name.substring("before".length()));
+    }
+    if (name.startsWith("after") || name.contains("_after.") || name.contains(".after.")) return null;
+    final int dot = name.indexOf('.');
+    if (dot <= 0) return null;
+    final String base = name.substring(0, dot);
+    final String extension = name.substring(dot);
+    final File after = new File(file.getParentFile(), base + "_after" + extension);
+    return after.isFile() ? after : new File(file.getParentFile(), base + ".after" + extension);
+  }
+
+  @NotNull
+  @Override
+  public Map<String, Operation> getOperations() {
+    final Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+    for (final Diff.Algorithm algorithm : Diff.Algorithm.values()) {
+      operations.put(algorithm.name().toLowerCase() + ".testData", new Operation() {
+        @Override
+        public int run() {
+          int count = 0;
+          for (int i = 0; i < myPairs.size(); i += 2) {
+            if (diff(myPairs.get(i), myPairs.get(i + 1), algorithm)) count++;
+          }
+          return count;
+        }
+      });
+    }
+    for (final Diff.Algorithm algorithm : Diff.Algorithm.values()) {
+      // the greedy algorithm gives up on inputs of this size
+      if (algorithm == Diff.Algorithm.GREEDY) continue;
+      operations.put(algorithm.name().toLowerCase() + ".large", new Operation() {
+        @Override
+        public int run() {
+          diff(myLarge1, myLarge2, algorithm);
+          return myLarge1.length;
+        }
+      });
+    }
+    return operations;
+  }
+
+  private static boolean diff(@NotNull String[] before, @NotNull String[] after, @NotNull Diff.Algorithm algorithm) {
+    try {
+      Diff.buildChanges(before, after, algorithm);
+      return true;
+    }
+    catch (FilesTooBigForDiffException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public void tearDown() {
+    myPairs.clear();
+    myLarge1 = null;
+    myLarge2 = null;
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class IntToIntBtreeBenchmark extends StorageBenchmark {
+  private static final int PAGE_SIZE = 4096;
+
+  private File myFile;
+  private int[] myKeys;
+  private PagedFileStorage.StorageLock myLock;
+  private IntToIntBtree myBtree;
+
+  @NotNull
+  @Override
+  public String getName() {
+    return "IntToIntBtree";
+  }
+
+  @Override
+  public boolean dependsOnKeySize() {
+    return false;
+  }
+
+  @Override
+  public void setUp(@NotNull File dir, @NotNull Settings settings) throws IOException {
+    myFile = new File(dir, "btree");
+    myKeys = settings.createIntKeys();
+    myLock = createStorageLock(settings);
+    myLock.lock();
+    try {
+      myBtree = new IntToIntBtree(PAGE_SIZE, myFile, myLock.myDefaultStorageLockContext, true);
+    }
+    finally {
+      myLock.unlock();
+    }
+  }
+
+  @NotNull
+  @Override
+  public Map<String, Operation> getOperations() {
+    final Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+    operations.put("put", new Operation() {
+      @Override
+      public int run() {
+        myLock.lock();
+        try {
+          for (int i = 0; i < myKeys.length; i++) {
+            myBtree.put(myKeys[i], i);
+          }
+        }
+        finally {
+          myLock.unlock();
+        }
+        return myKeys.length;
+      }
+    });
+    operations.put("get", new Operation() {
+      @Override
+      public int run() {
+        final int[] result = new int[1];
+        myLock.lock();
+        try {
+          for (int key : myKeys) {
+            myBtree.get(key, result);
+          }
+        }
+        finally {
+          myLock.unlock();
+        }
+        return myKeys.length;
+      }
+    });
+    return operations;
+  }
+
+  @Override
+  public void tearDown() throws IOException {
+    myLock.lock();
+    try {
+      myBtree.doClose();
+    }
+    finally {
+      myLock.unlock();
+    }
+    PersistentHashMap.deleteFilesStartingWith(myFile);
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Measures {@link RandomAccessDataFile} on top of a private {@link PagePool} sized after {@link PagePool#SHARED}.
+ */
+public class PagePoolBenchmark extends StorageBenchmark {
+  private static final int SHARED_POOL_PAGES = 500;
+  private static final int RECORD_SIZE = 16;
+
+  private File myFile;
+  private int[] myKeys;
+  private RandomAccessDataFile myStorage;
+
+  @NotNull
+  @Override
+  public String getName() {
+    return "PagePool";
+  }
+
+  @Override
+  public boolean dependsOnKeySize() {
+    return false;
+  }
+
+  @Override
+  public void setUp(@NotNull File dir, @NotNull Settings settings) throws IOException {
+    myFile = new File(dir, "data");
+    FileUtil.createIfDoesntExist(myFile);
+    myKeys = settings.createIntKeys();
+    final int pages = Math.max(1, SHARED_POOL_PAGES / settings.cacheShare);
+    myStorage = new RandomAccessDataFile(myFile, new PagePool(pages, pages));
+  }
+
+  @NotNull
+  @Override
+  public Map<String, Operation> getOperations() {
+    final Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+    operations.put("append", new Operation() {
+      @Override
+      public int run() {
+        long offset = myStorage.length();
+        for (int key : myKeys) {
+          myStorage.putInt(offset, key);
+          myStorage.putLong(offset + 4, key);
+          myStorage.putInt(offset + 12, key);
+          offset += RECORD_SIZE;
+        }
+        return myKeys.length;
+      }
+    });
+    operations.put("randomRead", new Operation() {
+      @Override
+      public int run() {
+        final long records = myStorage.length() / RECORD_SIZE;
+        for (int key : myKeys) {
+          myStorage.getLong((key % records) * RECORD_SIZE + 4);
+        }
+        return myKeys.length;
+      }
+    });
+    operations.put("flush", new Operation() {
+      @Override
+      public int run() {
+        myStorage.force();
+        return 1;
+      }
+    });
+    return operations;
+  }
+
+  @Override
+  public void tearDown() throws IOException {
+    myStorage.dispose();
+    FileUtil.delete(myFile);
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class PersistentBTreeEnumeratorBenchmark extends StorageBenchmark {
+  private File myFile;
+  private String[] myKeys;
+  private int[] myIds;
+  private PersistentBTreeEnumerator<String> myEnumerator;
+
+  @NotNull
+  @Override
+  public String getName() {
+    return "PersistentBTreeEnumerator";
+  }
+
+  @Override
+  public void setUp(@NotNull File dir, @NotNull Settings settings) throws IOException {
+    myFile = new File(dir, "enumerator");
+    myKeys = settings.createKeys();
+    myIds = new int[myKeys.length];
+    myEnumerator = new PersistentBTreeEnumerator<String>(myFile, new EnumeratorStringDescriptor(), 4 * 1024,
+                                                         createStorageLock(settings).myDefaultStorageLockContext);
+  }
+
+  @NotNull
+  @Override
+  public Map<String, Operation> getOperations() {
+    final Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+    operations.put("enumerate", new Operation() {
+      @Override
+      public int run() throws IOException {
+        for (int i = 0; i < myKeys.length; i++) {
+          myIds[i] = myEnumerator.enumerate(myKeys[i]);
+        }
+        return myKeys.length;
+      }
+    });
+    operations.put("tryEnumerate", new Operation() {
+      @Override
+      public int run() throws IOException {
+        for (String key : myKeys) {
+          myEnumerator.tryEnumerate(key);
+        }
+        return myKeys.length;
+      }
+    });
+    operations.put("valueOf", new Operation() {
+      @Override
+      public int run() throws IOException {
+        for (int id : myIds) {
+          myEnumerator.valueOf(id);
+        }
+        return myIds.length;
+      }
+    });
+    return operations;
+  }
+
+  @Override
+  public void tearDown() throws IOException {
+    myEnumerator.close();
+    PersistentHashMap.deleteFilesStartingWith(myFile);
+  }
+}
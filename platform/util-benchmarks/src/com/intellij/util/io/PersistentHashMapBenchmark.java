@@ -0,0 +1,100 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class PersistentHashMapBenchmark extends StorageBenchmark {
+  private File myFile;
+  private Settings mySettings;
+  private String[] myKeys;
+  private PersistentHashMap<String, Integer> myMap;
+
+  @NotNull
+  @Override
+  public String getName() {
+    return "PersistentHashMap";
+  }
+
+  @Override
+  public void setUp(@NotNull File dir, @NotNull Settings settings) throws IOException {
+    mySettings = settings;
+    myFile = new File(dir, "map");
+    myKeys = settings.createKeys();
+    myMap = new PersistentHashMap<String, Integer>(myFile, new EnumeratorStringDescriptor(), EnumeratorIntegerDescriptor.INSTANCE, 4 * 1024,
+                                                   createStorageLock(settings).myDefaultStorageLockContext);
+  }
+
+  @NotNull
+  @Override
+  public Map<String, Operation> getOperations() {
+    final Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+    operations.put("put", new Operation() {
+      @Override
+      public int run() throws IOException {
+        for (int i = 0; i < myKeys.length; i++) {
+          myMap.put(myKeys[i], i);
+        }
+        return myKeys.length;
+      }
+    });
+    operations.put("get", new Operation() {
+      @Override
+      public int run() throws IOException {
+        for (String key : myKeys) {
+          myMap.get(key);
+        }
+        return myKeys.length;
+      }
+    });
+    operations.put("appendData", new Operation() {
+      @Override
+      public int run() throws IOException {
+        for (int i = 0; i < myKeys.length; i++) {
+          final int value = i;
+          myMap.appendData(myKeys[i], new PersistentHashMap.ValueDataAppender() {
+            @Override
+            public void append(DataOutput out) throws IOException {
+              out.writeInt(value);
+            }
+          });
+        }
+        myMap.force();
+        return myKeys.length;
+      }
+    });
+    operations.put("compact", new Operation() {
+      @Override
+      public int run() throws IOException {
+        myMap.compact();
+        return myKeys.length;
+      }
+    });
+    return operations;
+  }
+
+  @Override
+  public void tearDown() throws IOException {
+    myMap.close();
+    PersistentHashMap.deleteFilesStartingWith(myFile);
+  }
+}
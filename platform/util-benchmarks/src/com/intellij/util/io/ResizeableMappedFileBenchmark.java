@@ -0,0 +1,111 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ResizeableMappedFileBenchmark extends StorageBenchmark {
+  private static final int RECORD_SIZE = 16;
+
+  private File myFile;
+  private int[] myKeys;
+  private PagedFileStorage.StorageLock myLock;
+  private ResizeableMappedFile myStorage;
+
+  @NotNull
+  @Override
+  public String getName() {
+    return "ResizeableMappedFile";
+  }
+
+  @Override
+  public boolean dependsOnKeySize() {
+    return false;
+  }
+
+  @Override
+  public void setUp(@NotNull File dir, @NotNull Settings settings) throws IOException {
+    myFile = new File(dir, "storage");
+    myKeys = settings.createIntKeys();
+    myLock = createStorageLock(settings);
+    myLock.lock();
+    try {
+      myStorage = new ResizeableMappedFile(myFile, 4 * 1024, myLock.myDefaultStorageLockContext, PagedFileStorage.MB, true);
+    }
+    finally {
+      myLock.unlock();
+    }
+  }
+
+  @NotNull
+  @Override
+  public Map<String, Operation> getOperations() {
+    final Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+    operations.put("append", new Operation() {
+      @Override
+      public int run() {
+        myLock.lock();
+        try {
+          int offset = (int)myStorage.length();
+          for (int key : myKeys) {
+            myStorage.putInt(offset, key);
+            myStorage.putLong(offset + 4, key);
+            myStorage.putInt(offset + 12, key);
+            offset += RECORD_SIZE;
+          }
+        }
+        finally {
+          myLock.unlock();
+        }
+        return myKeys.length;
+      }
+    });
+    operations.put("randomRead", new Operation() {
+      @Override
+      public int run() {
+        myLock.lock();
+        try {
+          final int records = (int)(myStorage.length() / RECORD_SIZE);
+          for (int key : myKeys) {
+            myStorage.getLong((key % records) * RECORD_SIZE + 4);
+          }
+        }
+        finally {
+          myLock.unlock();
+        }
+        return myKeys.length;
+      }
+    });
+    return operations;
+  }
+
+  @Override
+  public void tearDown() throws IOException {
+    myLock.lock();
+    try {
+      myStorage.close();
+    }
+    finally {
+      myLock.unlock();
+    }
+    PersistentHashMap.deleteFilesStartingWith(myFile);
+  }
+}
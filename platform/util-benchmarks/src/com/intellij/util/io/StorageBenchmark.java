@@ -0,0 +1,29 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.util.benchmark.Benchmark;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Benchmark of a storage primitive, run with a key size and a share of the page cache from {@link Benchmark.Settings}.
+ */
+public abstract class StorageBenchmark extends Benchmark {
+  @NotNull
+  protected static PagedFileStorage.StorageLock createStorageLock(@NotNull Settings settings) {
+    return new PagedFileStorage.StorageLock(true, settings.cacheShare);
+  }
+}
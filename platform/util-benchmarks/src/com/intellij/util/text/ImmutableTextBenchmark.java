@@ -0,0 +1,168 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.text;
+
+import com.intellij.util.SystemProperties;
+import com.intellij.util.benchmark.Benchmark;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares editing of a large text kept in a char array, the way the document CharArray keeps it, with editing of {@link ImmutableText}:
+ * {@link Settings#entriesCount} random insertions and deletions, the same with a snapshot of the text taken for a background reader
+ * after every {@value #SNAPSHOT_INTERVAL} changes, and reading the whole text char by char.
+ * The text length is set by the "benchmark.text.length" property.
+ */
+public class ImmutableTextBenchmark extends Benchmark {
+  private static final int TEXT_LENGTH = SystemProperties.getIntProperty("benchmark.text.length", 32 * 1024 * 1024);
+  private static final int SNAPSHOT_INTERVAL = 100;
+
+  private char[] myInitialText;
+  private int[] myOffsets;
+  private volatile CharSequence mySnapshot;
+
+  @NotNull
+  @Override
+  public String getName() {
+    return "ImmutableText";
+  }
+
+  @Override
+  public boolean dependsOnKeySize() {
+    return false;
+  }
+
+  @Override
+  public boolean dependsOnCacheShare() {
+    return false;
+  }
+
+  @Override
+  public void setUp(@NotNull File dir, @NotNull Settings settings) {
+    final Random random = new Random(settings.entriesCount);
+    myInitialText = new char[TEXT_LENGTH];
+    for (int i = 0; i < TEXT_LENGTH; i++) {
+      myInitialText[i] = random.nextInt(40) == 0 ? '\n' : (char)('a' + random.nextInt(26));
+    }
+    myOffsets = new int[settings.entriesCount];
+    for (int i = 0; i < myOffsets.length; i++) {
+      myOffsets[i] = random.nextInt(TEXT_LENGTH - 1);
+    }
+  }
+
+  @NotNull
+  @Override
+  public Map<String, Operation> getOperations() {
+    final Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+    operations.put("array.edits", new Operation() {
+      @Override
+      public int run() {
+        return editArray(false);
+      }
+    });
+    operations.put("immutableText.edits", new Operation() {
+      @Override
+      public int run() {
+        return editImmutableText(false);
+      }
+    });
+    operations.put("array.editsWithSnapshots", new Operation() {
+      @Override
+      public int run() {
+        return editArray(true);
+      }
+    });
+    operations.put("immutableText.editsWithSnapshots", new Operation() {
+      @Override
+      public int run() {
+        return editImmutableText(true);
+      }
+    });
+    operations.put("array.read", new Operation() {
+      @Override
+      public int run() {
+        return read(new CharArrayCharSequence(myInitialText));
+      }
+    });
+    operations.put("immutableText.read", new Operation() {
+      @Override
+      public int run() {
+        return read(ImmutableText.valueOf(new CharArrayCharSequence(myInitialText)));
+      }
+    });
+    return operations;
+  }
+
+  /**
+   * Inserts a char at every even offset and deletes a char at every odd one.
+   */
+  private int editArray(boolean snapshots) {
+    char[] array = myInitialText.clone();
+    int length = array.length;
+    for (int i = 0; i < myOffsets.length; i++) {
+      final int offset = myOffsets[i];
+      if (i % 2 == 0) {
+        if (length == array.length) {
+          final char[] newArray = new char[length * 12 / 10 + 1];
+          System.arraycopy(array, 0, newArray, 0, length);
+          array = newArray;
+        }
+        System.arraycopy(array, offset, array, offset + 1, length - offset);
+        array[offset] = 'x';
+        length++;
+      }
+      else {
+        System.arraycopy(array, offset + 1, array, offset, length - offset - 1);
+        length--;
+      }
+      if (snapshots && i % SNAPSHOT_INTERVAL == 0) {
+        mySnapshot = new String(array, 0, length);
+      }
+    }
+    return myOffsets.length;
+  }
+
+  private int editImmutableText(boolean snapshots) {
+    ImmutableText text = ImmutableText.valueOf(new CharArrayCharSequence(myInitialText));
+    for (int i = 0; i < myOffsets.length; i++) {
+      final int offset = myOffsets[i];
+      text = i % 2 == 0 ? text.insert(offset, "x") : text.delete(offset, offset + 1);
+      if (snapshots && i % SNAPSHOT_INTERVAL == 0) {
+        mySnapshot = text;
+      }
+    }
+    return myOffsets.length;
+  }
+
+  private static int read(@NotNull CharSequence text) {
+    int lines = 0;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '\n') lines++;
+    }
+    return lines;
+  }
+
+  @Override
+  public void tearDown() {
+    myInitialText = null;
+    myOffsets = null;
+    mySnapshot = null;
+  }
+}
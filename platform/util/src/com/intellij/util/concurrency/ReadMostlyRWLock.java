@@ -0,0 +1,215 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.concurrency;
+
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Read-write lock for many short read actions and rare write actions. Unlike {@link java.util.concurrent.locks.ReentrantReadWriteLock}
+ * readers do not update a shared counter: every thread has its own slot with a volatile "reading" flag and the writer scans all slots.
+ * A reader sets its flag and then checks whether a write was requested, a writer requests the write and then checks the flags, so
+ * at least one of them sees the other.
+ * <p/>
+ * The writer has preference: once a write is requested, new readers wait until it is finished, while the writer waits until
+ * the current readers are done. Both locks are reentrant, the thread holding the write lock may also take the read lock.
+ */
+public class ReadMostlyRWLock {
+  private final List<Reader> myReaders = ContainerUtil.createEmptyCOWList();
+  private final ThreadLocal<Reader> myCurrentReader = new ThreadLocal<Reader>() {
+    @Override
+    protected Reader initialValue() {
+      final Reader reader = new Reader(Thread.currentThread());
+      myReaders.add(reader);
+      return reader;
+    }
+  };
+
+  // serializes writers and counts the nested write locks
+  private final ReentrantLock myWriterLock = new ReentrantLock();
+  private volatile Thread myWriteThread;
+  private volatile boolean myWriteRequested;
+
+  private static class Reader {
+    private final Thread myThread;
+    private volatile boolean myReading;
+    // set while waiting for the writer to finish
+    private volatile boolean myBlocked;
+    // accessed from the owner thread only
+    private int myHoldCount;
+
+    private Reader(@NotNull Thread thread) {
+      myThread = thread;
+    }
+  }
+
+  public void readLockInterruptibly() throws InterruptedException {
+    final Reader reader = myCurrentReader.get();
+    if (reader.myHoldCount > 0 || myWriterLock.isHeldByCurrentThread()) {
+      reader.myReading = true;
+      reader.myHoldCount++;
+      return;
+    }
+
+    while (true) {
+      reader.myReading = true;
+      if (!myWriteRequested) break;
+
+      // back off and let the pending writer go first
+      reader.myReading = false;
+      wakeUpWriter();
+      waitForWriter(reader);
+    }
+    reader.myHoldCount = 1;
+  }
+
+  /**
+   * @return false if the write lock is held or requested by another thread
+   */
+  public boolean tryReadLock() {
+    final Reader reader = myCurrentReader.get();
+    if (reader.myHoldCount > 0 || myWriterLock.isHeldByCurrentThread()) {
+      reader.myReading = true;
+      reader.myHoldCount++;
+      return true;
+    }
+
+    reader.myReading = true;
+    if (myWriteRequested) {
+      reader.myReading = false;
+      wakeUpWriter();
+      return false;
+    }
+    reader.myHoldCount = 1;
+    return true;
+  }
+
+  public void readUnlock() {
+    final Reader reader = myCurrentReader.get();
+    if (reader.myHoldCount <= 0) {
+      throw new IllegalMonitorStateException("Read lock is not held by " + Thread.currentThread());
+    }
+    if (--reader.myHoldCount > 0) return;
+
+    reader.myReading = false;
+    if (myWriteRequested) {
+      wakeUpWriter();
+    }
+  }
+
+  public boolean isReadLockedByThisThread() {
+    return myCurrentReader.get().myHoldCount > 0;
+  }
+
+  private void waitForWriter(@NotNull Reader reader) throws InterruptedException {
+    reader.myBlocked = true;
+    try {
+      while (myWriteRequested) {
+        LockSupport.park(this);
+        if (Thread.interrupted()) throw new InterruptedException();
+      }
+    }
+    finally {
+      reader.myBlocked = false;
+    }
+  }
+
+  private void wakeUpWriter() {
+    final Thread writer = myWriteThread;
+    if (writer != null) {
+      LockSupport.unpark(writer);
+    }
+  }
+
+  /**
+   * @return false if the write lock is held by another thread or there are active readers
+   */
+  public boolean tryWriteLock() {
+    if (!myWriterLock.tryLock()) return false;
+    if (myWriterLock.getHoldCount() > 1) return true;
+
+    requestWrite();
+    if (hasActiveReaders()) {
+      releaseWrite();
+      return false;
+    }
+    return true;
+  }
+
+  public void writeLockInterruptibly() throws InterruptedException {
+    myWriterLock.lockInterruptibly();
+    if (myWriterLock.getHoldCount() > 1) return;
+
+    requestWrite();
+    try {
+      while (hasActiveReaders()) {
+        LockSupport.park(this);
+        if (Thread.interrupted()) throw new InterruptedException();
+      }
+    }
+    catch (InterruptedException e) {
+      releaseWrite();
+      throw e;
+    }
+  }
+
+  public void writeUnlock() {
+    if (!myWriterLock.isHeldByCurrentThread()) {
+      throw new IllegalMonitorStateException("Write lock is not held by " + Thread.currentThread());
+    }
+    if (myWriterLock.getHoldCount() > 1) {
+      myWriterLock.unlock();
+      return;
+    }
+    releaseWrite();
+  }
+
+  public boolean isWriteLockedByThisThread() {
+    return myWriterLock.isHeldByCurrentThread();
+  }
+
+  private void requestWrite() {
+    myWriteThread = Thread.currentThread();
+    myWriteRequested = true;
+  }
+
+  private void releaseWrite() {
+    myWriteRequested = false;
+    myWriteThread = null;
+    for (Reader reader : myReaders) {
+      if (reader.myBlocked) {
+        LockSupport.unpark(reader.myThread);
+      }
+    }
+    myWriterLock.unlock();
+  }
+
+  private boolean hasActiveReaders() {
+    final Thread current = Thread.currentThread();
+    for (Reader reader : myReaders) {
+      if (reader.myThread == current) continue;
+      if (reader.myReading) return true;
+      if (!reader.myThread.isAlive()) {
+        myReaders.remove(reader);
+      }
+    }
+    return false;
+  }
+}
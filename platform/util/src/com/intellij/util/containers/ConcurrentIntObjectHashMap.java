@@ -0,0 +1,460 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.containers;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free {@link ConcurrentIntObjectMap} with open addressing: keys and values are kept in two parallel arrays, keys are inserted
+ * with CAS and no entry objects are allocated.
+ * <p/>
+ * A key once inserted into a table stays there, removed values are replaced with a tombstone. When a table gets full of keys its
+ * live entries are copied to a new table (of the same capacity if most of the keys are dead), every thread writing to the map helps
+ * to copy. A value being copied is boxed, so that writers of the slot first finish copying it and then proceed in the new table.
+ * The scheme follows Cliff Click's NonBlockingHashMap.
+ */
+public class ConcurrentIntObjectHashMap<V> implements ConcurrentIntObjectMap<V> {
+  private static final int DEFAULT_INITIAL_CAPACITY = 16;
+  private static final int MAXIMUM_CAPACITY = 1 << 30;
+  private static final int COPY_CHUNK = 1024;
+
+  // key slot is either FREE or holds CLAIMED | key, so that 0 can be used as a key
+  private static final long FREE = 0;
+  private static final long CLAIMED = 1L << 32;
+
+  // value slot states besides null (never set) and the value itself
+  private static final Object TOMBSTONE = new Object();
+  private static final Object MOVED = new Object();
+
+  // special expected values for putIfMatch()
+  private static final Object MATCH_ANY = new Object();
+  private static final Object MATCH_ABSENT = new Object();
+  private static final Object MATCH_NEVER_SET = new Object();
+
+  private static final int NOT_FOUND = -1;
+  private static final int NEXT_TABLE = -2;
+
+  private static final class Prime {
+    private final Object value;
+
+    private Prime(@NotNull Object value) {
+      this.value = value;
+    }
+  }
+
+  private static final class Table {
+    private final AtomicLongArray keys;
+    private final AtomicReferenceArray<Object> values;
+    private final int mask;
+    private final int reprobeLimit;
+    private final AtomicInteger claimedSlots = new AtomicInteger();
+    // number of live entries, shared by the tables the map is resized through and replaced on clear()
+    private final AtomicInteger size;
+    private final AtomicInteger copyCursor = new AtomicInteger();
+    private final AtomicInteger copiedSlots = new AtomicInteger();
+    private final AtomicReference<Table> next = new AtomicReference<Table>();
+
+    private Table(int capacity, @NotNull AtomicInteger size) {
+      this.size = size;
+      keys = new AtomicLongArray(capacity);
+      values = new AtomicReferenceArray<Object>(capacity);
+      mask = capacity - 1;
+      reprobeLimit = 10 + (capacity >> 2);
+    }
+
+    private int capacity() {
+      return mask + 1;
+    }
+  }
+
+  private final AtomicReference<Table> myTable;
+
+  public ConcurrentIntObjectHashMap() {
+    this(DEFAULT_INITIAL_CAPACITY);
+  }
+
+  public ConcurrentIntObjectHashMap(int initialCapacity) {
+    if (initialCapacity < 0) {
+      throw new IllegalArgumentException();
+    }
+    int cap = DEFAULT_INITIAL_CAPACITY;
+    while (cap < MAXIMUM_CAPACITY && cap / 4 * 3 < initialCapacity) {
+      cap <<= 1;
+    }
+    myTable = new AtomicReference<Table>(new Table(cap, new AtomicInteger()));
+  }
+
+  private static int hash(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean isAbsent(@Nullable Object value) {
+    return value == null || value == TOMBSTONE;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <V> V unwrap(@Nullable Object value) {
+    return isAbsent(value) ? null : (V)value;
+  }
+
+  private static boolean matches(@Nullable Object value, @NotNull Object expected) {
+    return !isAbsent(value) && (value == expected || value.equals(expected));
+  }
+
+  /**
+   * @return index of the slot of the key, {@link #NOT_FOUND} if there is no such key in the map
+   * or {@link #NEXT_TABLE} if the key should be looked for in the next table
+   */
+  private int findSlot(@NotNull Table table, int key, boolean claim) {
+    final long claimedKey = CLAIMED | (key & 0xFFFFFFFFL);
+    int idx = hash(key) & table.mask;
+    for (int probes = 0; probes < table.reprobeLimit; probes++) {
+      long k = table.keys.get(idx);
+      if (k == FREE) {
+        if (!claim) return NOT_FOUND;
+        if (table.keys.compareAndSet(idx, FREE, claimedKey)) {
+          if (table.claimedSlots.incrementAndGet() > table.capacity() / 4 * 3) {
+            resize(table);
+          }
+          return idx;
+        }
+        k = table.keys.get(idx);
+      }
+      if (k == claimedKey) return idx;
+      idx = (idx + 1) & table.mask;
+    }
+    return NEXT_TABLE;
+  }
+
+  /**
+   * Sets value of the key to newValue (or removes the key if newValue is {@link #TOMBSTONE}) if its current value matches expected.
+   *
+   * @return previous value, null or {@link #TOMBSTONE} means the key was absent
+   */
+  @Nullable
+  private Object putIfMatch(@NotNull Table table, int key, @NotNull Object newValue, @NotNull Object expected) {
+    final boolean mayInsert = newValue != TOMBSTONE && (expected == MATCH_ANY || expected == MATCH_ABSENT || expected == MATCH_NEVER_SET);
+
+    nextTable:
+    while (true) {
+      final int idx = findSlot(table, key, mayInsert);
+      if (idx == NOT_FOUND) return null;
+      if (idx == NEXT_TABLE) {
+        table = mayInsert ? resize(table) : table.next.get();
+        if (table == null) return null;
+        continue;
+      }
+
+      Object v = table.values.get(idx);
+      while (true) {
+        if (v == MOVED) {
+          table = table.next.get();
+          continue nextTable;
+        }
+        if (v instanceof Prime) {
+          copySlot(table, idx);
+          table = table.next.get();
+          continue nextTable;
+        }
+
+        if (expected == MATCH_ABSENT && !isAbsent(v) || expected == MATCH_NEVER_SET && v != null) return v;
+        if (expected != MATCH_ANY && expected != MATCH_ABSENT && expected != MATCH_NEVER_SET && !matches(v, expected)) return v;
+        if (newValue == TOMBSTONE && isAbsent(v)) return v;
+
+        if (table.next.get() != null) {
+          // resize is in progress, the slot is to be written in the next table
+          copySlot(table, idx);
+          table = table.next.get();
+          continue nextTable;
+        }
+
+        // an entry is counted before it becomes visible, so that its removal never makes the size negative; copied entries are not counted
+        final boolean inserts = expected != MATCH_NEVER_SET && isAbsent(v) && newValue != TOMBSTONE;
+        if (inserts) {
+          table.size.incrementAndGet();
+        }
+        if (table.values.compareAndSet(idx, v, newValue)) {
+          if (expected != MATCH_NEVER_SET && !isAbsent(v) && newValue == TOMBSTONE) {
+            table.size.decrementAndGet();
+          }
+          return v;
+        }
+        if (inserts) {
+          table.size.decrementAndGet();
+        }
+        v = table.values.get(idx);
+      }
+    }
+  }
+
+  @NotNull
+  private Table resize(@NotNull Table table) {
+    Table next = table.next.get();
+    if (next != null) return next;
+
+    final int capacity = table.capacity();
+    // keys are never removed from a table, so when most of them are dead the entries are rehashed into a table of the same size
+    final int newCapacity = table.size.get() >= capacity >> 2 && capacity < MAXIMUM_CAPACITY ? capacity << 1 : capacity;
+    table.next.compareAndSet(null, new Table(newCapacity, table.size));
+    return table.next.get();
+  }
+
+  private void copySlot(@NotNull Table table, int idx) {
+    Object v = table.values.get(idx);
+    while (!(v instanceof Prime)) {
+      if (v == MOVED) return;
+      if (isAbsent(v)) {
+        if (table.values.compareAndSet(idx, v, MOVED)) {
+          table.copiedSlots.incrementAndGet();
+          return;
+        }
+      }
+      else {
+        final Prime boxed = new Prime(v);
+        if (table.values.compareAndSet(idx, v, boxed)) {
+          v = boxed;
+          break;
+        }
+      }
+      v = table.values.get(idx);
+    }
+
+    putIfMatch(table.next.get(), (int)table.keys.get(idx), ((Prime)v).value, MATCH_NEVER_SET);
+    if (table.values.compareAndSet(idx, v, MOVED)) {
+      table.copiedSlots.incrementAndGet();
+    }
+  }
+
+  @NotNull
+  private Table helpCopy() {
+    final Table table = myTable.get();
+    if (table.next.get() == null) return table;
+
+    final int capacity = table.capacity();
+    if (table.copyCursor.get() < capacity) {
+      final int start = table.copyCursor.getAndAdd(COPY_CHUNK);
+      for (int i = start, end = Math.min(capacity, start + COPY_CHUNK); i < end; i++) {
+        copySlot(table, i);
+      }
+    }
+    promote(table);
+    return table;
+  }
+
+  private void promote(@NotNull Table table) {
+    if (table.copiedSlots.get() == table.capacity()) {
+      myTable.compareAndSet(table, table.next.get());
+    }
+  }
+
+  /**
+   * Copies all pending entries of the tables being resized.
+   *
+   * @return the table containing all the entries of the map
+   */
+  @NotNull
+  private Table finishResize() {
+    Table table = myTable.get();
+    Table next;
+    while ((next = table.next.get()) != null) {
+      for (int i = 0; i < table.capacity(); i++) {
+        copySlot(table, i);
+      }
+      promote(table);
+      table = next;
+    }
+    return table;
+  }
+
+  @Nullable
+  private V get(@Nullable Table table, int key) {
+    while (table != null) {
+      final int idx = findSlot(table, key, false);
+      if (idx == NOT_FOUND) return null;
+      if (idx != NEXT_TABLE) {
+        Object v = table.values.get(idx);
+        if (v instanceof Prime) {
+          // not changed until copied
+          v = ((Prime)v).value;
+        }
+        if (v != MOVED) return unwrap(v);
+      }
+      table = table.next.get();
+    }
+    return null;
+  }
+
+  @Override
+  public V get(int key) {
+    return get(myTable.get(), key);
+  }
+
+  @Override
+  public boolean containsKey(int key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public V put(int key, @NotNull V value) {
+    return unwrap(putIfMatch(helpCopy(), key, value, MATCH_ANY));
+  }
+
+  @Nullable
+  public V putIfAbsent(int key, @NotNull V value) {
+    return unwrap(putIfMatch(helpCopy(), key, value, MATCH_ABSENT));
+  }
+
+  @NotNull
+  @Override
+  public V cacheOrGet(int key, @NotNull V value) {
+    final V prev = putIfAbsent(key, value);
+    return prev == null ? value : prev;
+  }
+
+  @Override
+  public V remove(int key) {
+    return unwrap(putIfMatch(helpCopy(), key, TOMBSTONE, MATCH_ANY));
+  }
+
+  @Override
+  public boolean remove(int key, @NotNull V value) {
+    return matches(putIfMatch(helpCopy(), key, TOMBSTONE, value), value);
+  }
+
+  @Override
+  public boolean replace(int key, @NotNull V oldValue, @NotNull V newValue) {
+    return matches(putIfMatch(helpCopy(), key, newValue, oldValue), oldValue);
+  }
+
+  @Override
+  public void clear() {
+    // writers still busy with the old tables update their counter, not the one of the new table
+    myTable.set(new Table(DEFAULT_INITIAL_CAPACITY, new AtomicInteger()));
+  }
+
+  public int size() {
+    return myTable.get().size.get();
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Iteration is weakly consistent, it reflects the state of the map at some point at or since the creation of the iterator.
+   */
+  @NotNull
+  @Override
+  public Iterable<StripedLockIntObjectConcurrentHashMap.IntEntry<V>> entries() {
+    return new Iterable<StripedLockIntObjectConcurrentHashMap.IntEntry<V>>() {
+      @Override
+      public Iterator<StripedLockIntObjectConcurrentHashMap.IntEntry<V>> iterator() {
+        return new EntryIterator(finishResize());
+      }
+    };
+  }
+
+  private class EntryIterator implements Iterator<StripedLockIntObjectConcurrentHashMap.IntEntry<V>> {
+    private final Table myIteratedTable;
+    private int myIndex;
+    private Entry<V> myNext;
+    private Entry<V> myLastReturned;
+
+    private EntryIterator(@NotNull Table table) {
+      myIteratedTable = table;
+      myNext = nextAliveEntry();
+    }
+
+    @Nullable
+    private Entry<V> nextAliveEntry() {
+      final Table table = myIteratedTable;
+      while (myIndex < table.capacity()) {
+        final int idx = myIndex++;
+        final long k = table.keys.get(idx);
+        if (k == FREE) continue;
+
+        final int key = (int)k;
+        Object v = table.values.get(idx);
+        if (v instanceof Prime) {
+          v = ((Prime)v).value;
+        }
+        else if (v == MOVED) {
+          v = get(table.next.get(), key);
+        }
+        if (!isAbsent(v)) {
+          @SuppressWarnings("unchecked") final V value = (V)v;
+          return new Entry<V>(key, value);
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return myNext != null;
+    }
+
+    @Override
+    public StripedLockIntObjectConcurrentHashMap.IntEntry<V> next() {
+      if (myNext == null) throw new NoSuchElementException();
+      myLastReturned = myNext;
+      myNext = nextAliveEntry();
+      return myLastReturned;
+    }
+
+    @Override
+    public void remove() {
+      if (myLastReturned == null) throw new IllegalStateException();
+      ConcurrentIntObjectHashMap.this.remove(myLastReturned.myKey, myLastReturned.myValue);
+      myLastReturned = null;
+    }
+  }
+
+  private static final class Entry<V> implements StripedLockIntObjectConcurrentHashMap.IntEntry<V> {
+    private final int myKey;
+    private final V myValue;
+
+    private Entry(int key, @NotNull V value) {
+      myKey = key;
+      myValue = value;
+    }
+
+    @Override
+    public int getKey() {
+      return myKey;
+    }
+
+    @NotNull
+    @Override
+    public V getValue() {
+      return myValue;
+    }
+
+    @Override
+    public String toString() {
+      return myKey + "=" + myValue;
+    }
+  }
+}
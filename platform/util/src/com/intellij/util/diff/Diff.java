@@ -38,8 +38,17 @@ public class Diff {
     return buildChanges(strings1, strings2);
   }
 
+  /**
+   * Builds changes with {@link Algorithm#GREEDY}, falls back to {@link Algorithm#MYERS} if the inputs are too big for it.
+   */
   @Nullable
   public static <T> Change buildChanges(@NotNull T[] objects1, @NotNull T[] objects2) throws FilesTooBigForDiffException {
+    return buildChanges(objects1, objects2, null);
+  }
+
+  @Nullable
+  public static <T> Change buildChanges(@NotNull T[] objects1, @NotNull T[] objects2, @Nullable Algorithm algorithm)
+    throws FilesTooBigForDiffException {
 
     // Old variant of enumerator worked incorrectly with null values.
     // This check is to ensure that the corrected version does not introduce bugs.
@@ -54,13 +63,45 @@ public class Diff {
     int[] ints2 = enumerator.enumerate(objects2, startShift, endCut);
     Reindexer reindexer = new Reindexer();
     int[][] discarded = reindexer.discardUnique(ints1, ints2);
-    IntLCS intLCS = new IntLCS(discarded[0], discarded[1]);
-    intLCS.execute();
     ChangeBuilder builder = new ChangeBuilder(startShift);
-    reindexer.reindex(intLCS.getPaths(), builder);
+    if (algorithm == null) {
+      try {
+        buildChanges(discarded, reindexer, builder, Algorithm.GREEDY);
+      }
+      catch (FilesTooBigForDiffException e) {
+        LOG.info("Falling back to linear space diff for " + ints1.length + " and " + ints2.length + " lines");
+        buildChanges(discarded, reindexer, builder, Algorithm.MYERS);
+      }
+    }
+    else {
+      buildChanges(discarded, reindexer, builder, algorithm);
+    }
     return builder.getFirstChange();
   }
 
+  private static void buildChanges(@NotNull int[][] discarded,
+                                   @NotNull Reindexer reindexer,
+                                   @NotNull ChangeBuilder builder,
+                                   @NotNull Algorithm algorithm) throws FilesTooBigForDiffException {
+    switch (algorithm) {
+      case GREEDY:
+        IntLCS intLCS = new IntLCS(discarded[0], discarded[1]);
+        intLCS.execute();
+        reindexer.reindex(intLCS.getPaths(), builder);
+        break;
+      case MYERS:
+        MyersLCS myersLCS = new MyersLCS(discarded[0], discarded[1]);
+        myersLCS.execute();
+        reindexer.reindex(myersLCS.getChanges(), builder);
+        break;
+      case PATIENCE:
+        PatienceLCS patienceLCS = new PatienceLCS(discarded[0], discarded[1]);
+        patienceLCS.execute();
+        reindexer.reindex(patienceLCS.getChanges(), builder);
+        break;
+    }
+  }
+
   private static <T> int getStartShift(final T[] o1, final T[] o2) {
     final int size = Math.min(o1.length, o2.length);
     int idx = 0;
@@ -124,6 +165,23 @@ public class Diff {
     return result;
   }
   
+  public enum Algorithm {
+    /**
+     * Greedy O((N+M)D) algorithm keeping all the paths explored, gives up with {@link FilesTooBigForDiffException} when there are
+     * too many of them.
+     */
+    GREEDY,
+    /**
+     * Myers' divide and conquer variant of the greedy algorithm, needs O(N+M) memory. The result may be not minimal if it is
+     * too expensive to compute.
+     */
+    MYERS,
+    /**
+     * Matches elements unique in both sequences first, then uses {@link #MYERS} between them.
+     */
+    PATIENCE
+  }
+
   public static class Change {
     // todo remove. Return lists instead.
     /**
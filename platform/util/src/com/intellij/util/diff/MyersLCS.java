@@ -0,0 +1,216 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import gnu.trove.TIntArrayList;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Myers' O((N+M)D) difference algorithm in linear space (E. Myers, "An O(ND) Difference Algorithm and Its Variations", section 4b).
+ * The greedy search is run from both ends at once until the paths meet at the middle snake, then the parts before and after
+ * the snake are processed the same way. Unlike {@link IntLCS} no paths are kept, only the changed elements are marked.
+ * <p/>
+ * When the edit script gets too expensive the search stops at the furthest reaching forward path, so the result
+ * may be not minimal for very different inputs, but the time stays bounded.
+ */
+class MyersLCS {
+  private static final int MIN_COST_LIMIT = 4096;
+
+  private final int[] myFirst;
+  private final int[] mySecond;
+  private final BitSet myChanges1;
+  private final BitSet myChanges2;
+
+  private final int[] myForward;
+  private final int[] myBackward;
+  private final int[] mySnake = new int[4];
+
+  public MyersLCS(int[] first, int[] second) {
+    this(first, second, new BitSet(first.length), new BitSet(second.length));
+    myChanges1.set(0, first.length);
+    myChanges2.set(0, second.length);
+  }
+
+  /**
+   * @param changes1 elements of the first array which are not matched, should be set for the ranges passed to {@link #execute}
+   */
+  MyersLCS(int[] first, int[] second, BitSet changes1, BitSet changes2) {
+    myFirst = first;
+    mySecond = second;
+    myChanges1 = changes1;
+    myChanges2 = changes2;
+    myForward = new int[first.length + second.length + 2];
+    myBackward = new int[first.length + second.length + 2];
+  }
+
+  public void execute() {
+    execute(0, myFirst.length, 0, mySecond.length);
+  }
+
+  void execute(int start1, int end1, int start2, int end2) {
+    final TIntArrayList ranges = new TIntArrayList();
+    ranges.add(new int[]{start1, end1, start2, end2});
+    while (!ranges.isEmpty()) {
+      final int size = ranges.size();
+      int x1 = ranges.get(size - 4);
+      int x2 = ranges.get(size - 3);
+      int y1 = ranges.get(size - 2);
+      int y2 = ranges.get(size - 1);
+      ranges.remove(size - 4, 4);
+
+      while (x1 < x2 && y1 < y2 && myFirst[x1] == mySecond[y1]) {
+        match(x1++, y1++);
+      }
+      while (x1 < x2 && y1 < y2 && myFirst[x2 - 1] == mySecond[y2 - 1]) {
+        match(--x2, --y2);
+      }
+      if (x1 == x2 || y1 == y2) continue;
+
+      findMiddleSnake(x1, x2, y1, y2);
+      final int snakeX1 = mySnake[0];
+      final int snakeY1 = mySnake[1];
+      final int snakeX2 = mySnake[2];
+      final int snakeY2 = mySnake[3];
+      if (snakeX2 == x1 && snakeY2 == y1 || snakeX1 == x2 && snakeY1 == y2) {
+        // no progress, leave the rest of the range changed
+        continue;
+      }
+      for (int x = snakeX1, y = snakeY1; x < snakeX2; x++, y++) {
+        match(x, y);
+      }
+      ranges.add(new int[]{snakeX2, x2, snakeY2, y2});
+      ranges.add(new int[]{x1, snakeX1, y1, snakeY1});
+    }
+  }
+
+  public BitSet[] getChanges() {
+    return new BitSet[]{myChanges1, myChanges2};
+  }
+
+  private void match(int x, int y) {
+    myChanges1.clear(x);
+    myChanges2.clear(y);
+  }
+
+  /**
+   * Stores the middle snake of a range whose first and last elements differ into {@link #mySnake}: x and y of its start, x and y
+   * of its end in absolute coordinates. Diagonal k of the range holds points with x - y == k, the backward search works on
+   * the reversed range whose diagonal k corresponds to the forward diagonal delta - k.
+   */
+  private void findMiddleSnake(int x1, int x2, int y1, int y2) {
+    final int n = x2 - x1;
+    final int m = y2 - y1;
+    final int delta = n - m;
+    final boolean odd = (delta & 1) != 0;
+    final int offset = m;
+    final int costLimit = getCostLimit(n + m);
+
+    // -1 marks diagonals not reached yet
+    Arrays.fill(myForward, 0, n + m + 1, -1);
+    Arrays.fill(myBackward, 0, n + m + 1, -1);
+
+    for (int d = 0; ; d++) {
+      for (int k = -d; k <= d; k += 2) {
+        if (k < -m || k > n) continue;
+        final int start = nextX(myForward, k, d, offset, n, m);
+        if (start < 0) continue;
+        int x = start;
+        int y = x - k;
+        while (x < n && y < m && myFirst[x1 + x] == mySecond[y1 + y]) {
+          x++;
+          y++;
+        }
+        myForward[k + offset] = x;
+        final int reverseX = myBackward[delta - k + offset];
+        if (odd && reverseX >= 0 && x + reverseX >= n) {
+          setSnake(x1 + start, y1 + start - k, x1 + x, y1 + y);
+          return;
+        }
+      }
+
+      for (int k = -d; k <= d; k += 2) {
+        if (k < -m || k > n) continue;
+        final int start = nextX(myBackward, k, d, offset, n, m);
+        if (start < 0) continue;
+        int x = start;
+        int y = x - k;
+        while (x < n && y < m && myFirst[x2 - 1 - x] == mySecond[y2 - 1 - y]) {
+          x++;
+          y++;
+        }
+        myBackward[k + offset] = x;
+        final int forwardX = myForward[delta - k + offset];
+        if (!odd && forwardX >= 0 && x + forwardX >= n) {
+          setSnake(x2 - x, y2 - x + k, x2 - start, y2 - start + k);
+          return;
+        }
+      }
+
+      if (d >= costLimit) {
+        // too expensive: split at the forward path which got furthest
+        int bestX = -1;
+        int bestY = -1;
+        for (int k = Math.max(-d, -m); k <= Math.min(d, n); k++) {
+          final int x = myForward[k + offset];
+          if (x >= 0 && x + x - k > bestX + bestY) {
+            bestX = x;
+            bestY = x - k;
+          }
+        }
+        setSnake(x1 + bestX, y1 + bestY, x1 + bestX, y1 + bestY);
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return x of the path on diagonal k after d-th step, either down from diagonal k + 1 or right from diagonal k - 1; -1 if none
+   */
+  private static int nextX(int[] furthest, int k, int d, int offset, int n, int m) {
+    if (d == 0) return 0;
+    int result = -1;
+    if (k + 1 <= n) {
+      final int x = furthest[k + 1 + offset];
+      if (x >= 0 && x - k <= m) {
+        result = x;
+      }
+    }
+    if (k - 1 >= -m) {
+      final int x = furthest[k - 1 + offset];
+      if (x >= 0 && x + 1 <= n && x + 1 > result) {
+        result = x + 1;
+      }
+    }
+    return result;
+  }
+
+  private void setSnake(int x1, int y1, int x2, int y2) {
+    mySnake[0] = x1;
+    mySnake[1] = y1;
+    mySnake[2] = x2;
+    mySnake[3] = y2;
+  }
+
+  private static int getCostLimit(int length) {
+    int limit = 1;
+    for (int i = length + 3; i != 0; i >>= 2) {
+      limit <<= 1;
+    }
+    return Math.max(MIN_COST_LIMIT, limit);
+  }
+}
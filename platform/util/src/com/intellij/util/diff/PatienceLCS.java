@@ -0,0 +1,156 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import com.intellij.util.ArrayUtil;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntIntHashMap;
+
+import java.util.BitSet;
+
+/**
+ * Patience diff: elements occurring exactly once in both ranges are matched first, taking the longest increasing sequence
+ * of such pairs, and the gaps between them are processed the same way. Ranges without unique common elements are passed to
+ * {@link MyersLCS}. The result is not always minimal, but it keeps moved blocks and brace lines of unrelated code apart.
+ */
+class PatienceLCS {
+  private final int[] myFirst;
+  private final int[] mySecond;
+  private final BitSet myChanges1;
+  private final BitSet myChanges2;
+  private final MyersLCS myFallback;
+
+  public PatienceLCS(int[] first, int[] second) {
+    myFirst = first;
+    mySecond = second;
+    myChanges1 = new BitSet(first.length);
+    myChanges2 = new BitSet(second.length);
+    myChanges1.set(0, first.length);
+    myChanges2.set(0, second.length);
+    myFallback = new MyersLCS(first, second, myChanges1, myChanges2);
+  }
+
+  public void execute() {
+    final TIntArrayList ranges = new TIntArrayList();
+    ranges.add(new int[]{0, myFirst.length, 0, mySecond.length});
+    while (!ranges.isEmpty()) {
+      final int size = ranges.size();
+      int x1 = ranges.get(size - 4);
+      int x2 = ranges.get(size - 3);
+      int y1 = ranges.get(size - 2);
+      int y2 = ranges.get(size - 1);
+      ranges.remove(size - 4, 4);
+
+      while (x1 < x2 && y1 < y2 && myFirst[x1] == mySecond[y1]) {
+        match(x1++, y1++);
+      }
+      while (x1 < x2 && y1 < y2 && myFirst[x2 - 1] == mySecond[y2 - 1]) {
+        match(--x2, --y2);
+      }
+      if (x1 == x2 || y1 == y2) continue;
+
+      final int[] anchors = findUniqueCommonSubsequence(x1, x2, y1, y2);
+      if (anchors.length == 0) {
+        myFallback.execute(x1, x2, y1, y2);
+        continue;
+      }
+
+      int prevX = x1;
+      int prevY = y1;
+      for (int i = 0; i < anchors.length; i += 2) {
+        final int x = anchors[i];
+        final int y = anchors[i + 1];
+        match(x, y);
+        ranges.add(new int[]{prevX, x, prevY, y});
+        prevX = x + 1;
+        prevY = y + 1;
+      }
+      ranges.add(new int[]{prevX, x2, prevY, y2});
+    }
+  }
+
+  public BitSet[] getChanges() {
+    return new BitSet[]{myChanges1, myChanges2};
+  }
+
+  private void match(int x, int y) {
+    myChanges1.clear(x);
+    myChanges2.clear(y);
+  }
+
+  /**
+   * @return x and y of the pairs of the longest increasing sequence of elements unique in both ranges, ordered by x
+   */
+  private int[] findUniqueCommonSubsequence(int x1, int x2, int y1, int y2) {
+    // index of the only occurrence in the second range, -1 for repeated elements
+    final TIntIntHashMap positions2 = new TIntIntHashMap();
+    for (int y = y1; y < y2; y++) {
+      final int value = mySecond[y];
+      positions2.put(value, positions2.containsKey(value) ? -1 : y);
+    }
+    final TIntIntHashMap positions1 = new TIntIntHashMap();
+    for (int x = x1; x < x2; x++) {
+      final int value = myFirst[x];
+      if (positions2.containsKey(value) && positions2.get(value) >= 0) {
+        positions1.put(value, positions1.containsKey(value) ? -1 : x);
+      }
+    }
+
+    final TIntArrayList xs = new TIntArrayList();
+    final TIntArrayList ys = new TIntArrayList();
+    for (int x = x1; x < x2; x++) {
+      final int value = myFirst[x];
+      if (positions1.containsKey(value) && positions1.get(value) == x) {
+        final int y = positions2.get(value);
+        if (y >= 0) {
+          xs.add(x);
+          ys.add(y);
+        }
+      }
+    }
+    if (xs.isEmpty()) return ArrayUtil.EMPTY_INT_ARRAY;
+
+    // patience sorting: tails[i] is the index of the smallest y ending an increasing sequence of length i + 1
+    final int count = ys.size();
+    final int[] tails = new int[count];
+    final int[] previous = new int[count];
+    int length = 0;
+    for (int i = 0; i < count; i++) {
+      final int y = ys.get(i);
+      int low = 0;
+      int high = length;
+      while (low < high) {
+        final int middle = (low + high) >>> 1;
+        if (ys.get(tails[middle]) < y) {
+          low = middle + 1;
+        }
+        else {
+          high = middle;
+        }
+      }
+      previous[i] = low > 0 ? tails[low - 1] : -1;
+      tails[low] = i;
+      if (low == length) length++;
+    }
+
+    final int[] result = new int[length * 2];
+    for (int i = tails[length - 1], j = length - 1; i >= 0; i = previous[i], j--) {
+      result[j * 2] = xs.get(i);
+      result[j * 2 + 1] = ys.get(i);
+    }
+    return result;
+  }
+}
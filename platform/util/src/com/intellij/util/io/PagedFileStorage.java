@@ -46,6 +46,8 @@ public class PagedFileStorage implements Forceable {
   private final static int UPPER_LIMIT;
   public final static int BUFFER_SIZE;
   private static final int UNKNOWN_PAGE = -1;
+  // pages are read into direct buffers unless memory mapping is explicitly requested, mapped files can't be resized or deleted on Windows
+  private static final boolean USE_MAPPED_BUFFERS = !ByteBufferWrapper.NO_MMAP && SystemProperties.getBooleanProperty("idea.paged.storage.mmap", false);
 
   static {
     final int lower = 100;
@@ -65,7 +67,7 @@ public class PagedFileStorage implements Forceable {
     LOG.info("lower=" + (LOWER_LIMIT / MB) +
              "; upper=" + (UPPER_LIMIT / MB) +
              "; buffer=" + (BUFFER_SIZE / MB) +
-             "; mmap=" + (!ByteBufferWrapper.NO_MMAP));
+             "; mmap=" + USE_MAPPED_BUFFERS);
   }
 
   private final StorageLockContext myStorageLockContext;
@@ -448,6 +450,7 @@ public class PagedFileStorage implements Forceable {
     private final ConcurrentLinkedQueue<ByteBufferWrapper> mySegmentsToRemove = new ConcurrentLinkedQueue<ByteBufferWrapper>();
     private volatile long mySize;
     private volatile long mySizeLimit;
+    private final long myLowerSizeLimit;
     private volatile int myMappingChangeCount;
 
     public StorageLock() {
@@ -455,10 +458,18 @@ public class PagedFileStorage implements Forceable {
     }
 
     public StorageLock(boolean checkThreadAccess) {
+      this(checkThreadAccess, 1);
+    }
+
+    /**
+     * @param cacheShare the number of storage locks sharing the buffer cache limits, each of them gets an equal part
+     */
+    public StorageLock(boolean checkThreadAccess, int cacheShare) {
       this.checkThreadAccess = checkThreadAccess;
       myDefaultStorageLockContext = new StorageLockContext(this);
 
-      mySizeLimit = UPPER_LIMIT;
+      mySizeLimit = Math.max(UPPER_LIMIT / cacheShare, BUFFER_SIZE);
+      myLowerSizeLimit = Math.min(Math.max(LOWER_LIMIT / cacheShare, BUFFER_SIZE), mySizeLimit);
       mySegments = new LinkedHashMap<Integer, ByteBufferWrapper>(10, 0.75f) {
         @Override
         protected boolean removeEldestEntry(Map.Entry<Integer, ByteBufferWrapper> eldest) {
@@ -592,7 +603,8 @@ public class PagedFileStorage implements Forceable {
       }
 
       int min = Math.min((int)(owner.length() - off), owner.myPageSize);
-      ByteBufferWrapper wrapper = ByteBufferWrapper.readWriteDirect(owner.myFile, off, min);
+      ByteBufferWrapper wrapper = USE_MAPPED_BUFFERS ? ByteBufferWrapper.readWrite(owner.myFile, off, min)
+                                                     : ByteBufferWrapper.readWriteDirect(owner.myFile, off, min);
       IOException oome = null;
       while (true) {
         try {
@@ -608,7 +620,7 @@ public class PagedFileStorage implements Forceable {
         catch (IOException e) {
           if (e.getCause() instanceof OutOfMemoryError) {
             oome = e;
-            if (mySizeLimit > LOWER_LIMIT) {
+            if (mySizeLimit > myLowerSizeLimit) {
               mySizeLimit -= owner.myPageSize;
             }
             long newSize = mySize - owner.myPageSize;
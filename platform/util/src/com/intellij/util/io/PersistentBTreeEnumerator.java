@@ -66,7 +66,7 @@ public class PersistentBTreeEnumerator<Data> extends PersistentEnumeratorBase<Da
   private static final int KEY_SHIFT = 1;
 
   public PersistentBTreeEnumerator(@NotNull File file, @NotNull KeyDescriptor<Data> dataDescriptor, int initialSize) throws IOException {
-    this(file, dataDescriptor, initialSize, ourLock.myDefaultStorageLockContext);
+    this(file, dataDescriptor, initialSize, getDefaultStorageLockContext(file));
   }
 
   public PersistentBTreeEnumerator(@NotNull File file,
@@ -77,7 +77,7 @@ public class PersistentBTreeEnumerator<Data> extends PersistentEnumeratorBase<Da
           new ResizeableMappedFile(
             file,
             initialSize,
-            lockContext != null ? lockContext:ourLock.myDefaultStorageLockContext,
+            lockContext != null ? lockContext : getDefaultStorageLockContext(file),
             VALUE_PAGE_SIZE,
             true
           ),
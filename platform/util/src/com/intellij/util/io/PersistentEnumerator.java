@@ -49,7 +49,7 @@ public class PersistentEnumerator<Data> extends PersistentEnumeratorBase<Data> {
   private static final Version ourVersion = new Version(CORRECTLY_CLOSED_MAGIC, DIRTY_MAGIC);
 
   public PersistentEnumerator(@NotNull File file, @NotNull KeyDescriptor<Data> dataDescriptor, int initialSize) throws IOException {
-    this(file, dataDescriptor, initialSize, ourLock.myDefaultStorageLockContext);
+    this(file, dataDescriptor, initialSize, getDefaultStorageLockContext(file));
   }
 
   public PersistentEnumerator(@NotNull File file,
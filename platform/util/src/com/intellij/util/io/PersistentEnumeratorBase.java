@@ -22,6 +22,7 @@ import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.CommonProcessors;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.Processor;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.SLRUMap;
 import com.intellij.util.containers.ShareableKey;
 import org.jetbrains.annotations.NotNull;
@@ -121,7 +122,21 @@ abstract class PersistentEnumeratorBase<Data> implements Forceable, Closeable {
     return ourFlyweight;
   }
 
-  protected static final PagedFileStorage.StorageLock ourLock = new PagedFileStorage.StorageLock();
+  private static final PagedFileStorage.StorageLock[] ourLocks;
+  static {
+    // storages of different files may be guarded by different locks, so that concurrent lookups in unrelated maps don't contend
+    final int stripes = Math.max(1, SystemProperties.getIntProperty("idea.persistent.storage.lock.stripes", 1));
+    ourLocks = new PagedFileStorage.StorageLock[stripes];
+    for (int i = 0; i < stripes; i++) {
+      ourLocks[i] = new PagedFileStorage.StorageLock(true, stripes);
+    }
+  }
+
+  @NotNull
+  protected static PagedFileStorage.StorageLockContext getDefaultStorageLockContext(@NotNull File file) {
+    final int stripe = ourLocks.length == 1 ? 0 : (file.getPath().hashCode() & Integer.MAX_VALUE) % ourLocks.length;
+    return ourLocks[stripe].myDefaultStorageLockContext;
+  }
 
   private static final int ENUMERATION_CACHE_SIZE;
   static {
@@ -652,7 +667,7 @@ abstract class PersistentEnumeratorBase<Data> implements Forceable, Closeable {
   }
 
   protected final void markDirty(boolean dirty) throws IOException {
-    //assert Thread.holdsLock(this) || Thread.holdsLock(ourLock); // we hold one lock or another so can access myDirty
+    //assert Thread.holdsLock(this) || Thread.holdsLock(ourLocks); // we hold one lock or another so can access myDirty
     if (dirty && myDirty && !myDirtyStatusUpdateInProgress) return;
     lockStorage();
     try {
@@ -21,8 +21,11 @@ import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.CommonProcessors;
 import com.intellij.util.Processor;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.LimitedPool;
 import com.intellij.util.containers.SLRUCache;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -63,6 +66,20 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   private boolean myIntAddressForNewRecord;
   private static final boolean doHardConsistencyChecks = false;
 
+  private static final boolean BACKGROUND_COMPACTION = SystemProperties.getBooleanProperty("idea.persistent.map.background.compaction", true);
+  private final boolean myCompactInBackground;
+  // storage receiving live values while incremental compaction is in progress, replaces myValueStorage when compaction is finished
+  @Nullable private PersistentHashMapValueStorage myCompactedStorage;
+  // ids of keys whose values already live in myCompactedStorage
+  @Nullable private TIntHashSet myCompactedKeys;
+  // stale ids left behind by reenumerate, their records are not reachable anymore and should not be copied
+  @Nullable private TIntHashSet myReenumeratedKeys;
+  // (keyId, processingKey) pairs of keys registered at the moment compaction started
+  @Nullable private TIntArrayList myKeysToCompact;
+  private int myCompactionCursor;
+  private long myCompactionStartTime;
+  private static final int COMPACTION_STATE_VERSION = 1;
+
   private static class AppendStream extends DataOutputStream {
     private AppendStream() {
       super(new BufferExposingByteArrayOutputStream());
@@ -103,12 +120,20 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
       myEnumerator.lockStorage();
       try {
         final BufferExposingByteArrayOutputStream bytes = value.getInternalBuffer();
-        final int id = enumerate(key);
+        int id = enumerate(key);
         long oldHeaderRecord = readValueId(id);
+        if (oldHeaderRecord != NULL_ADDR && getValueStorage(id) != getStorageForNewValues()) {
+          // appended chunk should be linked with previous chunks of the value, and the storage being compacted is read-only,
+          // so the value is moved to the compacted storage first
+          id = compactValue(id, key, 0);
+          oldHeaderRecord = readValueId(id);
+        }
 
-        long headerRecord = myValueStorage.appendBytes(bytes.getInternalBuffer(), 0, bytes.size(), oldHeaderRecord);
+        final PersistentHashMapValueStorage storage = getStorageForNewValues();
+        long headerRecord = storage.appendBytes(bytes.getInternalBuffer(), 0, bytes.size(), oldHeaderRecord);
 
-        updateValueId(id, headerRecord, oldHeaderRecord, key, 0);
+        int newId = updateValueId(id, headerRecord, oldHeaderRecord, key, 0);
+        updateCompactedKeys(id, newId, storage == myCompactedStorage);
         if (oldHeaderRecord == NULL_ADDR) {
           myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
         }
@@ -141,7 +166,36 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   }
   
   public PersistentHashMap(@NotNull final File file, @NotNull KeyDescriptor<Key> keyDescriptor, @NotNull DataExternalizer<Value> valueExternalizer, final int initialSize) throws IOException {
-    super(checkDataFiles(file), keyDescriptor, initialSize);
+    this(file, keyDescriptor, valueExternalizer, initialSize, null);
+  }
+
+  public PersistentHashMap(@NotNull final File file,
+                           @NotNull KeyDescriptor<Key> keyDescriptor,
+                           @NotNull DataExternalizer<Value> valueExternalizer,
+                           final int initialSize,
+                           @Nullable PagedFileStorage.StorageLockContext lockContext) throws IOException {
+    this(file, keyDescriptor, valueExternalizer, initialSize, lockContext, false);
+  }
+
+  /**
+   * @param compactInBackground if true, the map is not compacted on open. Instead, the owner is expected to call
+   * {@link #performCompactionStep(int)} periodically, which moves live values into a new storage a slice at a time
+   */
+  protected PersistentHashMap(@NotNull final File file,
+                              @NotNull KeyDescriptor<Key> keyDescriptor,
+                              @NotNull DataExternalizer<Value> valueExternalizer,
+                              boolean compactInBackground) throws IOException {
+    this(file, keyDescriptor, valueExternalizer, INITIAL_INDEX_SIZE, null, compactInBackground);
+  }
+
+  private PersistentHashMap(@NotNull final File file,
+                            @NotNull KeyDescriptor<Key> keyDescriptor,
+                            @NotNull DataExternalizer<Value> valueExternalizer,
+                            final int initialSize,
+                            @Nullable PagedFileStorage.StorageLockContext lockContext,
+                            boolean compactInBackground) throws IOException {
+    super(checkDataFiles(file), keyDescriptor, initialSize, lockContext);
+    myCompactInBackground = compactInBackground && BACKGROUND_COMPACTION;
 
     final PersistentEnumeratorBase.RecordBufferHandler<PersistentEnumeratorBase> recordHandler = myEnumerator.getRecordHandler();
     myParentValueRefOffset = recordHandler.getRecordBuffer(myEnumerator).length;
@@ -188,7 +242,8 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
       myReadCompactionGarbageSize = (int)(data2 >>> 32);
       myCanReEnumerate = myEnumerator.canReEnumerate();
 
-      if (makesSenseToCompact()) {
+      resumeCompaction();
+      if (!myCompactInBackground && (myCompactedStorage != null || makesSenseToCompact())) {
         compact();
       }
     }
@@ -234,7 +289,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   }
 
   private boolean makesSenseToCompact() {
-    final long fileSize = getDataFile(myEnumerator.myFile).length();
+    final long fileSize = myValueStorage.getSize();
     final int megabyte = 1024 * 1024;
 
     if (fileSize > 5 * megabyte) { // file is longer than 5MB and (more than 50% of keys is garbage or approximate benefit larger than 100M)
@@ -307,9 +362,11 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
       }
 
-      long header = myValueStorage.appendBytes(bytes.getInternalBuffer(), 0, bytes.size(), 0);
+      final PersistentHashMapValueStorage storage = getStorageForNewValues();
+      long header = storage.appendBytes(bytes.getInternalBuffer(), 0, bytes.size(), 0);
 
-      updateValueId(id, header, oldheader, key, 0);
+      int newId = updateValueId(id, header, oldheader, key, 0);
+      updateCompactedKeys(id, newId, storage == myCompactedStorage);
     }
     finally {
       myEnumerator.unlockStorage();
@@ -319,7 +376,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   @Override
   public final int enumerate(Key name) throws IOException {
     synchronized (myEnumerator) {
-      myIntAddressForNewRecord = canUseIntAddressForNewRecord(myValueStorage.getSize());
+      myIntAddressForNewRecord = canUseIntAddressForNewRecord(getStorageForNewValues().getSize());
       return super.enumerate(name);
     }
   }
@@ -393,11 +450,17 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         return null;
       }
 
-      PersistentHashMapValueStorage.ReadResult readResult = myValueStorage.readBytes(oldHeader);
-      if (readResult.offset != oldHeader) {
+      final PersistentHashMapValueStorage storage = getValueStorage(id);
+      PersistentHashMapValueStorage.ReadResult readResult = storage.readBytes(oldHeader);
+      if (storage != getStorageForNewValues()) {
+        // value is not moved by compaction yet, it is cheap to do now when its bytes are read anyway
+        moveToCompactedStorage(id, key, 0, oldHeader, readResult.buffer);
+      }
+      else if (readResult.offset != oldHeader) {
         myEnumerator.markDirty(true);
 
-        updateValueId(id, readResult.offset, oldHeader, key, 0);
+        int newId = updateValueId(id, readResult.offset, oldHeader, key, 0);
+        updateCompactedKeys(id, newId, storage == myCompactedStorage);
         myLiveAndGarbageKeysCounter++;
         myReadCompactionGarbageSize += readResult.buffer.length;
       }
@@ -457,7 +520,8 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         myLiveAndGarbageKeysCounter++;
       }
 
-      updateValueId(id, NULL_ADDR, record, key, 0);
+      int newId = updateValueId(id, NULL_ADDR, record, key, 0);
+      updateCompactedKeys(id, newId, false);
     }
     finally {
       myEnumerator.unlockStorage();
@@ -485,7 +549,11 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         clearAppenderCaches();
       }
       finally {
-        super.force();
+        // during compaction the enumerator references values in both storages, so it is marked as correctly closed only by close(),
+        // which saves the compaction state as well
+        if (myCompactedStorage == null) {
+          super.force();
+        }
       }
     }
     finally {
@@ -496,6 +564,9 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   private void clearAppenderCaches() {
     myAppendCache.clear();
     myValueStorage.force();
+    if (myCompactedStorage != null) {
+      myCompactedStorage.force();
+    }
   }
 
   @Override
@@ -510,10 +581,21 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     try {
       try {
         myAppendCacheFlusher.stop();
-        myAppendCache.clear();
-        final PersistentHashMapValueStorage valueStorage = myValueStorage;
-        if (valueStorage != null) {
-          valueStorage.dispose();
+        try {
+          myAppendCache.clear();
+          if (myCompactedStorage != null) {
+            saveCompactionState();
+          }
+        }
+        finally {
+          final PersistentHashMapValueStorage compactedStorage = myCompactedStorage;
+          if (compactedStorage != null) {
+            compactedStorage.dispose();
+          }
+          final PersistentHashMapValueStorage valueStorage = myValueStorage;
+          if (valueStorage != null) {
+            valueStorage.dispose();
+          }
         }
       }
       finally {
@@ -528,41 +610,265 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   // made public for tests
   public void compact() throws IOException {
     synchronized (myEnumerator) {
-      final long now = System.currentTimeMillis();
-      final String newPath = getDataFile(myEnumerator.myFile).getPath() + ".new";
-      final PersistentHashMapValueStorage newStorage = PersistentHashMapValueStorage.create(newPath);
-      myValueStorage.switchToCompactionMode();
-      myLiveAndGarbageKeysCounter = 0;
-      myReadCompactionGarbageSize = 0;
+      myEnumerator.lockStorage();
+      try {
+        if (myCompactedStorage == null) {
+          startCompaction();
+        }
+        compactKeys(Integer.MAX_VALUE);
+        finishCompaction();
+      }
+      finally {
+        myEnumerator.unlockStorage();
+      }
+    }
+  }
 
+  /**
+   * Performs a slice of incremental compaction: copies values of at most <code>keysLimit</code> keys into the compacted storage.
+   * Compaction is started when enough garbage is accumulated and switches the map to the compacted storage when all live values
+   * are copied. The map lock is held only for the duration of the step, so other map operations proceed between steps.
+   * If the map is closed before compaction is finished, compaction state is saved and compaction continues after the map is reopened.
+   *
+   * @return true if compaction is in progress and further steps are needed
+   */
+  public boolean performCompactionStep(int keysLimit) throws IOException {
+    synchronized (myEnumerator) {
+      if (isClosed()) return false;
+      myEnumerator.lockStorage();
       try {
-        traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
-          @Override
-          public boolean process(final int keyId) throws IOException {
-            final long record = readValueId(keyId);
-            if (record != NULL_ADDR) {
-              PersistentHashMapValueStorage.ReadResult readResult = myValueStorage.readBytes(record);
-              long value = newStorage.appendBytes(readResult.buffer, 0, readResult.buffer.length, 0);
-              updateValueId(keyId, value, record, null, getCurrentKey());
-              myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
-            }
-            return true;
-          }
-        });
+        if (myCompactedStorage == null) {
+          if (!makesSenseToCompact()) return false;
+          startCompaction();
+          return true;
+        }
+
+        if (compactKeys(keysLimit)) return true;
+        finishCompaction();
+        return false;
       }
       finally {
-        newStorage.dispose();
+        myEnumerator.unlockStorage();
       }
+    }
+  }
 
-      myValueStorage.dispose();
+  public boolean isCompactionInProgress() {
+    synchronized (myEnumerator) {
+      return myCompactedStorage != null;
+    }
+  }
 
-      FileUtil.rename(new File(newPath), getDataFile(myEnumerator.myFile));
+  private void startCompaction() throws IOException {
+    myCompactionStartTime = System.currentTimeMillis();
+    // only ids of the keys are collected here, values are checked and copied by compaction steps
+    final TIntArrayList keysToCompact = new TIntArrayList();
+    traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
+      @Override
+      public boolean process(final int keyId) throws IOException {
+        keysToCompact.add(keyId);
+        keysToCompact.add(getCurrentKey());
+        return true;
+      }
+    });
 
-      myValueStorage = PersistentHashMapValueStorage.create(getDataFile(myEnumerator.myFile).getPath());
-      LOG.info("Compacted " + myEnumerator.myFile.getPath() + " in " + (System.currentTimeMillis() - now) + "ms.");
+    final File compactedFile = getCompactedDataFile(myEnumerator.myFile);
+    FileUtil.delete(compactedFile);
+    // compacted values are referenced from the enumerator before the switch, so the map is not consistent until compaction finishes
+    myEnumerator.markDirty(true);
+    myCompactedStorage = PersistentHashMapValueStorage.create(compactedFile.getPath());
+    myCompactedKeys = new TIntHashSet();
+    myReenumeratedKeys = new TIntHashSet();
+    myKeysToCompact = keysToCompact;
+    myCompactionCursor = 0;
+    myValueStorage.switchToCompactionMode();
+  }
 
-      myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
+  /**
+   * @return true if there are keys left to compact
+   */
+  private boolean compactKeys(int keysLimit) throws IOException {
+    final TIntArrayList keysToCompact = myKeysToCompact;
+    assert keysToCompact != null && myCompactedKeys != null && myReenumeratedKeys != null;
+    final int end = (int)Math.min(keysToCompact.size(), myCompactionCursor + 2L * keysLimit);
+    for (; myCompactionCursor < end; myCompactionCursor += 2) {
+      final int keyId = keysToCompact.getQuick(myCompactionCursor);
+      if (!myCompactedKeys.contains(keyId) && !myReenumeratedKeys.contains(keyId)) {
+        compactValue(keyId, null, keysToCompact.getQuick(myCompactionCursor + 1));
+      }
     }
+    return myCompactionCursor < keysToCompact.size();
+  }
+
+  private void finishCompaction() throws IOException {
+    final PersistentHashMapValueStorage compactedStorage = myCompactedStorage;
+    assert compactedStorage != null && myCompactedKeys != null;
+    // values that existed when compaction was started are copied by compaction steps, and all values changed or added since then
+    // are written to the compacted storage, so everything live is already there
+    myAppendCache.clear();
+    final int liveKeys = myCompactedKeys.size();
+
+    compactedStorage.dispose();
+    myValueStorage.dispose();
+    myCompactedStorage = null;
+    myCompactedKeys = null;
+    myReenumeratedKeys = null;
+    myKeysToCompact = null;
+
+    FileUtil.rename(getCompactedDataFile(myEnumerator.myFile), getDataFile(myEnumerator.myFile));
+
+    myValueStorage = PersistentHashMapValueStorage.create(getDataFile(myEnumerator.myFile).getPath());
+    LOG.info("Compacted " + myEnumerator.myFile.getPath() + " in " + (System.currentTimeMillis() - myCompactionStartTime) + "ms.");
+
+    myLiveAndGarbageKeysCounter = liveKeys * LIVE_KEY_MASK;
+    myReadCompactionGarbageSize = 0;
+    myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
+  }
+
+  private void saveCompactionState() throws IOException {
+    final TIntArrayList keysToCompact = myKeysToCompact;
+    assert myCompactedStorage != null && keysToCompact != null && myCompactedKeys != null && myReenumeratedKeys != null;
+    myCompactedStorage.force();
+    myValueStorage.force();
+
+    try {
+      final DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(getCompactionStateFile(myEnumerator.myFile))));
+      try {
+        out.writeInt(COMPACTION_STATE_VERSION);
+        out.writeInt(keysToCompact.size() - myCompactionCursor);
+        for (int i = myCompactionCursor; i < keysToCompact.size(); i++) {
+          out.writeInt(keysToCompact.getQuick(i));
+        }
+        writeIds(out, myCompactedKeys);
+        writeIds(out, myReenumeratedKeys);
+      }
+      finally {
+        out.close();
+      }
+    }
+    catch (IOException e) {
+      // the enumerator references values in the compacted storage, the map can't be used without the state
+      myEnumerator.markCorrupted();
+      throw e;
+    }
+  }
+
+  private void resumeCompaction() throws IOException {
+    final File stateFile = getCompactionStateFile(myEnumerator.myFile);
+    final File compactedFile = getCompactedDataFile(myEnumerator.myFile);
+    if (!stateFile.exists()) {
+      // left behind by compaction interrupted together with the map, which is rebuilt in this case
+      FileUtil.delete(compactedFile);
+      return;
+    }
+    if (!compactedFile.exists()) {
+      throw new PersistentEnumerator.CorruptedException(myEnumerator.myFile);
+    }
+
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)));
+    try {
+      if (in.readInt() != COMPACTION_STATE_VERSION) {
+        throw new PersistentEnumerator.CorruptedException(myEnumerator.myFile);
+      }
+      final int keysCount = in.readInt();
+      final TIntArrayList keysToCompact = new TIntArrayList(keysCount);
+      for (int i = 0; i < keysCount; i++) {
+        keysToCompact.add(in.readInt());
+      }
+      myKeysToCompact = keysToCompact;
+      myCompactionCursor = 0;
+      myCompactedKeys = readIds(in);
+      myReenumeratedKeys = readIds(in);
+    }
+    finally {
+      in.close();
+    }
+
+    // the state is valid only until the map is modified
+    myEnumerator.markDirty(true);
+    FileUtil.delete(stateFile);
+    myCompactionStartTime = System.currentTimeMillis();
+    myCompactedStorage = PersistentHashMapValueStorage.create(compactedFile.getPath());
+    myValueStorage.switchToCompactionMode();
+  }
+
+  private static void writeIds(@NotNull final DataOutputStream out, @NotNull TIntHashSet ids) throws IOException {
+    out.writeInt(ids.size());
+    for (int id : ids.toArray()) {
+      out.writeInt(id);
+    }
+  }
+
+  @NotNull
+  private static TIntHashSet readIds(@NotNull DataInputStream in) throws IOException {
+    final int size = in.readInt();
+    final TIntHashSet ids = new TIntHashSet(size);
+    for (int i = 0; i < size; i++) {
+      ids.add(in.readInt());
+    }
+    return ids;
+  }
+
+  private int compactValue(int keyId, @Nullable Key key, int processingKey) throws IOException {
+    assert myCompactedStorage != null;
+    final long record = readValueId(keyId);
+    if (record == NULL_ADDR) return keyId;
+
+    PersistentHashMapValueStorage.ReadResult readResult = myValueStorage.readBytes(record);
+    return moveToCompactedStorage(keyId, key, processingKey, record, readResult.buffer);
+  }
+
+  private int moveToCompactedStorage(int keyId, @Nullable Key key, int processingKey, long record, @NotNull byte[] bytes)
+    throws IOException {
+    final PersistentHashMapValueStorage compactedStorage = myCompactedStorage;
+    assert compactedStorage != null;
+    long value = compactedStorage.appendBytes(bytes, 0, bytes.length, 0);
+    int newKeyId = updateValueId(keyId, value, record, key, processingKey);
+    updateCompactedKeys(keyId, newKeyId, true);
+    return newKeyId;
+  }
+
+  private void updateCompactedKeys(int keyId, int newKeyId, boolean valueInCompactedStorage) {
+    final TIntHashSet compactedKeys = myCompactedKeys;
+    final TIntHashSet reenumeratedKeys = myReenumeratedKeys;
+    if (compactedKeys == null || reenumeratedKeys == null) return;
+    if (keyId != newKeyId) {
+      // record of reenumerated key is not reachable anymore and should not be copied
+      compactedKeys.remove(keyId);
+      reenumeratedKeys.add(keyId);
+    }
+    if (valueInCompactedStorage) {
+      compactedKeys.add(newKeyId);
+    }
+    else {
+      compactedKeys.remove(newKeyId);
+    }
+  }
+
+  @NotNull
+  private PersistentHashMapValueStorage getValueStorage(int keyId) {
+    final PersistentHashMapValueStorage compactedStorage = myCompactedStorage;
+    if (compactedStorage != null && myCompactedKeys.contains(keyId)) {
+      return compactedStorage;
+    }
+    return myValueStorage;
+  }
+
+  @NotNull
+  private PersistentHashMapValueStorage getStorageForNewValues() {
+    final PersistentHashMapValueStorage compactedStorage = myCompactedStorage;
+    return compactedStorage != null ? compactedStorage : myValueStorage;
+  }
+
+  @NotNull
+  private static File getCompactedDataFile(@NotNull final File file) {
+    return new File(file.getParentFile(), file.getName() + DATA_FILE_EXTENSION + ".new");
+  }
+
+  @NotNull
+  private static File getCompactionStateFile(@NotNull final File file) {
+    return new File(file.getParentFile(), file.getName() + DATA_FILE_EXTENSION + ".compaction");
   }
 
   private long readValueId(final int keyId) {
@@ -194,6 +194,23 @@ public class RefCountingStorage extends AbstractStorage {
     }
   }
 
+  /**
+   * Acquires the record only if it hasn't been deleted yet, e.g. when its id comes from a cache which may be outdated.
+   * Note that a deleted record id may have been reused for other data.
+   *
+   * @return true if the record has been acquired
+   */
+  public boolean acquireRecordIfReferenced(int record) throws IOException {
+    waitForPendingWriteForRecord(record);
+    synchronized (myLock) {
+      if (record <= 0 || record > myRecordsTable.getRecordsCount()) return false;
+      RefCountingRecordsTable table = (RefCountingRecordsTable)myRecordsTable;
+      if (table.getRefCount(record) <= 0) return false;
+      table.incRefCount(record);
+      return true;
+    }
+  }
+
   public void releaseRecord(int record) throws IOException {
     waitForPendingWriteForRecord(record);
     synchronized (myLock) {
@@ -65,7 +65,11 @@ public class CharArrayUtil {
   public static void getChars(@NotNull CharSequence src, @NotNull char[] dst, int srcOffset, int dstOffset, int len) {
     if (len >= GET_CHARS_THRESHOLD) {
       if (src instanceof String) {
-        ((String)src).getChars(srcOffset, len, dst, dstOffset);
+        ((String)src).getChars(srcOffset, srcOffset + len, dst, dstOffset);
+        return;
+      }
+      else if (src instanceof ImmutableText) {
+        ((ImmutableText)src).getChars(srcOffset, srcOffset + len, dst, dstOffset);
         return;
       }
       else if (src instanceof CharBuffer) {
@@ -77,7 +81,7 @@ public class CharArrayUtil {
         return;
       }
       else if (src instanceof CharSequenceBackedByArray) {
-        ((CharSequenceBackedByArray)src.subSequence(srcOffset, len)).getChars(dst, dstOffset);
+        ((CharSequenceBackedByArray)src.subSequence(srcOffset, srcOffset + len)).getChars(dst, dstOffset);
         return;
       }
       else if (src instanceof StringBuffer) {
@@ -159,6 +163,12 @@ public class CharArrayUtil {
       return chars;
     }
 
+    if (seq instanceof ImmutableText) {
+      char[] chars = new char[seq.length()];
+      ((ImmutableText)seq).getChars(0, seq.length(), chars, 0);
+      return chars;
+    }
+
     return seq.toString().toCharArray();
   }
 
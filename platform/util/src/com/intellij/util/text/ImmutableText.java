@@ -0,0 +1,342 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.text;
+
+import com.intellij.util.ArrayUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.TestOnly;
+
+import java.util.Arrays;
+
+/**
+ * Immutable text stored as a rope: a balanced binary tree with char array leaves of at most {@link #LEAF_SIZE} chars.
+ * <p/>
+ * Insertion, deletion and taking a sub sequence create a new text in O(log n) time which shares all the unchanged nodes with the
+ * old one, so the old text stays valid and can be read by other threads without any locking, e.g. as a snapshot of a document.
+ * Sequential {@link #charAt(int)} calls are served from the last accessed leaf.
+ */
+public final class ImmutableText implements CharSequence {
+  static final int LEAF_SIZE = 1 << 11;
+
+  public static final ImmutableText EMPTY = new ImmutableText(new LeafNode(ArrayUtil.EMPTY_CHAR_ARRAY));
+
+  private final Node myRoot;
+  private volatile LeafAtOffset myLastLeaf;
+
+  private ImmutableText(@NotNull Node root) {
+    myRoot = root;
+  }
+
+  @NotNull
+  public static ImmutableText valueOf(@NotNull CharSequence text) {
+    if (text instanceof ImmutableText) return (ImmutableText)text;
+    if (text.length() == 0) return EMPTY;
+    return new ImmutableText(build(text, 0, text.length()));
+  }
+
+  @NotNull
+  private static Node build(@NotNull CharSequence text, int start, int end) {
+    final int length = end - start;
+    if (length <= LEAF_SIZE) {
+      final char[] data = new char[length];
+      CharArrayUtil.getChars(text, data, start, 0, length);
+      return new LeafNode(data);
+    }
+    // split at a multiple of the leaf size, so that all the leaves but the last one are full
+    final int leaves = (length + LEAF_SIZE - 1) / LEAF_SIZE;
+    final int middle = start + (leaves + 1) / 2 * LEAF_SIZE;
+    return new CompositeNode(build(text, start, middle), build(text, middle, end));
+  }
+
+  @NotNull
+  public ImmutableText insert(int index, @NotNull CharSequence text) {
+    return replace(index, index, text);
+  }
+
+  @NotNull
+  public ImmutableText delete(int start, int end) {
+    return replace(start, end, "");
+  }
+
+  /**
+   * @return the text with the range from start to end replaced with the given text, this text is not modified
+   */
+  @NotNull
+  public ImmutableText replace(int start, int end, @NotNull CharSequence text) {
+    checkRange(start, end);
+    if (start == end && text.length() == 0) return this;
+    Node result = myRoot.subNode(0, start);
+    if (text.length() > 0) {
+      result = concat(result, text instanceof ImmutableText ? ((ImmutableText)text).myRoot : build(text, 0, text.length()));
+    }
+    result = concat(result, myRoot.subNode(end, length()));
+    return new ImmutableText(result);
+  }
+
+  @Override
+  public int length() {
+    return myRoot.length();
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length()) {
+      throw new IndexOutOfBoundsException("Wrong offset: " + index + "; length: " + length());
+    }
+    LeafAtOffset leaf = myLastLeaf;
+    if (leaf == null || index < leaf.myOffset || index >= leaf.myOffset + leaf.myLeaf.myData.length) {
+      myLastLeaf = leaf = findLeaf(index);
+    }
+    return leaf.myLeaf.myData[index - leaf.myOffset];
+  }
+
+  @NotNull
+  private LeafAtOffset findLeaf(int index) {
+    Node node = myRoot;
+    int offset = 0;
+    while (node instanceof CompositeNode) {
+      final CompositeNode composite = (CompositeNode)node;
+      final int headLength = composite.myHead.length();
+      if (index - offset < headLength) {
+        node = composite.myHead;
+      }
+      else {
+        offset += headLength;
+        node = composite.myTail;
+      }
+    }
+    return new LeafAtOffset(offset, (LeafNode)node);
+  }
+
+  @NotNull
+  @Override
+  public ImmutableText subSequence(int start, int end) {
+    checkRange(start, end);
+    if (start == 0 && end == length()) return this;
+    if (start == end) return EMPTY;
+    return new ImmutableText(myRoot.subNode(start, end));
+  }
+
+  /**
+   * Copies chars from start to end of this text to the array starting at destPos.
+   */
+  public void getChars(int start, int end, @NotNull char[] dest, int destPos) {
+    checkRange(start, end);
+    myRoot.getChars(start, end, dest, destPos);
+  }
+
+  @NotNull
+  @Override
+  public String toString() {
+    final char[] data = new char[length()];
+    myRoot.getChars(0, data.length, data, 0);
+    return new String(data);
+  }
+
+  @TestOnly
+  int getDepth() {
+    return myRoot.depth();
+  }
+
+  private void checkRange(int start, int end) {
+    if (start < 0 || start > end || end > length()) {
+      throw new IndexOutOfBoundsException("Wrong range: (" + start + ", " + end + "); length: " + length());
+    }
+  }
+
+  @NotNull
+  private static Node concat(@NotNull Node head, @NotNull Node tail) {
+    final int headLength = head.length();
+    final int tailLength = tail.length();
+    if (headLength == 0) return tail;
+    if (tailLength == 0) return head;
+    if (headLength + tailLength <= LEAF_SIZE) {
+      final char[] data = new char[headLength + tailLength];
+      head.getChars(0, headLength, data, 0);
+      tail.getChars(0, tailLength, data, headLength);
+      return new LeafNode(data);
+    }
+    // merge the adjacent small leaves, otherwise typing would produce a leaf per char
+    if (head instanceof CompositeNode && tail instanceof LeafNode && lastLeaf(head).length() + tailLength <= LEAF_SIZE) {
+      final CompositeNode composite = (CompositeNode)head;
+      return join(composite.myHead, concat(composite.myTail, tail));
+    }
+    if (head instanceof LeafNode && tail instanceof CompositeNode && headLength + firstLeaf(tail).length() <= LEAF_SIZE) {
+      final CompositeNode composite = (CompositeNode)tail;
+      return join(concat(head, composite.myHead), composite.myTail);
+    }
+    return join(head, tail);
+  }
+
+  @NotNull
+  private static Node firstLeaf(@NotNull Node node) {
+    while (node instanceof CompositeNode) {
+      node = ((CompositeNode)node).myHead;
+    }
+    return node;
+  }
+
+  @NotNull
+  private static Node lastLeaf(@NotNull Node node) {
+    while (node instanceof CompositeNode) {
+      node = ((CompositeNode)node).myTail;
+    }
+    return node;
+  }
+
+  /**
+   * Concatenates two balanced trees of any depth into a balanced tree, the way AVL trees are joined.
+   */
+  @NotNull
+  private static Node join(@NotNull Node head, @NotNull Node tail) {
+    final int difference = head.depth() - tail.depth();
+    if (difference > 1) return joinRight((CompositeNode)head, tail);
+    if (difference < -1) return joinLeft(head, (CompositeNode)tail);
+    return new CompositeNode(head, tail);
+  }
+
+  // head is deeper than tail by more than one level
+  @NotNull
+  private static Node joinRight(@NotNull CompositeNode head, @NotNull Node tail) {
+    final Node left = head.myHead;
+    final Node right = head.myTail;
+    final Node newRight = right.depth() <= tail.depth() + 1 ? new CompositeNode(right, tail) : joinRight((CompositeNode)right, tail);
+    if (newRight.depth() <= left.depth() + 1) {
+      return new CompositeNode(left, newRight);
+    }
+    final CompositeNode composite = (CompositeNode)newRight;
+    if (composite.myHead.depth() > composite.myTail.depth()) {
+      final CompositeNode inner = (CompositeNode)composite.myHead;
+      return new CompositeNode(new CompositeNode(left, inner.myHead), new CompositeNode(inner.myTail, composite.myTail));
+    }
+    return new CompositeNode(new CompositeNode(left, composite.myHead), composite.myTail);
+  }
+
+  // tail is deeper than head by more than one level
+  @NotNull
+  private static Node joinLeft(@NotNull Node head, @NotNull CompositeNode tail) {
+    final Node left = tail.myHead;
+    final Node right = tail.myTail;
+    final Node newLeft = left.depth() <= head.depth() + 1 ? new CompositeNode(head, left) : joinLeft(head, (CompositeNode)left);
+    if (newLeft.depth() <= right.depth() + 1) {
+      return new CompositeNode(newLeft, right);
+    }
+    final CompositeNode composite = (CompositeNode)newLeft;
+    if (composite.myTail.depth() > composite.myHead.depth()) {
+      final CompositeNode inner = (CompositeNode)composite.myTail;
+      return new CompositeNode(new CompositeNode(composite.myHead, inner.myHead), new CompositeNode(inner.myTail, right));
+    }
+    return new CompositeNode(composite.myHead, new CompositeNode(composite.myTail, right));
+  }
+
+  private abstract static class Node {
+    abstract int length();
+
+    abstract int depth();
+
+    abstract void getChars(int start, int end, @NotNull char[] dest, int destPos);
+
+    @NotNull
+    abstract Node subNode(int start, int end);
+  }
+
+  private static class LeafNode extends Node {
+    private final char[] myData;
+
+    private LeafNode(@NotNull char[] data) {
+      myData = data;
+    }
+
+    @Override
+    int length() {
+      return myData.length;
+    }
+
+    @Override
+    int depth() {
+      return 0;
+    }
+
+    @Override
+    void getChars(int start, int end, @NotNull char[] dest, int destPos) {
+      System.arraycopy(myData, start, dest, destPos, end - start);
+    }
+
+    @NotNull
+    @Override
+    Node subNode(int start, int end) {
+      if (start == 0 && end == myData.length) return this;
+      return new LeafNode(Arrays.copyOfRange(myData, start, end));
+    }
+  }
+
+  private static class CompositeNode extends Node {
+    private final Node myHead;
+    private final Node myTail;
+    private final int myLength;
+    private final int myDepth;
+
+    private CompositeNode(@NotNull Node head, @NotNull Node tail) {
+      myHead = head;
+      myTail = tail;
+      myLength = head.length() + tail.length();
+      myDepth = Math.max(head.depth(), tail.depth()) + 1;
+    }
+
+    @Override
+    int length() {
+      return myLength;
+    }
+
+    @Override
+    int depth() {
+      return myDepth;
+    }
+
+    @Override
+    void getChars(int start, int end, @NotNull char[] dest, int destPos) {
+      final int headLength = myHead.length();
+      if (start < headLength) {
+        final int headEnd = Math.min(end, headLength);
+        myHead.getChars(start, headEnd, dest, destPos);
+        destPos += headEnd - start;
+      }
+      if (end > headLength) {
+        myTail.getChars(Math.max(0, start - headLength), end - headLength, dest, destPos);
+      }
+    }
+
+    @NotNull
+    @Override
+    Node subNode(int start, int end) {
+      if (start == 0 && end == myLength) return this;
+      final int headLength = myHead.length();
+      if (end <= headLength) return myHead.subNode(start, end);
+      if (start >= headLength) return myTail.subNode(start - headLength, end - headLength);
+      return concat(myHead.subNode(start, headLength), myTail.subNode(0, end - headLength));
+    }
+  }
+
+  private static class LeafAtOffset {
+    private final int myOffset;
+    private final LeafNode myLeaf;
+
+    private LeafAtOffset(int offset, @NotNull LeafNode leaf) {
+      myOffset = offset;
+      myLeaf = leaf;
+    }
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.concurrency;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ReadMostlyRWLockTest extends TestCase {
+  private final ReadMostlyRWLock myLock = new ReadMostlyRWLock();
+
+  public void testReentrancy() throws InterruptedException {
+    myLock.readLockInterruptibly();
+    assertTrue(myLock.tryReadLock());
+    myLock.readUnlock();
+    assertTrue(myLock.isReadLockedByThisThread());
+    myLock.readUnlock();
+    assertFalse(myLock.isReadLockedByThisThread());
+
+    myLock.writeLockInterruptibly();
+    assertTrue(myLock.tryWriteLock());
+    myLock.readLockInterruptibly();
+    assertTrue(myLock.isReadLockedByThisThread());
+    myLock.readUnlock();
+    myLock.writeUnlock();
+    assertTrue(myLock.isWriteLockedByThisThread());
+    myLock.writeUnlock();
+    assertFalse(myLock.isWriteLockedByThisThread());
+  }
+
+  public void testUnlockWithoutLock() {
+    try {
+      myLock.readUnlock();
+      fail();
+    }
+    catch (IllegalMonitorStateException ignored) {
+    }
+    try {
+      myLock.writeUnlock();
+      fail();
+    }
+    catch (IllegalMonitorStateException ignored) {
+    }
+  }
+
+  public void testWriterWaitsForReaders() throws Exception {
+    final CountDownLatch readStarted = new CountDownLatch(1);
+    final CountDownLatch readFinish = new CountDownLatch(1);
+    Thread reader = start(new Task() {
+      @Override
+      public void run() throws Exception {
+        myLock.readLockInterruptibly();
+        readStarted.countDown();
+        readFinish.await();
+        myLock.readUnlock();
+      }
+    });
+    readStarted.await();
+    assertFalse(myLock.tryWriteLock());
+
+    final AtomicBoolean written = new AtomicBoolean();
+    Thread writer = start(new Task() {
+      @Override
+      public void run() throws Exception {
+        myLock.writeLockInterruptibly();
+        written.set(true);
+        myLock.writeUnlock();
+      }
+    });
+    writer.join(100);
+    assertFalse(written.get());
+
+    readFinish.countDown();
+    join(reader, writer);
+    assertTrue(written.get());
+    assertTrue(myLock.tryWriteLock());
+    myLock.writeUnlock();
+  }
+
+  public void testPendingWriterBlocksNewReaders() throws Exception {
+    final CountDownLatch readStarted = new CountDownLatch(1);
+    final CountDownLatch readFinish = new CountDownLatch(1);
+    Thread firstReader = start(new Task() {
+      @Override
+      public void run() throws Exception {
+        myLock.readLockInterruptibly();
+        readStarted.countDown();
+        readFinish.await();
+        myLock.readUnlock();
+      }
+    });
+    readStarted.await();
+
+    final AtomicBoolean written = new AtomicBoolean();
+    Thread writer = start(new Task() {
+      @Override
+      public void run() throws Exception {
+        myLock.writeLockInterruptibly();
+        Thread.sleep(50);
+        written.set(true);
+        myLock.writeUnlock();
+      }
+    });
+    while (writer.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+
+    final AtomicBoolean tryReadFailed = new AtomicBoolean();
+    final AtomicBoolean readAfterWrite = new AtomicBoolean();
+    Thread secondReader = start(new Task() {
+      @Override
+      public void run() throws Exception {
+        tryReadFailed.set(!myLock.tryReadLock());
+        myLock.readLockInterruptibly();
+        readAfterWrite.set(written.get());
+        myLock.readUnlock();
+      }
+    });
+    secondReader.join(100);
+    assertTrue(secondReader.isAlive());
+
+    readFinish.countDown();
+    join(firstReader, writer, secondReader);
+    assertTrue(tryReadFailed.get());
+    assertTrue(readAfterWrite.get());
+  }
+
+  public void testInterruptWaitingReader() throws Exception {
+    myLock.writeLockInterruptibly();
+    final AtomicBoolean interrupted = new AtomicBoolean();
+    Thread reader = start(new Task() {
+      @Override
+      public void run() throws Exception {
+        try {
+          myLock.readLockInterruptibly();
+        }
+        catch (InterruptedException e) {
+          interrupted.set(true);
+        }
+      }
+    });
+    while (reader.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+    reader.interrupt();
+    join(reader);
+    assertTrue(interrupted.get());
+    myLock.writeUnlock();
+    assertFalse(myLock.isReadLockedByThisThread());
+  }
+
+  public void testConcurrentReadsAndWrites() throws Exception {
+    final int[] counters = new int[2];
+    final AtomicBoolean inconsistent = new AtomicBoolean();
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      final boolean writer = t < 2;
+      threads[t] = start(new Task() {
+        @Override
+        public void run() throws Exception {
+          for (int i = 0; i < 20000; i++) {
+            if (writer) {
+              myLock.writeLockInterruptibly();
+              counters[0]++;
+              counters[1]++;
+              myLock.writeUnlock();
+            }
+            else {
+              myLock.readLockInterruptibly();
+              if (counters[0] != counters[1]) inconsistent.set(true);
+              myLock.readUnlock();
+            }
+          }
+        }
+      });
+    }
+    join(threads);
+    assertFalse(inconsistent.get());
+    assertEquals(40000, counters[0]);
+  }
+
+  private interface Task {
+    void run() throws Exception;
+  }
+
+  private final AtomicReference<Throwable> myError = new AtomicReference<Throwable>();
+
+  private Thread start(final Task task) {
+    Thread thread = new Thread("ReadMostlyRWLockTest") {
+      @Override
+      public void run() {
+        try {
+          task.run();
+        }
+        catch (Throwable e) {
+          myError.compareAndSet(null, e);
+        }
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+  private void join(Thread... threads) throws Exception {
+    for (Thread thread : threads) {
+      thread.join(TimeUnit.SECONDS.toMillis(30));
+      assertFalse("Deadlock in " + thread, thread.isAlive());
+    }
+    Throwable error = myError.get();
+    if (error != null) throw new RuntimeException(error);
+  }
+}
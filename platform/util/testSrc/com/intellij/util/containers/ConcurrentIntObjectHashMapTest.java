@@ -0,0 +1,187 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.containers;
+
+import gnu.trove.TIntHashSet;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConcurrentIntObjectHashMapTest extends TestCase {
+  public void testPutGetRemove() {
+    ConcurrentIntObjectHashMap<String> map = new ConcurrentIntObjectHashMap<String>();
+    assertNull(map.put(0, "0"));
+    assertNull(map.put(-1, "-1"));
+    assertNull(map.put(Integer.MIN_VALUE, "min"));
+    assertEquals("0", map.put(0, "zero"));
+
+    assertEquals("zero", map.get(0));
+    assertEquals("-1", map.get(-1));
+    assertEquals("min", map.get(Integer.MIN_VALUE));
+    assertNull(map.get(1));
+    assertEquals(3, map.size());
+
+    assertEquals("-1", map.remove(-1));
+    assertNull(map.remove(-1));
+    assertFalse(map.containsKey(-1));
+    assertEquals(2, map.size());
+
+    map.clear();
+    assertTrue(map.isEmpty());
+    assertNull(map.get(0));
+  }
+
+  public void testConditionalOperations() {
+    ConcurrentIntObjectHashMap<String> map = new ConcurrentIntObjectHashMap<String>();
+    assertEquals("a", map.cacheOrGet(1, "a"));
+    assertEquals("a", map.cacheOrGet(1, "b"));
+    assertEquals("a", map.putIfAbsent(1, "c"));
+
+    assertFalse(map.replace(1, "b", "c"));
+    assertTrue(map.replace(1, new String("a"), "c"));
+    assertEquals("c", map.get(1));
+    assertFalse(map.replace(2, "a", "b"));
+    assertNull(map.get(2));
+
+    assertFalse(map.remove(1, "a"));
+    assertTrue(map.remove(1, "c"));
+    assertNull(map.get(1));
+    assertEquals("d", map.cacheOrGet(1, "d"));
+  }
+
+  public void testResize() {
+    ConcurrentIntObjectHashMap<Integer> map = new ConcurrentIntObjectHashMap<Integer>();
+    int count = 100000;
+    for (int i = 0; i < count; i++) {
+      map.put(i * 31, i);
+    }
+    for (int i = 0; i < count; i += 2) {
+      assertEquals(Integer.valueOf(i), map.remove(i * 31));
+    }
+    assertEquals(count / 2, map.size());
+    for (int i = 0; i < count; i++) {
+      assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), map.get(i * 31));
+    }
+
+    TIntHashSet keys = new TIntHashSet();
+    for (StripedLockIntObjectConcurrentHashMap.IntEntry<Integer> entry : map.entries()) {
+      assertEquals(entry.getKey(), entry.getValue() * 31);
+      assertTrue(keys.add(entry.getKey()));
+    }
+    assertEquals(count / 2, keys.size());
+  }
+
+  public void testRemovedKeysDoNotGrowTable() {
+    ConcurrentIntObjectHashMap<Integer> map = new ConcurrentIntObjectHashMap<Integer>();
+    for (int i = 0; i < 1000000; i++) {
+      map.put(i, i);
+      assertEquals(Integer.valueOf(i), map.remove(i));
+    }
+    assertTrue(map.isEmpty());
+    assertFalse(map.entries().iterator().hasNext());
+  }
+
+  public void testConcurrentCacheOrGet() throws InterruptedException {
+    final ConcurrentIntObjectHashMap<Object> map = new ConcurrentIntObjectHashMap<Object>();
+    final int count = 50000;
+    final int threadsCount = 4;
+    final Object[][] results = new Object[threadsCount][count];
+    final AtomicReference<Throwable> exception = new AtomicReference<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < threadsCount; t++) {
+      final int threadIndex = t;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < count; i++) {
+              results[threadIndex][i] = map.cacheOrGet(i, new Object());
+              if (i % 3 == threadIndex % 3) {
+                map.remove(i + count);
+                map.put(i + count, this);
+              }
+            }
+          }
+          catch (Throwable e) {
+            exception.set(e);
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(exception.get());
+
+    for (int i = 0; i < count; i++) {
+      Object value = map.get(i);
+      assertNotNull(value);
+      for (int t = 0; t < threadsCount; t++) {
+        assertSame(value, results[t][i]);
+      }
+      assertNotNull(map.get(i + count));
+    }
+    assertEquals(2 * count, map.size());
+  }
+
+  public void testSizeIsConsistentWithClearDuringUpdates() throws InterruptedException {
+    final ConcurrentIntObjectHashMap<Object> map = new ConcurrentIntObjectHashMap<Object>();
+    final int count = 1000;
+    final int threadsCount = 4;
+    final AtomicReference<Throwable> exception = new AtomicReference<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < threadsCount; t++) {
+      final int threadIndex = t;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int round = 0; round < 200; round++) {
+              for (int i = threadIndex; i < count; i += threadsCount) {
+                map.put(i, this);
+              }
+              for (int i = threadIndex; i < count; i += 2 * threadsCount) {
+                map.remove(i);
+              }
+            }
+          }
+          catch (Throwable e) {
+            exception.set(e);
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      while (thread.isAlive()) {
+        map.clear();
+        Thread.yield();
+      }
+    }
+    assertNull(exception.get());
+
+    int entries = 0;
+    for (StripedLockIntObjectConcurrentHashMap.IntEntry<Object> ignored : map.entries()) {
+      entries++;
+    }
+    assertEquals(entries, map.size());
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class MyersLCSTest extends TestCase {
+  public void testSimple() throws FilesTooBigForDiffException {
+    for (Diff.Algorithm algorithm : Diff.Algorithm.values()) {
+      assertNull(Diff.buildChanges(new Object[]{"1", "2", "3"}, new Object[]{"1", "2", "3"}, algorithm));
+
+      Diff.Change change = Diff.buildChanges(new Object[]{"1", "2", "3"}, new Object[]{"a", "2", "b"}, algorithm);
+      IntLCSTest.checkChange(change, 0, 0, 1, 1);
+      IntLCSTest.checkLastChange(change.link, 2, 2, 1, 1);
+
+      change = Diff.buildChanges(new Object[]{"1", "2", "3"}, new Object[]{"1", "2", "a", "b", "2", "3"}, algorithm);
+      IntLCSTest.checkLastChange(change, 2, 2, 3, 0);
+
+      change = Diff.buildChanges(new Object[]{"a", "b"}, new Object[]{}, algorithm);
+      IntLCSTest.checkLastChange(change, 0, 0, 0, 2);
+    }
+  }
+
+  public void testMinimalForSmallInputs() throws FilesTooBigForDiffException {
+    Random random = new Random(42);
+    for (int i = 0; i < 500; i++) {
+      String[] first = randomLines(random, 1 + random.nextInt(40), 6);
+      String[] second = randomLines(random, 1 + random.nextInt(40), 6);
+      int greedy = checkChanges(first, second, Diff.buildChanges(first, second, Diff.Algorithm.GREEDY));
+      int myers = checkChanges(first, second, Diff.buildChanges(first, second, Diff.Algorithm.MYERS));
+      assertEquals(greedy, myers);
+      int patience = checkChanges(first, second, Diff.buildChanges(first, second, Diff.Algorithm.PATIENCE));
+      assertTrue(patience >= greedy);
+    }
+  }
+
+  public void testPatienceKeepsUniqueLines() throws FilesTooBigForDiffException {
+    String[] first = {"void a() {", "x();", "}", "void b() {", "y();", "}"};
+    String[] second = {"void b() {", "y();", "}", "void c() {", "x();", "}"};
+    Diff.Change change = Diff.buildChanges(first, second, Diff.Algorithm.PATIENCE);
+    checkChanges(first, second, change);
+    // "void b() {" and "y();" are unique in both and stay unchanged
+    IntLCSTest.checkChange(change, 0, 0, 0, 3);
+    IntLCSTest.checkLastChange(change.link, 5, 2, 3, 0);
+  }
+
+  public void testTooBigForGreedy() throws FilesTooBigForDiffException {
+    Random random = new Random(1);
+    String[] first = randomLines(random, 30000, 1000);
+    String[] second = randomLines(random, 30000, 1000);
+    try {
+      Diff.buildChanges(first, second, Diff.Algorithm.GREEDY);
+      fail("Greedy diff is expected to give up");
+    }
+    catch (FilesTooBigForDiffException ignored) {
+    }
+    checkChanges(first, second, Diff.buildChanges(first, second));
+    checkChanges(first, second, Diff.buildChanges(first, second, Diff.Algorithm.PATIENCE));
+  }
+
+  private static String[] randomLines(Random random, int count, int distinct) {
+    String[] result = new String[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = Integer.toString(random.nextInt(distinct));
+    }
+    return result;
+  }
+
+  /**
+   * Checks that lines outside of the changes are equal and that the changes cover both arrays.
+   *
+   * @return number of changed lines in both arrays
+   */
+  private static int checkChanges(String[] first, String[] second, Diff.Change change) {
+    List<Diff.Change> changes = change == null ? new ArrayList<Diff.Change>() : change.toList();
+    int x = 0;
+    int y = 0;
+    int changed = 0;
+    for (Diff.Change c : changes) {
+      assertEquals(c.line0 - x, c.line1 - y);
+      while (x < c.line0) {
+        assertEquals(first[x++], second[y++]);
+      }
+      x += c.deleted;
+      y += c.inserted;
+      changed += c.deleted + c.inserted;
+    }
+    assertEquals(first.length - x, second.length - y);
+    while (x < first.length) {
+      assertEquals(first[x++], second[y++]);
+    }
+    return changed;
+  }
+}
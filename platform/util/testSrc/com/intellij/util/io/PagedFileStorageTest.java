@@ -118,6 +118,32 @@ public class PagedFileStorageTest extends TestCase {
     }
   }
 
+  public void testPagesEvictedWithinSharedCacheLimit() throws IOException {
+    final PagedFileStorage.StorageLock sharedLock = new PagedFileStorage.StorageLock(true, 1000);
+    final File file = FileUtil.createTempFile("storage", ".tmp");
+    sharedLock.lock();
+    try {
+      final PagedFileStorage storage = new PagedFileStorage(file, sharedLock, PagedFileStorage.MB, true);
+      try {
+        final int pages = 3 * PagedFileStorage.BUFFER_SIZE / PagedFileStorage.MB;
+        storage.resize(pages * PagedFileStorage.MB);
+        for (int page = 0; page < pages; page++) {
+          storage.putInt(page * PagedFileStorage.MB, page);
+        }
+        for (int page = 0; page < pages; page++) {
+          assertEquals(page, storage.getInt(page * PagedFileStorage.MB));
+        }
+      }
+      finally {
+        storage.close();
+      }
+    }
+    finally {
+      sharedLock.unlock();
+      FileUtil.delete(file);
+    }
+  }
+
   private static final SimpleDateFormat FORMATTER = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
 
   private static void printPct(int pct) {
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io.storage;
+
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+
+public class RefCountingStorageTest extends TestCase {
+  private RefCountingStorage myStorage;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myStorage = new RefCountingStorage(getFileName());
+  }
+
+  private String getFileName() {
+    return FileUtil.getTempDirectory() + File.separatorChar + getName();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Disposer.dispose(myStorage);
+    RefCountingStorage.deleteFiles(getFileName());
+    super.tearDown();
+  }
+
+  public void testAcquiringReferencedRecord() throws Exception {
+    final int record = myStorage.acquireNewRecord();
+    myStorage.writeBytes(record, new ByteSequence("Hello".getBytes()), false);
+
+    assertTrue(myStorage.acquireRecordIfReferenced(record));
+    assertEquals(2, myStorage.getRefCount(record));
+
+    myStorage.releaseRecord(record);
+    assertEquals("Hello", new String(myStorage.readBytes(record)));
+  }
+
+  public void testNotAcquiringDeletedRecord() throws Exception {
+    final int record = myStorage.acquireNewRecord();
+    myStorage.writeBytes(record, new ByteSequence("Hello".getBytes()), false);
+    myStorage.releaseRecord(record);
+
+    assertFalse(myStorage.acquireRecordIfReferenced(record));
+    assertEquals(0, myStorage.getRefCount(record));
+    assertFalse(myStorage.acquireRecordIfReferenced(record + 1));
+    assertFalse(myStorage.acquireRecordIfReferenced(0));
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.text;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class ImmutableTextTest extends TestCase {
+  public void testEdits() {
+    ImmutableText text = ImmutableText.valueOf("0123456789");
+    assertEquals("01abc23456789", text.insert(2, "abc").toString());
+    assertEquals("0189", text.delete(2, 8).toString());
+    assertEquals("0x9", text.replace(1, 9, "x").toString());
+    assertEquals("", text.delete(0, 10).toString());
+    assertEquals("0123456789", text.toString());
+    assertEquals("345", text.subSequence(3, 6).toString());
+  }
+
+  public void testLargeText() {
+    String string = createText(new Random(1), ImmutableText.LEAF_SIZE * 10 + 123);
+    ImmutableText text = ImmutableText.valueOf(string);
+    assertEquals(string, text.toString());
+    for (int i = 0; i < string.length(); i++) {
+      assertEquals(string.charAt(i), text.charAt(i));
+    }
+    int start = ImmutableText.LEAF_SIZE - 5;
+    int end = ImmutableText.LEAF_SIZE * 7 + 5;
+    assertEquals(string.substring(start, end), text.subSequence(start, end).toString());
+    char[] chars = new char[end - start];
+    CharArrayUtil.getChars(text, chars, start, 0, chars.length);
+    assertEquals(string.substring(start, end), new String(chars));
+  }
+
+  public void testRandomEditsAndSnapshots() {
+    Random random = new Random(42);
+    StringBuilder expected = new StringBuilder(createText(random, ImmutableText.LEAF_SIZE * 3));
+    ImmutableText text = ImmutableText.valueOf(expected);
+    String snapshotString = expected.toString();
+    ImmutableText snapshot = text;
+    for (int i = 0; i < 5000; i++) {
+      int start = random.nextInt(expected.length() + 1);
+      int end = Math.min(expected.length(), start + (random.nextBoolean() ? random.nextInt(3) : random.nextInt(ImmutableText.LEAF_SIZE * 2)));
+      String replacement = createText(random, random.nextBoolean() ? random.nextInt(3) : random.nextInt(ImmutableText.LEAF_SIZE * 2));
+      expected.replace(start, end, replacement);
+      text = text.replace(start, end, replacement);
+      if (i % 100 == 0) {
+        assertEquals(expected.toString(), text.toString());
+        assertEquals(snapshotString, snapshot.toString());
+        snapshot = text;
+        snapshotString = expected.toString();
+      }
+    }
+    assertEquals(expected.toString(), text.toString());
+  }
+
+  public void testTypingDoesNotFragmentText() {
+    ImmutableText text = ImmutableText.EMPTY;
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 100000; i++) {
+      char c = (char)('a' + i % 26);
+      text = text.insert(text.length(), String.valueOf(c));
+      expected.append(c);
+    }
+    assertEquals(expected.toString(), text.toString());
+    // the typed chars are merged into about 50 full leaves instead of 100000 single char ones
+    assertTrue(String.valueOf(text.getDepth()), text.getDepth() < 10);
+  }
+
+  private static String createText(Random random, int length) {
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = (char)('a' + random.nextInt(26));
+    }
+    return new String(chars);
+  }
+}
@@ -39,6 +39,7 @@ public class GitConfigUtil {
   public static final String USER_EMAIL = "user.email";
   public static final String BRANCH_AUTOSETUP_REBASE = "branch.autosetuprebase";
   public static final String CORE_AUTOCRLF = "core.autocrlf";
+  public static final String CORE_FILEMODE = "core.filemode";
 
   private GitConfigUtil() {
   }
@@ -210,9 +210,9 @@ public class GitHistoryUtils {
                     "--sparse");
     h.endOptions();
 
-    final OutputStream[] stream = new OutputStream[1];
+    final DataOutputStream[] stream = new DataOutputStream[1];
     try {
-      stream[0] = new BufferedOutputStream(new FileOutputStream(outFilePath, false));
+      stream[0] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outFilePath, false)));
       final Semaphore semaphore = new Semaphore();
       final VcsException[] ioExceptions = new VcsException[1];
       h.addLineListener(new GitLineHandlerListener() {
@@ -220,8 +220,8 @@ public class GitHistoryUtils {
         public void onLineAvailable(String line, Key outputType) {
           if (line.length() == 0) return;
           try {
-            GitCommitsSequentialIndex.parseRecord(line);
-            stream[0].write((line + '\n').getBytes("UTF-8"));
+            final Pair<String, Long> record = GitCommitsSequentialIndex.parseRecord(line);
+            GitCommitsSequentialIndex.writeRecord(stream[0], record.getFirst(), record.getSecond());
           }
           catch (IOException e) {
             ioExceptions[0] = new VcsException(e);
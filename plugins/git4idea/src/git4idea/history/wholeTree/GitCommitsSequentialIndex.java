@@ -20,13 +20,13 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.MessageType;
 import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vcs.FilePathImpl;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.FilePathsHelper;
 import com.intellij.openapi.vcs.diff.ItemLatestState;
 import com.intellij.openapi.vcs.persistent.SmallMapSerializer;
 import com.intellij.openapi.vcs.ui.VcsBalloonProblemNotifier;
-import com.intellij.openapi.vfs.CharsetToolkit;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.Processor;
 import com.intellij.util.containers.SLRUMap;
@@ -57,7 +57,9 @@ public class GitCommitsSequentialIndex implements GitCommitsSequentially {
 
   // let it be simple
   private static final int ourInterval = 1000;
-  private static final int ourRecordSize = 40 + 1 + 10 + 1;
+  // record: raw SHA-1 and commit time in seconds, records are sorted by commit time ascending
+  private static final int ourHashSize = 20;
+  private static final int ourRecordSize = ourHashSize + 4;
   
   // start-to-now, time -> ascending. times at points each ourInterval commits written in file
   private final SLRUMap<VirtualFile, List<Long>> myPacks;
@@ -71,7 +73,9 @@ public class GitCommitsSequentialIndex implements GitCommitsSequentially {
   public GitCommitsSequentialIndex() {
     myLock = new Object();
     final File vcsFile = new File(PathManager.getSystemPath(), "vcs");
-    myDir = new File(vcsFile, "git_line");
+    // text index of previous versions
+    FileUtil.delete(new File(vcsFile, "git_line"));
+    myDir = new File(vcsFile, "git_commits");
     myDir.mkdirs();
     // will contain list of roots mapped to
     myListFile = new File(myDir, "repository_index");
@@ -206,18 +210,41 @@ public class GitCommitsSequentialIndex implements GitCommitsSequentially {
     }
   }
 
-  public static Pair<AbstractHash, Long> parseRecord(final String line) throws VcsException {
+  /**
+   * Parses "hash commit_time_in_seconds" line of git log output.
+   */
+  public static Pair<String, Long> parseRecord(final String line) throws VcsException {
     int spaceIdx = line.indexOf(' ');
-    // todo concern index file deletion and re-ask
-    if (spaceIdx == -1) throw new VcsException("Can not parse written index file");
+    if (spaceIdx != ourHashSize * 2) throw new VcsException("Can not parse git log line: " + line);
     try {
       long next = Long.parseLong(line.substring(spaceIdx + 1));
-      return new Pair<AbstractHash, Long>(AbstractHash.create(line.substring(0, spaceIdx)), next * 1000);
-      // todo concern index file deletion and re-ask
+      // not an AbstractHash: its string presentation loses zeros inside a full hash
+      return new Pair<String, Long>(line.substring(0, spaceIdx), next * 1000);
     } catch (NumberFormatException e) {
       throw new VcsException(e);
     }
   }
+
+  public static void writeRecord(final DataOutput out, final String hash, final long time) throws IOException {
+    if (hash.length() != ourHashSize * 2) throw new IOException("Not a full hash: " + hash);
+    for (int i = 0; i < ourHashSize; i++) {
+      out.writeByte(Character.digit(hash.charAt(2 * i), 16) << 4 | Character.digit(hash.charAt(2 * i + 1), 16));
+    }
+    out.writeInt((int) (time / 1000));
+  }
+
+  private static Pair<AbstractHash, Long> readRecord(final byte[] bytes, final int offset) {
+    final char[] hash = new char[ourHashSize * 2];
+    for (int i = 0; i < ourHashSize; i++) {
+      final int b = bytes[offset + i] & 0xFF;
+      hash[2 * i] = Character.forDigit(b >> 4, 16);
+      hash[2 * i + 1] = Character.forDigit(b & 0xF, 16);
+    }
+    final int timeOffset = offset + ourHashSize;
+    final long seconds = (bytes[timeOffset] & 0xFFL) << 24 | (bytes[timeOffset + 1] & 0xFF) << 16 |
+                         (bytes[timeOffset + 2] & 0xFF) << 8 | (bytes[timeOffset + 3] & 0xFF);
+    return new Pair<AbstractHash, Long>(AbstractHash.create(new String(hash)), seconds * 1000);
+  }
   
   private List<Pair<AbstractHash, Long>> loadPack(final VirtualFile file, final long packNumber) throws VcsException {
     final ArrayList<Pair<AbstractHash, Long>> data = new ArrayList<Pair<AbstractHash, Long>>();
@@ -235,9 +262,10 @@ public class GitCommitsSequentialIndex implements GitCommitsSequentially {
         ((ArrayList) data).ensureCapacity((int) size);
 
         raf.seek(offset - size * ourRecordSize);
-        for (int i = 0; i < size && i < len/ourRecordSize; i++) {
-          String line = raf.readLine();
-          data.add(parseRecord(line));
+        final byte[] bytes = new byte[(int) size * ourRecordSize];
+        raf.readFully(bytes);
+        for (int i = 0; i < size; i++) {
+          data.add(readRecord(bytes, i * ourRecordSize));
         }
       }
       catch (FileNotFoundException e) {
@@ -271,10 +299,11 @@ public class GitCommitsSequentialIndex implements GitCommitsSequentially {
         long len = raf.length();
         ((ArrayList) packs).ensureCapacity((int)(len/(ourRecordSize * ourInterval)) + 1);
 
+        final byte[] record = new byte[ourRecordSize];
         for (long i = (len - ourRecordSize); i >= 0; i-= (ourRecordSize * ourInterval)) {
           raf.seek(i);
-          final String line = raf.readLine();
-          packs.add(parseRecord(line).getSecond());
+          raf.readFully(record);
+          packs.add(readRecord(record, 0).getSecond());
         }
       }
       catch (FileNotFoundException e) {
@@ -366,6 +395,11 @@ public class GitCommitsSequentialIndex implements GitCommitsSequentially {
             // and exit, do not ping
           }
         }
+        finally {
+          // packs are counted from the end of file, so all of them are shifted by the new commits
+          myPacks.remove(myFile);
+          myCache.clear();
+        }
       }
     }
 
@@ -386,7 +420,7 @@ public class GitCommitsSequentialIndex implements GitCommitsSequentially {
           // no history at the moment
           return;
         }
-        if (lastRevision.isItemExists() && ((GitRevisionNumber) lastRevision.getNumber()).getRev().equals(latestWrittenHash[0].getString())) {
+        if (lastRevision.isItemExists() && AbstractHash.create(((GitRevisionNumber) lastRevision.getNumber()).getRev()).equals(latestWrittenHash[0])) {
           // no refresh needed
           return;
         }
@@ -408,23 +442,29 @@ public class GitCommitsSequentialIndex implements GitCommitsSequentially {
               GitHistoryUtils.onlyHashesHistory(myProject, new FilePathImpl(myFile), "--all", "--date-order", "--full-history", "--sparse",
                                                 "--after=" + (since/1000));
       if (pairs.isEmpty()) return;
-      final String startAsString = hash.getString();
 
-      Iterator<Pair<SHAHash, Date>> iterator = pairs.iterator();
-      while (iterator.hasNext()) {
-        Pair<SHAHash, Date> next = iterator.next();
-        if (next.getFirst().getValue().equals(startAsString)) {
+      // git log returns the newest commits first, the ones before the last written commit are new
+      final List<Pair<SHAHash, Date>> newCommits = new ArrayList<Pair<SHAHash, Date>>();
+      boolean found = false;
+      for (Pair<SHAHash, Date> pair : pairs) {
+        if (AbstractHash.create(pair.getFirst().getValue()).equals(hash)) {
+          found = true;
           break;
         }
+        newCommits.add(pair);
+      }
+      if (! found) {
+        // the last written commit is not in the history anymore, e.g. after rebase
+        initHistory();
+        return;
       }
+      Collections.reverse(newCommits);
 
-      OutputStream stream = null;
+      DataOutputStream stream = null;
       try {
-        stream = new BufferedOutputStream(new FileOutputStream(new File(outFilePath), true));
-        while (iterator.hasNext()) {
-          Pair<SHAHash, Date> next = iterator.next();
-          stream.write(new StringBuilder().append(next.getFirst().getValue()).append(" ").
-                  append(next.getSecond().getTime()).append('\n').toString().getBytes(CharsetToolkit.UTF8_CHARSET));
+        stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(outFilePath), true)));
+        for (Pair<SHAHash, Date> next : newCommits) {
+          writeRecord(stream, next.getFirst().getValue(), next.getSecond().getTime());
         }
       }
       catch (FileNotFoundException e) {
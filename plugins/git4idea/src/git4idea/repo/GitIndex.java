@@ -0,0 +1,266 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.repo;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ThreeState;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * <p>
+ *   The content of the Git index file ({@code .git/index}): paths of the tracked files with the stat data which Git has cached for them.
+ *   Only versions 2 and 3 of the format are supported, extensions are ignored.
+ *   See <a href="https://github.com/git/git/blob/master/Documentation/technical/index-format.txt">index-format.txt</a>.
+ * </p>
+ * <p>
+ *   The stat data allows to find out without calling Git that a working tree file is not modified relative to the index,
+ *   the same way Git itself does it: if the size, the modification time and the executable bit of the file are the same as cached
+ *   in the index, the file is not modified.
+ * </p>
+ * <p>
+ *   Paths are relative to the repository root, separated by {@code '/'} and sorted by {@link String#compareTo(String)}.
+ * </p>
+ */
+public class GitIndex {
+
+  private static final int SIGNATURE = 0x44495243; // "DIRC"
+  private static final int HEADER_SIZE = 12;
+  private static final int CHECKSUM_SIZE = 20;
+  // ctime, mtime, dev, ino, mode, uid, gid, size, sha-1, flags
+  private static final int ENTRY_FIXED_SIZE = 8 + 8 + 6 * 4 + 20 + 2;
+
+  private static final int FLAG_ASSUME_VALID = 0x8000;
+  private static final int FLAG_EXTENDED = 0x4000;
+  private static final int EXTENDED_FLAG_SKIP_WORKTREE = 0x4000;
+  private static final int EXTENDED_FLAG_INTENT_TO_ADD = 0x2000;
+  private static final int NAME_MASK = 0xFFF;
+  private static final int STAGE_SHIFT = 12;
+  private static final int STAGE_MASK = 0x3;
+
+  private static final int TYPE_MASK = 0170000;
+  private static final int TYPE_REGULAR_FILE = 0100000;
+  private static final int EXECUTABLE_MASK = 0111;
+
+  @NotNull private final byte[] myChecksum;
+  private final int myTimestamp; // in seconds, entries modified in the same second as the index itself are "racily clean"
+  @NotNull private final Entry[] myEntries;
+
+  private GitIndex(@NotNull byte[] checksum, int timestamp, @NotNull Entry[] entries) {
+    myChecksum = checksum;
+    myTimestamp = timestamp;
+    myEntries = entries;
+  }
+
+  /**
+   * Reads the index file.
+   * @throws GitRepoStateException if the file can't be read or has an unsupported format.
+   */
+  @NotNull
+  public static GitIndex read(@NotNull File indexFile) {
+    final byte[] bytes;
+    try {
+      bytes = FileUtil.loadFileBytes(indexFile);
+    }
+    catch (IOException e) {
+      throw new GitRepoStateException("Couldn't read " + indexFile, e);
+    }
+    // taken after reading: if the file is rewritten meanwhile, more entries are considered racily clean, which is safe
+    final long lastModified = indexFile.lastModified();
+    if (bytes.length < HEADER_SIZE + CHECKSUM_SIZE || readInt(bytes, 0) != SIGNATURE) {
+      throw new GitRepoStateException("Invalid index file " + indexFile);
+    }
+    int version = readInt(bytes, 4);
+    if (version != 2 && version != 3) {
+      throw new GitRepoStateException("Unsupported index version " + version + " in " + indexFile);
+    }
+
+    final int count = readInt(bytes, 8);
+    final int end = bytes.length - CHECKSUM_SIZE;
+    final Entry[] entries = new Entry[count];
+    int offset = HEADER_SIZE;
+    try {
+      for (int i = 0; i < count; i++) {
+        final int flags = readShort(bytes, offset + ENTRY_FIXED_SIZE - 2);
+        int nameOffset = offset + ENTRY_FIXED_SIZE;
+        int extendedFlags = 0;
+        if ((flags & FLAG_EXTENDED) != 0) {
+          extendedFlags = readShort(bytes, nameOffset);
+          nameOffset += 2;
+        }
+        int nameLength = flags & NAME_MASK;
+        if (nameLength == NAME_MASK) { // the name is too long to be stored in the flags
+          nameLength = 0;
+          while (bytes[nameOffset + nameLength] != 0) {
+            nameLength++;
+          }
+        }
+        if (nameOffset + nameLength > end) {
+          throw new GitRepoStateException("Invalid entry " + i + " in " + indexFile);
+        }
+
+        entries[i] = new Entry(new String(bytes, nameOffset, nameLength, "UTF-8"), readInt(bytes, offset + 8), readInt(bytes, offset + 36),
+                               readInt(bytes, offset + 24), flags, extendedFlags);
+
+        // entries are padded with 1-8 NUL bytes to the multiple of 8 bytes
+        offset += (nameOffset - offset + nameLength + 8) & ~7;
+      }
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new GitRepoStateException("Couldn't read " + indexFile, e);
+    }
+    catch (ArrayIndexOutOfBoundsException e) {
+      throw new GitRepoStateException("Invalid index file " + indexFile, e);
+    }
+
+    Arrays.sort(entries, new Comparator<Entry>() {
+      @Override
+      public int compare(Entry o1, Entry o2) {
+        return o1.myPath.compareTo(o2.myPath);
+      }
+    });
+    return new GitIndex(Arrays.copyOfRange(bytes, end, bytes.length), (int)(lastModified / 1000), entries);
+  }
+
+  /**
+   * Reads only the checksum of the index file, which is stored at its end.
+   * It is a cheap way to check that the index has not changed since it was read.
+   * @return the checksum or null if the file doesn't exist or can't be read.
+   */
+  @Nullable
+  public static byte[] readChecksum(@NotNull File indexFile) {
+    try {
+      RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+      try {
+        long length = file.length();
+        if (length < HEADER_SIZE + CHECKSUM_SIZE) {
+          return null;
+        }
+        byte[] checksum = new byte[CHECKSUM_SIZE];
+        file.seek(length - CHECKSUM_SIZE);
+        file.readFully(checksum);
+        return checksum;
+      }
+      finally {
+        file.close();
+      }
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  @NotNull
+  public byte[] getChecksum() {
+    return myChecksum;
+  }
+
+  public int size() {
+    return myEntries.length;
+  }
+
+  @NotNull
+  public String getPath(int index) {
+    return myEntries[index].myPath;
+  }
+
+  /**
+   * @return index of the entry with the given path or a negative value if there is no such entry, see {@link Arrays#binarySearch}.
+   */
+  public int find(@NotNull String path) {
+    int low = 0;
+    int high = myEntries.length - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int result = myEntries[middle].myPath.compareTo(path);
+      if (result < 0) {
+        low = middle + 1;
+      }
+      else if (result > 0) {
+        high = middle - 1;
+      }
+      else {
+        return middle;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Checks whether the working tree file is known to be the same as the version in the index.
+   * Returns false for anything but regular files without conflicts, and for the entries which are "racily clean",
+   * i.e. modified in the same second the index was written, because a change made in that second couldn't be noticed by Git.
+   *
+   * @param length       the length of the working tree file.
+   * @param lastModified the modification time of the working tree file, 0 if the file doesn't exist.
+   * @param executable   whether the working tree file is executable, {@link ThreeState#UNSURE} if the executable bit is not trusted
+   *                     ({@code core.filemode} is false). A changed executable bit doesn't change the modification time.
+   */
+  public boolean isUnchanged(int index, long length, long lastModified, @NotNull ThreeState executable) {
+    final Entry entry = myEntries[index];
+    if (entry.getStage() != 0 || (entry.myExtendedFlags & EXTENDED_FLAG_INTENT_TO_ADD) != 0) {
+      return false;
+    }
+    if ((entry.myFlags & FLAG_ASSUME_VALID) != 0 || (entry.myExtendedFlags & EXTENDED_FLAG_SKIP_WORKTREE) != 0) {
+      return true; // Git doesn't check these files
+    }
+    if ((entry.myMode & TYPE_MASK) != TYPE_REGULAR_FILE || lastModified == 0) {
+      return false;
+    }
+    if (executable != ThreeState.UNSURE && ((entry.myMode & EXECUTABLE_MASK) != 0) != (executable == ThreeState.YES)) {
+      return false;
+    }
+    final int seconds = (int)(lastModified / 1000);
+    return entry.myModificationTime == seconds && seconds < myTimestamp && entry.mySize == (int)length; // the size is truncated to 32 bits
+  }
+
+  private static int readInt(@NotNull byte[] bytes, int offset) {
+    return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+  }
+
+  private static int readShort(@NotNull byte[] bytes, int offset) {
+    return (bytes[offset] & 0xFF) << 8 | (bytes[offset + 1] & 0xFF);
+  }
+
+  private static class Entry {
+    @NotNull private final String myPath;
+    private final int myModificationTime;
+    private final int mySize;
+    private final int myMode;
+    private final int myFlags;
+    private final int myExtendedFlags;
+
+    private Entry(@NotNull String path, int modificationTime, int size, int mode, int flags, int extendedFlags) {
+      myPath = path;
+      myModificationTime = modificationTime;
+      mySize = size;
+      myMode = mode;
+      myFlags = flags;
+      myExtendedFlags = extendedFlags;
+    }
+
+    int getStage() {
+      return (myFlags >> STAGE_SHIFT) & STAGE_MASK;
+    }
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2000-2011 JetBrains s.r.o.
+ * Copyright 2000-2012 JetBrains s.r.o.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,6 +17,7 @@ package git4idea.status;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.*;
 import com.intellij.openapi.vcs.changes.Change;
@@ -24,6 +25,7 @@ import com.intellij.openapi.vcs.changes.ChangeListManager;
 import com.intellij.openapi.vcs.changes.ContentRevision;
 import com.intellij.openapi.vcs.changes.VcsDirtyScope;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
+import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import git4idea.GitContentRevision;
 import git4idea.GitFormatException;
@@ -34,13 +36,15 @@ import git4idea.commands.Git;
 import git4idea.commands.GitCommand;
 import git4idea.commands.GitHandler;
 import git4idea.commands.GitSimpleHandler;
+import git4idea.config.GitConfigUtil;
 import git4idea.repo.GitRepository;
+import git4idea.repo.GitRepositoryFiles;
 import git4idea.repo.GitUntrackedFilesHolder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.File;
+import java.util.*;
 
 /**
  * <p>
@@ -49,6 +53,10 @@ import java.util.Set;
  *   Works only on Git 1.7.0 and later.
  * </p>
  * <p>
+ *   Once the status of the whole repository is known, it is kept in a {@link GitStatusSnapshot}, and while the index and HEAD
+ *   don't change, Git is called only for the files which may have been modified in the working tree since then.
+ * </p>
+ * <p>
  *   The class is immutable: collect changes and get the instance from where they can be retrieved by {@link #collect}.
  * </p>
  *
@@ -61,16 +69,20 @@ class GitNewChangesCollector extends GitChangesCollector {
   private final Collection<Change> myChanges = new HashSet<Change>();
   private final Set<VirtualFile> myUnversionedFiles = new HashSet<VirtualFile>();
   @NotNull private final Git myGit;
+  @NotNull private final Map<VirtualFile, GitStatusSnapshot> mySnapshots;
 
   /**
    * Collects the changes from git command line and returns the instance of GitNewChangesCollector from which these changes can be retrieved.
    * This may be lengthy.
+   *
+   * @param snapshots status snapshots of the roots, which are used and updated by the collector.
    */
   @NotNull
   static GitNewChangesCollector collect(@NotNull Project project, @NotNull Git git, @NotNull ChangeListManager changeListManager,
                                         @NotNull ProjectLevelVcsManager vcsManager, @NotNull AbstractVcs vcs,
-                                        @NotNull VcsDirtyScope dirtyScope, @NotNull VirtualFile vcsRoot) throws VcsException {
-    return new GitNewChangesCollector(project, git, changeListManager, vcsManager, vcs, dirtyScope, vcsRoot);
+                                        @NotNull VcsDirtyScope dirtyScope, @NotNull VirtualFile vcsRoot,
+                                        @NotNull Map<VirtualFile, GitStatusSnapshot> snapshots) throws VcsException {
+    return new GitNewChangesCollector(project, git, changeListManager, vcsManager, vcs, dirtyScope, vcsRoot, snapshots);
   }
 
   @Override
@@ -87,10 +99,12 @@ class GitNewChangesCollector extends GitChangesCollector {
 
   private GitNewChangesCollector(@NotNull Project project, @NotNull Git git, @NotNull ChangeListManager changeListManager,
                                  @NotNull ProjectLevelVcsManager vcsManager, @NotNull AbstractVcs vcs,
-                                 @NotNull VcsDirtyScope dirtyScope, @NotNull VirtualFile vcsRoot) throws VcsException
+                                 @NotNull VcsDirtyScope dirtyScope, @NotNull VirtualFile vcsRoot,
+                                 @NotNull Map<VirtualFile, GitStatusSnapshot> snapshots) throws VcsException
   {
     super(project, changeListManager, vcsManager, vcs, dirtyScope, vcsRoot);
     myGit = git;
+    mySnapshots = snapshots;
     myRepository = GitUtil.getRepositoryManager(myProject).getRepositoryForRoot(vcsRoot);
 
     Collection<FilePath> dirtyPaths = dirtyPaths(true);
@@ -102,9 +116,90 @@ class GitNewChangesCollector extends GitChangesCollector {
 
   // calls 'git status' and parses the output, feeding myChanges.
   private void collectChanges(Collection<FilePath> dirtyPaths) throws VcsException {
+    VcsRevisionNumber head = getHead();
+    if (collectChangesUsingSnapshot(dirtyPaths, head)) {
+      return;
+    }
+
+    boolean wholeRoot = false;
     GitSimpleHandler handler = statusHandler(dirtyPaths);
+    if (handler.isLargeCommandLine()) {
+      // if there are too much files, just get all changes for the project
+      handler = statusHandler(null);
+      wholeRoot = true;
+    }
+    for (FilePath path : dirtyPaths) {
+      if (FileUtil.pathsEqual(path.getPath(), myVcsRoot.getPath())) {
+        wholeRoot = true;
+      }
+    }
+    long startTime = System.currentTimeMillis();
     String output = handler.run();
-    parseOutput(output, handler);
+    parseOutput(output, handler, head);
+
+    if (wholeRoot && myRepository != null) {
+      // Git trusts the executable bit unless core.filemode is explicitly false
+      boolean trustExecutableBit = !Boolean.FALSE.equals(GitConfigUtil.getBoolValue(myProject, myVcsRoot, GitConfigUtil.CORE_FILEMODE));
+      GitStatusSnapshot snapshot = GitStatusSnapshot.create(VfsUtilCore.virtualToIoFile(myVcsRoot), getIndexFile(), head, output,
+                                                            trustExecutableBit, startTime);
+      if (snapshot != null) {
+        mySnapshots.put(myVcsRoot, snapshot);
+      }
+      else {
+        mySnapshots.remove(myVcsRoot);
+      }
+    }
+  }
+
+  /**
+   * Takes the status of the files which are not modified since the last 'git status' from the snapshot,
+   * and calls 'git status' only for the rest of the dirty paths.
+   *
+   * @return false if the snapshot can't be used, and the status of all dirty paths should be taken from Git.
+   */
+  private boolean collectChangesUsingSnapshot(@NotNull Collection<FilePath> dirtyPaths, @NotNull VcsRevisionNumber head)
+    throws VcsException {
+    if (myRepository == null) {
+      return false;
+    }
+    GitStatusSnapshot snapshot = mySnapshots.get(myVcsRoot);
+    if (snapshot == null) {
+      return false;
+    }
+    File indexFile = getIndexFile();
+    if (!snapshot.isUpToDate(indexFile, head)) {
+      mySnapshots.remove(myVcsRoot);
+      return false;
+    }
+
+    Collection<FilePath> pathsToCheck = new ArrayList<FilePath>();
+    String cachedOutput = snapshot.getStatus(dirtyPaths, pathsToCheck);
+    if (cachedOutput == null) {
+      return false;
+    }
+    String output = "";
+    GitSimpleHandler handler = null;
+    if (!pathsToCheck.isEmpty()) {
+      handler = statusHandler(pathsToCheck);
+      if (handler.isLargeCommandLine()) {
+        return false;
+      }
+      long startTime = System.currentTimeMillis();
+      output = handler.run();
+      // the index is refreshed by 'git status', but the snapshot is valid only for the index it was created for
+      if (!snapshot.update(pathsToCheck, output, startTime) || !snapshot.isUpToDate(indexFile, head)) {
+        mySnapshots.remove(myVcsRoot);
+      }
+    }
+    parseOutput(cachedOutput, null, head);
+    parseOutput(output, handler, head);
+    return true;
+  }
+
+  @NotNull
+  private File getIndexFile() {
+    assert myRepository != null;
+    return new File(VfsUtilCore.virtualToIoFile(myRepository.getGitDir()), GitRepositoryFiles.INDEX);
   }
 
   private void collectUnversionedFiles() throws VcsException {
@@ -117,7 +212,10 @@ class GitNewChangesCollector extends GitChangesCollector {
     }
   }
 
-  private GitSimpleHandler statusHandler(Collection<FilePath> dirtyPaths) {
+  /**
+   * @param paths paths to get the status of, or null to get the status of the whole root.
+   */
+  private GitSimpleHandler statusHandler(@Nullable Collection<FilePath> paths) {
     GitSimpleHandler handler = new GitSimpleHandler(myProject, myVcsRoot, GitCommand.STATUS);
     final String[] params = {"--porcelain", "-z", "--untracked-files=no"};   // untracked files are stored separately
     handler.addParameters(params);
@@ -125,15 +223,8 @@ class GitNewChangesCollector extends GitChangesCollector {
     handler.setSilent(true);
     handler.setStdoutSuppressed(true);
     handler.endOptions();
-    handler.addRelativePaths(dirtyPaths);
-    if (handler.isLargeCommandLine()) {
-      // if there are too much files, just get all changes for the project
-      handler = new GitSimpleHandler(myProject, myVcsRoot, GitCommand.STATUS);
-      handler.addParameters(params);
-      handler.setNoSSH(true);
-      handler.setSilent(true);
-      handler.setStdoutSuppressed(true);
-      handler.endOptions();
+    if (paths != null) {
+      handler.addRelativePaths(paths);
     }
     return handler;
   }
@@ -142,10 +233,8 @@ class GitNewChangesCollector extends GitChangesCollector {
    * Parses the output of the 'git status --porcelain -z' command filling myChanges and myUnversionedFiles.
    * See <a href=http://www.kernel.org/pub/software/scm/git/docs/git-status.html#_output">Git man</a> for details.
    */
-  // handler is here for debugging purposes in the case of parse error
-  private void parseOutput(@NotNull String output, @NotNull GitHandler handler) throws VcsException {
-    VcsRevisionNumber head = getHead();
-
+  // handler is here for debugging purposes in the case of parse error, it is null for the output taken from the snapshot
+  private void parseOutput(@NotNull String output, @Nullable GitHandler handler, @NotNull VcsRevisionNumber head) throws VcsException {
     final String[] split = output.split("\u0000");
 
     for (int pos = 0; pos < split.length; pos++) {
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.status;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.FilePathImpl;
+import com.intellij.openapi.vcs.history.VcsRevisionNumber;
+import com.intellij.util.ThreeState;
+import git4idea.repo.GitIndex;
+import git4idea.repo.GitRepoStateException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * <p>
+ *   The output of {@code 'git status --porcelain -z'} for the whole repository together with the index and HEAD it was taken for.
+ * </p>
+ * <p>
+ *   While the index and HEAD stay the same, the status of a file may change only if the file changes in the working tree.
+ *   So for a dirty scope {@link GitNewChangesCollector} takes the status of the files which are known to be unchanged from the snapshot
+ *   (see {@link GitIndex#isUnchanged}), and calls Git only for the rest of the files, if any.
+ * </p>
+ * <p>
+ *   The snapshot is not used if there are renamed or copied files in the index: their status depends on the paths Git is called for.
+ * </p>
+ */
+class GitStatusSnapshot {
+
+  private static final Logger LOG = Logger.getInstance(GitStatusSnapshot.class);
+
+  @NotNull private final File myRoot;
+  @NotNull private final GitIndex myIndex;
+  @NotNull private final String myHead;
+  private final boolean myTrustExecutableBit; // core.filemode
+  // path -> 'XY path' record from the status output
+  @NotNull private final TreeMap<String, String> myRecords;
+  // path -> length, modification time and executable bit of a file which was modified in the working tree when its status was taken
+  @NotNull private final Map<String, long[]> myWorktreeStamps = new HashMap<String, long[]>();
+
+  private GitStatusSnapshot(@NotNull File root, @NotNull GitIndex index, @NotNull String head, boolean trustExecutableBit,
+                            @NotNull TreeMap<String, String> records) {
+    myRoot = root;
+    myIndex = index;
+    myHead = head;
+    myTrustExecutableBit = trustExecutableBit;
+    myRecords = records;
+  }
+
+  /**
+   * @param output             output of 'git status' called for the whole repository.
+   * @param trustExecutableBit the value of {@code core.filemode}: whether Git detects changes of the executable bit.
+   * @param startTime          the time 'git status' was started at.
+   * @return the snapshot or null if it can't be created.
+   */
+  @Nullable
+  static GitStatusSnapshot create(@NotNull File root, @NotNull File indexFile, @NotNull VcsRevisionNumber head, @NotNull String output,
+                                  boolean trustExecutableBit, long startTime) {
+    TreeMap<String, String> records = parseRecords(output);
+    if (records == null) {
+      return null;
+    }
+    GitIndex index;
+    try {
+      // read after 'git status', which may have refreshed the index
+      index = GitIndex.read(indexFile);
+    }
+    catch (GitRepoStateException e) {
+      LOG.info("Couldn't read the index, git status won't be cached: " + e.getMessage());
+      return null;
+    }
+    GitStatusSnapshot snapshot = new GitStatusSnapshot(root, index, head.asString(), trustExecutableBit, records);
+    snapshot.stampWorktreeChanges(records, startTime);
+    return snapshot;
+  }
+
+  boolean isUpToDate(@NotNull File indexFile, @NotNull VcsRevisionNumber head) {
+    return myHead.equals(head.asString()) && Arrays.equals(myIndex.getChecksum(), GitIndex.readChecksum(indexFile));
+  }
+
+  /**
+   * Returns the status records for the given paths which are known from the snapshot,
+   * and puts the paths which should be checked by Git to {@code pathsToCheck}.
+   *
+   * @return the status in the format of the 'git status --porcelain -z' output, or null if the snapshot can't be used for these paths.
+   */
+  @Nullable
+  String getStatus(@NotNull Collection<FilePath> paths, @NotNull Collection<FilePath> pathsToCheck) {
+    StringBuilder status = new StringBuilder();
+    for (FilePath path : paths) {
+      String relativePath = getRelativePath(path);
+      if (relativePath == null) {
+        return null;
+      }
+
+      if (!path.isDirectory()) {
+        int index = myIndex.find(relativePath);
+        if (index >= 0) {
+          addStatus(index, status, pathsToCheck);
+        }
+        else if (myRecords.containsKey(relativePath)) { // e.g. deleted from the index, the status doesn't depend on the working tree
+          addRecord(myRecords.get(relativePath), status);
+        }
+        else { // untracked or ignored, or the path differs from the index in case
+          pathsToCheck.add(path);
+        }
+        continue;
+      }
+
+      String prefix = relativePath.length() == 0 ? "" : relativePath + "/";
+      int start = myIndex.find(prefix);
+      if (start < 0) {
+        start = -start - 1;
+      }
+      int end = start;
+      while (end < myIndex.size() && myIndex.getPath(end).startsWith(prefix)) {
+        if (end == start || !myIndex.getPath(end).equals(myIndex.getPath(end - 1))) { // conflicting files have several entries
+          addStatus(end, status, pathsToCheck);
+        }
+        end++;
+      }
+
+      SortedMap<String, String> records = prefix.length() == 0 ? myRecords : myRecords.subMap(prefix, prefix + Character.MAX_VALUE);
+      if (start == end && records.isEmpty()) { // nothing is known about this directory, e.g. its path differs from the index in case
+        pathsToCheck.add(path);
+        continue;
+      }
+      for (Map.Entry<String, String> entry : records.entrySet()) {
+        if (myIndex.find(entry.getKey()) < 0) {
+          addRecord(entry.getValue(), status);
+        }
+      }
+    }
+    return status.toString();
+  }
+
+  /**
+   * Replaces the status of the given paths with the output of 'git status' called for them.
+   *
+   * @return false if the snapshot can't be used anymore.
+   */
+  boolean update(@NotNull Collection<FilePath> checkedPaths, @NotNull String output, long startTime) {
+    TreeMap<String, String> records = parseRecords(output);
+    if (records == null) {
+      return false;
+    }
+    for (FilePath path : checkedPaths) {
+      String relativePath = getRelativePath(path);
+      if (relativePath == null) {
+        return false;
+      }
+      if (path.isDirectory()) {
+        String prefix = relativePath.length() == 0 ? "" : relativePath + "/";
+        Collection<String> removed = prefix.length() == 0 ? new ArrayList<String>(myRecords.keySet())
+                                                          : new ArrayList<String>(myRecords.subMap(prefix, prefix + Character.MAX_VALUE).keySet());
+        for (String removedPath : removed) {
+          myRecords.remove(removedPath);
+          myWorktreeStamps.remove(removedPath);
+        }
+      }
+      else {
+        myRecords.remove(relativePath);
+        myWorktreeStamps.remove(relativePath);
+      }
+    }
+    myRecords.putAll(records);
+    stampWorktreeChanges(records, startTime);
+    return true;
+  }
+
+  private void addStatus(int index, @NotNull StringBuilder status, @NotNull Collection<FilePath> pathsToCheck) {
+    String path = myIndex.getPath(index);
+    String record = myRecords.get(path);
+    File file = new File(myRoot, path);
+    long length = file.length();
+    long lastModified = file.lastModified();
+    ThreeState executable = isExecutable(file);
+
+    long[] stamp = myWorktreeStamps.get(path);
+    boolean unchanged = stamp != null
+                        ? Arrays.equals(stamp, stamp(length, lastModified, executable))
+                        : (record == null || record.charAt(1) == ' ') && myIndex.isUnchanged(index, length, lastModified, executable);
+    if (!unchanged) {
+      pathsToCheck.add(new FilePathImpl(file, false));
+    }
+    else if (record != null) {
+      addRecord(record, status);
+    }
+  }
+
+  private static void addRecord(@NotNull String record, @NotNull StringBuilder status) {
+    status.append(record).append('\u0000');
+  }
+
+  // remembers the files modified in the working tree: if they don't change, their status doesn't change either
+  private void stampWorktreeChanges(@NotNull Map<String, String> records, long startTime) {
+    for (Map.Entry<String, String> entry : records.entrySet()) {
+      if (entry.getValue().charAt(1) == ' ') {
+        continue;
+      }
+      File file = new File(myRoot, entry.getKey());
+      long lastModified = file.lastModified();
+      // a file modified in the same second 'git status' was started, could have been modified after Git checked it
+      if (lastModified / 1000 < startTime / 1000) {
+        myWorktreeStamps.put(entry.getKey(), stamp(file.length(), lastModified, isExecutable(file)));
+      }
+    }
+  }
+
+  @NotNull
+  private ThreeState isExecutable(@NotNull File file) {
+    if (!myTrustExecutableBit) {
+      return ThreeState.UNSURE;
+    }
+    return file.canExecute() ? ThreeState.YES : ThreeState.NO;
+  }
+
+  @NotNull
+  private static long[] stamp(long length, long lastModified, @NotNull ThreeState executable) {
+    return new long[]{length, lastModified, executable.ordinal()};
+  }
+
+  @Nullable
+  private String getRelativePath(@NotNull FilePath path) {
+    String rootPath = FileUtil.toSystemIndependentName(myRoot.getPath());
+    String filePath = FileUtil.toSystemIndependentName(path.getPath());
+    if (filePath.equals(rootPath)) {
+      return "";
+    }
+    if (!filePath.startsWith(rootPath + "/")) {
+      return null;
+    }
+    return filePath.substring(rootPath.length() + 1);
+  }
+
+  /**
+   * @return path -> record map or null if the output has an unexpected format or contains renamed or copied files.
+   */
+  @Nullable
+  private static TreeMap<String, String> parseRecords(@NotNull String output) {
+    TreeMap<String, String> records = new TreeMap<String, String>();
+    for (String record : output.split("\u0000")) {
+      if (StringUtil.isEmptyOrSpaces(record)) {
+        continue;
+      }
+      if (record.length() < 4) {
+        return null;
+      }
+      char xStatus = record.charAt(0);
+      if (xStatus == 'R' || xStatus == 'C') {
+        return null;
+      }
+      records.put(record.substring(3), record);
+    }
+    return records;
+  }
+}
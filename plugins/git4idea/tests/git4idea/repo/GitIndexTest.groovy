@@ -0,0 +1,204 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.repo
+
+import com.intellij.util.ThreeState
+import git4idea.test.GitExecutor
+import git4idea.test.GitLightTest
+import git4idea.test.GitScenarios
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import static com.intellij.util.ThreeState.*
+import static junit.framework.Assert.*
+
+/**
+ * Reads index files written by the native Git and compares them with 'git ls-files'.
+ */
+@Mixin([GitExecutor, GitScenarios])
+class GitIndexTest extends GitLightTest {
+
+  private static final long PAST = 10 * 1000
+
+  GitRepository myRepository
+  File myIndexFile
+
+  @Override
+  @Before
+  public void setUp() {
+    super.setUp();
+    myRepository = createRepository(myProjectRoot)
+    myIndexFile = new File(myProjectRoot, ".git/index")
+  }
+
+  @Override
+  @After
+  public void tearDown() {
+    super.tearDown();
+  }
+
+  @Test
+  void "version 2"() {
+    touch("a.txt", "a")
+    mkdir("dir")
+    touch("dir/b.txt", "b")
+    touch("dir.txt", "dir")
+    git("add a.txt dir dir.txt")
+    git("update-index --index-version 2")
+
+    assertEquals 2, indexVersion()
+    def index = GitIndex.read(myIndexFile)
+    assertEquals(lsFiles(), paths(index))
+    assertTrue index.find("dir/b.txt") >= 0
+    assertTrue index.find("dir") < 0
+  }
+
+  @Test
+  void "version 3 with extended flags"() {
+    touch("skipped.txt", "skipped")
+    touch("added.txt", "added")
+    git("add skipped.txt")
+    git("commit -m skipped")
+    git("update-index --skip-worktree skipped.txt")
+    git("add -N added.txt")
+
+    assertEquals 3, indexVersion()
+    def index = GitIndex.read(myIndexFile)
+    assertEquals(lsFiles(), paths(index))
+
+    // Git doesn't look at skip-worktree files, but always checks intent-to-add ones
+    assertTrue index.isUnchanged(index.find("skipped.txt"), 0, 0, NO)
+    File added = new File(myProjectRoot, "added.txt")
+    assertFalse index.isUnchanged(index.find("added.txt"), added.length(), added.lastModified(), NO)
+  }
+
+  @Test
+  void "long names"() {
+    String blob = git("hash-object -w file.txt")
+    // too long for the name length stored in the entry flags, and for the file system, so there is no working tree file
+    String longName = (1..50).collect { "directory_" + it }.join("/") + "/" + "x" * 4000 + ".txt"
+    git("update-index --add --cacheinfo 100644 $blob $longName")
+    git("update-index --add --cacheinfo 100644 $blob z.txt")
+
+    def index = GitIndex.read(myIndexFile)
+    assertEquals(lsFiles(), paths(index))
+    assertTrue longName.length() > 0xFFF
+    assertEquals longName, index.getPath(index.find(longName))
+    assertTrue index.find("z.txt") >= 0
+  }
+
+  @Test
+  void "conflict stages"() {
+    unmergedFiles(myRepository)
+
+    def index = GitIndex.read(myIndexFile)
+    assertEquals(lsFiles(), paths(index))
+    assertEquals 3, paths(index).count { it == "unmerged.txt" }
+    File unmerged = new File(myProjectRoot, "unmerged.txt")
+    int i = index.find("unmerged.txt")
+    assertTrue i >= 0
+    assertFalse index.isUnchanged(i, unmerged.length(), unmerged.lastModified(), NO)
+  }
+
+  @Test
+  void "unchanged file"() {
+    File file = backdatedFile("a.txt", "content")
+    git("add a.txt")
+
+    def index = GitIndex.read(myIndexFile)
+    int i = index.find("a.txt")
+    assertTrue index.isUnchanged(i, file.length(), file.lastModified(), NO)
+    assertFalse index.isUnchanged(i, file.length() + 1, file.lastModified(), NO)
+    assertFalse index.isUnchanged(i, file.length(), file.lastModified() - 1000, NO)
+    assertFalse "deleted file", index.isUnchanged(i, 0, 0, NO)
+  }
+
+  @Test
+  void "racily clean file"() {
+    File file = backdatedFile("a.txt", "content")
+    git("add a.txt")
+    // the index written in the same second the file was modified: a later change in that second would be missed by Git
+    myIndexFile.setLastModified(file.lastModified())
+
+    def index = GitIndex.read(myIndexFile)
+    assertFalse index.isUnchanged(index.find("a.txt"), file.length(), file.lastModified(), NO)
+  }
+
+  @Test
+  void "executable bit"() {
+    File file = backdatedFile("a.txt", "content")
+    git("add a.txt")
+    git("commit -m a")
+    long lastModified = file.lastModified()
+    assertTrue file.setExecutable(true)
+    assertEquals "chmod doesn't touch the modification time", lastModified, file.lastModified()
+    assertEquals " M a.txt", status()
+
+    def index = GitIndex.read(myIndexFile)
+    int i = index.find("a.txt")
+    assertFalse index.isUnchanged(i, file.length(), file.lastModified(), executable(file))
+    assertTrue "core.filemode is false", index.isUnchanged(i, file.length(), file.lastModified(), UNSURE)
+
+    git("add a.txt")
+    index = GitIndex.read(myIndexFile)
+    assertEquals "M  a.txt", status()
+    assertTrue index.isUnchanged(index.find("a.txt"), file.length(), file.lastModified(), executable(file))
+    assertFalse index.isUnchanged(index.find("a.txt"), file.length(), file.lastModified(), NO)
+  }
+
+  @Test
+  void "checksum"() {
+    def index = GitIndex.read(myIndexFile)
+    assertTrue Arrays.equals(index.getChecksum(), GitIndex.readChecksum(myIndexFile))
+
+    touch("a.txt", "a")
+    git("add a.txt")
+    assertFalse Arrays.equals(index.getChecksum(), GitIndex.readChecksum(myIndexFile))
+  }
+
+  private File backdatedFile(String name, String content) {
+    File file = new File(touch(name, content))
+    file.setLastModified((long)(System.currentTimeMillis() / 1000) * 1000 - PAST)
+    file
+  }
+
+  private static ThreeState executable(File file) {
+    file.canExecute() ? YES : NO
+  }
+
+  // not trimmed, unlike the output of git(): records of files modified in the working tree start with a space
+  private String status() {
+    Process process = new ProcessBuilder("git", "--no-optional-locks", "status", "--porcelain", "--untracked-files=no")
+      .directory(new File(myProjectRoot)).start()
+    String output = process.inputStream.getText("UTF-8")
+    assertEquals(process.errorStream.text, 0, process.waitFor())
+    output.trim().length() == 0 ? "" : output.readLines().join("\n")
+  }
+
+  private int indexVersion() {
+    def bytes = myIndexFile.bytes
+    bytes[7]
+  }
+
+  private List<String> lsFiles() {
+    git("ls-files --stage").readLines().collect { it.substring(it.indexOf('\t') + 1) }
+  }
+
+  private static List<String> paths(GitIndex index) {
+    (0..<index.size()).collect { index.getPath(it) }
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.status
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.openapi.vcs.FilePath
+import com.intellij.openapi.vcs.FilePathImpl
+import git4idea.GitRevisionNumber
+import git4idea.test.GitExecutor
+import git4idea.test.GitLightTest
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import static junit.framework.Assert.*
+
+/**
+ * Checks the status taken from {@link GitStatusSnapshot} against the output of the native 'git status' for the same paths.
+ */
+@Mixin(GitExecutor)
+class GitStatusSnapshotTest extends GitLightTest {
+
+  private static final long PAST = 10 * 1000
+
+  File myRoot
+  File myIndexFile
+  GitStatusSnapshot mySnapshot
+
+  @Override
+  @Before
+  public void setUp() {
+    super.setUp();
+    createRepository(myProjectRoot)
+    myRoot = new File(myProjectRoot)
+    myIndexFile = new File(myRoot, ".git/index")
+
+    mkdir("dir")
+    mkdir("dir/sub")
+    ["a.txt", "dir/b.txt", "dir/c.txt", "dir/sub/d.txt", "dir.txt"].each { touch(it, "initial $it") }
+    // not modified in the second the index is written, otherwise Git itself can't trust the cached stat data
+    ["file.txt", "a.txt", "dir/b.txt", "dir/c.txt", "dir/sub/d.txt", "dir.txt"].each { backdate(it) }
+    git("add .")
+    git("commit -m files")
+
+    modify("a.txt", "modified a")
+    modify("dir/b.txt", "modified b")
+    git("add dir/b.txt")
+    modify("dir/c.txt", "modified c")
+    git("rm --cached dir/sub/d.txt")
+
+    long startTime = System.currentTimeMillis()
+    mySnapshot = GitStatusSnapshot.create(myRoot, myIndexFile, head(), status(), true, startTime)
+    assertNotNull mySnapshot
+  }
+
+  @Override
+  @After
+  public void tearDown() {
+    super.tearDown();
+  }
+
+  @Test
+  void "files"() {
+    assertStatus([file("a.txt"), file("dir/b.txt"), file("dir/c.txt"), file("dir/sub/d.txt"), file("file.txt"), file("dir.txt")])
+  }
+
+  @Test
+  void "directories"() {
+    assertStatus([dir("")])
+    assertStatus([dir("dir")])
+    assertStatus([dir("dir/sub")])
+    assertStatus([dir("dir"), file("a.txt")])
+  }
+
+  @Test
+  void "modified files are checked by Git"() {
+    modify("dir/sub/d.txt", "modified d")
+    modify("dir.txt", "modified dir.txt")
+    modify("dir/c.txt", "initial dir/c.txt") // back to the content in the index, but with another timestamp
+
+    Collection<FilePath> pathsToCheck = assertStatus([dir("")])
+    assertEquals(["dir.txt", "dir/c.txt"] as Set, pathsToCheck.collect { relativePath(it) } as Set)
+  }
+
+  @Test
+  void "executable bit is checked by Git"() {
+    File file = new File(myRoot, "file.txt")
+    assertTrue file.setExecutable(true)
+
+    Collection<FilePath> pathsToCheck = assertStatus([dir("")])
+    assertEquals(["file.txt"], pathsToCheck.collect { relativePath(it) })
+  }
+
+  @Test
+  void "update files"() {
+    modify("dir.txt", "modified dir.txt")
+    modify("dir/c.txt", "modified c again")
+
+    Collection<FilePath> pathsToCheck = new ArrayList<FilePath>()
+    mySnapshot.getStatus([file("dir.txt"), file("dir/c.txt")], pathsToCheck)
+    update(pathsToCheck)
+
+    assertTrue assertStatus([dir("")]).isEmpty()
+  }
+
+  @Test
+  void "update directory"() {
+    modify("dir/b.txt", "modified b again")
+    modify("dir/c.txt", "modified c again")
+    update([dir("dir")])
+
+    assertTrue assertStatus([dir("")]).isEmpty()
+    assertTrue assertStatus([dir("dir")]).isEmpty()
+  }
+
+  @Test
+  void "index or HEAD change"() {
+    assertTrue mySnapshot.isUpToDate(myIndexFile, head())
+
+    git("add a.txt")
+    assertFalse mySnapshot.isUpToDate(myIndexFile, head())
+
+    mySnapshot = GitStatusSnapshot.create(myRoot, myIndexFile, head(), status(), true, System.currentTimeMillis())
+    git("commit -m a")
+    assertFalse mySnapshot.isUpToDate(myIndexFile, head())
+  }
+
+  @Test
+  void "renames are not cached"() {
+    git("mv dir.txt renamed.txt")
+    assertNull GitStatusSnapshot.create(myRoot, myIndexFile, head(), status(), true, System.currentTimeMillis())
+  }
+
+  /**
+   * Checks that the status from the snapshot together with the status of the paths to check, which is taken from Git,
+   * is the same as the status of the given paths taken from Git.
+   *
+   * @return the paths to check
+   */
+  private Collection<FilePath> assertStatus(List<FilePath> paths) {
+    Collection<FilePath> pathsToCheck = new ArrayList<FilePath>()
+    String cached = mySnapshot.getStatus(paths, pathsToCheck)
+    assertNotNull cached
+    String checked = pathsToCheck.isEmpty() ? "" : status(pathsToCheck)
+    assertEquals(records(status(paths)), records(cached + checked))
+    pathsToCheck
+  }
+
+  private void update(Collection<FilePath> paths) {
+    long startTime = System.currentTimeMillis()
+    assertTrue mySnapshot.update(paths, status(paths), startTime)
+    assertTrue mySnapshot.isUpToDate(myIndexFile, head())
+  }
+
+  // the file is modified some seconds ago, so that its status is cached
+  private void modify(String path, String content) {
+    File file = new File(myRoot, path)
+    long lastModified = file.lastModified()
+    FileUtil.writeToFile(file, content)
+    file.setLastModified(lastModified - 2000)
+  }
+
+  private void backdate(String path) {
+    new File(myRoot, path).setLastModified((long)(System.currentTimeMillis() / 1000) * 1000 - PAST)
+  }
+
+  private GitRevisionNumber head() {
+    new GitRevisionNumber(git("rev-parse HEAD"))
+  }
+
+  // 'git status' output is not trimmed, unlike the output of git(): records of files modified in the working tree start with a space
+  private String status(Collection<FilePath> paths = []) {
+    List<String> command = ["git", "--no-optional-locks", "status", "--porcelain", "-z", "--untracked-files=no", "--"]
+    command.addAll(paths.collect { relativePath(it).length() == 0 ? "." : relativePath(it) })
+    Process process = new ProcessBuilder(command).directory(myRoot).start()
+    String output = process.inputStream.getText("UTF-8")
+    assertEquals(process.errorStream.text, 0, process.waitFor())
+    output
+  }
+
+  private static Set<String> records(String output) {
+    output.split("\u0000").findAll { !it.isEmpty() } as Set
+  }
+
+  private FilePath file(String path) {
+    new FilePathImpl(new File(myRoot, path), false)
+  }
+
+  private FilePath dir(String path) {
+    new FilePathImpl(path.length() == 0 ? myRoot : new File(myRoot, path), true)
+  }
+
+  private String relativePath(FilePath path) {
+    String relativePath = FileUtil.toSystemIndependentName(FileUtil.getRelativePath(myRoot, path.getIOFile()))
+    relativePath == "." ? "" : relativePath
+  }
+}
@@ -18,42 +18,47 @@ package org.jetbrains.idea.maven.indices;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.text.StringUtil;
 import gnu.trove.THashMap;
-import org.apache.lucene.index.Term;
-import org.apache.lucene.search.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.idea.maven.model.MavenArtifactInfo;
-import org.jetbrains.idea.maven.server.MavenServerIndexer;
 
 import java.util.*;
 
 public class MavenArtifactSearcher extends MavenSearcher<MavenArtifactSearchResult> {
-  public static final String TERM = MavenServerIndexer.SEARCH_TERM_COORDINATES;
-
-  protected Pair<String, Query> preparePatternAndQuery(String pattern) {
+  protected Pair<String, Set<MavenArtifactInfo>> searchInfos(MavenProjectIndicesManager m, String pattern, int maxResult) {
     pattern = pattern.toLowerCase();
-    if (pattern.trim().length() == 0) return Pair.create(pattern, (Query)new MatchAllDocsQuery());
+    return Pair.create(pattern, m.searchArtifacts(createFilter(pattern), maxResult));
+  }
 
+  /**
+   * The pattern is "group artifact version" separated by spaces or colons, group and artifact parts match names which contain them
+   * or whose words start with them (e.g. "sbs" matches "spring-boot-starter"), the version part matches versions starting with it.
+   * One part matches group or artifact, two parts match group and artifact, group and version or artifact and version.
+   * Parts may contain '*' and '?' wildcards.
+   */
+  static MavenCompactIndex.Filter createFilter(String pattern) {
     List<String> parts = new ArrayList<String>();
-    for (String each : StringUtil.tokenize(pattern, " :")) {
+    for (String each : StringUtil.tokenize(pattern.toLowerCase(), " :")) {
       parts.add(each);
     }
 
-    BooleanQuery query = new BooleanQuery();
-
+    List<CoordinatesPattern> alternatives = new ArrayList<CoordinatesPattern>();
+    if (parts.isEmpty()) {
+      alternatives.add(new CoordinatesPattern(null, null, null));
+    }
     if (parts.size() == 1) {
-      query.add(new WildcardQuery(new Term(TERM, "*" + parts.get(0) + "*|*|*|*")), BooleanClause.Occur.SHOULD);
-      query.add(new WildcardQuery(new Term(TERM, "*|*" + parts.get(0) + "*|*|*")), BooleanClause.Occur.SHOULD);
+      alternatives.add(new CoordinatesPattern(parts.get(0), null, null));
+      alternatives.add(new CoordinatesPattern(null, parts.get(0), null));
     }
     if (parts.size() == 2) {
-      query.add(new WildcardQuery(new Term(TERM, "*" + parts.get(0) + "*|*" + parts.get(1) + "*|*|*")), BooleanClause.Occur.SHOULD);
-      query.add(new WildcardQuery(new Term(TERM, "*" + parts.get(0) + "*|*|" + parts.get(1) + "*|*")), BooleanClause.Occur.SHOULD);
-      query.add(new WildcardQuery(new Term(TERM, "*|*" + parts.get(0) + "*|" + parts.get(1) + "*|*")), BooleanClause.Occur.SHOULD);
+      alternatives.add(new CoordinatesPattern(parts.get(0), parts.get(1), null));
+      alternatives.add(new CoordinatesPattern(parts.get(0), null, parts.get(1)));
+      alternatives.add(new CoordinatesPattern(null, parts.get(0), parts.get(1)));
     }
     if (parts.size() >= 3) {
-      String s = "*" + parts.get(0) + "*|*" + parts.get(1) + "*|" + parts.get(2) + "*|*";
-      query.add(new WildcardQuery(new Term(TERM, s)), BooleanClause.Occur.MUST);
+      alternatives.add(new CoordinatesPattern(parts.get(0), parts.get(1), parts.get(2)));
     }
-
-    return Pair.create(pattern, (Query)query);
+    return new CoordinatesFilter(alternatives);
   }
 
   protected Collection<MavenArtifactSearchResult> processResults(Set<MavenArtifactInfo> infos, String pattern, int maxResult) {
@@ -75,4 +80,132 @@ public class MavenArtifactSearcher extends MavenSearcher<MavenArtifactSearchResu
 
     return result.values();
   }
+
+  /**
+   * Case-insensitive match of a pattern with '*' and '?' wildcards, the pattern is lower case.
+   */
+  private static boolean matchesWildcard(@NotNull String pattern, int patternIndex, @NotNull CharSequence name, int nameIndex) {
+    while (patternIndex < pattern.length()) {
+      char p = pattern.charAt(patternIndex);
+      if (p == '*') {
+        while (patternIndex < pattern.length() && pattern.charAt(patternIndex) == '*') patternIndex++;
+        if (patternIndex == pattern.length()) return true;
+        for (int i = nameIndex; i < name.length(); i++) {
+          if (matchesWildcard(pattern, patternIndex, name, i)) return true;
+        }
+        return false;
+      }
+      if (nameIndex == name.length()) return false;
+      if (p != '?' && p != StringUtil.toLowerCase(name.charAt(nameIndex))) return false;
+      patternIndex++;
+      nameIndex++;
+    }
+    return nameIndex == name.length();
+  }
+
+  /**
+   * Matches the pattern against prefixes of the words of the name, e.g. "sbst" against "spring-boot-starter" or "springBootStarter".
+   * The pattern is lower case.
+   */
+  private static boolean matchesWordStarts(@NotNull String pattern, int patternIndex, @NotNull CharSequence name, int from) {
+    if (patternIndex == pattern.length()) return true;
+    for (int wordStart = from; wordStart < name.length(); wordStart++) {
+      if (!isWordStart(name, wordStart)) continue;
+      int i = 0;
+      while (wordStart + i < name.length() && patternIndex + i < pattern.length() &&
+             (i == 0 || !isWordStart(name, wordStart + i)) &&
+             StringUtil.toLowerCase(name.charAt(wordStart + i)) == pattern.charAt(patternIndex + i)) {
+        i++;
+        if (matchesWordStarts(pattern, patternIndex + i, name, wordStart + i)) return true;
+      }
+    }
+    return false;
+  }
+
+  // a cheap check before matching the word starts, most names don't contain all the chars of the pattern
+  private static boolean containsSubsequence(@NotNull CharSequence name, @NotNull String pattern) {
+    int patternIndex = 0;
+    for (int i = 0; i < name.length() && patternIndex < pattern.length(); i++) {
+      if (StringUtil.toLowerCase(name.charAt(i)) == pattern.charAt(patternIndex)) patternIndex++;
+    }
+    return patternIndex == pattern.length();
+  }
+
+  private static boolean isWordStart(@NotNull CharSequence name, int index) {
+    char c = name.charAt(index);
+    if (!Character.isLetterOrDigit(c)) return false;
+    if (index == 0) return true;
+    char prev = name.charAt(index - 1);
+    return !Character.isLetterOrDigit(prev) || Character.isUpperCase(c) && !Character.isUpperCase(prev);
+  }
+
+  private static class CoordinatesFilter implements MavenCompactIndex.Filter {
+    private final List<CoordinatesPattern> myAlternatives;
+
+    private CoordinatesFilter(List<CoordinatesPattern> alternatives) {
+      myAlternatives = alternatives;
+    }
+
+    public boolean acceptGroup(@NotNull CharSequence groupId) {
+      for (CoordinatesPattern each : myAlternatives) {
+        if (each.acceptGroup(groupId)) return true;
+      }
+      return false;
+    }
+
+    public boolean acceptArtifact(@NotNull CharSequence groupId, @NotNull CharSequence artifactId) {
+      for (CoordinatesPattern each : myAlternatives) {
+        if (each.acceptArtifact(groupId, artifactId)) return true;
+      }
+      return false;
+    }
+
+    public boolean acceptVersion(@NotNull CharSequence groupId, @NotNull CharSequence artifactId, @NotNull CharSequence version) {
+      for (CoordinatesPattern each : myAlternatives) {
+        if (each.acceptArtifact(groupId, artifactId) && each.acceptVersion(version)) return true;
+      }
+      return false;
+    }
+  }
+
+  private static class CoordinatesPattern {
+    @Nullable private final NamePattern myGroupId;
+    @Nullable private final NamePattern myArtifactId;
+    @Nullable private final String myVersion;
+
+    private CoordinatesPattern(@Nullable String groupId, @Nullable String artifactId, @Nullable String version) {
+      myGroupId = groupId == null ? null : new NamePattern(groupId);
+      myArtifactId = artifactId == null ? null : new NamePattern(artifactId);
+      myVersion = version == null ? null : version + "*";
+    }
+
+    private boolean acceptGroup(@NotNull CharSequence groupId) {
+      return myGroupId == null || myGroupId.matches(groupId);
+    }
+
+    private boolean acceptArtifact(@NotNull CharSequence groupId, @NotNull CharSequence artifactId) {
+      return acceptGroup(groupId) && (myArtifactId == null || myArtifactId.matches(artifactId));
+    }
+
+    private boolean acceptVersion(@NotNull CharSequence version) {
+      return myVersion == null || matchesWildcard(myVersion, 0, version, 0);
+    }
+  }
+
+  private static class NamePattern {
+    @NotNull private final String myPart;
+    @NotNull private final String myContainsPattern;
+    private final boolean myMatchWordStarts;
+
+    private NamePattern(@NotNull String part) {
+      myPart = part;
+      myContainsPattern = "*" + part + "*";
+      myMatchWordStarts = part.indexOf('*') < 0 && part.indexOf('?') < 0;
+    }
+
+    private boolean matches(@NotNull CharSequence name) {
+      if (matchesWildcard(myContainsPattern, 0, name, 0)) return true;
+      return myMatchWordStarts && containsSubsequence(name, myPart) && matchesWordStarts(myPart, 0, name, 0);
+    }
+  }
 }
@@ -33,7 +33,12 @@ import java.util.regex.PatternSyntaxException;
 public class MavenClassSearcher extends MavenSearcher<MavenClassSearchResult> {
   public static final String TERM = MavenServerIndexer.SEARCH_TERM_CLASS_NAMES;
 
-  protected Pair<String, Query> preparePatternAndQuery(String pattern) {
+  protected Pair<String, Set<MavenArtifactInfo>> searchInfos(MavenProjectIndicesManager m, String pattern, int maxResult) {
+    Pair<String, Query> patternAndQuery = preparePatternAndQuery(pattern);
+    return Pair.create(patternAndQuery.first, m.search(patternAndQuery.second, maxResult));
+  }
+
+  private static Pair<String, Query> preparePatternAndQuery(String pattern) {
     pattern = pattern.toLowerCase();
     if (pattern.trim().length() == 0) {
       return new Pair<String, Query>(pattern, new MatchAllDocsQuery());
@@ -0,0 +1,483 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.idea.maven.indices;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.io.ByteBufferWrapper;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.idea.maven.model.MavenId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.*;
+
+/**
+ * Group ids, artifact ids and versions of the artifacts of a repository.
+ * <p/>
+ * They are kept in one memory-mapped file: sorted groups with ranges of their artifacts, sorted artifacts with ranges of their
+ * versions, and all the names as chars. So checking and listing the coordinates are binary searches in the file, which don't read
+ * or create objects for the entries that are not returned. Artifacts added to the repository later are appended to a log
+ * and kept in memory until there are {@value #MAX_ADDED_COUNT} of them, then the file is rebuilt.
+ * <p/>
+ * The class is not thread safe, {@link MavenIndex} synchronizes the access.
+ */
+class MavenCompactIndex {
+  static final String COORDINATES_FILE = "coordinates.dat";
+  private static final String ADDED_FILE = "coordinates-added.dat";
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+  private static final int MAX_ADDED_COUNT = 1000;
+
+  private final File myFile;
+  private final File myAddedFile;
+
+  private ByteBufferWrapper myBufferWrapper;
+  private ByteBuffer myBuffer;
+  private CharBuffer myChars;
+  private int myGroupCount;
+  private int myArtifactCount;
+  private int myVersionCount;
+  // positions of the int tables in the buffer
+  private int myGroupNames;
+  private int myGroupArtifacts;
+  private int myArtifactNames;
+  private int myArtifactVersions;
+  private int myVersionNames;
+
+  private final Map<String, Map<String, Set<String>>> myAdded = new THashMap<String, Map<String, Set<String>>>();
+  private int myAddedCount;
+
+  /**
+   * Filters coordinates for {@link MavenCompactIndex#search}, the names are valid during the call only.
+   */
+  interface Filter {
+    /**
+     * @return false if no artifact of the group is accepted
+     */
+    boolean acceptGroup(@NotNull CharSequence groupId);
+
+    boolean acceptArtifact(@NotNull CharSequence groupId, @NotNull CharSequence artifactId);
+
+    boolean acceptVersion(@NotNull CharSequence groupId, @NotNull CharSequence artifactId, @NotNull CharSequence version);
+  }
+
+  MavenCompactIndex(@NotNull File dir) throws IOException {
+    myFile = new File(dir, COORDINATES_FILE);
+    myAddedFile = new File(dir, ADDED_FILE);
+    try {
+      map();
+      readAdded();
+    }
+    catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  private void map() throws IOException {
+    myBuffer = null;
+    myChars = null;
+    myGroupCount = myArtifactCount = myVersionCount = 0;
+    if (!myFile.exists()) return;
+
+    myBufferWrapper = ByteBufferWrapper.readOnly(myFile, 0);
+    final ByteBuffer buffer = myBufferWrapper.getBuffer();
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != VERSION) {
+      throw new IOException("Incompatible or damaged " + myFile);
+    }
+    final int groupCount = buffer.getInt(4);
+    final int artifactCount = buffer.getInt(8);
+    final int versionCount = buffer.getInt(12);
+    final long tablesSize = 4L * (2 * (groupCount + 1) + 2 * (artifactCount + 1) + versionCount + 1);
+    if (groupCount < 0 || artifactCount < 0 || versionCount < 0 || HEADER_SIZE + tablesSize > buffer.capacity()) {
+      throw new IOException("Damaged " + myFile);
+    }
+
+    myGroupNames = HEADER_SIZE;
+    myGroupArtifacts = myGroupNames + 4 * (groupCount + 1);
+    myArtifactNames = myGroupArtifacts + 4 * (groupCount + 1);
+    myArtifactVersions = myArtifactNames + 4 * (artifactCount + 1);
+    myVersionNames = myArtifactVersions + 4 * (artifactCount + 1);
+    final ByteBuffer chars = buffer.duplicate();
+    chars.position((int)(HEADER_SIZE + tablesSize));
+    myChars = chars.slice().asCharBuffer();
+
+    final int charCount = myChars.limit();
+    if (buffer.getInt(myGroupArtifacts + 4 * groupCount) != artifactCount ||
+        buffer.getInt(myArtifactVersions + 4 * artifactCount) != versionCount ||
+        buffer.getInt(myGroupNames + 4 * groupCount) > charCount ||
+        buffer.getInt(myArtifactNames + 4 * artifactCount) > charCount ||
+        buffer.getInt(myVersionNames + 4 * versionCount) != charCount) {
+      throw new IOException("Damaged " + myFile);
+    }
+    myBuffer = buffer;
+    myGroupCount = groupCount;
+    myArtifactCount = artifactCount;
+    myVersionCount = versionCount;
+  }
+
+  private void readAdded() throws IOException {
+    myAdded.clear();
+    myAddedCount = 0;
+    if (!myAddedFile.exists()) return;
+
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myAddedFile)));
+    try {
+      while (true) {
+        final String groupId;
+        final String artifactId;
+        final String version;
+        try {
+          groupId = in.readUTF();
+          artifactId = in.readUTF();
+          version = in.readUTF();
+        }
+        catch (EOFException ignored) {
+          // the end of the log or a record not completely written
+          break;
+        }
+        if (addToMap(myAdded, groupId, artifactId, version)) {
+          myAddedCount++;
+        }
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  void close() {
+    if (myBufferWrapper != null) {
+      myBufferWrapper.dispose();
+      myBufferWrapper = null;
+    }
+    myBuffer = null;
+    myChars = null;
+  }
+
+  /**
+   * Replaces all the coordinates with the given ones: group id to artifact id to versions.
+   */
+  void set(@NotNull Map<String, Map<String, Set<String>>> coordinates) throws IOException {
+    close();
+    write(myFile, coordinates);
+    FileUtil.delete(myAddedFile);
+    myAdded.clear();
+    myAddedCount = 0;
+    map();
+  }
+
+  void add(@NotNull String groupId, @NotNull String artifactId, @NotNull String version) throws IOException {
+    if (hasVersion(groupId, artifactId, version)) return;
+
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myAddedFile, true)));
+    try {
+      out.writeUTF(groupId);
+      out.writeUTF(artifactId);
+      out.writeUTF(version);
+    }
+    finally {
+      out.close();
+    }
+    addToMap(myAdded, groupId, artifactId, version);
+    if (++myAddedCount >= MAX_ADDED_COUNT) {
+      set(getAll());
+    }
+  }
+
+  @NotNull
+  private Map<String, Map<String, Set<String>>> getAll() {
+    final Map<String, Map<String, Set<String>>> result = new THashMap<String, Map<String, Set<String>>>();
+    for (int group = 0; group < myGroupCount; group++) {
+      final String groupId = getGroupName(group);
+      for (int artifact = getArtifactsStart(group); artifact < getArtifactsStart(group + 1); artifact++) {
+        final String artifactId = getArtifactName(artifact);
+        for (int version = getVersionsStart(artifact); version < getVersionsStart(artifact + 1); version++) {
+          addToMap(result, groupId, artifactId, getVersionName(version));
+        }
+      }
+    }
+    for (Map.Entry<String, Map<String, Set<String>>> group : myAdded.entrySet()) {
+      for (Map.Entry<String, Set<String>> artifact : group.getValue().entrySet()) {
+        for (String version : artifact.getValue()) {
+          addToMap(result, group.getKey(), artifact.getKey(), version);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static boolean addToMap(@NotNull Map<String, Map<String, Set<String>>> map,
+                                  @NotNull String groupId,
+                                  @NotNull String artifactId,
+                                  @NotNull String version) {
+    Map<String, Set<String>> artifacts = map.get(groupId);
+    if (artifacts == null) {
+      artifacts = new THashMap<String, Set<String>>();
+      map.put(groupId, artifacts);
+    }
+    Set<String> versions = artifacts.get(artifactId);
+    if (versions == null) {
+      versions = new THashSet<String>();
+      artifacts.put(artifactId, versions);
+    }
+    return versions.add(version);
+  }
+
+  @NotNull
+  Set<String> getGroupIds() {
+    final Set<String> result = new THashSet<String>(myAdded.keySet());
+    for (int group = 0; group < myGroupCount; group++) {
+      result.add(getGroupName(group));
+    }
+    return result;
+  }
+
+  @NotNull
+  Set<String> getArtifactIds(@NotNull String groupId) {
+    final Set<String> result = new THashSet<String>();
+    final int group = findGroup(groupId);
+    if (group >= 0) {
+      for (int artifact = getArtifactsStart(group); artifact < getArtifactsStart(group + 1); artifact++) {
+        result.add(getArtifactName(artifact));
+      }
+    }
+    final Map<String, Set<String>> added = myAdded.get(groupId);
+    if (added != null) {
+      result.addAll(added.keySet());
+    }
+    return result;
+  }
+
+  @NotNull
+  Set<String> getVersions(@NotNull String groupId, @NotNull String artifactId) {
+    final Set<String> result = new THashSet<String>();
+    final int artifact = findArtifact(groupId, artifactId);
+    if (artifact >= 0) {
+      for (int version = getVersionsStart(artifact); version < getVersionsStart(artifact + 1); version++) {
+        result.add(getVersionName(version));
+      }
+    }
+    final Set<String> added = getAddedVersions(groupId, artifactId);
+    if (added != null) {
+      result.addAll(added);
+    }
+    return result;
+  }
+
+  boolean hasGroupId(@NotNull String groupId) {
+    return findGroup(groupId) >= 0 || myAdded.containsKey(groupId);
+  }
+
+  boolean hasArtifactId(@NotNull String groupId, @NotNull String artifactId) {
+    return findArtifact(groupId, artifactId) >= 0 || getAddedVersions(groupId, artifactId) != null;
+  }
+
+  boolean hasVersion(@NotNull String groupId, @NotNull String artifactId, @NotNull String version) {
+    final int artifact = findArtifact(groupId, artifactId);
+    if (artifact >= 0 && find(myVersionNames, getVersionsStart(artifact), getVersionsStart(artifact + 1), version) >= 0) return true;
+    final Set<String> added = getAddedVersions(groupId, artifactId);
+    return added != null && added.contains(version);
+  }
+
+  @Nullable
+  private Set<String> getAddedVersions(@NotNull String groupId, @NotNull String artifactId) {
+    final Map<String, Set<String>> artifacts = myAdded.get(groupId);
+    return artifacts == null ? null : artifacts.get(artifactId);
+  }
+
+  /**
+   * Adds the coordinates accepted by the filter to the result until it has maxResult elements.
+   */
+  void search(@NotNull Filter filter, int maxResult, @NotNull Collection<MavenId> result) {
+    for (int group = 0; group < myGroupCount; group++) {
+      final CharSequence groupId = getName(myGroupNames, group);
+      if (!filter.acceptGroup(groupId)) continue;
+
+      for (int artifact = getArtifactsStart(group); artifact < getArtifactsStart(group + 1); artifact++) {
+        final CharSequence artifactId = getName(myArtifactNames, artifact);
+        if (!filter.acceptArtifact(groupId, artifactId)) continue;
+
+        for (int version = getVersionsStart(artifact); version < getVersionsStart(artifact + 1); version++) {
+          final CharSequence versionName = getName(myVersionNames, version);
+          if (filter.acceptVersion(groupId, artifactId, versionName)) {
+            if (result.size() >= maxResult) return;
+            result.add(new MavenId(groupId.toString(), artifactId.toString(), versionName.toString()));
+          }
+        }
+      }
+    }
+    for (Map.Entry<String, Map<String, Set<String>>> group : myAdded.entrySet()) {
+      if (!filter.acceptGroup(group.getKey())) continue;
+
+      for (Map.Entry<String, Set<String>> artifact : group.getValue().entrySet()) {
+        if (!filter.acceptArtifact(group.getKey(), artifact.getKey())) continue;
+
+        for (String version : artifact.getValue()) {
+          if (filter.acceptVersion(group.getKey(), artifact.getKey(), version)) {
+            if (result.size() >= maxResult) return;
+            result.add(new MavenId(group.getKey(), artifact.getKey(), version));
+          }
+        }
+      }
+    }
+  }
+
+  private int findGroup(@NotNull String groupId) {
+    return find(myGroupNames, 0, myGroupCount, groupId);
+  }
+
+  private int findArtifact(@NotNull String groupId, @NotNull String artifactId) {
+    final int group = findGroup(groupId);
+    return group < 0 ? -1 : find(myArtifactNames, getArtifactsStart(group), getArtifactsStart(group + 1), artifactId);
+  }
+
+  /**
+   * @return index of the name in the sorted range of the names table, or -1
+   */
+  private int find(int names, int from, int to, @NotNull String name) {
+    int low = from;
+    int high = to - 1;
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      final int comparison = compare(names, middle, name);
+      if (comparison < 0) {
+        low = middle + 1;
+      }
+      else if (comparison > 0) {
+        high = middle - 1;
+      }
+      else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  // the same order as String.compareTo() used to sort the names in write()
+  private int compare(int names, int index, @NotNull String name) {
+    final int start = myBuffer.getInt(names + 4 * index);
+    final int length = myBuffer.getInt(names + 4 * (index + 1)) - start;
+    final int common = Math.min(length, name.length());
+    for (int i = 0; i < common; i++) {
+      final char c = myChars.get(start + i);
+      if (c != name.charAt(i)) return c - name.charAt(i);
+    }
+    return length - name.length();
+  }
+
+  @NotNull
+  private CharSequence getName(int names, int index) {
+    return myChars.subSequence(myBuffer.getInt(names + 4 * index), myBuffer.getInt(names + 4 * (index + 1)));
+  }
+
+  @NotNull
+  private String getGroupName(int group) {
+    return getName(myGroupNames, group).toString();
+  }
+
+  @NotNull
+  private String getArtifactName(int artifact) {
+    return getName(myArtifactNames, artifact).toString();
+  }
+
+  @NotNull
+  private String getVersionName(int version) {
+    return getName(myVersionNames, version).toString();
+  }
+
+  private int getArtifactsStart(int group) {
+    return myBuffer.getInt(myGroupArtifacts + 4 * group);
+  }
+
+  private int getVersionsStart(int artifact) {
+    return myBuffer.getInt(myArtifactVersions + 4 * artifact);
+  }
+
+  private static void write(@NotNull File file, @NotNull Map<String, Map<String, Set<String>>> coordinates) throws IOException {
+    final List<String> groups = new ArrayList<String>();
+    final List<String> artifacts = new ArrayList<String>();
+    final List<String> versions = new ArrayList<String>();
+    final int[] groupArtifacts = new int[coordinates.size() + 1];
+    final List<Integer> artifactVersions = new ArrayList<Integer>();
+
+    final String[] groupIds = ArrayUtil.toStringArray(coordinates.keySet());
+    Arrays.sort(groupIds);
+    for (String groupId : groupIds) {
+      groups.add(groupId);
+      final Map<String, Set<String>> groupArtifactsMap = coordinates.get(groupId);
+      final String[] artifactIds = ArrayUtil.toStringArray(groupArtifactsMap.keySet());
+      Arrays.sort(artifactIds);
+      for (String artifactId : artifactIds) {
+        artifacts.add(artifactId);
+        artifactVersions.add(versions.size());
+        final String[] artifactVersionsArray = ArrayUtil.toStringArray(groupArtifactsMap.get(artifactId));
+        Arrays.sort(artifactVersionsArray);
+        versions.addAll(Arrays.asList(artifactVersionsArray));
+      }
+      groupArtifacts[groups.size()] = artifacts.size();
+    }
+    artifactVersions.add(versions.size());
+
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      out.writeInt(VERSION);
+      out.writeInt(groups.size());
+      out.writeInt(artifacts.size());
+      out.writeInt(versions.size());
+      int offset = writeOffsets(out, groups, 0);
+      for (int each : groupArtifacts) {
+        out.writeInt(each);
+      }
+      offset = writeOffsets(out, artifacts, offset);
+      for (int each : artifactVersions) {
+        out.writeInt(each);
+      }
+      writeOffsets(out, versions, offset);
+      for (String each : groups) {
+        out.writeChars(each);
+      }
+      for (String each : artifacts) {
+        out.writeChars(each);
+      }
+      for (String each : versions) {
+        out.writeChars(each);
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Writes offsets of the names in the char region, followed by the offset of their end.
+   *
+   * @return offset of the end of the names
+   */
+  private static int writeOffsets(@NotNull DataOutputStream out, @NotNull List<String> names, int offset) throws IOException {
+    for (String each : names) {
+      out.writeInt(offset);
+      offset += each.length();
+    }
+    out.writeInt(offset);
+    return offset;
+  }
+}
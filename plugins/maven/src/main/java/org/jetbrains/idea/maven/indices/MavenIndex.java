@@ -16,12 +16,10 @@
 package org.jetbrains.idea.maven.indices;
 
 import com.intellij.openapi.util.io.FileUtil;
-import com.intellij.util.io.*;
 import gnu.trove.THashMap;
 import gnu.trove.THashSet;
 import org.apache.lucene.search.Query;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 import org.jetbrains.idea.maven.model.MavenArtifactInfo;
 import org.jetbrains.idea.maven.model.MavenId;
@@ -37,7 +35,7 @@ import java.io.*;
 import java.util.*;
 
 public class MavenIndex {
-  private static final String CURRENT_VERSION = "4";
+  private static final String CURRENT_VERSION = "5";
 
   protected static final String INDEX_INFO_FILE = "index.properties";
 
@@ -53,9 +51,6 @@ public class MavenIndex {
 
   private static final String DATA_DIR_PREFIX = "data";
 
-  private static final String ARTIFACT_IDS_MAP_FILE = "artifactIds-map.dat";
-  private static final String VERSIONS_MAP_FILE = "versions-map.dat";
-
   public enum Kind {
     LOCAL, REMOTE
   }
@@ -329,7 +324,6 @@ public class MavenIndex {
 
     try {
       doUpdateIndexData(newData, progress);
-      newData.flush();
     }
     catch (Throwable e) {
       newData.close(true);
@@ -360,10 +354,7 @@ public class MavenIndex {
 
   private void doUpdateIndexData(IndexData data,
                                  MavenProgressIndicator progress) throws IOException, MavenServerIndexerException {
-    final Map<String, Set<String>> groupToArtifactMap = new THashMap<String, Set<String>>();
-    final Map<String, Set<String>> groupWithArtifactToVersionMap = new THashMap<String, Set<String>>();
-
-    final StringBuilder builder = new StringBuilder();
+    final Map<String, Map<String, Set<String>>> coordinates = new THashMap<String, Map<String, Set<String>>>();
 
     progress.pushState();
     progress.setIndeterminate(true);
@@ -373,42 +364,34 @@ public class MavenIndex {
         @Override
         public void processArtifacts(Collection<MavenId> artifacts) {
           for (MavenId each : artifacts) {
-            String groupId = each.getGroupId();
-            String artifactId = each.getArtifactId();
-            String version = each.getVersion();
-
-            builder.setLength(0);
-
-            builder.append(groupId).append(":").append(artifactId);
-            String ga = builder.toString();
-
-            getOrCreate(groupToArtifactMap, groupId).add(artifactId);
-            getOrCreate(groupWithArtifactToVersionMap, ga).add(version);
+            getOrCreateVersions(getOrCreateArtifacts(coordinates, each.getGroupId()), each.getArtifactId()).add(each.getVersion());
           }
         }
       });
 
-      persist(groupToArtifactMap, data.groupToArtifactMap);
-      persist(groupWithArtifactToVersionMap, data.groupWithArtifactToVersionMap);
+      data.coordinates.set(coordinates);
     }
     finally {
       progress.popState();
     }
   }
 
-  private static <T> Set<T> getOrCreate(Map<String, Set<T>> map, String key) {
-    Set<T> result = map.get(key);
+  private static Map<String, Set<String>> getOrCreateArtifacts(Map<String, Map<String, Set<String>>> map, String key) {
+    Map<String, Set<String>> result = map.get(key);
     if (result == null) {
-      result = new THashSet<T>();
+      result = new THashMap<String, Set<String>>();
       map.put(key, result);
     }
     return result;
   }
 
-  private static <T> void persist(Map<String, T> map, PersistentHashMap<String, T> persistentMap) throws IOException {
-    for (Map.Entry<String, T> each : map.entrySet()) {
-      persistentMap.put(each.getKey(), each.getValue());
+  private static Set<String> getOrCreateVersions(Map<String, Set<String>> map, String key) {
+    Set<String> result = map.get(key);
+    if (result == null) {
+      result = new THashSet<String>();
+      map.put(key, result);
     }
+    return result;
   }
 
   @TestOnly
@@ -434,38 +417,16 @@ public class MavenIndex {
     doIndexTask(new IndexTask<Object>() {
       public Object doTask() throws Exception {
         MavenId id = myData.addArtifact(artifactFile);
-
-        String groupId = id.getGroupId();
-        String artifactId = id.getArtifactId();
-        String version = id.getVersion();
-
-        myData.hasGroupCache.put(groupId, true);
-
-        String groupWithArtifact = groupId + ":" + artifactId;
-
-        myData.hasArtifactCache.put(groupWithArtifact, true);
-        myData.hasVersionCache.put(groupWithArtifact + ':' + version, true);
-
-        addToCache(myData.groupToArtifactMap, groupId, artifactId);
-        addToCache(myData.groupWithArtifactToVersionMap, groupWithArtifact, version);
-        myData.flush();
-
+        myData.coordinates.add(id.getGroupId(), id.getArtifactId(), id.getVersion());
         return null;
       }
     }, null);
   }
 
-  private static void addToCache(PersistentHashMap<String, Set<String>> cache, String key, String value) throws IOException {
-    Set<String> values = cache.get(key);
-    if (values == null) values = new THashSet<String>();
-    values.add(value);
-    cache.put(key, values);
-  }
-
   public synchronized Collection<String> getGroupIds() {
     return doIndexTask(new IndexTask<Collection<String>>() {
       public Collection<String> doTask() throws Exception {
-        return myData.groupToArtifactMap.getAllDataObjects(null);
+        return myData.coordinates.getGroupIds();
       }
     }, Collections.<String>emptySet());
   }
@@ -473,8 +434,7 @@ public class MavenIndex {
   public synchronized Set<String> getArtifactIds(final String groupId) {
     return doIndexTask(new IndexTask<Set<String>>() {
       public Set<String> doTask() throws Exception {
-        Set<String> result = myData.groupToArtifactMap.get(groupId);
-        return result == null ? Collections.<String>emptySet() : result;
+        return myData.coordinates.getArtifactIds(groupId);
       }
     }, Collections.<String>emptySet());
   }
@@ -483,8 +443,8 @@ public class MavenIndex {
   public synchronized void printInfo() {
     doIndexTask(new IndexTask<Set<String>>() {
       public Set<String> doTask() throws Exception {
-        System.out.println("BaseFile: " + myData.groupToArtifactMap.getBaseFile());
-        System.out.println("All data objects: " + myData.groupToArtifactMap.getAllDataObjects(null));
+        System.out.println("Data dir: " + getCurrentDataDir());
+        System.out.println("Group ids: " + myData.coordinates.getGroupIds());
         return Collections.<String>emptySet();
       }
     }, Collections.<String>emptySet());
@@ -493,53 +453,33 @@ public class MavenIndex {
   public synchronized Set<String> getVersions(final String groupId, final String artifactId) {
     return doIndexTask(new IndexTask<Set<String>>() {
       public Set<String> doTask() throws Exception {
-        Set<String> result = myData.groupWithArtifactToVersionMap.get(groupId + ":" + artifactId);
-        return result == null ? Collections.<String>emptySet() : result;
+        return myData.coordinates.getVersions(groupId, artifactId);
       }
     }, Collections.<String>emptySet());
   }
 
-  public synchronized boolean hasGroupId(String groupId) {
-    return hasValue(myData.groupToArtifactMap, myData.hasGroupCache, groupId);
-  }
-
-  public synchronized boolean hasArtifactId(String groupId, String artifactId) {
-    return hasValue(myData.groupWithArtifactToVersionMap, myData.hasArtifactCache, groupId + ":" + artifactId);
+  public synchronized boolean hasGroupId(final String groupId) {
+    return doIndexTask(new IndexTask<Boolean>() {
+      public Boolean doTask() throws Exception {
+        return myData.coordinates.hasGroupId(groupId);
+      }
+    }, false);
   }
 
-  public synchronized boolean hasVersion(String groupId, String artifactId, final String version) {
-    final String groupWithArtifactWithVersion = groupId + ":" + artifactId + ':' + version;
-
-    Boolean res = myData.hasVersionCache.get(groupWithArtifactWithVersion);
-    if (res == null) {
-      res = doIndexTask(new IndexTask<Boolean>() {
-        @Override
-        public Boolean doTask() throws Exception {
-          String groupWithVersion = groupWithArtifactWithVersion.substring(0, groupWithArtifactWithVersion.length() - version.length() - 1);
-          Set<String> set = myData.groupWithArtifactToVersionMap.get(groupWithVersion);
-          return set != null && set.contains(version);
-        }
-      }, false);
-
-      myData.hasVersionCache.put(groupWithArtifactWithVersion, res);
-    }
-
-    return res;
+  public synchronized boolean hasArtifactId(final String groupId, final String artifactId) {
+    return doIndexTask(new IndexTask<Boolean>() {
+      public Boolean doTask() throws Exception {
+        return myData.coordinates.hasArtifactId(groupId, artifactId);
+      }
+    }, false);
   }
 
-  private boolean hasValue(final PersistentHashMap<String, ?> map, Map<String, Boolean> cache, final String value) {
-    Boolean res = cache.get(value);
-    if (res == null) {
-      res = doIndexTask(new IndexTask<Boolean>() {
-        public Boolean doTask() throws Exception {
-          return map.tryEnumerate(value) != 0;
-        }
-      }, false).booleanValue();
-
-      cache.put(value, res);
-    }
-
-    return res;
+  public synchronized boolean hasVersion(final String groupId, final String artifactId, final String version) {
+    return doIndexTask(new IndexTask<Boolean>() {
+      public Boolean doTask() throws Exception {
+        return myData.coordinates.hasVersion(groupId, artifactId, version);
+      }
+    }, false);
   }
 
   public synchronized Set<MavenArtifactInfo> search(final Query query, final int maxResult) {
@@ -550,6 +490,23 @@ public class MavenIndex {
     }, Collections.<MavenArtifactInfo>emptySet());
   }
 
+  /**
+   * Searches the coordinates of the artifacts without querying the Lucene index, the results have no packaging and classifier.
+   */
+  public synchronized Set<MavenArtifactInfo> searchArtifacts(final MavenCompactIndex.Filter filter, final int maxResult) {
+    return doIndexTask(new IndexTask<Set<MavenArtifactInfo>>() {
+      public Set<MavenArtifactInfo> doTask() throws Exception {
+        List<MavenId> ids = new ArrayList<MavenId>();
+        myData.coordinates.search(filter, maxResult, ids);
+        Set<MavenArtifactInfo> result = new THashSet<MavenArtifactInfo>(ids.size());
+        for (MavenId each : ids) {
+          result.add(new MavenArtifactInfo(each.getGroupId(), each.getArtifactId(), each.getVersion(), null, null, null, myRepositoryId));
+        }
+        return result;
+      }
+    }, Collections.<MavenArtifactInfo>emptySet());
+  }
+
   private <T> T doIndexTask(IndexTask<T> task, T defaultValue) {
     assert Thread.holdsLock(this);
 
@@ -585,19 +542,13 @@ public class MavenIndex {
   }
 
   private class IndexData {
-    final PersistentHashMap<String, Set<String>> groupToArtifactMap;
-    final PersistentHashMap<String, Set<String>> groupWithArtifactToVersionMap;
-
-    final Map<String, Boolean> hasGroupCache = new THashMap<String, Boolean>();
-    final Map<String, Boolean> hasArtifactCache = new THashMap<String, Boolean>();
-    final Map<String, Boolean> hasVersionCache = new THashMap<String, Boolean>();
+    final MavenCompactIndex coordinates;
 
     private final int indexId;
 
     public IndexData(File dir) throws MavenIndexException {
       try {
-        groupToArtifactMap = createPersistentMap(new File(dir, ARTIFACT_IDS_MAP_FILE));
-        groupWithArtifactToVersionMap = createPersistentMap(new File(dir, VERSIONS_MAP_FILE));
+        coordinates = new MavenCompactIndex(dir);
 
         indexId = createContext(getDataContextDir(dir), dir.getName());
       }
@@ -611,10 +562,6 @@ public class MavenIndex {
       }
     }
 
-    private PersistentHashMap<String, Set<String>> createPersistentMap(File f) throws IOException {
-      return new PersistentHashMap<String, Set<String>>(f, new EnumeratorStringDescriptor(), new SetDescriptor());
-    }
-
     public void close(boolean releaseIndexContext) throws MavenIndexException {
       MavenIndexException[] exceptions = new MavenIndexException[1];
 
@@ -626,27 +573,11 @@ public class MavenIndex {
         if (exceptions[0] == null) exceptions[0] = new MavenIndexException(e);
       }
 
-      safeClose(groupToArtifactMap, exceptions);
-      safeClose(groupWithArtifactToVersionMap, exceptions);
+      if (coordinates != null) coordinates.close();
 
       if (exceptions[0] != null) throw exceptions[0];
     }
 
-    private void safeClose(@Nullable Closeable enumerator, MavenIndexException[] exceptions) {
-      try {
-        if (enumerator != null) enumerator.close();
-      }
-      catch (IOException e) {
-        MavenLog.LOG.warn(e);
-        if (exceptions[0] == null) exceptions[0] = new MavenIndexException(e);
-      }
-    }
-
-    public void flush() throws IOException {
-      groupToArtifactMap.force();
-      groupWithArtifactToVersionMap.force();
-    }
-
     public MavenId addArtifact(File artifactFile) throws MavenServerIndexerException {
       return myIndexer.addArtifact(indexId, artifactFile);
     }
@@ -656,24 +587,6 @@ public class MavenIndex {
     }
   }
 
-  private static class SetDescriptor implements DataExternalizer<Set<String>> {
-    public void save(DataOutput s, Set<String> set) throws IOException {
-      s.writeInt(set.size());
-      for (String each : set) {
-        s.writeUTF(each);
-      }
-    }
-
-    public Set<String> read(DataInput s) throws IOException {
-      int count = s.readInt();
-      Set<String> result = new THashSet<String>(count);
-      while (count-- > 0) {
-        result.add(s.readUTF());
-      }
-      return result;
-    }
-  }
-
   public interface IndexListener {
     void indexIsBroken(MavenIndex index);
   }
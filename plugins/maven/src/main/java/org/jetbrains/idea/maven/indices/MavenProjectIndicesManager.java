@@ -211,6 +211,18 @@ public class MavenProjectIndicesManager extends MavenSimpleProjectComponent {
     return result;
   }
 
+  Set<MavenArtifactInfo> searchArtifacts(MavenCompactIndex.Filter filter, int maxResult) {
+    Set<MavenArtifactInfo> result = new THashSet<MavenArtifactInfo>();
+
+    for (MavenIndex each : myProjectIndices) {
+      int remained = maxResult - result.size();
+      if (remained <= 0) break;
+      result.addAll(each.searchArtifacts(filter, remained));
+    }
+
+    return result;
+  }
+
   private Set<String> getProjectGroupIds() {
     Set<String> result = new THashSet<String>();
     for (MavenId each : getProjectsIds()) {
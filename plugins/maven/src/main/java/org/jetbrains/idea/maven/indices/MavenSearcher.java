@@ -18,7 +18,6 @@ package org.jetbrains.idea.maven.indices;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Pair;
-import org.apache.lucene.search.Query;
 import org.jetbrains.idea.maven.model.MavenArtifactInfo;
 
 import java.util.*;
@@ -27,17 +26,18 @@ public abstract class MavenSearcher<RESULT_TYPE extends MavenArtifactSearchResul
   public static final VersionComparator COMPARATOR = new VersionComparator();
 
   public List<RESULT_TYPE> search(Project project, String pattern, int maxResult) {
-    Pair<String, Query> patternAndQuery = preparePatternAndQuery(pattern);
-
     MavenProjectIndicesManager m = MavenProjectIndicesManager.getInstance(project);
-    Set<MavenArtifactInfo> infos = m.search(patternAndQuery.second, maxResult);
+    Pair<String, Set<MavenArtifactInfo>> patternAndInfos = searchInfos(m, pattern, maxResult);
 
-    List<RESULT_TYPE> result = new ArrayList<RESULT_TYPE>(processResults(infos, patternAndQuery.first, maxResult));
+    List<RESULT_TYPE> result = new ArrayList<RESULT_TYPE>(processResults(patternAndInfos.second, patternAndInfos.first, maxResult));
     sort(result);
     return result;
   }
 
-  protected abstract Pair<String, Query> preparePatternAndQuery(String pattern);
+  /**
+   * @return the pattern prepared for {@link #processResults} and the found artifacts
+   */
+  protected abstract Pair<String, Set<MavenArtifactInfo>> searchInfos(MavenProjectIndicesManager m, String pattern, int maxResult);
 
   protected abstract Collection<RESULT_TYPE> processResults(Set<MavenArtifactInfo> infos, String pattern, int maxResult);
 
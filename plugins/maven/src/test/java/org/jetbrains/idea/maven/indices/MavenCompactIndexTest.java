@@ -0,0 +1,127 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.idea.maven.indices;
+
+import org.jetbrains.idea.maven.MavenTestCase;
+import org.jetbrains.idea.maven.model.MavenId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+public class MavenCompactIndexTest extends MavenTestCase {
+  private MavenCompactIndex myIndex;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myIndex = new MavenCompactIndex(myDir);
+
+    Map<String, Map<String, Set<String>>> coordinates = new HashMap<String, Map<String, Set<String>>>();
+    put(coordinates, "junit", "junit", "3.8.1", "3.8.2", "4.0");
+    put(coordinates, "jmock", "jmock", "1.0.0", "1.1.0", "1.2.0");
+    put(coordinates, "org.springframework.boot", "spring-boot-starter", "1.0");
+    myIndex.set(coordinates);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myIndex.close();
+    super.tearDown();
+  }
+
+  public void testGettingCoordinates() throws Exception {
+    assertUnorderedElementsAreEqual(myIndex.getGroupIds(), "junit", "jmock", "org.springframework.boot");
+    assertUnorderedElementsAreEqual(myIndex.getArtifactIds("junit"), "junit");
+    assertUnorderedElementsAreEqual(myIndex.getArtifactIds("unknown"));
+    assertUnorderedElementsAreEqual(myIndex.getVersions("junit", "junit"), "3.8.1", "3.8.2", "4.0");
+    assertUnorderedElementsAreEqual(myIndex.getVersions("junit", "jmock"));
+
+    assertTrue(myIndex.hasGroupId("junit"));
+    assertFalse(myIndex.hasGroupId("jun"));
+    assertTrue(myIndex.hasArtifactId("jmock", "jmock"));
+    assertFalse(myIndex.hasArtifactId("junit", "jmock"));
+    assertTrue(myIndex.hasVersion("junit", "junit", "3.8.2"));
+    assertFalse(myIndex.hasVersion("junit", "junit", "3.8"));
+  }
+
+  public void testAddingArtifactsAfterReopening() throws Exception {
+    myIndex.add("junit", "junit", "4.5");
+    myIndex.add("foo", "bar", "1.0");
+
+    myIndex.close();
+    myIndex = new MavenCompactIndex(myDir);
+
+    assertUnorderedElementsAreEqual(myIndex.getGroupIds(), "junit", "jmock", "org.springframework.boot", "foo");
+    assertUnorderedElementsAreEqual(myIndex.getVersions("junit", "junit"), "3.8.1", "3.8.2", "4.0", "4.5");
+    assertTrue(myIndex.hasVersion("foo", "bar", "1.0"));
+    assertSearchResults("junit 4", "junit:junit:4.0", "junit:junit:4.5");
+  }
+
+  public void testSearching() throws Exception {
+    assertSearchResults("j *1*", "jmock:jmock:1.0.0", "jmock:jmock:1.1.0", "jmock:jmock:1.2.0", "junit:junit:3.8.1");
+    assertSearchResults("uni 3.", "junit:junit:3.8.1", "junit:junit:3.8.2");
+    assertSearchResults("JUnit:junit:4.0", "junit:junit:4.0");
+    assertSearchResults("j?nit:junit:4", "junit:junit:4.0");
+    assertSearchResults("junit foo");
+
+    // word starts
+    assertSearchResults("sbs", "org.springframework.boot:spring-boot-starter:1.0");
+    assertSearchResults("osb:sbstart", "org.springframework.boot:spring-boot-starter:1.0");
+    assertSearchResults("sbx");
+  }
+
+  public void testDamagedFile() throws Exception {
+    myIndex.close();
+
+    RandomAccessFile file = new RandomAccessFile(new File(myDir, MavenCompactIndex.COORDINATES_FILE), "rw");
+    try {
+      file.setLength(file.length() / 2);
+    }
+    finally {
+      file.close();
+    }
+
+    try {
+      myIndex = new MavenCompactIndex(myDir);
+      fail();
+    }
+    catch (IOException ignored) {
+    }
+    myIndex = new MavenCompactIndex(new File(myDir, "empty"));
+  }
+
+  private void assertSearchResults(String pattern, String... expected) {
+    List<MavenId> ids = new ArrayList<MavenId>();
+    myIndex.search(MavenArtifactSearcher.createFilter(pattern), 100, ids);
+
+    List<String> actual = new ArrayList<String>();
+    for (MavenId each : ids) {
+      actual.add(each.getGroupId() + ":" + each.getArtifactId() + ":" + each.getVersion());
+    }
+    assertUnorderedElementsAreEqual(actual, expected);
+  }
+
+  private static void put(Map<String, Map<String, Set<String>>> coordinates, String groupId, String artifactId, String... versions) {
+    Map<String, Set<String>> artifacts = coordinates.get(groupId);
+    if (artifacts == null) {
+      artifacts = new HashMap<String, Set<String>>();
+      coordinates.put(groupId, artifacts);
+    }
+    artifacts.put(artifactId, new HashSet<String>(Arrays.asList(versions)));
+  }
+}